@@ -0,0 +1,75 @@
+package com.newsblur.benchmark
+
+import androidx.benchmark.macro.*
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.uiautomator.By
+import androidx.test.uiautomator.Direction
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * This is a scrolling benchmark for the story list.
+ *
+ * It opens All Stories and flings the list down and back up, measuring frame timing for jank,
+ * along with how many thumbnails were decoded and how many of those decodes finished after
+ * their row had already been recycled ("ThumbnailDecodeWasted").
+ */
+
+/**
+ * Runs in its own process
+ */
+@OptIn(ExperimentalMetricApi::class)
+@RunWith(AndroidJUnit4::class)
+class StoryListScrollBenchmark {
+    @get:Rule
+    val benchmarkRule = MacrobenchmarkRule()
+
+    private val setupUsername = "android_speed"
+    private val setupPass = "newsblur"
+    private val packageName = "com.newsblur"
+    private val iterations = 5
+
+    @Test
+    fun flingStoryList() {
+        var needsInitSetup = true
+        benchmarkRule.measureRepeated(
+                packageName = packageName,
+                metrics = listOf(
+                        FrameTimingMetric(),
+                        TraceSectionMetric("ThumbnailDecode", TraceSectionMetric.Mode.Sum),
+                        TraceSectionMetric("ThumbnailDecodeWasted", TraceSectionMetric.Mode.Sum),
+                ),
+                iterations = iterations,
+                startupMode = StartupMode.WARM,
+                compilationMode = CompilationMode.DEFAULT,
+                setupBlock = {
+                    pressHome()
+                    startActivityAndWait()
+                    if (needsInitSetup) {
+                        inputIntoLabel("username", setupUsername)
+                        inputIntoLabel("password", setupPass)
+                        needsInitSetup = false
+                        clickOnText("LOGIN")
+                    }
+                    waitLongForTextShown("Android Authority")
+                    clickOnText("All Stories")
+                    waitForTextShown("All Stories")
+                },
+                measureBlock = {
+                    val list = device.findObject(By.res(packageName, "itemgridfragment_grid"))
+                    // keep clear of the edges, which start system gestures
+                    list.setGestureMargin(device.displayWidth / 5)
+                    repeat(3) {
+                        list.fling(Direction.DOWN)
+                        device.waitForIdle()
+                    }
+                    repeat(3) {
+                        list.fling(Direction.UP)
+                        device.waitForIdle()
+                    }
+                },
+        )
+    }
+}
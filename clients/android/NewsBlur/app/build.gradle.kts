@@ -48,6 +48,10 @@ android {
         viewBinding = true
         buildConfig = true
     }
+    sourceSets {
+        // the JSON fixtures are shared with the on-device benchmarks
+        getByName("androidTest").resources.srcDir("src/test/resources")
+    }
 }
 
 dependencies {
@@ -0,0 +1,68 @@
+package com.newsblur
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.newsblur.database.FolderTree
+import com.newsblur.domain.Folder
+import com.newsblur.util.AppConstants
+import com.newsblur.util.FeedListOrder
+import com.newsblur.util.StateFilter
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.system.measureTimeMillis
+
+/**
+ * Times the unread count ticks a large account sends through the folder tree while syncing,
+ * each of which should only update counts in place.
+ */
+@RunWith(AndroidJUnit4::class)
+class FolderTreeBenchmarkTest {
+
+    private fun FolderTree.applyCounts(feedCount: Int, neut: (Int) -> Int) {
+        beginFeeds()
+        for (i in 0 until feedCount) {
+            val node = beginFeed("$i")
+            node.feed.title = "Feed $i"
+            node.feed.neutralCount = neut(i)
+            node.feed.active = true
+            endFeed(node)
+        }
+        endFeeds()
+    }
+
+    private fun FolderTree.refresh() = refresh(StateFilter.SOME, null, emptySet(), null, null, FeedListOrder.ALPHABETICAL)
+
+    @Test
+    fun countTicksOnLargeAccounts() {
+        val feedCount = 2000
+        val folderCount = 50
+        val folders = mutableListOf(Folder().apply {
+            name = AppConstants.ROOT_FOLDER
+            parents = emptyList()
+            children = (0 until folderCount).map { "Folder $it" }
+            feedIds = emptyList()
+        })
+        for (f in 0 until folderCount) {
+            folders.add(Folder().apply {
+                name = "Folder $f"
+                parents = listOf(AppConstants.ROOT_FOLDER)
+                children = emptyList()
+                feedIds = (f until feedCount step folderCount).map { "$it" }
+            })
+        }
+        val tree = FolderTree()
+        tree.setFolders(folders)
+        tree.applyCounts(feedCount) { 1 }
+        tree.refresh()
+
+        var ticks = 0
+        val millis = measureTimeMillis {
+            for (tick in 1..200) {
+                tree.applyCounts(feedCount) { 1 + (tick + it) % 3 }
+                if (tree.refresh() == FolderTree.Change.COUNTS) ticks++
+            }
+        }
+        println("200 count ticks over $feedCount feeds in $millis millis")
+        Assert.assertEquals(200, ticks)
+    }
+}
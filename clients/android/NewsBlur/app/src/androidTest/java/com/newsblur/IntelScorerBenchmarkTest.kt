@@ -0,0 +1,45 @@
+package com.newsblur
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.newsblur.domain.Classifier
+import com.newsblur.util.IntelScorer
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+import kotlin.system.measureTimeMillis
+
+/**
+ * Times re-scoring a feed's worth of stored stories against a large trained classifier, as
+ * happens when a feed is trained.
+ */
+@RunWith(AndroidJUnit4::class)
+class IntelScorerBenchmarkTest {
+
+    @Test
+    fun rescoreTwentyThousandStories() {
+        val random = Random(7)
+        val words = List(2000) { "word$it" }
+        val classifier = Classifier()
+        repeat(100) { classifier.authors["Author ${random.nextInt(500)}"] = if (random.nextBoolean()) Classifier.LIKE else Classifier.DISLIKE }
+        repeat(200) { classifier.title[words[random.nextInt(words.size)]] = if (random.nextBoolean()) Classifier.LIKE else Classifier.DISLIKE }
+        repeat(100) { classifier.tags[words[random.nextInt(words.size)]] = if (random.nextBoolean()) Classifier.LIKE else Classifier.DISLIKE }
+        classifier.feeds["1"] = Classifier.LIKE
+        val ruleCount = classifier.authors.size + classifier.title.size + classifier.tags.size
+
+        val storyAuthors = Array(20000) { "Author ${random.nextInt(500)}" }
+        val storyTitles = Array(20000) { (1..10).joinToString(" ") { words[random.nextInt(words.size)] } }
+        val storyTags = Array(20000) { Array(4) { words[random.nextInt(words.size)] } }
+
+        var changed = 0
+        val millis = measureTimeMillis {
+            val scorer = IntelScorer(classifier)
+            for (i in 0 until 20000) {
+                val intel = scorer.score((i % 3).toString(), storyAuthors[i], storyTitles[i], storyTags[i])
+                if (intel.calcTotalIntel() != 0) changed++
+            }
+        }
+        println("rescoreTwentyThousandStories against $ruleCount rules took $millis millis")
+        Assert.assertTrue(changed > 0)
+    }
+}
@@ -0,0 +1,39 @@
+package com.newsblur
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.newsblur.database.DatabaseConstants
+import com.newsblur.util.ReadingAction
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.system.measureTimeMillis
+
+/**
+ * Compares thawing queued reading actions from JSON against the compact binary codec, as the
+ * sync service does for every action it replays.
+ */
+@RunWith(AndroidJUnit4::class)
+class ReadingActionCodecBenchmarkTest {
+
+    @Test
+    fun thawTenThousandActions() {
+        val actions = List(10000) { ReadingAction.markStoryRead("${it % 500}:${it.toString(16).padStart(6, '0')}") }
+        val frozenJson = actions.map { DatabaseConstants.JsonHelper.toJson(it) }
+        val frozenBinary = actions.map { ReadingAction.Codec.encode(it) }
+
+        // warm up both paths before timing them
+        repeat(2) {
+            for (json in frozenJson) DatabaseConstants.JsonHelper.fromJson(json, ReadingAction::class.java)
+            for (data in frozenBinary) ReadingAction.Codec.decode(data)
+        }
+        val jsonMillis = measureTimeMillis {
+            for (json in frozenJson) DatabaseConstants.JsonHelper.fromJson(json, ReadingAction::class.java)
+        }
+        val binaryMillis = measureTimeMillis {
+            for (data in frozenBinary) ReadingAction.Codec.decode(data)
+        }
+        println("thaw 10000 actions: json $jsonMillis millis (${frozenJson.sumOf { it.length }}B), binary $binaryMillis millis (${frozenBinary.sumOf { it.size }}B)")
+        val last = ReadingAction.Codec.decode(frozenBinary.last())
+        Assert.assertEquals(frozenJson.last(), DatabaseConstants.JsonHelper.toJson(last))
+    }
+}
@@ -0,0 +1,44 @@
+package com.newsblur
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.newsblur.util.StoryContentCodec
+import com.newsblur.util.StoryUtil
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.system.measureNanoTime
+
+/**
+ * Compares opening the long story content fixture, as capped at ingestion, when it is stored
+ * packed by [StoryContentCodec] against when it is stored as plain UTF-8.
+ */
+@RunWith(AndroidJUnit4::class)
+class StoryContentCodecBenchmarkTest {
+
+    // joined line by line, as the unit tests' ResourceUtil reads it
+    private fun readFixture(name: String): String =
+            javaClass.getResource("/$name")!!.openStream().bufferedReader().useLines { it.joinToString("") }
+
+    // the same fixture whose packed size the unit tests check, capped as it is at ingestion
+    private val content = StoryUtil.truncateContent(readFixture("longContent.json"))
+
+    private fun bestOf(runs: Int, block: () -> Unit): Long = (1..runs).minOf { measureNanoTime(block) }
+
+    @Test
+    fun openLongContent() {
+        val plain = content.encodeToByteArray()
+        val packed = StoryContentCodec.encode(content)
+        // warm up both paths so the JIT isn't being measured
+        repeat(20) {
+            StoryContentCodec.encode(content)
+            StoryContentCodec.decode(packed)
+            String(plain, Charsets.UTF_8)
+        }
+        val plainOpen = bestOf(10) { String(plain, Charsets.UTF_8) }
+        val packedOpen = bestOf(10) { StoryContentCodec.decode(packed) }
+        val pack = bestOf(10) { StoryContentCodec.encode(content) }
+        println("openLongContent ${plain.size} bytes packed to ${packed.size} bytes; " +
+                "open took ${packedOpen / 1000} micros packed vs ${plainOpen / 1000} micros plain, packing took ${pack / 1000} micros")
+        Assert.assertEquals(content, StoryContentCodec.decode(packed))
+    }
+}
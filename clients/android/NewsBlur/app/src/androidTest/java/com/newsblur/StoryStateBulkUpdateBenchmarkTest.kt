@@ -0,0 +1,100 @@
+package com.newsblur
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.newsblur.database.DatabaseConstants
+import com.newsblur.database.StoryStateBulkUpdate
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.system.measureTimeMillis
+
+/**
+ * Compares marking many stories read one UPDATE at a time against the staged, set-based
+ * [StoryStateBulkUpdate], on account sizes seen after a long time offline.
+ */
+@RunWith(AndroidJUnit4::class)
+class StoryStateBulkUpdateBenchmarkTest {
+
+    private fun storyDb(storyCount: Int): SQLiteDatabase {
+        val db = SQLiteDatabase.create(null)
+        db.execSQL("CREATE TABLE ${DatabaseConstants.STORY_TABLE} (" +
+                "${DatabaseConstants.STORY_HASH} TEXT PRIMARY KEY, " +
+                "${DatabaseConstants.STORY_FEED_ID} INTEGER, " +
+                "${DatabaseConstants.STORY_INTELLIGENCE_TOTAL} INTEGER, " +
+                "${DatabaseConstants.STORY_READ} INTEGER, " +
+                "${DatabaseConstants.STORY_STARRED} INTEGER)")
+        db.beginTransaction()
+        try {
+            val insert = db.compileStatement("INSERT INTO ${DatabaseConstants.STORY_TABLE} VALUES (?, ?, ?, 0, 0)")
+            for (i in 0 until storyCount) {
+                insert.bindString(1, hash(i))
+                insert.bindLong(2, (i % 200).toLong())
+                insert.bindLong(3, (i % 3 - 1).toLong())
+                insert.executeInsert()
+            }
+            insert.close()
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        return db
+    }
+
+    private fun hash(i: Int) = "${i % 200}:${Integer.toHexString(i * 7919)}"
+
+    private fun readCount(db: SQLiteDatabase): Long =
+            db.compileStatement("SELECT COUNT(*) FROM ${DatabaseConstants.STORY_TABLE} WHERE ${DatabaseConstants.STORY_READ} = 1").simpleQueryForLong()
+
+    private fun benchmark(storyCount: Int) {
+        // every other story gets retired, plus some hashes the DB never had
+        val hashes = (0 until storyCount step 2).map { hash(it) } + (0 until 1000).map { "missing:$it" }
+
+        val perStoryDb = storyDb(storyCount)
+        val perStoryMillis = measureTimeMillis {
+            perStoryDb.beginTransaction()
+            try {
+                val values = ContentValues()
+                values.put(DatabaseConstants.STORY_READ, true)
+                for (hash in hashes) {
+                    perStoryDb.update(DatabaseConstants.STORY_TABLE, values, "${DatabaseConstants.STORY_HASH} = ?", arrayOf(hash))
+                }
+                perStoryDb.setTransactionSuccessful()
+            } finally {
+                perStoryDb.endTransaction()
+            }
+        }
+
+        val bulkDb = storyDb(storyCount)
+        val bulkMillis = measureTimeMillis {
+            bulkDb.beginTransaction()
+            try {
+                val deltas = StoryStateBulkUpdate.apply(bulkDb, hashes, DatabaseConstants.STORY_READ, true)
+                bulkDb.setTransactionSuccessful()
+                Assert.assertEquals(storyCount / 2, deltas.total)
+                Assert.assertEquals(100, deltas.feedIds.size)
+            } finally {
+                bulkDb.endTransaction()
+            }
+        }
+        println("mark $storyCount stories read: one by one took $perStoryMillis ms, bulk took $bulkMillis ms")
+
+        Assert.assertEquals(readCount(perStoryDb), readCount(bulkDb))
+        // nothing left to change the second time around
+        bulkDb.beginTransaction()
+        try {
+            Assert.assertEquals(0, StoryStateBulkUpdate.apply(bulkDb, hashes, DatabaseConstants.STORY_READ, true).total)
+        } finally {
+            bulkDb.endTransaction()
+        }
+        perStoryDb.close()
+        bulkDb.close()
+    }
+
+    @Test
+    fun markRead10k() = benchmark(10_000)
+
+    @Test
+    fun markRead50k() = benchmark(50_000)
+}
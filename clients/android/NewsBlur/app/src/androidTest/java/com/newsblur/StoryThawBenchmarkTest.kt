@@ -0,0 +1,108 @@
+package com.newsblur
+
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.newsblur.database.DatabaseConstants
+import com.newsblur.domain.Story
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.system.measureNanoTime
+
+/**
+ * Compares thawing a story list cursor a row at a time via [Story.fromCursor], which looks up
+ * every column index per row and splits all joined fields, against a per-cursor
+ * [Story.CursorMapper] with the list projection.
+ */
+@RunWith(AndroidJUnit4::class)
+class StoryThawBenchmarkTest {
+
+    private val columns = arrayOf(
+            DatabaseConstants.STORY_AUTHORS, DatabaseConstants.STORY_SHORT_CONTENT, DatabaseConstants.STORY_TITLE,
+            DatabaseConstants.STORY_TIMESTAMP, DatabaseConstants.STORY_SOCIAL_USER_ID, DatabaseConstants.STORY_SOURCE_USER_ID,
+            DatabaseConstants.STORY_PERMALINK, DatabaseConstants.STORY_SHARED_USER_IDS, DatabaseConstants.STORY_FRIEND_USER_IDS,
+            DatabaseConstants.STORY_INTELLIGENCE_AUTHORS, DatabaseConstants.STORY_INTELLIGENCE_FEED,
+            DatabaseConstants.STORY_INTELLIGENCE_TAGS, DatabaseConstants.STORY_INTELLIGENCE_TITLE, DatabaseConstants.STORY_READ,
+            DatabaseConstants.STORY_STARRED, DatabaseConstants.STORY_STARRED_DATE, DatabaseConstants.STORY_TAGS,
+            DatabaseConstants.STORY_USER_TAGS, DatabaseConstants.STORY_FEED_ID, DatabaseConstants.STORY_ID,
+            DatabaseConstants.STORY_HASH, DatabaseConstants.STORY_LAST_READ_DATE, DatabaseConstants.STORY_SHARED_DATE,
+            DatabaseConstants.STORY_THUMBNAIL_URL, DatabaseConstants.STORY_HAS_MODIFICATIONS,
+    )
+
+    private fun row(i: Int): Array<Any?> = arrayOf(
+            "Author $i", "Short content for story $i", "Story title $i",
+            1_700_000_000_000L - i * 60_000L, "", "",
+            "https://example.com/story/$i", "101,102,103", "201,202",
+            0, 1, 0, -1, i % 2,
+            0, 0L, "android,kotlin,performance,sqlite",
+            "", "${i % 50}", "story-id-$i",
+            "${i % 50}:${i.toString(16)}", 0L, 0L,
+            "https://example.com/thumb/$i.jpg", 0,
+    )
+
+    private fun storyDb(storyCount: Int): SQLiteDatabase {
+        val db = SQLiteDatabase.create(null)
+        db.execSQL("CREATE TABLE ${DatabaseConstants.STORY_TABLE} (${columns.joinToString(", ")})")
+        db.beginTransaction()
+        try {
+            val insert = db.compileStatement("INSERT INTO ${DatabaseConstants.STORY_TABLE} VALUES (${columns.joinToString(", ") { "?" }})")
+            for (i in 0 until storyCount) {
+                row(i).forEachIndexed { index, value ->
+                    when (value) {
+                        is String -> insert.bindString(index + 1, value)
+                        is Number -> insert.bindLong(index + 1, value.toLong())
+                        else -> insert.bindNull(index + 1)
+                    }
+                }
+                insert.executeInsert()
+            }
+            insert.close()
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        return db
+    }
+
+    private fun thawPerRow(cursor: Cursor): List<Story> {
+        val stories = ArrayList<Story>(cursor.count)
+        cursor.moveToPosition(-1)
+        while (cursor.moveToNext()) stories.add(Story.fromCursor(cursor))
+        return stories
+    }
+
+    private fun thawMapped(cursor: Cursor): List<Story> {
+        val stories = ArrayList<Story>(cursor.count)
+        cursor.moveToPosition(-1)
+        val mapper = Story.CursorMapper(cursor, true)
+        while (cursor.moveToNext()) stories.add(mapper.fromCursor(cursor))
+        return stories
+    }
+
+    private fun bestOf(runs: Int, block: () -> Unit): Long = (1..runs).minOf { measureNanoTime(block) }
+
+    @Test
+    fun thawTwoThousandRows() {
+        val db = storyDb(2000)
+        val cursor = db.rawQuery("SELECT * FROM ${DatabaseConstants.STORY_TABLE}", null)
+        // fill the cursor window and warm up both paths so neither is measured doing that
+        repeat(5) {
+            thawPerRow(cursor)
+            thawMapped(cursor)
+        }
+        val perRow = bestOf(10) { thawPerRow(cursor) }
+        val mapped = bestOf(10) { thawMapped(cursor) }
+        println("thawTwoThousandRows per-row fromCursor took ${perRow / 1000} micros, list-projection mapper took ${mapped / 1000} micros")
+
+        val full = thawPerRow(cursor)
+        val listed = thawMapped(cursor)
+        Assert.assertEquals(2000, listed.size)
+        for (i in full.indices) {
+            Assert.assertEquals(full[i].storyHash, listed[i].storyHash)
+            Assert.assertArrayEquals(full[i].tags, listed[i].tags)
+        }
+        cursor.close()
+        db.close()
+    }
+}
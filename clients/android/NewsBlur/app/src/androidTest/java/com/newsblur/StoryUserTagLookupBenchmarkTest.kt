@@ -0,0 +1,92 @@
+package com.newsblur
+
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.newsblur.database.DatabaseConstants
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.system.measureTimeMillis
+
+/**
+ * Compares finding the saved stories with a user tag by matching the flattened tag column
+ * against looking them up in the indexed story to user tag map.
+ */
+@RunWith(AndroidJUnit4::class)
+class StoryUserTagLookupBenchmarkTest {
+
+    private val tags = (0 until 200).map { "tag$it" }
+
+    private fun tagsOf(i: Int) = listOf(tags[i % tags.size], tags[(i * 7) % tags.size])
+
+    private fun savedStoryDb(storyCount: Int): SQLiteDatabase {
+        val db = SQLiteDatabase.create(null)
+        db.execSQL("CREATE TABLE ${DatabaseConstants.STORY_TABLE} (" +
+                "${DatabaseConstants.STORY_HASH} TEXT PRIMARY KEY, " +
+                "${DatabaseConstants.STORY_STARRED} INTEGER, " +
+                "${DatabaseConstants.STORY_USER_TAGS} TEXT)")
+        db.execSQL("CREATE TABLE ${DatabaseConstants.STORY_USER_TAG_MAP_TABLE} (" +
+                "${DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH} TEXT NOT NULL, " +
+                "${DatabaseConstants.STORY_USER_TAG_MAP_TAG} TEXT NOT NULL, " +
+                "PRIMARY KEY (${DatabaseConstants.STORY_USER_TAG_MAP_TAG}, ${DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH}))")
+        db.beginTransaction()
+        try {
+            val story = db.compileStatement("INSERT INTO ${DatabaseConstants.STORY_TABLE} VALUES (?, 1, ?)")
+            val tag = db.compileStatement("INSERT INTO ${DatabaseConstants.STORY_USER_TAG_MAP_TABLE} VALUES (?, ?)")
+            for (i in 0 until storyCount) {
+                val hash = "${i % 200}:${Integer.toHexString(i * 7919)}"
+                story.bindString(1, hash)
+                story.bindString(2, tagsOf(i).distinct().joinToString(","))
+                story.executeInsert()
+                for (t in tagsOf(i).distinct()) {
+                    tag.bindString(1, hash)
+                    tag.bindString(2, t)
+                    tag.executeInsert()
+                }
+            }
+            story.close()
+            tag.close()
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        return db
+    }
+
+    private fun count(db: SQLiteDatabase, sql: String, arg: String): Long {
+        val statement = db.compileStatement(sql)
+        statement.bindString(1, arg)
+        return statement.simpleQueryForLong().also { statement.close() }
+    }
+
+    private fun benchmark(storyCount: Int) {
+        val db = savedStoryDb(storyCount)
+        // "tag1" is also a substring of "tag10" to "tag199", which the flattened match can't tell apart
+        val wanted = "tag1"
+        val expected = (0 until storyCount).count { wanted in tagsOf(it) }.toLong()
+
+        var likeCount = 0L
+        val likeMillis = measureTimeMillis {
+            likeCount = count(db, "SELECT COUNT(*) FROM ${DatabaseConstants.STORY_TABLE}" +
+                    " WHERE ${DatabaseConstants.STORY_STARRED} = 1 AND ${DatabaseConstants.STORY_USER_TAGS} LIKE ?", "%$wanted%")
+        }
+        var mapCount = 0L
+        val mapMillis = measureTimeMillis {
+            mapCount = count(db, "SELECT COUNT(*) FROM ${DatabaseConstants.STORY_TABLE}" +
+                    " WHERE ${DatabaseConstants.STORY_STARRED} = 1 AND ${DatabaseConstants.STORY_HASH} IN" +
+                    " (SELECT ${DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH} FROM ${DatabaseConstants.STORY_USER_TAG_MAP_TABLE}" +
+                    " WHERE ${DatabaseConstants.STORY_USER_TAG_MAP_TAG} = ?)", wanted)
+        }
+        println("find $storyCount saved stories by tag: LIKE took $likeMillis ms, tag map took $mapMillis ms")
+
+        Assert.assertEquals(expected, mapCount)
+        Assert.assertTrue(likeCount > mapCount)
+        db.close()
+    }
+
+    @Test
+    fun lookup10k() = benchmark(10_000)
+
+    @Test
+    fun lookup50k() = benchmark(50_000)
+}
@@ -0,0 +1,82 @@
+package com.newsblur.database
+
+import android.database.sqlite.SQLiteCursor
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.newsblur.domain.Comment
+import com.newsblur.domain.Reply
+import com.newsblur.domain.UserProfile
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.Date
+
+/**
+ * Counts the queries the real comment thread lookups make, by way of a cursor factory on an
+ * in-memory DB with the real schema.  However large the thread, that is one for the comments,
+ * one for the replies and one per chunk of user IDs.  Lives in the database package to build the
+ * real schema.
+ */
+@RunWith(AndroidJUnit4::class)
+class CommentThreadQueryTest {
+
+    private var queries = 0
+
+    private fun threadDb(commentCount: Int, userCount: Int): SQLiteDatabase {
+        val db = SQLiteDatabase.create { _, masterQuery, editTable, query ->
+            queries++
+            SQLiteCursor(masterQuery, editTable, query)
+        }
+        for (sql in listOf(DatabaseConstants.COMMENT_SQL, DatabaseConstants.REPLY_SQL, DatabaseConstants.USER_SQL)) {
+            db.execSQL(sql)
+        }
+        val writer = StoryPageWriter(db)
+        db.beginTransaction()
+        try {
+            for (i in 0 until userCount) {
+                writer.putUser(UserProfile().apply {
+                    userId = "$i"
+                    username = "user$i"
+                })
+            }
+            for (i in 0 until commentCount) {
+                writer.putComment(Comment().apply {
+                    id = "c$i"
+                    storyId = "story"
+                    userId = "${i % userCount}"
+                    commentText = "comment $i"
+                    // every user likes some comment, so the thread refers to all of them
+                    likingUsers = Array(userCount / commentCount + 1) { "${(i * (userCount / commentCount + 1) + it) % userCount}" }
+                    replies = Array(3) { j ->
+                        Reply().apply {
+                            id = "c${i}r$j"
+                            userId = "${(i + j) % userCount}"
+                            text = "reply $j"
+                            date = Date()
+                        }
+                    }
+                })
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        writer.close()
+        return db
+    }
+
+    @Test
+    fun queryCountGrowsOnlyWithUserChunks() {
+        for (userCount in listOf(10, 500, 501, 1200)) {
+            val db = threadDb(commentCount = 50, userCount = userCount)
+            queries = 0
+            val thread = CommentThreadLoader(db).load("story", null, true)
+            val userChunks = (userCount + BlurDatabaseHelper.HASHES_PER_QUERY - 1) / BlurDatabaseHelper.HASHES_PER_QUERY
+            Assert.assertEquals(2 + userChunks, queries)
+            Assert.assertEquals(50, thread.comments.size)
+            for (i in 0 until userCount) Assert.assertNotNull(thread.getProfile("$i"))
+            Assert.assertEquals(3, thread.getReplies("c0").size)
+            db.close()
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.newsblur.database
+
+import android.content.ContentValues
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import com.google.gson.reflect.TypeToken
+import com.newsblur.domain.Classifier
+import com.newsblur.domain.Comment
+import com.newsblur.domain.Story
+import com.newsblur.network.domain.StoriesResponse
+import com.newsblur.serialization.BooleanTypeAdapter
+import com.newsblur.serialization.ClassifierMapTypeAdapter
+import com.newsblur.serialization.DateStringTypeAdapter
+import com.newsblur.serialization.StoriesResponseTypeAdapter
+import com.newsblur.serialization.StoryTypeAdapter
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.Date
+import kotlin.system.measureTimeMillis
+
+/**
+ * Compares storing pages of stories a ContentValues row at a time against the compiled,
+ * positionally bound [StoryPageWriter], with story content taken from the JSON fixtures shared
+ * with the unit tests.  Lives in the database package to build the real schema.
+ */
+@RunWith(AndroidJUnit4::class)
+class StoryPageInsertBenchmarkTest {
+
+    private val gson: Gson = GsonBuilder().apply {
+        registerTypeAdapter(Date::class.java, DateStringTypeAdapter())
+        registerTypeAdapter(Boolean::class.java, BooleanTypeAdapter())
+        registerTypeAdapter(Boolean::class.javaPrimitiveType, BooleanTypeAdapter())
+        registerTypeAdapter(Story::class.java, StoryTypeAdapter())
+        registerTypeAdapter(StoriesResponse::class.java, StoriesResponseTypeAdapter())
+        registerTypeAdapter(object : TypeToken<Map<String?, Classifier?>?>() {}.type, ClassifierMapTypeAdapter())
+    }.create()
+
+    private fun readFixture(name: String): String =
+            javaClass.getResource("/$name")!!.openStream().bufferedReader().use { it.readText() }
+
+    private fun storyDb(): SQLiteDatabase {
+        val db = SQLiteDatabase.create(null)
+        for (sql in listOf(DatabaseConstants.STORY_SQL, DatabaseConstants.USER_SQL, DatabaseConstants.COMMENT_SQL,
+                DatabaseConstants.REPLY_SQL, DatabaseConstants.STORY_REVISION_SQL, DatabaseConstants.STORY_USER_TAG_MAP_SQL,
+                DatabaseConstants.STORY_USER_TAG_MAP_INDEX_SQL, DatabaseConstants.CLASSIFIER_SQL,
+                DatabaseConstants.SOCIALFEED_STORIES_SQL)) {
+            db.execSQL(sql)
+        }
+        return db
+    }
+
+    /**
+     * A page as the API would send it for one feed: stories with tags and comments, the
+     * profiles of the commenters and the feed's classifiers.
+     */
+    private fun pageJson(page: Int, storiesPerPage: Int, content: String): String {
+        val feedId = 100 + page % 5
+        val stories = JSONArray()
+        for (i in 0 until storiesPerPage) {
+            val n = page * storiesPerPage + i
+            val comments = JSONArray()
+            for (c in 0 until 2) {
+                val replies = JSONArray()
+                for (r in 0 until 2) {
+                    replies.put(JSONObject()
+                            .put("reply_id", "reply$n-$c-$r")
+                            .put("user_id", "${r + 2}")
+                            .put("publish_date", "1 hour ago")
+                            .put("comments", "a reply")
+                            .put("date", "2023-10-30 12:00:00"))
+                }
+                comments.put(JSONObject()
+                        .put("id", "comment$n-$c")
+                        .put("user_id", "$c")
+                        .put("comments", "a comment on story $n")
+                        .put("shared_date", "2 hours ago")
+                        .put("date", "2023-10-30 11:00:00")
+                        .put("liking_users", JSONArray().put("3").put("4"))
+                        .put("replies", replies))
+            }
+            stories.put(JSONObject()
+                    .put("id", "https://example.com/story/$n")
+                    .put("story_hash", "$feedId:${Integer.toHexString(n * 7919)}")
+                    .put("story_feed_id", "$feedId")
+                    .put("story_title", "Story $n")
+                    .put("story_authors", "Author ${n % 7}")
+                    .put("story_permalink", "https://example.com/story/$n")
+                    .put("story_timestamp", 1698660000L + n)
+                    .put("story_content", content)
+                    .put("story_tags", JSONArray().put("news").put("tag${n % 11}").put("tag${n % 13}"))
+                    .put("share_user_ids", JSONArray().put("1"))
+                    .put("read_status", 0)
+                    .put("intelligence", JSONObject().put("feed", 0).put("author", n % 3 - 1).put("tags", 0).put("title", 0))
+                    .put("image_urls", JSONArray().put("https://example.com/img/$n.jpg"))
+                    .put("public_comments", comments))
+        }
+        val users = JSONArray()
+        for (u in 0 until 5) {
+            users.put(JSONObject()
+                    .put("user_id", "$u")
+                    .put("username", "user$u")
+                    .put("photo_url", "https://example.com/photo/$u.jpg"))
+        }
+        val classifiers = JSONObject().put("$feedId", JSONObject()
+                .put("authors", JSONObject().put("Author 1", 1).put("Author 2", -1))
+                .put("titles", JSONObject().put("sponsored", -1))
+                .put("tags", JSONObject().put("news", 1))
+                .put("feeds", JSONObject().put("$feedId", 0)))
+        return JSONObject()
+                .put("stories", stories)
+                .put("user_profiles", users)
+                .put("classifiers", classifiers)
+                .toString()
+    }
+
+    // how pages were stored before StoryPageWriter: a ContentValues and insertWithOnConflict() per row
+    private fun insertWithContentValues(db: SQLiteDatabase, page: StoriesResponse) {
+        for (user in page.users) {
+            db.insertWithOnConflict(DatabaseConstants.USER_TABLE, null, user.values, SQLiteDatabase.CONFLICT_REPLACE)
+        }
+        for (story in page.stories) {
+            val values = story.values
+            db.insertWithOnConflict(DatabaseConstants.STORY_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+            putUserTagMap(db, story.storyHash, if (story.starred) story.userTags else null)
+            for (sharedUserId in story.sharedUserIds) {
+                val socialValues = ContentValues()
+                socialValues.put(DatabaseConstants.SOCIALFEED_STORY_USER_ID, sharedUserId)
+                socialValues.put(DatabaseConstants.SOCIALFEED_STORY_STORYID, story.id)
+                db.insertWithOnConflict(DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE, null, socialValues, SQLiteDatabase.CONFLICT_REPLACE)
+            }
+            for (comment in story.publicComments) {
+                comment.storyId = story.id
+                insertComment(db, comment)
+            }
+        }
+        for ((feedId, classifier) in page.classifiers) {
+            val classifierValues = classifier.contentValues
+            for (values in classifierValues) values.put(DatabaseConstants.CLASSIFIER_ID, feedId)
+            db.delete(DatabaseConstants.CLASSIFIER_TABLE, "${DatabaseConstants.CLASSIFIER_ID} = ?", arrayOf(feedId))
+            for (values in classifierValues) {
+                db.insertWithOnConflict(DatabaseConstants.CLASSIFIER_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+            }
+        }
+    }
+
+    private fun putUserTagMap(db: SQLiteDatabase, hash: String, tags: Array<String>?) {
+        db.delete(DatabaseConstants.STORY_USER_TAG_MAP_TABLE, "${DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH} = ?", arrayOf(hash))
+        val values = ContentValues()
+        values.put(DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH, hash)
+        for (tag in tags ?: return) {
+            values.put(DatabaseConstants.STORY_USER_TAG_MAP_TAG, tag)
+            db.insertWithOnConflict(DatabaseConstants.STORY_USER_TAG_MAP_TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE)
+        }
+    }
+
+    private fun insertComment(db: SQLiteDatabase, comment: Comment) {
+        db.delete(DatabaseConstants.COMMENT_TABLE, "${DatabaseConstants.COMMENT_ISPLACEHOLDER} = ?", arrayOf("true"))
+        db.delete(DatabaseConstants.REPLY_TABLE, "${DatabaseConstants.REPLY_COMMENTID} = ?", arrayOf(comment.id))
+        db.insertWithOnConflict(DatabaseConstants.COMMENT_TABLE, null, comment.values, SQLiteDatabase.CONFLICT_REPLACE)
+        for (reply in comment.replies) {
+            reply.commentId = comment.id
+            db.insertWithOnConflict(DatabaseConstants.REPLY_TABLE, null, reply.values, SQLiteDatabase.CONFLICT_REPLACE)
+        }
+    }
+
+    private fun insertWithWriter(db: SQLiteDatabase, page: StoriesResponse) {
+        val writer = StoryPageWriter(db)
+        try {
+            for (user in page.users) writer.putUser(user)
+            for (story in page.stories) writer.putStory(story)
+            for ((feedId, classifier) in page.classifiers) writer.putClassifiers(feedId, classifier)
+        } finally {
+            writer.close()
+        }
+    }
+
+    private fun storePages(db: SQLiteDatabase, pages: List<StoriesResponse>, insert: (SQLiteDatabase, StoriesResponse) -> Unit): Long =
+            measureTimeMillis {
+                // one transaction per page, as insertStories() does
+                for (page in pages) {
+                    db.beginTransaction()
+                    try {
+                        insert(db, page)
+                        db.setTransactionSuccessful()
+                    } finally {
+                        db.endTransaction()
+                    }
+                }
+            }
+
+    // every value quoted by SQLite itself, so that blobs compare too and a value stored with
+    // the wrong type shows up as a difference
+    private fun tableDump(db: SQLiteDatabase, table: String, orderBy: String): List<String> {
+        val columns = db.query(table, null, null, null, null, null, null, "1").use { it.columnNames }
+        val rows = ArrayList<String>()
+        db.rawQuery("SELECT ${columns.joinToString { "quote($it)" }} FROM $table ORDER BY $orderBy", null).use { c ->
+            while (c.moveToNext()) rows.add((0 until c.columnCount).joinToString(", ") { c.getString(it) })
+        }
+        return rows
+    }
+
+    private fun benchmark(fixture: String, pageCount: Int, storiesPerPage: Int) {
+        val content = readFixture(fixture)
+        // parse twice, since storing a page fills in fields of its comments and replies
+        val pageJson = (0 until pageCount).map { pageJson(it, storiesPerPage, content) }
+        val contentValuesPages = pageJson.map { gson.fromJson(it, StoriesResponse::class.java) }
+        val writerPages = pageJson.map { gson.fromJson(it, StoriesResponse::class.java) }
+
+        val contentValuesDb = storyDb()
+        val contentValuesMillis = storePages(contentValuesDb, contentValuesPages, ::insertWithContentValues)
+        val writerDb = storyDb()
+        val writerMillis = storePages(writerDb, writerPages, ::insertWithWriter)
+
+        println("store $pageCount pages of $storiesPerPage stories from $fixture: " +
+                "ContentValues took $contentValuesMillis ms (${pageCount * 1000L / maxOf(1L, contentValuesMillis)} pages/s), " +
+                "StoryPageWriter took $writerMillis ms (${pageCount * 1000L / maxOf(1L, writerMillis)} pages/s)")
+
+        // both paths must leave exactly the same rows behind
+        Assert.assertEquals(pageCount * storiesPerPage.toLong(), DatabaseUtils.queryNumEntries(writerDb, DatabaseConstants.STORY_TABLE))
+        for ((table, orderBy) in listOf(
+                DatabaseConstants.STORY_TABLE to DatabaseConstants.STORY_HASH,
+                DatabaseConstants.USER_TABLE to DatabaseConstants.USER_USERID,
+                DatabaseConstants.COMMENT_TABLE to DatabaseConstants.COMMENT_ID,
+                DatabaseConstants.REPLY_TABLE to DatabaseConstants.REPLY_ID,
+                DatabaseConstants.STORY_USER_TAG_MAP_TABLE to "${DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH}, ${DatabaseConstants.STORY_USER_TAG_MAP_TAG}",
+                DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE to DatabaseConstants.SOCIALFEED_STORY_STORYID,
+                DatabaseConstants.CLASSIFIER_TABLE to "${DatabaseConstants.CLASSIFIER_ID}, ${DatabaseConstants.CLASSIFIER_TYPE}, ${DatabaseConstants.CLASSIFIER_KEY}")) {
+            Assert.assertEquals(table, tableDump(contentValuesDb, table, orderBy), tableDump(writerDb, table, orderBy))
+        }
+        contentValuesDb.close()
+        writerDb.close()
+    }
+
+    @Test
+    fun shortContentPages() = benchmark("shortContent.json", 200, 25)
+
+    @Test
+    fun longContentPages() = benchmark("longContent.json", 40, 25)
+}
@@ -0,0 +1,86 @@
+package com.newsblur.database
+
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.newsblur.domain.Story
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Stores and reads story revisions against the real schema, and checks that re-syncing a
+ * modified story through [StoryPageWriter] keeps them only while its content is unchanged.
+ * Lives in the database package to build the real schema.
+ */
+@RunWith(AndroidJUnit4::class)
+class StoryRevisionsTest {
+
+    private val hash = "42:abc123"
+
+    private fun revisionDb(): SQLiteDatabase {
+        val db = SQLiteDatabase.create(null)
+        for (sql in listOf(DatabaseConstants.STORY_SQL, DatabaseConstants.STORY_REVISION_SQL, DatabaseConstants.STORY_USER_TAG_MAP_SQL)) {
+            db.execSQL(sql)
+        }
+        return db
+    }
+
+    private fun story(content: String) = Story().apply {
+        id = "story-id"
+        storyHash = hash
+        feedId = "42"
+        title = "A modified story"
+        this.content = content
+        hasModifications = true
+    }
+
+    @Test
+    fun storesBothRevisions() {
+        val db = revisionDb()
+        Assert.assertNull(StoryRevisions.get(db, hash, true))
+        StoryRevisions.put(db, hash, true, "<ins>new</ins> text")
+        Assert.assertEquals("<ins>new</ins> text", StoryRevisions.get(db, hash, true))
+        Assert.assertNull(StoryRevisions.get(db, hash, false))
+        Assert.assertFalse(StoryRevisions.isFetched(db, hash))
+
+        StoryRevisions.put(db, hash, false, "new text")
+        Assert.assertEquals("new text", StoryRevisions.get(db, hash, false))
+        Assert.assertTrue(StoryRevisions.isFetched(db, hash))
+        Assert.assertFalse(StoryRevisions.isFetched(db, "42:other"))
+
+        // fetching again replaces the stored revision
+        StoryRevisions.put(db, hash, false, "newer text")
+        Assert.assertEquals("newer text", StoryRevisions.get(db, hash, false))
+        db.close()
+    }
+
+    @Test
+    fun revisionsWithoutContentCountAsFetched() {
+        val db = revisionDb()
+        StoryRevisions.put(db, hash, true, "<ins>new</ins> text")
+        StoryRevisions.put(db, hash, false, null)
+        Assert.assertTrue(StoryRevisions.isFetched(db, hash))
+        Assert.assertNull(StoryRevisions.get(db, hash, false))
+        db.close()
+    }
+
+    @Test
+    fun revisionsAreKeptWhileContentIsUnchanged() {
+        val db = revisionDb()
+        val writer = StoryPageWriter(db)
+        writer.putStory(story("first version"))
+        StoryRevisions.put(db, hash, true, "<ins>first</ins> version")
+        StoryRevisions.put(db, hash, false, "first version")
+
+        writer.putStory(story("first version"))
+        Assert.assertTrue(StoryRevisions.isFetched(db, hash))
+        Assert.assertEquals("first version", StoryRevisions.get(db, hash, false))
+
+        writer.putStory(story("second version"))
+        Assert.assertFalse(StoryRevisions.isFetched(db, hash))
+        Assert.assertNull(StoryRevisions.get(db, hash, true))
+        Assert.assertNull(StoryRevisions.get(db, hash, false))
+        writer.close()
+        db.close()
+    }
+}
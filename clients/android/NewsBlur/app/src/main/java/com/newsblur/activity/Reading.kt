@@ -165,9 +165,9 @@ abstract class Reading : NbActivity(), OnPageChangeListener, ScrollChangeListene
             savedInstanceState.putString(EXTRA_STORY_HASH, storyHash)
         } else if (pager != null) {
             val currentItem = pager!!.currentItem
-            val story = readingAdapter!!.getStory(currentItem)
-            if (story != null) {
-                savedInstanceState.putString(EXTRA_STORY_HASH, story.storyHash)
+            val hash = readingAdapter!!.getStoryHash(currentItem)
+            if (hash != null) {
+                savedInstanceState.putString(EXTRA_STORY_HASH, hash)
             }
         }
 
@@ -435,6 +435,7 @@ abstract class Reading : NbActivity(), OnPageChangeListener, ScrollChangeListene
         lifecycleScope.executeAsyncTask(
                 doInBackground = {
                     readingAdapter?.let { readingAdapter ->
+                        readingAdapter.setCurrentPosition(position)
                         val story = readingAdapter.getStory(position)
                         if (story != null) {
                             synchronized(pageHistory) {
@@ -651,15 +652,15 @@ abstract class Reading : NbActivity(), OnPageChangeListener, ScrollChangeListene
             if (candidate < 0) {
                 break@unreadSearch
             }
-            val story = readingAdapter!!.getStory(candidate)
+            val read = readingAdapter!!.isStoryRead(candidate)
             if (stopLoading) {
                 // this activity was ended before we finished. just stop.
                 unreadSearchActive = false
                 return
             }
             // iterate through the stories in our cursor until we find an unread one
-            if (story != null) {
-                unreadFound = if (story.read) {
+            if (read != null) {
+                unreadFound = if (read) {
                     if (candidate > currentIndex) {
                         // if we are still searching past the current story, search forward
                         candidate++
@@ -741,7 +742,7 @@ abstract class Reading : NbActivity(), OnPageChangeListener, ScrollChangeListene
 
     private fun overlaySendClick() {
         if (readingAdapter == null || pager == null) return
-        val story = readingAdapter!!.getStory(pager!!.currentItem)
+        val story = readingAdapter!!.getThawedStory(pager!!.currentItem)
         feedUtils.sendStoryUrl(story, this)
     }
 
@@ -13,6 +13,13 @@ public class BlurDatabase extends SQLiteOpenHelper {
 		super(context, DB_NAME, null, VERSION);
 	}
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // lets cleanup hand free pages back a few at a time.  this takes effect at once on a new
+        // DB, and on an existing one at its next full VACUUM
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    }
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL(DatabaseConstants.FEED_SQL);
@@ -20,8 +27,10 @@ public class BlurDatabase extends SQLiteOpenHelper {
 		db.execSQL(DatabaseConstants.FOLDER_SQL);
 		db.execSQL(DatabaseConstants.USER_SQL);
 		db.execSQL(DatabaseConstants.STORY_SQL);
-        db.execSQL(DatabaseConstants.READING_SESSION_SQL);
         db.execSQL(DatabaseConstants.STORY_TEXT_SQL);
+        db.execSQL(DatabaseConstants.STORY_REVISION_SQL);
+        db.execSQL(DatabaseConstants.STORY_USER_TAG_MAP_SQL);
+        db.execSQL(DatabaseConstants.STORY_USER_TAG_MAP_INDEX_SQL);
 		db.execSQL(DatabaseConstants.COMMENT_SQL);
 		db.execSQL(DatabaseConstants.REPLY_SQL);
 		db.execSQL(DatabaseConstants.CLASSIFIER_SQL);
@@ -33,6 +42,7 @@ public class BlurDatabase extends SQLiteOpenHelper {
         db.execSQL(DatabaseConstants.FEED_TAGS_SQL);
         db.execSQL(DatabaseConstants.FEED_AUTHORS_SQL);
         db.execSQL(DatabaseConstants.SYNC_METADATA_SQL);
+        db.execSQL(DatabaseConstants.WORK_QUEUE_SQL);
 	}
 	
 	void dropAndRecreateTables() {
@@ -44,6 +54,8 @@ public class BlurDatabase extends SQLiteOpenHelper {
 		db.execSQL(drop + DatabaseConstants.STORY_TABLE);
         db.execSQL(drop + DatabaseConstants.READING_SESSION_TABLE);
         db.execSQL(drop + DatabaseConstants.STORY_TEXT_TABLE);
+        db.execSQL(drop + DatabaseConstants.STORY_REVISION_TABLE);
+        db.execSQL(drop + DatabaseConstants.STORY_USER_TAG_MAP_TABLE);
 		db.execSQL(drop + DatabaseConstants.USER_TABLE);
 		db.execSQL(drop + DatabaseConstants.COMMENT_TABLE);
 		db.execSQL(drop + DatabaseConstants.REPLY_TABLE);
@@ -56,6 +68,7 @@ public class BlurDatabase extends SQLiteOpenHelper {
         db.execSQL(drop + DatabaseConstants.FEED_TAGS_TABLE);
         db.execSQL(drop + DatabaseConstants.FEED_AUTHORS_TABLE);
         db.execSQL(drop + DatabaseConstants.SYNC_METADATA_TABLE);
+        db.execSQL(drop + DatabaseConstants.WORK_QUEUE_TABLE);
 		
 		onCreate(db);
 	}
@@ -5,7 +5,9 @@ import static java.util.Collections.emptySet;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.os.CancellationSignal;
 
 import androidx.annotation.NonNull;
@@ -28,17 +30,24 @@ import com.newsblur.network.domain.StoriesResponse;
 import com.newsblur.util.AppConstants;
 import com.newsblur.util.CursorFilters;
 import com.newsblur.util.FeedSet;
+import com.newsblur.util.IntelScorer;
 import com.newsblur.util.ReadingAction;
 import com.newsblur.util.ReadFilter;
 import com.newsblur.util.StateFilter;
+import com.newsblur.util.StoryContentCodec;
+import com.newsblur.util.TitleMatcher;
 import com.newsblur.util.StoryOrder;
+import com.newsblur.util.StoryUtil;
 
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -61,6 +70,42 @@ public class BlurDatabaseHelper {
     private final SQLiteDatabase dbRO;
     private final SQLiteDatabase dbRW;
 
+    // per-story record of writes, so story lists can apply deltas rather than requery
+    private final StoryChangeLog storyChanges = new StoryChangeLog();
+
+    // the stories of the current reading session, in display order
+    private final ReadingSession readingSession = new ReadingSession();
+
+    // a temp table copy of the session's hashes, for cleanup deletes to steer around
+    private static final String SESSION_HASHES_TABLE_NAME = "session_story_hashes";
+    private static final String SESSION_HASHES_TABLE = "temp." + SESSION_HASHES_TABLE_NAME;
+    private static final String SESSION_HASHES_HASH = "hash";
+    private static final String NOT_IN_SESSION =
+        DatabaseConstants.STORY_HASH + " NOT IN (SELECT " + SESSION_HASHES_HASH + " FROM " + SESSION_HASHES_TABLE + ")";
+    // the session version last copied to the temp table
+    private long stagedSessionVersion = -1L;
+
+    // temp tables that a streamed feed/folder sync is staged in until it is known to be complete
+    private static final String FEED_STAGING_TABLE_NAME = "feed_staging";
+    private static final String FEED_STAGING_TABLE = "temp." + FEED_STAGING_TABLE_NAME;
+    private static final String SOCIALFEED_STAGING_TABLE_NAME = "social_feed_staging";
+    private static final String SOCIALFEED_STAGING_TABLE = "temp." + SOCIALFEED_STAGING_TABLE_NAME;
+
+    // how many story hashes or other keys to bind per query, well under SQLite's limit on arguments
+    static final int HASHES_PER_QUERY = 500;
+
+    // the tags and authors of the feeds most recently paged or trained, by feed ID
+    private static final int FEED_TERMS_CACHE_SIZE = 16;
+    private final Map<String,FeedTermCounts> feedTagsCache = newLruCache(FEED_TERMS_CACHE_SIZE);
+    private final Map<String,FeedTermCounts> feedAuthorsCache = newLruCache(FEED_TERMS_CACHE_SIZE);
+
+    // compiled title matchers for the feeds whose classifiers were most recently loaded, shared by
+    // every classifier loaded for the feed until its rules are next written
+    private static final int TITLE_MATCHER_CACHE_SIZE = 64;
+    private final Map<String,TitleMatcher> titleMatcherCache = newLruCache(TITLE_MATCHER_CACHE_SIZE);
+    // bumped whenever classifier rules are written, so that a load racing a write can tell
+    private long classifierWrites = 0L;
+
     public BlurDatabaseHelper(Context context) {
         com.newsblur.util.Log.d(this.getClass().getName(), "new DB conn requested");
         synchronized (RW_MUTEX) {
@@ -83,7 +128,13 @@ public class BlurDatabaseHelper {
 
     public void dropAndRecreateTables() {
         com.newsblur.util.Log.i(this.getClass().getName(), "dropping and recreating all tables . . .");
-        synchronized (RW_MUTEX) {dbWrapper.dropAndRecreateTables();}
+        synchronized (RW_MUTEX) {
+            dbWrapper.dropAndRecreateTables();
+            storyChanges.invalidate();
+            feedTagsCache.clear();
+            feedAuthorsCache.clear();
+            invalidateTitleMatcher(null);
+        }
         com.newsblur.util.Log.i(this.getClass().getName(), ". . . tables recreated.");
     }
 
@@ -102,6 +153,20 @@ public class BlurDatabaseHelper {
         return engineVersion;
     }
 
+    /**
+     * Get the story hashes touched by writes since the given change version. Callers should
+     * fetch this before querying the stories themselves, so that nothing written in between
+     * is missed.
+     */
+    @NonNull
+    public StoryChangeSet getStoryChangesSince(long version) {
+        return storyChanges.changesSince(version);
+    }
+
+    public long getStoryChangeVersion() {
+        return storyChanges.currentVersion();
+    }
+
     @NonNull
     public Set<String> getAllFeeds() {
         return getAllFeeds(false);
@@ -128,6 +193,23 @@ public class BlurDatabaseHelper {
         return getAllFeeds(true);
     }
 
+    /**
+     * Get the API-reported average monthly story count for every active feed, keyed by feed ID.
+     */
+    @NonNull
+    public Map<String,Integer> getActiveFeedStoriesPerMonth() {
+        String q = "SELECT " + DatabaseConstants.FEED_ID + ", " + DatabaseConstants.FEED_AVERAGE_STORIES_PER_MONTH +
+                   " FROM " + DatabaseConstants.FEED_TABLE +
+                   " WHERE " + DatabaseConstants.FEED_ACTIVE + " = 1";
+        Cursor c = dbRO.rawQuery(q, null);
+        Map<String,Integer> result = new HashMap<String,Integer>(c.getCount());
+        while (c.moveToNext()) {
+            result.put(c.getString(0), c.getInt(1));
+        }
+        c.close();
+        return result;
+    }
+
     @NonNull
     private List<String> getAllSocialFeeds() {
         String q1 = "SELECT " + DatabaseConstants.SOCIAL_FEED_ID +
@@ -147,51 +229,174 @@ public class BlurDatabaseHelper {
      * us to keep a copy of read stories.  This is necessary primarily to catch any
      * stories that get missed by cleanupReadStories() because their read state might
      * not have been correctly resolved and they get orphaned in the DB.
+     *
+     * @return the number of stories deleted, at most limit.
      */
-    public void cleanupVeryOldStories() {
+    public int cleanupVeryOldStories(int limit) {
         Calendar cutoffDate = Calendar.getInstance();
         cutoffDate.add(Calendar.MONTH, -1);
         synchronized (RW_MUTEX) {
-            int count = dbRW.delete(DatabaseConstants.STORY_TABLE, 
-                        DatabaseConstants.STORY_TIMESTAMP + " < ?" +
-                        " AND " + DatabaseConstants.STORY_TEXT_STORY_HASH + " NOT IN " +
-                        "( SELECT " + DatabaseConstants.READING_SESSION_STORY_HASH + " FROM " + DatabaseConstants.READING_SESSION_TABLE + ")",
-                        new String[]{Long.toString(cutoffDate.getTime().getTime())});
-            com.newsblur.util.Log.d(this, "cleaned up ancient stories: " + count);
+            stageSessionHashesExtSync();
+            return deleteChunk(DatabaseConstants.STORY_TABLE,
+                               DatabaseConstants.STORY_TIMESTAMP + " < " + cutoffDate.getTime().getTime() +
+                               " AND " + NOT_IN_SESSION,
+                               limit);
         }
     }
 
     /**
      * Clean up stories that have already been read, unless they are being actively
      * displayed to the user.
+     *
+     * @return the number of stories deleted, at most limit.
      */
-    public void cleanupReadStories() {
+    public int cleanupReadStories(int limit) {
         synchronized (RW_MUTEX) {
-            int count = dbRW.delete(DatabaseConstants.STORY_TABLE, 
-                        DatabaseConstants.STORY_READ + " = 1" +
-                        " AND " + DatabaseConstants.STORY_TEXT_STORY_HASH + " NOT IN " +
-                        "( SELECT " + DatabaseConstants.READING_SESSION_STORY_HASH + " FROM " + DatabaseConstants.READING_SESSION_TABLE + ")",
-                        null);
-            com.newsblur.util.Log.d(this, "cleaned up read stories: " + count);
+            stageSessionHashesExtSync();
+            return deleteChunk(DatabaseConstants.STORY_TABLE,
+                               DatabaseConstants.STORY_READ + " = 1" +
+                               " AND " + NOT_IN_SESSION,
+                               limit);
         }
     }
 
-    public void cleanupStoryText() {
-        String q = "DELETE FROM " + DatabaseConstants.STORY_TEXT_TABLE +
-                   " WHERE " + DatabaseConstants.STORY_TEXT_STORY_HASH + " NOT IN " +
-                   "( SELECT " + DatabaseConstants.STORY_HASH + " FROM " + DatabaseConstants.STORY_TABLE +
-                   ")";
-        synchronized (RW_MUTEX) {dbRW.execSQL(q);}
+    /**
+     * Copy the reading session's hashes to the temp table that cleanup deletes exclude, if the
+     * session has changed since they were last copied.  Must be called holding RW_MUTEX.
+     */
+    private void stageSessionHashesExtSync() {
+        long version = readingSession.getVersion();
+        if (version == stagedSessionVersion) return;
+        String[] hashes = readingSession.getHashes();
+        // temp tables live with the connection, which a transaction keeps for its duration
+        dbRW.beginTransaction();
+        try {
+            dbRW.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + SESSION_HASHES_TABLE_NAME + " (" + SESSION_HASHES_HASH + " TEXT PRIMARY KEY)");
+            dbRW.execSQL("DELETE FROM " + SESSION_HASHES_TABLE);
+            SQLiteStatement insert = dbRW.compileStatement("INSERT OR IGNORE INTO " + SESSION_HASHES_TABLE + " VALUES (?)");
+            try {
+                for (String hash : hashes) {
+                    insert.bindString(1, hash);
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+            dbRW.setTransactionSuccessful();
+            stagedSessionVersion = version;
+        } finally {
+            dbRW.endTransaction();
+        }
+    }
+
+    /**
+     * Clean up texts of stories that are no longer stored.
+     *
+     * @return the number of texts deleted, at most limit.
+     */
+    public int cleanupStoryText(int limit) {
+        return deleteChunk(DatabaseConstants.STORY_TEXT_TABLE,
+                           DatabaseConstants.STORY_TEXT_STORY_HASH + " NOT IN " +
+                           "( SELECT " + DatabaseConstants.STORY_HASH + " FROM " + DatabaseConstants.STORY_TABLE + ")",
+                           limit);
+    }
+
+    /**
+     * Clean up revisions of stories that are no longer stored.
+     *
+     * @return the number of revisions deleted, at most limit.
+     */
+    public int cleanupStoryRevisions(int limit) {
+        return deleteChunk(DatabaseConstants.STORY_REVISION_TABLE,
+                           DatabaseConstants.STORY_REVISION_STORY_HASH + " NOT IN " +
+                           "( SELECT " + DatabaseConstants.STORY_HASH + " FROM " + DatabaseConstants.STORY_TABLE + ")",
+                           limit);
     }
 
+    /**
+     * Clean up user tags of stories that are no longer stored.
+     *
+     * @return the number of tag rows deleted, at most limit.
+     */
+    public int cleanupStoryUserTags(int limit) {
+        return deleteChunk(DatabaseConstants.STORY_USER_TAG_MAP_TABLE,
+                           DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH + " NOT IN " +
+                           "( SELECT " + DatabaseConstants.STORY_HASH + " FROM " + DatabaseConstants.STORY_TABLE + ")",
+                           limit);
+    }
+
+    /**
+     * Delete up to limit rows of a table matching a selection, holding the write lock only
+     * for that long.
+     */
+    private int deleteChunk(@NonNull String table, @NonNull String selection, int limit) {
+        synchronized (RW_MUTEX) {
+            return dbRW.delete(table,
+                               "rowid IN (SELECT rowid FROM " + table + " WHERE " + selection + " LIMIT " + limit + ")",
+                               null);
+        }
+    }
+
+    /**
+     * Rebuild the whole DB.  This also switches older DBs over to incremental vacuuming,
+     * which only takes effect on a full rebuild.
+     */
     public void vacuum() {
-        synchronized (RW_MUTEX) {dbRW.execSQL("VACUUM");}
+        synchronized (RW_MUTEX) {
+            dbRW.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            dbRW.execSQL("VACUUM");
+        }
+    }
+
+    /**
+     * Whether the DB can give free pages back to the filesystem a few at a time, without a
+     * full rebuild.
+     */
+    public boolean isIncrementalVacuumEnabled() {
+        // 2 is INCREMENTAL
+        return pragmaLong("auto_vacuum") == 2L;
+    }
+
+    /**
+     * The space inside the DB file taken by pages that no longer hold any data.
+     */
+    public long getFreeBytes() {
+        return pragmaLong("freelist_count") * pragmaLong("page_size");
+    }
+
+    /**
+     * Give up to the given number of free pages back to the filesystem.
+     *
+     * @return the number of bytes the DB file shrank by.
+     */
+    public long incrementalVacuum(int maxPages) {
+        synchronized (RW_MUTEX) {
+            long before = getFreeBytes();
+            // the pragma returns a row per page freed, so run it as a query and drain it
+            Cursor c = dbRW.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+            try {
+                while (c.moveToNext()) ;
+            } finally {
+                closeQuietly(c);
+            }
+            return before - getFreeBytes();
+        }
+    }
+
+    private long pragmaLong(@NonNull String pragma) {
+        Cursor c = dbRW.rawQuery("PRAGMA " + pragma, null);
+        try {
+            return c.moveToFirst() ? c.getLong(0) : 0L;
+        } finally {
+            closeQuietly(c);
+        }
     }
 
     public void deleteFeed(@Nullable String feedId) {
         String[] selArgs = new String[] {feedId};
         synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.FEED_TABLE, DatabaseConstants.FEED_ID + " = ?", selArgs);}
         synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.STORY_TABLE, DatabaseConstants.STORY_FEED_ID + " = ?", selArgs);}
+        storyChanges.invalidate();
     }
 
     public void deleteSocialFeed(@Nullable String userId) {
@@ -199,6 +404,7 @@ public class BlurDatabaseHelper {
         synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.SOCIALFEED_TABLE, DatabaseConstants.SOCIAL_FEED_ID + " = ?", selArgs);}
         synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.STORY_TABLE, DatabaseConstants.STORY_FEED_ID + " = ?", selArgs);}
         synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE, DatabaseConstants.SOCIALFEED_STORY_USER_ID + " = ?", selArgs);}
+        storyChanges.invalidate();
     }
 
     public void deleteSavedSearch(@Nullable String feedId, @Nullable String query) {
@@ -212,6 +418,9 @@ public class BlurDatabaseHelper {
         vacuum();
         synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.STORY_TABLE, null, null);}
         synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.STORY_TEXT_TABLE, null, null);}
+        synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.STORY_REVISION_TABLE, null, null);}
+        synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.STORY_USER_TAG_MAP_TABLE, null, null);}
+        storyChanges.invalidate();
     }
 
     @Nullable
@@ -229,6 +438,8 @@ public class BlurDatabaseHelper {
         synchronized (RW_MUTEX) {
             dbRW.insertWithOnConflict(DatabaseConstants.FEED_TABLE, null, feed.getValues(), SQLiteDatabase.CONFLICT_REPLACE);
         }
+        // feed titles and icons are joined into story lists
+        storyChanges.invalidate();
     }
 
     private void bulkInsertValues(@NonNull String table, @NonNull List<ContentValues> valuesList) {
@@ -254,34 +465,102 @@ public class BlurDatabaseHelper {
         }
     }
 
-    public void setFeedsFolders(@NonNull List<ContentValues> folderValues,
-                                @NonNull List<ContentValues> feedValues,
-                                @NonNull List<ContentValues> socialFeedValues,
-                                @NonNull List<ContentValues> starredCountValues,
-                                @NonNull List<ContentValues> savedSearchValues) {
+    /**
+     * Start staging a streamed feed/folder sync, throwing out anything staged by an earlier
+     * attempt that did not finish.
+     */
+    public void beginFeedsFoldersStaging() {
+        synchronized (RW_MUTEX) {
+            dropFeedsFoldersStagingExtSync();
+            dbRW.execSQL("CREATE TEMP TABLE " + FEED_STAGING_TABLE_NAME + " AS SELECT * FROM " + DatabaseConstants.FEED_TABLE + " WHERE 0");
+            dbRW.execSQL("CREATE TEMP TABLE " + SOCIALFEED_STAGING_TABLE_NAME + " AS SELECT * FROM " + DatabaseConstants.SOCIALFEED_TABLE + " WHERE 0");
+        }
+    }
+
+    /**
+     * Stage a batch of the feeds and social feeds streamed in by a feed/folder sync. None of
+     * them are visible until finishFeedsFolders() is called.
+     */
+    public void stageFeedsFoldersBatch(@NonNull List<ContentValues> feedValues,
+                                       @NonNull List<ContentValues> socialFeedValues) {
+        if (feedValues.isEmpty() && socialFeedValues.isEmpty()) return;
         synchronized (RW_MUTEX) {
             dbRW.beginTransaction();
             try {
-                dbRW.delete(DatabaseConstants.FEED_TABLE, null, null);
+                bulkInsertValuesExtSync(FEED_STAGING_TABLE, feedValues);
+                bulkInsertValuesExtSync(SOCIALFEED_STAGING_TABLE, socialFeedValues);
+                dbRW.setTransactionSuccessful();
+            } finally {
+                dbRW.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Throw out a staged feed/folder sync that is not going to be finished.
+     */
+    public void discardFeedsFoldersStaging() {
+        synchronized (RW_MUTEX) {
+            dropFeedsFoldersStagingExtSync();
+        }
+    }
+
+    private void dropFeedsFoldersStagingExtSync() {
+        dbRW.execSQL("DROP TABLE IF EXISTS " + FEED_STAGING_TABLE);
+        dbRW.execSQL("DROP TABLE IF EXISTS " + SOCIALFEED_STAGING_TABLE);
+    }
+
+    /**
+     * Complete a staged feed/folder sync in one transaction: write the staged feeds in the given
+     * set and the staged social feeds, drop any feeds and social feeds not in the given sets, and
+     * replace the folders, starred counts and saved searches outright.
+     */
+    public void finishFeedsFolders(@NonNull Set<String> feedIds,
+                                   @NonNull Set<String> socialFeedIds,
+                                   @NonNull List<ContentValues> folderValues,
+                                   @NonNull List<ContentValues> starredCountValues,
+                                   @NonNull List<ContentValues> savedSearchValues) {
+        synchronized (RW_MUTEX) {
+            dbRW.beginTransaction();
+            try {
+                // orphaned feeds were staged before they could be known as such
+                deleteRowsNotIn(FEED_STAGING_TABLE, DatabaseConstants.FEED_ID, feedIds);
+                deleteRowsNotIn(DatabaseConstants.FEED_TABLE, DatabaseConstants.FEED_ID, feedIds);
+                deleteRowsNotIn(DatabaseConstants.SOCIALFEED_TABLE, DatabaseConstants.SOCIAL_FEED_ID, socialFeedIds);
+                dbRW.execSQL("INSERT OR REPLACE INTO " + DatabaseConstants.FEED_TABLE + " SELECT * FROM " + FEED_STAGING_TABLE);
+                dbRW.execSQL("INSERT OR REPLACE INTO " + DatabaseConstants.SOCIALFEED_TABLE + " SELECT * FROM " + SOCIALFEED_STAGING_TABLE);
+                dropFeedsFoldersStagingExtSync();
                 dbRW.delete(DatabaseConstants.FOLDER_TABLE, null, null);
-                dbRW.delete(DatabaseConstants.SOCIALFEED_TABLE, null, null);
                 dbRW.delete(DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE, null, null);
                 dbRW.delete(DatabaseConstants.COMMENT_TABLE, null, null);
                 dbRW.delete(DatabaseConstants.REPLY_TABLE, null, null);
                 dbRW.delete(DatabaseConstants.STARREDCOUNTS_TABLE, null, null);
                 dbRW.delete(DatabaseConstants.SAVED_SEARCH_TABLE, null, null);
                 bulkInsertValuesExtSync(DatabaseConstants.FOLDER_TABLE, folderValues);
-                bulkInsertValuesExtSync(DatabaseConstants.FEED_TABLE, feedValues);
-                bulkInsertValuesExtSync(DatabaseConstants.SOCIALFEED_TABLE, socialFeedValues);
                 bulkInsertValuesExtSync(DatabaseConstants.STARREDCOUNTS_TABLE, starredCountValues);
                 bulkInsertValuesExtSync(DatabaseConstants.SAVED_SEARCH_TABLE, savedSearchValues);
                 dbRW.setTransactionSuccessful();
             } finally {
                 dbRW.endTransaction();
+                storyChanges.invalidate();
             }
         }
     }
 
+    // leaves sync/transactioning to the caller, like bulkInsertValuesExtSync
+    private void deleteRowsNotIn(@NonNull String table, @NonNull String idColumn, @NonNull Set<String> keepIds) {
+        List<String> staleIds = new ArrayList<String>();
+        Cursor c = dbRW.query(table, new String[]{idColumn}, null, null, null, null, null);
+        while (c.moveToNext()) {
+            String id = c.getString(0);
+            if (!keepIds.contains(id)) staleIds.add(id);
+        }
+        closeQuietly(c);
+        for (String id : staleIds) {
+            dbRW.delete(table, idColumn + " = ?", new String[]{id});
+        }
+    }
+
     // note method name: this gets a set rather than a list, in case the caller wants to
     // spend the up-front cost of hashing for better lookup speed rather than iteration!
     @NonNull
@@ -338,11 +617,20 @@ public class BlurDatabaseHelper {
     }
 
     public void insertStories(@NonNull StoriesResponse apiResponse, @NonNull StateFilter stateFilter, boolean forImmediateReading) {
+        // which stories were added to the reading session, and which were just refreshed
+        List<String> insertedHashes = new ArrayList<String>();
+        List<String> updatedHashes = new ArrayList<String>();
+        // the tags and authors written for the feed, cached only once the transaction commits
+        String termsFeedId = null;
+        FeedTermCounts newTags = null;
+        FeedTermCounts newAuthors = null;
+        boolean committed = false;
         synchronized (RW_MUTEX) {
             // do not attempt to use beginTransactionNonExclusive() to reduce lock time for this very heavy set
             // of calls. most versions of Android incorrectly implement the underlying SQLite calls and will
             // result in crashes that poison the DB beyond repair
             dbRW.beginTransaction();
+            StoryPageWriter writer = new StoryPageWriter(dbRW);
             try {
             
                 // to insert classifiers, we need to determine the feed ID of the stories in this
@@ -351,11 +639,9 @@ public class BlurDatabaseHelper {
 
                 // handle users
                 if (apiResponse.users != null) {
-                    List<ContentValues> userValues = new ArrayList<ContentValues>(apiResponse.users.length);
                     for (UserProfile user : apiResponse.users) {
-                        userValues.add(user.getValues());
+                        writer.putUser(user);
                     }
-                    bulkInsertValuesExtSync(DatabaseConstants.USER_TABLE, userValues);
                 }
 
                 // handle supplemental feed data that may have been included (usually in social requests)
@@ -375,12 +661,13 @@ public class BlurDatabaseHelper {
                             com.newsblur.util.Log.e(this, "story received without story hash: " + story.id);
                             continue storiesloop;
                         }
-                        insertSingleStoryExtSync(story);
-                        // if the story is being fetched for the immediate session, also add the hash to the session table
+                        writer.putStory(story);
+                        // if the story is being fetched for the immediate session, also sort it into the session
                         if (forImmediateReading && story.isStoryVisibleInState(stateFilter)) {
-                            ContentValues sessionHashValues = new ContentValues();
-                            sessionHashValues.put(DatabaseConstants.READING_SESSION_STORY_HASH, story.storyHash);
-                            dbRW.insert(DatabaseConstants.READING_SESSION_TABLE, null, sessionHashValues);
+                            readingSession.add(story.storyHash, getSessionSortKey(story));
+                            insertedHashes.add(story.storyHash);
+                        } else {
+                            updatedHashes.add(story.storyHash);
                         }
                         impliedFeedId = story.feedId;
                     }
@@ -390,7 +677,8 @@ public class BlurDatabaseHelper {
                         com.newsblur.util.Log.e(this, "story received without story hash: " + apiResponse.story.id);
                         return;
                     }
-                    insertSingleStoryExtSync(apiResponse.story);
+                    writer.putStory(apiResponse.story);
+                    updatedHashes.add(apiResponse.story.storyHash);
                     impliedFeedId = apiResponse.story.feedId;
                 }
 
@@ -402,84 +690,143 @@ public class BlurDatabaseHelper {
                         if (classifierFeedId.equals("-1")) {
                             classifierFeedId = impliedFeedId;
                         }
-                        List<ContentValues> classifierValues = entry.getValue().getContentValues();
-                        for (ContentValues values : classifierValues) {
-                            values.put(DatabaseConstants.CLASSIFIER_ID, classifierFeedId);
-                        }
-                        dbRW.delete(DatabaseConstants.CLASSIFIER_TABLE, DatabaseConstants.CLASSIFIER_ID + " = ?", new String[] { classifierFeedId });
-                        bulkInsertValuesExtSync(DatabaseConstants.CLASSIFIER_TABLE, classifierValues);
+                        writer.putClassifiers(classifierFeedId, entry.getValue());
+                        invalidateTitleMatcher(classifierFeedId);
                     }
                 }
 
-                if (apiResponse.feedTags != null ) {
-                    List<String> feedTags = new ArrayList<String>(apiResponse.feedTags.length);
-                    for (String[] tuple : apiResponse.feedTags) {
-                        // the API returns a list of lists, but all we care about is the tag name/id which is the first item in the tuple
-                        if (tuple.length > 0) {
-                            feedTags.add(tuple[0]);
-                        }
-                    }
-                    putFeedTagsExtSync(impliedFeedId, feedTags);
+                // the API returns lists of [name, count] tuples, the full list for the feed on every page
+                termsFeedId = impliedFeedId;
+                if ((apiResponse.feedTags != null) && (impliedFeedId != null)) {
+                    newTags = putFeedTermsExtSync(feedTagsCache, DatabaseConstants.FEED_TAGS_TABLE, DatabaseConstants.FEED_TAGS_FEEDID,
+                                        DatabaseConstants.FEED_TAGS_TAG, DatabaseConstants.FEED_TAGS_COUNT, DatabaseConstants.FEED_TAGS_LAST_SEEN,
+                                        impliedFeedId, FeedTermCounts.fromApiTuples(apiResponse.feedTags));
                 }
 
-                if (apiResponse.feedAuthors != null ) {
-                    List<String> feedAuthors = new ArrayList<String>(apiResponse.feedAuthors.length);
-                    for (String[] tuple : apiResponse.feedAuthors) {
-                        // the API returns a list of lists, but all we care about is the author name/id which is the first item in the tuple
-                        if (tuple.length > 0) {
-                            feedAuthors.add(tuple[0]);
-                        }
-                    }
-                    putFeedAuthorsExtSync(impliedFeedId, feedAuthors);
+                if ((apiResponse.feedAuthors != null) && (impliedFeedId != null)) {
+                    newAuthors = putFeedTermsExtSync(feedAuthorsCache, DatabaseConstants.FEED_AUTHORS_TABLE, DatabaseConstants.FEED_AUTHORS_FEEDID,
+                                        DatabaseConstants.FEED_AUTHORS_AUTHOR, DatabaseConstants.FEED_AUTHORS_COUNT, DatabaseConstants.FEED_AUTHORS_LAST_SEEN,
+                                        impliedFeedId, FeedTermCounts.fromApiTuples(apiResponse.feedAuthors));
                 }
 
                 dbRW.setTransactionSuccessful();
+                committed = true;
             } finally {
+                writer.close();
                 dbRW.endTransaction();
+                if (termsFeedId != null) {
+                    if (committed) {
+                        if (newTags != null) feedTagsCache.put(termsFeedId, newTags);
+                        if (newAuthors != null) feedAuthorsCache.put(termsFeedId, newAuthors);
+                    } else {
+                        // a rolled back write leaves the DB as it was, so reload the feed's terms from it
+                        feedTagsCache.remove(termsFeedId);
+                        feedAuthorsCache.remove(termsFeedId);
+                    }
+                }
+            }
+            if ((apiResponse.feeds != null) && (apiResponse.feeds.size() > 0)) {
+                // supplemental feed data can change the titles and icons joined into story lists
+                storyChanges.invalidate();
+            } else {
+                storyChanges.recordInserted(insertedHashes);
+                storyChanges.recordUpdated(updatedHashes);
             }
         }
     }
 
-    private void insertSingleStoryExtSync(@NonNull Story story) {
-        // pick a thumbnail for the story
-        story.thumbnailUrl = Story.guessStoryThumbnailURL(story);
-        // insert the story data
-        ContentValues values = story.getValues();
-        dbRW.insertWithOnConflict(DatabaseConstants.STORY_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
-        // if a story was shared by a user, also insert it into the social table under their userid, too
-        for (String sharedUserId : story.sharedUserIds) {
-            ContentValues socialValues = new ContentValues();
-            socialValues.put(DatabaseConstants.SOCIALFEED_STORY_USER_ID, sharedUserId);
-            socialValues.put(DatabaseConstants.SOCIALFEED_STORY_STORYID, values.getAsString(DatabaseConstants.STORY_ID));
-            dbRW.insertWithOnConflict(DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE, null, socialValues, SQLiteDatabase.CONFLICT_REPLACE);
+    /**
+     * The value a story is placed in the reading session by, from whichever column the session
+     * is ordered by.
+     */
+    private long getSessionSortKey(@NonNull Story story) {
+        String column = readingSession.getSortColumn();
+        if (DatabaseConstants.STORY_LAST_READ_DATE.equals(column)) return story.lastReadTimestamp;
+        if (DatabaseConstants.STORY_SHARED_DATE.equals(column)) return story.sharedTimestamp;
+        if (DatabaseConstants.STORY_STARRED_DATE.equals(column)) return story.starredTimestamp;
+        return story.timestamp;
+    }
+
+    /**
+     * Replace the rows of the user tag map for a single story.
+     */
+    private void putStoryUserTagsExtSync(@NonNull String hash, @NonNull Collection<String> tags) {
+        dbRW.delete(DatabaseConstants.STORY_USER_TAG_MAP_TABLE, DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH + " = ?", new String[]{hash});
+        if (tags.isEmpty()) return;
+        ContentValues values = new ContentValues();
+        values.put(DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH, hash);
+        for (String tag : tags) {
+            if (TextUtils.isEmpty(tag)) continue;
+            values.put(DatabaseConstants.STORY_USER_TAG_MAP_TAG, tag);
+            dbRW.insertWithOnConflict(DatabaseConstants.STORY_USER_TAG_MAP_TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
         }
-        // handle comments
-        for (Comment comment : story.publicComments) {
-            comment.storyId = story.id;
-            insertSingleCommentExtSync(comment);
+    }
+
+    /**
+     * Drop the rows of the user tag map for a set of stories, a chunk of hashes per statement.
+     */
+    private void deleteStoryUserTagsExtSync(@NonNull Collection<String> hashes) {
+        String[] all = hashes.toArray(new String[0]);
+        for (int start = 0; start < all.length; start += HASHES_PER_QUERY) {
+            String[] chunk = Arrays.copyOfRange(all, start, Math.min(all.length, start + HASHES_PER_QUERY));
+            dbRW.delete(DatabaseConstants.STORY_USER_TAG_MAP_TABLE, DatabaseConstants.getStoryUserTagMapByHashSelection(chunk.length), chunk);
         }
-        for (Comment comment : story.friendsComments) {
-            comment.storyId = story.id;
-            comment.byFriend = true;
-            insertSingleCommentExtSync(comment);
+    }
+
+    @NonNull
+    private Set<String> getStoryUserTagsExtSync(@NonNull String hash) {
+        Set<String> tags = new HashSet<String>();
+        Cursor c = dbRW.query(DatabaseConstants.STORY_USER_TAG_MAP_TABLE,
+                              new String[]{DatabaseConstants.STORY_USER_TAG_MAP_TAG},
+                              DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH + " = ?",
+                              new String[]{hash},
+                              null, null, null);
+        try {
+            while (c.moveToNext()) {
+                tags.add(c.getString(0));
+            }
+        } finally {
+            closeQuietly(c);
         }
-        for (Comment comment : story.friendsShares) {
-            comment.isPseudo = true;
-            comment.storyId = story.id;
-            comment.byFriend = true;
-            insertSingleCommentExtSync(comment);
+        return tags;
+    }
+
+    /**
+     * Point a locally saved story at a new set of user tags, adjusting the saved counts of
+     * just those tags that were added or removed.
+     */
+    private void replaceStoryUserTagsExtSync(@NonNull String hash, @NonNull Collection<String> userTags) {
+        Set<String> newTags = new HashSet<String>();
+        for (String tag : userTags) {
+            if (!TextUtils.isEmpty(tag)) newTags.add(tag);
+        }
+        Set<String> oldTags = getStoryUserTagsExtSync(hash);
+        for (String tag : oldTags) {
+            if (!newTags.contains(tag)) adjustStarredTagCountExtSync(tag, -1);
         }
+        for (String tag : newTags) {
+            if (!oldTags.contains(tag)) adjustStarredTagCountExtSync(tag, 1);
+        }
+        putStoryUserTagsExtSync(hash, newTags);
     }
 
-    private void insertSingleCommentExtSync(@NonNull Comment comment) {
-        // real comments replace placeholders
-        int count = dbRW.delete(DatabaseConstants.COMMENT_TABLE, DatabaseConstants.COMMENT_ISPLACEHOLDER + " = ?", new String[]{"true"});
-        // comments always come with an updated set of replies, so remove old ones first
-        dbRW.delete(DatabaseConstants.REPLY_TABLE, DatabaseConstants.REPLY_COMMENTID + " = ?", new String[]{comment.id});
-        dbRW.insertWithOnConflict(DatabaseConstants.COMMENT_TABLE, null, comment.getValues(), SQLiteDatabase.CONFLICT_REPLACE);
-        for (Reply reply : comment.replies) {
-            reply.commentId = comment.id;
-            dbRW.insertWithOnConflict(DatabaseConstants.REPLY_TABLE, null, reply.getValues(), SQLiteDatabase.CONFLICT_REPLACE);
+    private void adjustStarredTagCountExtSync(@NonNull String tag, int delta) {
+        int updated;
+        SQLiteStatement update = dbRW.compileStatement("UPDATE " + DatabaseConstants.STARREDCOUNTS_TABLE +
+                                                       " SET " + DatabaseConstants.STARREDCOUNTS_COUNT + " = MAX(0, " + DatabaseConstants.STARREDCOUNTS_COUNT + " + " + delta + ")" +
+                                                       " WHERE " + DatabaseConstants.STARREDCOUNTS_TAG + " = ?");
+        try {
+            update.bindString(1, tag);
+            updated = update.executeUpdateDelete();
+        } finally {
+            update.close();
+        }
+        // a brand new tag has no count until the next sync, so start it off
+        if ((updated == 0) && (delta > 0)) {
+            ContentValues values = new ContentValues();
+            values.put(DatabaseConstants.STARREDCOUNTS_TAG, tag);
+            values.put(DatabaseConstants.STARREDCOUNTS_COUNT, delta);
+            dbRW.insert(DatabaseConstants.STARREDCOUNTS_TABLE, null, values);
         }
     }
 
@@ -502,7 +849,9 @@ public class BlurDatabaseHelper {
         if (c.getCount() < 1) {
             com.newsblur.util.Log.w(this, "updateStory can't find old copy; new story may be missing fields.");
         } else {
-            Story oldStory = Story.fromCursor(c);
+            c.moveToFirst();
+            // only the flags are needed from the old copy
+            Story oldStory = new Story.CursorMapper(c, true).fromCursor(c);
             c.close();
             apiResponse.story.starred = oldStory.starred;
             apiResponse.story.starredTimestamp = oldStory.starredTimestamp;
@@ -519,22 +868,22 @@ public class BlurDatabaseHelper {
         synchronized (RW_MUTEX) {
             // comments often contain enclosed replies, so batch them.
             dbRW.beginTransaction();
+            StoryPageWriter writer = new StoryPageWriter(dbRW);
             try {
                 // the API might include new supplemental user metadata if new replies have shown up.
                 if (apiResponse.users != null) {
-                    List<ContentValues> userValues = new ArrayList<ContentValues>(apiResponse.users.length);
                     for (UserProfile user : apiResponse.users) {
-                        userValues.add(user.getValues());
+                        writer.putUser(user);
                     }
-                    bulkInsertValuesExtSync(DatabaseConstants.USER_TABLE, userValues);
                 }
 
                 // we store all comments in the context of the associated story, but the social API doesn't
                 // reference the story when responding, so fix that from our context
                 apiResponse.comment.storyId = storyId;
-                insertSingleCommentExtSync(apiResponse.comment);
+                writer.putComment(apiResponse.comment);
                 dbRW.setTransactionSuccessful();
             } finally {
+                writer.close();
                 dbRW.endTransaction();
             }
         }
@@ -572,6 +921,8 @@ public class BlurDatabaseHelper {
                 dbRW.setTransactionSuccessful();
             } finally {
                 dbRW.endTransaction();
+                // stories only show in lists once their feed exists
+                storyChanges.invalidate();
             }
         }
     }
@@ -592,37 +943,45 @@ public class BlurDatabaseHelper {
     public void touchStory(@Nullable String hash) {
         ContentValues values = new ContentValues();
         values.put(DatabaseConstants.STORY_LAST_READ_DATE, (new Date()).getTime());
-        synchronized (RW_MUTEX) {dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_LAST_READ_DATE + " < 1 AND " + DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});}
-    }
-
-    public void markStoryHashesRead(@NonNull Collection<String> hashes) {
         synchronized (RW_MUTEX) {
-            dbRW.beginTransaction();
-            try {
-                ContentValues values = new ContentValues();
-                values.put(DatabaseConstants.STORY_READ, true);
-                for (String hash : hashes) {
-                    dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});
-                }
-                dbRW.setTransactionSuccessful();
-            } finally {
-                dbRW.endTransaction();
-            }
+            dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_LAST_READ_DATE + " < 1 AND " + DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});
+            storyChanges.recordUpdated(Collections.singleton(hash));
         }
     }
 
-    public void markStoryHashesStarred(@NonNull Collection<String> hashes, boolean isStarred) {
+    /**
+     * Marks a set of stories read, as a few set-based statements. Does not update unread counts.
+     *
+     * @return how many stories in each feed went from unread to read.
+     */
+    @NonNull
+    public StoryCountDeltas markStoryHashesRead(@NonNull Collection<String> hashes) {
+        return setStoryHashesState(hashes, DatabaseConstants.STORY_READ, true);
+    }
+
+    /**
+     * @return how many stories in each feed had their starred state changed.
+     */
+    @NonNull
+    public StoryCountDeltas markStoryHashesStarred(@NonNull Collection<String> hashes, boolean isStarred) {
+        return setStoryHashesState(hashes, DatabaseConstants.STORY_STARRED, isStarred);
+    }
+
+    @NonNull
+    private StoryCountDeltas setStoryHashesState(@NonNull Collection<String> hashes, @NonNull String column, boolean value) {
+        if (hashes.isEmpty()) return new StoryCountDeltas();
         synchronized (RW_MUTEX) {
             dbRW.beginTransaction();
             try {
-                ContentValues values = new ContentValues();
-                values.put(DatabaseConstants.STORY_STARRED, isStarred);
-                for (String hash : hashes) {
-                    dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});
-                }
+                StoryCountDeltas deltas = StoryStateBulkUpdate.apply(dbRW, hashes, column, value);
+                // unsaved stories have no user tags, and stale rows would throw off the tag counts
+                // if one is saved again locally
+                if (DatabaseConstants.STORY_STARRED.equals(column) && !value) deleteStoryUserTagsExtSync(hashes);
                 dbRW.setTransactionSuccessful();
+                return deltas;
             } finally {
                 dbRW.endTransaction();
+                storyChanges.recordUpdated(hashes);
             }
         }
     }
@@ -672,7 +1031,10 @@ public class BlurDatabaseHelper {
     public void setStoryReadState(@Nullable String hash, boolean read) {
         ContentValues values = new ContentValues();
         values.put(DatabaseConstants.STORY_READ, read);
-        synchronized (RW_MUTEX) {dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});}
+        synchronized (RW_MUTEX) {
+            dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});
+            storyChanges.recordUpdated(Collections.singleton(hash));
+        }
     }
 
     /**
@@ -689,8 +1051,8 @@ public class BlurDatabaseHelper {
         if (!TextUtils.isEmpty(story.socialUserId)) {
             socialIds.add(story.socialUserId);
         }
-        if (story.friendUserIds != null) {
-            socialIds.addAll(Arrays.asList(story.friendUserIds));
+        if (story.getFriendUserIds() != null) {
+            socialIds.addAll(Arrays.asList(story.getFriendUserIds()));
         }
         if (socialIds.size() > 0) {
             impactedFeeds.add(FeedSet.multipleSocialFeeds(socialIds));
@@ -750,6 +1112,7 @@ public class BlurDatabaseHelper {
                 dbRW.setTransactionSuccessful();
             } finally {
                 dbRW.endTransaction();
+                storyChanges.recordUpdated(Collections.singleton(story.storyHash));
             }
         }
         return impactedFeeds;
@@ -781,7 +1144,10 @@ public class BlurDatabaseHelper {
         } else {
             throw new IllegalStateException("Asked to mark stories for FeedSet of unknown type.");
         }
-        synchronized (RW_MUTEX) {dbRW.update(DatabaseConstants.STORY_TABLE, values, conjoinSelections(feedSelection, rangeSelection), null);}
+        synchronized (RW_MUTEX) {
+            dbRW.update(DatabaseConstants.STORY_TABLE, values, conjoinSelections(feedSelection, rangeSelection), null);
+            storyChanges.invalidate();
+        }
     }
 
     /**
@@ -899,7 +1265,7 @@ public class BlurDatabaseHelper {
     public int getLocalUnreadCount(@NonNull FeedSet fs, @NonNull StateFilter stateFilter) {
         StringBuilder sel = new StringBuilder();
         ArrayList<String> selArgs = new ArrayList<String>();
-        getLocalStorySelectionAndArgs(sel, selArgs, fs, stateFilter, ReadFilter.UNREAD);
+        getLocalStorySelectionAndArgs(sel, selArgs, fs, stateFilter, ReadFilter.UNREAD, DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_HASH);
 
         Cursor c = dbRO.rawQuery(sel.toString(), selArgs.toArray(new String[0]));
         int count = c.getCount();
@@ -910,7 +1276,10 @@ public class BlurDatabaseHelper {
     public void clearInfrequentSession() {
         ContentValues values = new ContentValues();
         values.put(DatabaseConstants.STORY_INFREQUENT, false);
-        synchronized (RW_MUTEX) {dbRW.update(DatabaseConstants.STORY_TABLE, values, null, null);}
+        synchronized (RW_MUTEX) {
+            dbRW.update(DatabaseConstants.STORY_TABLE, values, null, null);
+            storyChanges.invalidate();
+        }
     }
 
     public void enqueueAction(@NonNull ReadingAction ra) {
@@ -968,6 +1337,8 @@ public class BlurDatabaseHelper {
                     ContentValues values = new ContentValues();
                     values.put(DatabaseConstants.STORY_USER_TAGS, TextUtils.join(",", userTags));
                     dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});
+                    replaceStoryUserTagsExtSync(hash, userTags);
+                    dbRW.setTransactionSuccessful();
                     return;
                 }
                 // if there is nothing to be done, halt
@@ -977,17 +1348,23 @@ public class BlurDatabaseHelper {
                 // fix the state
                 ContentValues values = new ContentValues();
                 values.put(DatabaseConstants.STORY_STARRED, starred);
+                if (starred && userTags != null) {
+                    values.put(DatabaseConstants.STORY_USER_TAGS, TextUtils.join(",", userTags));
+                }
                 dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});
+                // an unsaved story keeps no user tags, so they all lose it from their counts
+                replaceStoryUserTagsExtSync(hash, (starred && userTags != null) ? userTags : Collections.<String>emptyList());
                 // adjust counts
                 String operator = (starred ? " + 1" : " - 1");
                 StringBuilder q = new StringBuilder("UPDATE " + DatabaseConstants.STARREDCOUNTS_TABLE);
                 q.append(" SET " + DatabaseConstants.STARREDCOUNTS_COUNT + " = " + DatabaseConstants.STARREDCOUNTS_COUNT).append(operator);
                 q.append(" WHERE " + DatabaseConstants.STARREDCOUNTS_TAG + " = '" + StarredCount.TOTAL_STARRED + "'");
-                // TODO: adjust counts per feed (and tags?)
+                // TODO: adjust counts per feed
                 dbRW.execSQL(q.toString());
                 dbRW.setTransactionSuccessful();
             } finally {
                 dbRW.endTransaction();
+                storyChanges.recordUpdated(Collections.singleton(hash));
             }
         }
     }
@@ -1018,7 +1395,10 @@ public class BlurDatabaseHelper {
         }
         ContentValues values = new ContentValues();
 		values.put(DatabaseConstants.STORY_SHARED_USER_IDS, TextUtils.join(",", newIds));
-        synchronized (RW_MUTEX) {dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});}
+        synchronized (RW_MUTEX) {
+            dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});
+            storyChanges.recordUpdated(Collections.singleton(hash));
+        }
     }
 
     @Nullable
@@ -1032,12 +1412,20 @@ public class BlurDatabaseHelper {
             return null;
         } else {
             c.moveToFirst();
-            String result = c.getString(c.getColumnIndexOrThrow(DatabaseConstants.STORY_TEXT_STORY_TEXT));
+            byte[] packed = c.getBlob(c.getColumnIndexOrThrow(DatabaseConstants.STORY_TEXT_STORY_TEXT));
             c.close();
-            return result;
+            return StoryContentCodec.decode(packed);
         }
     }
 
+    /**
+     * Whether the original text of a story has been fetched, without unpacking it.
+     */
+    public boolean hasStoryText(@Nullable String hash) {
+        return DatabaseUtils.queryNumEntries(dbRO, DatabaseConstants.STORY_TEXT_TABLE,
+                                             DatabaseConstants.STORY_TEXT_STORY_HASH + " = ?", new String[]{hash}) > 0;
+    }
+
     @Nullable
     public String getStoryContent(@Nullable String hash) {
         String q = "SELECT " + DatabaseConstants.STORY_CONTENT +
@@ -1050,17 +1438,61 @@ public class BlurDatabaseHelper {
         } else {
             c.moveToFirst();
             // TODO: may not contain col?
-            String result = c.getString(c.getColumnIndexOrThrow(DatabaseConstants.STORY_CONTENT));
+            byte[] packed = c.getBlob(c.getColumnIndexOrThrow(DatabaseConstants.STORY_CONTENT));
             c.close();
-            return result;
+            // content is only ever unpacked here, when a story is opened
+            return StoryContentCodec.decode(packed);
         }
     }
 
-    public void putStoryText(@Nullable String hash, @NonNull String text) {
-        ContentValues values = new ContentValues();
-        values.put(DatabaseConstants.STORY_TEXT_STORY_HASH, hash);
-        values.put(DatabaseConstants.STORY_TEXT_STORY_TEXT, text);
-        synchronized (RW_MUTEX) {dbRW.insertOrThrow(DatabaseConstants.STORY_TEXT_TABLE, null, values);}
+    /**
+     * Get the stored content of a modified story with or without its changes marked up, or null
+     * if that revision hasn't been fetched or the API had none.
+     */
+    @Nullable
+    public String getStoryRevision(@NonNull String hash, boolean showChanges) {
+        return StoryRevisions.get(dbRO, hash, showChanges);
+    }
+
+    /**
+     * Whether both revisions of a modified story have been fetched, including any the API had
+     * no content for.
+     */
+    public boolean hasStoryRevisions(@NonNull String hash) {
+        return StoryRevisions.isFetched(dbRO, hash);
+    }
+
+    /**
+     * Store a revision of a modified story, or note that the API had none if content is null.
+     */
+    public void putStoryRevision(@NonNull String hash, boolean showChanges, @Nullable String content) {
+        synchronized (RW_MUTEX) {StoryRevisions.put(dbRW, hash, showChanges, content);}
+    }
+
+    /**
+     * Store a batch of fetched story texts and take the stories they were fetched for off the
+     * persisted text work queue, in one transaction.
+     */
+    public void putStoryTexts(@NonNull Map<String,String> texts, @NonNull Collection<String> doneHashes) {
+        synchronized (RW_MUTEX) {
+            dbRW.beginTransaction();
+            try {
+                for (Map.Entry<String,String> text : texts.entrySet()) {
+                    ContentValues values = new ContentValues();
+                    values.put(DatabaseConstants.STORY_TEXT_STORY_HASH, text.getKey());
+                    values.put(DatabaseConstants.STORY_TEXT_STORY_TEXT, StoryContentCodec.encode(text.getValue()));
+                    dbRW.insertOrThrow(DatabaseConstants.STORY_TEXT_TABLE, null, values);
+                }
+                for (String hash : doneHashes) {
+                    dbRW.delete(DatabaseConstants.WORK_QUEUE_TABLE,
+                                DatabaseConstants.WORK_QUEUE_NAME + " = ? AND " + DatabaseConstants.WORK_QUEUE_ITEM + " = ?",
+                                new String[]{DatabaseConstants.WORK_QUEUE_TEXT, hash});
+                }
+                dbRW.setTransactionSuccessful();
+            } finally {
+                dbRW.endTransaction();
+            }
+        }
     }
 
     @NonNull
@@ -1149,75 +1581,132 @@ public class BlurDatabaseHelper {
 
     @NonNull
     public Cursor getActiveStoriesCursor(@NonNull FeedSet fs, @NonNull CursorFilters cursorFilters, @NonNull CancellationSignal cancellationSignal) {
-        // get the stories for this FS
-        Cursor result = getActiveStoriesCursorNoPrep(fs, cursorFilters.getStoryOrder(), cancellationSignal);
-        // if the result is blank, try to prime the session table with existing stories, in case we
-        // are offline, but if a session is started, just use what was there so offsets don't change.
-        if (result.getCount() < 1) {
+        // if the session is blank, try to prime it with existing stories, in case we are
+        // offline, but if a session is started, just use what was there so offsets don't change.
+        if (readingSession.getSize() < 1) {
             if (AppConstants.VERBOSE_LOG) Log.d(this.getClass().getName(), "priming reading session");
-            prepareReadingSession(fs, cursorFilters.getStateFilter(), cursorFilters.getReadFilter());
+            prepareReadingSession(fs, cursorFilters.getStateFilter(), cursorFilters.getReadFilter(), cursorFilters.getStoryOrder());
+        }
+        // stories aren't actually queried directly via the FeedSet and filters set in the UI. rather,
+        // those filters are used to sort live or cached story hashes into the in-memory reading
+        // session, and the cursor pulls story data for those hashes a window at a time
+        return getSessionStoriesCursor(cancellationSignal);
+    }
 
-            result = getActiveStoriesCursorNoPrep(fs, cursorFilters.getStoryOrder(), cancellationSignal);
+    /**
+     * Index the stories of the reading session that are still in the DB, in session order,
+     * behind a cursor that loads their rows as it is moved over them.
+     */
+    @NonNull
+    private Cursor getSessionStoriesCursor(@NonNull CancellationSignal cancellationSignal) {
+        String[] sessionHashes = readingSession.getHashes();
+        Map<String,Integer> positions = new HashMap<String,Integer>(sessionHashes.length);
+        for (int i = 0; i < sessionHashes.length; i++) {
+            positions.put(sessionHashes[i], i);
+        }
+        String[] feedIds = new String[sessionHashes.length];
+        boolean[] readStates = new boolean[sessionHashes.length];
+        boolean[] found = new boolean[sessionHashes.length];
+        int foundCount = 0;
+        for (int start = 0; start < sessionHashes.length; start += HASHES_PER_QUERY) {
+            String[] chunk = Arrays.copyOfRange(sessionHashes, start, Math.min(sessionHashes.length, start + HASHES_PER_QUERY));
+            Cursor c = rawQuery(DatabaseConstants.getStoryIndexByHashQuery(chunk.length), chunk, cancellationSignal);
+            try {
+                while (c.moveToNext()) {
+                    Integer pos = positions.get(c.getString(0));
+                    if ((pos == null) || found[pos]) continue;
+                    found[pos] = true;
+                    readStates[pos] = c.getInt(1) > 0;
+                    feedIds[pos] = c.getString(2);
+                    foundCount++;
+                }
+            } finally {
+                closeQuietly(c);
+            }
         }
-        return result;
+        // stories can be deleted, or lose their feed, after joining the session, and are then
+        // dropped from it for good
+        String[] hashes = new String[foundCount];
+        String[] foundFeedIds = new String[foundCount];
+        boolean[] foundReadStates = new boolean[foundCount];
+        List<String> missing = new ArrayList<String>(sessionHashes.length - foundCount);
+        int j = 0;
+        for (int i = 0; i < sessionHashes.length; i++) {
+            if (!found[i]) {
+                missing.add(sessionHashes[i]);
+                continue;
+            }
+            hashes[j] = sessionHashes[i];
+            foundFeedIds[j] = feedIds[i];
+            foundReadStates[j] = readStates[i];
+            j++;
+        }
+        if (!missing.isEmpty()) readingSession.remove(missing);
+        return new SessionStoryCursor(dbRO, hashes, foundFeedIds, foundReadStates, cancellationSignal);
     }
 
+    /**
+     * Get the current reading session's copy of just the given stories. Stories that are no
+     * longer in the session (or no longer exist) are simply absent from the result.
+     */
     @NonNull
-    private Cursor getActiveStoriesCursorNoPrep(@NonNull FeedSet fs, @NonNull StoryOrder order, @NonNull CancellationSignal cancellationSignal) {
-        // stories aren't actually queried directly via the FeedSet and filters set in the UI. rather,
-        // those filters are use to push live or cached story hashes into the reading session table, and
-        // those hashes are used to pull story data from the story table
-        StringBuilder q = new StringBuilder(DatabaseConstants.SESSION_STORY_QUERY_BASE);
-        
-        if (fs.isAllRead()) {
-            q.append(" ORDER BY ").append(DatabaseConstants.READ_STORY_ORDER);
-        } else if (fs.isGlobalShared()) {
-            q.append(" ORDER BY ").append(DatabaseConstants.SHARED_STORY_ORDER);
-        } else if (fs.isAllSaved()) {
-            q.append(" ORDER BY ").append(DatabaseConstants.getSavedStoriesSortOrder(order));
-        } else {
-            q.append(" ORDER BY ").append(DatabaseConstants.getStorySortOrder(order));
+    public Cursor getActiveStoriesCursor(@NonNull Collection<String> hashes, @NonNull CancellationSignal cancellationSignal) {
+        List<String> sessionHashes = new ArrayList<String>(hashes.size());
+        for (String hash : hashes) {
+            if (readingSession.contains(hash)) sessionHashes.add(hash);
         }
-        return rawQuery(q.toString(), null, cancellationSignal);
+        String q = DatabaseConstants.getStoriesByHashQuery(sessionHashes.size());
+        return rawQuery(q, sessionHashes.toArray(new String[0]), cancellationSignal);
     }
 
     public void clearStorySession() {
         com.newsblur.util.Log.i(this, "reading session reset");
-        synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.READING_SESSION_TABLE, null, null);}
+        readingSession.clear();
+        storyChanges.invalidate();
     }
 
     /**
-     * Populates the reading session table with hashes of already-fetched stories that meet the 
-     * criteria for the given FeedSet and filters; these hashes will be supplemented by hashes
-     * fetched via the API and used to actually select story data when rendering story lists.
+     * Sorts into the reading session the already-fetched stories that meet the criteria for the
+     * given FeedSet and filters; these will be supplemented by stories fetched via the API as
+     * pages of them arrive.
      */
-    public void prepareReadingSession(@NonNull FeedSet fs, @NonNull StateFilter stateFilter, @NonNull ReadFilter readFilter) {
-        // a selection filter that will be used to pull active story hashes from the stories table into the reading session table
+    public void prepareReadingSession(@NonNull FeedSet fs, @NonNull StateFilter stateFilter, @NonNull ReadFilter readFilter, @NonNull StoryOrder order) {
+        String sortColumn = DatabaseConstants.getSessionSortColumn(fs);
+        readingSession.orderBy(sortColumn, DatabaseConstants.isSessionSortDescending(fs, order));
+
+        // a selection of the hashes and sort keys of matching stories
         StringBuilder sel = new StringBuilder();
-        // any selection args that need to be used within the inner select statement
+        // any selection args that need to be used within the select statement
         ArrayList<String> selArgs = new ArrayList<String>();
+        getLocalStorySelectionAndArgs(sel, selArgs, fs, stateFilter, readFilter,
+                                      DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_HASH + ", " +
+                                      DatabaseConstants.STORY_TABLE + "." + sortColumn);
 
-        getLocalStorySelectionAndArgs(sel, selArgs, fs, stateFilter, readFilter);
-
-        // use the inner select statement to push the active hashes into the session table
-        StringBuilder q = new StringBuilder("INSERT INTO " + DatabaseConstants.READING_SESSION_TABLE);
-        q.append(" (" + DatabaseConstants.READING_SESSION_STORY_HASH + ") ");
-        q.append(sel);
-
-        synchronized (RW_MUTEX) {dbRW.execSQL(q.toString(), selArgs.toArray(new String[0]));}
+        // cleanup deletes stories not in the session, so hold it off until they all are
+        synchronized (RW_MUTEX) {
+            Cursor c = dbRO.rawQuery(sel.toString(), selArgs.toArray(new String[0]));
+            try {
+                while (c.moveToNext()) {
+                    readingSession.add(c.getString(0), c.getLong(1));
+                }
+            } finally {
+                closeQuietly(c);
+            }
+        }
+        storyChanges.invalidate();
     }
 
     /**
-     * Gets hashes of already-fetched stories that satisfy the given FeedSet and filters. Can be used
-     * both to populate a reading session or to count local unreads.
+     * Gets the given columns of already-fetched stories that satisfy the given FeedSet and filters.
+     * Can be used both to populate a reading session or to count local unreads.
      */
-    private void getLocalStorySelectionAndArgs(@NonNull StringBuilder sel, @NonNull List<String> selArgs, @NonNull FeedSet fs, @NonNull StateFilter stateFilter, @NonNull ReadFilter readFilter) {
+    private void getLocalStorySelectionAndArgs(@NonNull StringBuilder sel, @NonNull List<String> selArgs, @NonNull FeedSet fs, @NonNull StateFilter stateFilter, @NonNull ReadFilter readFilter, @NonNull String columns) {
         // if the user has requested saved stories, ignore the unreads filter, as saveds do not have this state
         if (fs.isFilterSaved()) {
             readFilter = ReadFilter.ALL;
         }
 
-        sel.append("SELECT " + DatabaseConstants.STORY_HASH);
+        sel.append("SELECT " + columns);
         if (fs.getSingleFeed() != null) {
 
             sel.append(" FROM " + DatabaseConstants.STORY_TABLE);
@@ -1274,10 +1763,10 @@ public class BlurDatabaseHelper {
 
             sel.append(" FROM " + DatabaseConstants.STORY_TABLE);
             sel.append(" WHERE (" + DatabaseConstants.STORY_STARRED + " = 1)");
-            sel.append(" AND (" + DatabaseConstants.STORY_USER_TAGS + " LIKE ?)");
-            StringBuilder tagArg = new StringBuilder("%");
-            tagArg.append(fs.getSingleSavedTag()).append("%");
-            selArgs.add(tagArg.toString());
+            sel.append(" AND (" + DatabaseConstants.STORY_TABLE + "." + DatabaseConstants.STORY_HASH + " IN (");
+            sel.append("SELECT " + DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH + " FROM " + DatabaseConstants.STORY_USER_TAG_MAP_TABLE);
+            sel.append(" WHERE " + DatabaseConstants.STORY_USER_TAG_MAP_TAG + " = ?))");
+            selArgs.add(fs.getSingleSavedTag());
             DatabaseConstants.appendStorySelection(sel, selArgs, ReadFilter.ALL, StateFilter.ALL, fs.getSearchQuery());
             
         } else if (fs.isGlobalShared()) {
@@ -1292,56 +1781,273 @@ public class BlurDatabaseHelper {
         }
     }
 
+    /**
+     * Note which feedset the reading session holds. Like the session itself this lives only in
+     * memory, so a new process always starts a fresh session.
+     */
     public void setSessionFeedSet(@Nullable FeedSet fs) {
-        if (fs == null) {
-            synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.SYNC_METADATA_TABLE, DatabaseConstants.SYNC_METADATA_KEY + " = ?", new String[] {DatabaseConstants.SYNC_METADATA_KEY_SESSION_FEED_SET});}
-        } else {
+        readingSession.setFeedSet(fs);
+    }
+
+    @Nullable
+    public FeedSet getSessionFeedSet() {
+        return readingSession.getFeedSet();
+    }
+
+    public boolean isFeedSetReady(@Nullable FeedSet fs) {
+        return (fs != null) && fs.equals(getSessionFeedSet());
+    }
+
+    public void setUnreadsReconcilePending(boolean pending) {
+        if (pending) {
             ContentValues values = new ContentValues();
-            values.put(DatabaseConstants.SYNC_METADATA_KEY, DatabaseConstants.SYNC_METADATA_KEY_SESSION_FEED_SET);
-            values.put(DatabaseConstants.SYNC_METADATA_VALUE, fs.toCompactSerial());
+            values.put(DatabaseConstants.SYNC_METADATA_KEY, DatabaseConstants.SYNC_METADATA_KEY_UNREADS_RECONCILE_PENDING);
+            values.put(DatabaseConstants.SYNC_METADATA_VALUE, Boolean.TRUE.toString());
             synchronized (RW_MUTEX) {dbRW.insertWithOnConflict(DatabaseConstants.SYNC_METADATA_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);}
+        } else {
+            synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.SYNC_METADATA_TABLE, DatabaseConstants.SYNC_METADATA_KEY + " = ?", new String[] {DatabaseConstants.SYNC_METADATA_KEY_UNREADS_RECONCILE_PENDING});}
         }
     }
 
-    @Nullable
-    public FeedSet getSessionFeedSet() {
-        FeedSet fs;
-        Cursor c = dbRO.query(DatabaseConstants.SYNC_METADATA_TABLE, null, DatabaseConstants.SYNC_METADATA_KEY + " = ?", new String[] {DatabaseConstants.SYNC_METADATA_KEY_SESSION_FEED_SET}, null, null, null, null);
-        if (c.getCount() < 1) return null;
-        c.moveToFirst();
-        fs = FeedSet.fromCompactSerial(c.getString(c.getColumnIndexOrThrow(DatabaseConstants.SYNC_METADATA_VALUE)));
+    public boolean isUnreadsReconcilePending() {
+        Cursor c = dbRO.query(DatabaseConstants.SYNC_METADATA_TABLE, null, DatabaseConstants.SYNC_METADATA_KEY + " = ?", new String[] {DatabaseConstants.SYNC_METADATA_KEY_UNREADS_RECONCILE_PENDING}, null, null, null, null);
+        boolean pending = (c.getCount() > 0);
         closeQuietly(c);
-        return fs;
+        return pending;
     }
 
-    public boolean isFeedSetReady(@Nullable FeedSet fs) {
-        return fs.equals(getSessionFeedSet());
+    /**
+     * Get the contents of a persisted work queue, in the order items were first enqueued.
+     */
+    @NonNull
+    public List<String> getWorkQueue(@NonNull String queue) {
+        Cursor c = dbRO.query(DatabaseConstants.WORK_QUEUE_TABLE,
+                              new String[]{DatabaseConstants.WORK_QUEUE_ITEM},
+                              DatabaseConstants.WORK_QUEUE_NAME + " = ?",
+                              new String[]{queue},
+                              null, null,
+                              DatabaseConstants.WORK_QUEUE_ID + " ASC");
+        List<String> items = new ArrayList<String>(c.getCount());
+        while (c.moveToNext()) {
+            items.add(c.getString(0));
+        }
+        closeQuietly(c);
+        return items;
+    }
+
+    /**
+     * Add items to the end of a persisted work queue. Items already in the queue keep their place.
+     */
+    public void enqueueWork(@NonNull String queue, @NonNull Collection<String> items) {
+        if (items.isEmpty()) return;
+        synchronized (RW_MUTEX) {
+            dbRW.beginTransaction();
+            try {
+                enqueueWorkExtSync(queue, items);
+                dbRW.setTransactionSuccessful();
+            } finally {
+                dbRW.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Atomically replace the whole contents of a persisted work queue.
+     */
+    public void replaceWorkQueue(@NonNull String queue, @NonNull Collection<String> items) {
+        synchronized (RW_MUTEX) {
+            dbRW.beginTransaction();
+            try {
+                dbRW.delete(DatabaseConstants.WORK_QUEUE_TABLE, DatabaseConstants.WORK_QUEUE_NAME + " = ?", new String[]{queue});
+                enqueueWorkExtSync(queue, items);
+                dbRW.setTransactionSuccessful();
+            } finally {
+                dbRW.endTransaction();
+            }
+        }
+    }
+
+    // just like enqueueWork, but leaves sync/transactioning to the caller
+    private void enqueueWorkExtSync(@NonNull String queue, @NonNull Collection<String> items) {
+        ContentValues values = new ContentValues();
+        for (String item : items) {
+            values.put(DatabaseConstants.WORK_QUEUE_NAME, queue);
+            values.put(DatabaseConstants.WORK_QUEUE_ITEM, item);
+            dbRW.insertWithOnConflict(DatabaseConstants.WORK_QUEUE_TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        }
+    }
+
+    /**
+     * Checkpoint a persisted work queue by removing items whose work has been committed.
+     */
+    public void dequeueWork(@NonNull String queue, @NonNull Collection<String> items) {
+        if (items.isEmpty()) return;
+        synchronized (RW_MUTEX) {
+            dbRW.beginTransaction();
+            try {
+                for (String item : items) {
+                    dbRW.delete(DatabaseConstants.WORK_QUEUE_TABLE,
+                                DatabaseConstants.WORK_QUEUE_NAME + " = ? AND " + DatabaseConstants.WORK_QUEUE_ITEM + " = ?",
+                                new String[]{queue, item});
+                }
+                dbRW.setTransactionSuccessful();
+            } finally {
+                dbRW.endTransaction();
+            }
+        }
+    }
+
+    public void clearWorkQueue(@NonNull String queue) {
+        synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.WORK_QUEUE_TABLE, DatabaseConstants.WORK_QUEUE_NAME + " = ?", new String[]{queue});}
     }
 
     public void clearClassifiersForFeed(@Nullable String feedId) {
         String[] selArgs = new String[] {feedId};
         synchronized (RW_MUTEX) {dbRW.delete(DatabaseConstants.CLASSIFIER_TABLE, DatabaseConstants.CLASSIFIER_ID + " = ?", selArgs);}
+        invalidateTitleMatcher(feedId);
     }
 
     public void insertClassifier(@NonNull Classifier classifier) {
         bulkInsertValues(DatabaseConstants.CLASSIFIER_TABLE, classifier.getContentValues());
+        invalidateTitleMatcher(classifier.feedId);
     }
 
     @NonNull
     public Classifier getClassifierForFeed(@Nullable String feedId) {
         String[] selArgs = new String[] {feedId};
+        TitleMatcher matcher;
+        long writes;
+        synchronized (titleMatcherCache) {
+            matcher = (feedId == null) ? null : titleMatcherCache.get(feedId);
+            writes = classifierWrites;
+        }
         Cursor c = dbRO.query(DatabaseConstants.CLASSIFIER_TABLE, null, DatabaseConstants.CLASSIFIER_ID + " = ?", selArgs, null, null, null);
         Classifier classifier = Classifier.fromCursor(c);
         closeQuietly(c);
         classifier.feedId = feedId;
+        if (feedId == null) return classifier;
+        synchronized (titleMatcherCache) {
+            // if rules were written while we read them, neither trust nor cache a matcher for them
+            if (writes != classifierWrites) return classifier;
+            if (matcher != null) {
+                classifier.setTitleMatcher(matcher);
+                return classifier;
+            }
+        }
+        matcher = classifier.getTitleMatcher();
+        synchronized (titleMatcherCache) {
+            if (writes == classifierWrites) titleMatcherCache.put(feedId, matcher);
+        }
         return classifier;
     }
 
+    /**
+     * Drop the cached title matcher for a feed whose classifier rules were just written, or for
+     * all feeds if none is given.
+     */
+    private void invalidateTitleMatcher(@Nullable String feedId) {
+        synchronized (titleMatcherCache) {
+            classifierWrites++;
+            if (feedId == null) {
+                titleMatcherCache.clear();
+            } else {
+                titleMatcherCache.remove(feedId);
+            }
+        }
+    }
+
+    /**
+     * Re-score every stored story in a feed against its newly trained classifier in a single
+     * pass, rewriting the intel columns of stories whose scores changed and moving unread ones
+     * between the feed's unread counts to match.
+     */
+    public void rescoreFeedStories(@NonNull String feedId, @NonNull Classifier classifier) {
+        IntelScorer scorer = new IntelScorer(classifier);
+        String[] cols = new String[]{DatabaseConstants.STORY_HASH, DatabaseConstants.STORY_AUTHORS,
+                                     DatabaseConstants.STORY_TITLE, DatabaseConstants.STORY_TAGS,
+                                     DatabaseConstants.STORY_READ, DatabaseConstants.STORY_INTELLIGENCE_AUTHORS,
+                                     DatabaseConstants.STORY_INTELLIGENCE_FEED, DatabaseConstants.STORY_INTELLIGENCE_TAGS,
+                                     DatabaseConstants.STORY_INTELLIGENCE_TITLE};
+        Set<String> rescoredHashes = new HashSet<String>();
+        // net change to the positive, neutral and negative unread counts
+        int[] countDeltas = new int[3];
+        synchronized (RW_MUTEX) {
+            dbRW.beginTransaction();
+            try {
+                Cursor c = dbRW.query(DatabaseConstants.STORY_TABLE, cols, DatabaseConstants.STORY_FEED_ID + " = ?", new String[]{feedId}, null, null, null);
+                try {
+                    int hashCol = c.getColumnIndexOrThrow(DatabaseConstants.STORY_HASH);
+                    int authorsCol = c.getColumnIndexOrThrow(DatabaseConstants.STORY_AUTHORS);
+                    int titleCol = c.getColumnIndexOrThrow(DatabaseConstants.STORY_TITLE);
+                    int tagsCol = c.getColumnIndexOrThrow(DatabaseConstants.STORY_TAGS);
+                    int readCol = c.getColumnIndexOrThrow(DatabaseConstants.STORY_READ);
+                    int intelAuthorsCol = c.getColumnIndexOrThrow(DatabaseConstants.STORY_INTELLIGENCE_AUTHORS);
+                    int intelFeedCol = c.getColumnIndexOrThrow(DatabaseConstants.STORY_INTELLIGENCE_FEED);
+                    int intelTagsCol = c.getColumnIndexOrThrow(DatabaseConstants.STORY_INTELLIGENCE_TAGS);
+                    int intelTitleCol = c.getColumnIndexOrThrow(DatabaseConstants.STORY_INTELLIGENCE_TITLE);
+                    while (c.moveToNext()) {
+                        Story.Intelligence oldIntel = new Story.Intelligence();
+                        oldIntel.intelligenceAuthors = c.getInt(intelAuthorsCol);
+                        oldIntel.intelligenceFeed = c.getInt(intelFeedCol);
+                        oldIntel.intelligenceTags = c.getInt(intelTagsCol);
+                        oldIntel.intelligenceTitle = c.getInt(intelTitleCol);
+                        Story.Intelligence newIntel = scorer.score(feedId, c.getString(authorsCol), c.getString(titleCol), StoryUtil.splitJoined(c.getString(tagsCol)));
+                        if ((newIntel.intelligenceAuthors == oldIntel.intelligenceAuthors) &&
+                            (newIntel.intelligenceFeed == oldIntel.intelligenceFeed) &&
+                            (newIntel.intelligenceTags == oldIntel.intelligenceTags) &&
+                            (newIntel.intelligenceTitle == oldIntel.intelligenceTitle)) {
+                            continue;
+                        }
+                        String hash = c.getString(hashCol);
+                        ContentValues values = new ContentValues();
+                        values.put(DatabaseConstants.STORY_INTELLIGENCE_AUTHORS, newIntel.intelligenceAuthors);
+                        values.put(DatabaseConstants.STORY_INTELLIGENCE_FEED, newIntel.intelligenceFeed);
+                        values.put(DatabaseConstants.STORY_INTELLIGENCE_TAGS, newIntel.intelligenceTags);
+                        values.put(DatabaseConstants.STORY_INTELLIGENCE_TITLE, newIntel.intelligenceTitle);
+                        values.put(DatabaseConstants.STORY_INTELLIGENCE_TOTAL, newIntel.calcTotalIntel());
+                        dbRW.update(DatabaseConstants.STORY_TABLE, values, DatabaseConstants.STORY_HASH + " = ?", new String[]{hash});
+                        rescoredHashes.add(hash);
+                        if (c.getInt(readCol) < 1) {
+                            countDeltas[intelCountIndex(oldIntel.calcTotalIntel())]--;
+                            countDeltas[intelCountIndex(newIntel.calcTotalIntel())]++;
+                        }
+                    }
+                } finally {
+                    closeQuietly(c);
+                }
+                if (countDeltas[0] != 0 || countDeltas[1] != 0 || countDeltas[2] != 0) {
+                    String q = "UPDATE " + DatabaseConstants.FEED_TABLE +
+                               " SET " + DatabaseConstants.FEED_POSITIVE_COUNT + " = MAX(0, " + DatabaseConstants.FEED_POSITIVE_COUNT + " + ?)" +
+                               ", " + DatabaseConstants.FEED_NEUTRAL_COUNT + " = MAX(0, " + DatabaseConstants.FEED_NEUTRAL_COUNT + " + ?)" +
+                               ", " + DatabaseConstants.FEED_NEGATIVE_COUNT + " = MAX(0, " + DatabaseConstants.FEED_NEGATIVE_COUNT + " + ?)" +
+                               " WHERE " + DatabaseConstants.FEED_ID + " = ?";
+                    dbRW.execSQL(q, new Object[]{countDeltas[0], countDeltas[1], countDeltas[2], feedId});
+                }
+                dbRW.setTransactionSuccessful();
+            } finally {
+                dbRW.endTransaction();
+                storyChanges.recordUpdated(rescoredHashes);
+            }
+        }
+    }
+
+    private static int intelCountIndex(int totalIntel) {
+        if (totalIntel > 0) return 0;
+        if (totalIntel == 0) return 1;
+        return 2;
+    }
+
     @NonNull
     public List<Comment> getComments(@NonNull String storyId) {
+        return getComments(dbRO, storyId);
+    }
+
+    // the comment thread queries take the DB so that their query counts can be tested on a device
+    @NonNull
+    static List<Comment> getComments(@NonNull SQLiteDatabase db, @NonNull String storyId) {
         String[] selArgs = new String[] {storyId};
         String selection = DatabaseConstants.COMMENT_STORYID + " = ?"; 
-        Cursor c = dbRO.query(DatabaseConstants.COMMENT_TABLE, null, selection, selArgs, null, null, null);
+        Cursor c = db.query(DatabaseConstants.COMMENT_TABLE, null, selection, selArgs, null, null, null);
         List<Comment> comments = new ArrayList<Comment>(c.getCount());
         while (c.moveToNext()) {
             comments.add(Comment.fromCursor(c));
@@ -1457,6 +2163,56 @@ public class BlurDatabaseHelper {
         return replies;
     }
 
+    /**
+     * All replies to all comments on a story, oldest first, in one query.
+     */
+    @NonNull
+    public List<Reply> getStoryReplies(@NonNull String storyId) {
+        return getStoryReplies(dbRO, storyId);
+    }
+
+    @NonNull
+    static List<Reply> getStoryReplies(@NonNull SQLiteDatabase db, @NonNull String storyId) {
+        String[] selArgs = new String[] {storyId};
+        String selection = DatabaseConstants.REPLY_COMMENTID + " IN (SELECT " + DatabaseConstants.COMMENT_ID +
+                           " FROM " + DatabaseConstants.COMMENT_TABLE +
+                           " WHERE " + DatabaseConstants.COMMENT_STORYID + " = ?)";
+        Cursor c = db.query(DatabaseConstants.REPLY_TABLE, null, selection, selArgs, null, null, DatabaseConstants.REPLY_DATE + " ASC");
+        List<Reply> replies = new ArrayList<Reply>(c.getCount());
+        while (c.moveToNext()) {
+            replies.add(Reply.fromCursor(c));
+        }
+        closeQuietly(c);
+        return replies;
+    }
+
+    /**
+     * Look up any number of user profiles, keyed by user ID. The IDs are bound in chunks of
+     * HASHES_PER_QUERY, so that each query stays under the bind limit and still finds its users
+     * by primary key.
+     */
+    @NonNull
+    public Map<String, UserProfile> getUserProfiles(@NonNull Collection<String> userIds) {
+        return getUserProfiles(dbRO, userIds);
+    }
+
+    @NonNull
+    static Map<String, UserProfile> getUserProfiles(@NonNull SQLiteDatabase db, @NonNull Collection<String> userIds) {
+        Map<String, UserProfile> profiles = new HashMap<String, UserProfile>(userIds.size());
+        if (userIds.isEmpty()) return profiles;
+        String[] ids = userIds.toArray(new String[0]);
+        for (int start = 0; start < ids.length; start += HASHES_PER_QUERY) {
+            String[] chunk = Arrays.copyOfRange(ids, start, Math.min(ids.length, start + HASHES_PER_QUERY));
+            Cursor c = db.rawQuery(DatabaseConstants.getUsersByIdQuery(chunk.length), chunk);
+            while (c.moveToNext()) {
+                UserProfile profile = UserProfile.fromCursor(c);
+                profiles.put(profile.userId, profile);
+            }
+            closeQuietly(c);
+        }
+        return profiles;
+    }
+
     public void insertReplyPlaceholder(@Nullable String storyId, @Nullable String userId, @Nullable String commentUserId, @Nullable String replyText) {
         // get a fresh copy of the comment so we can discover the ID
         Cursor c = dbRO.query(DatabaseConstants.COMMENT_TABLE, 
@@ -1498,87 +2254,153 @@ public class BlurDatabaseHelper {
         return result;
     }
 
-    public void cleanupDismissals() {
+    /**
+     * @return the number of dismissals deleted, at most limit.
+     */
+    public int cleanupDismissals(int limit) {
+        Calendar cutoffDate = Calendar.getInstance();
+        cutoffDate.add(Calendar.MONTH, -1);
+        return deleteChunk(DatabaseConstants.NOTIFY_DISMISS_TABLE,
+                           DatabaseConstants.NOTIFY_DISMISS_TIME + " < " + cutoffDate.getTime().getTime(),
+                           limit);
+    }
+
+    /**
+     * @return the number of feed tags deleted, at most limit.
+     */
+    public int cleanupFeedTags(int limit) {
+        return cleanupFeedTerms(feedTagsCache, DatabaseConstants.FEED_TAGS_TABLE, DatabaseConstants.FEED_TAGS_LAST_SEEN, limit);
+    }
+
+    /**
+     * @return the number of feed authors deleted, at most limit.
+     */
+    public int cleanupFeedAuthors(int limit) {
+        return cleanupFeedTerms(feedAuthorsCache, DatabaseConstants.FEED_AUTHORS_TABLE, DatabaseConstants.FEED_AUTHORS_LAST_SEEN, limit);
+    }
+
+    /**
+     * Clean up feed tags or authors the API hasn't reported in a month.
+     */
+    private int cleanupFeedTerms(@NonNull Map<String,FeedTermCounts> cache, @NonNull String table, @NonNull String lastSeenCol, int limit) {
         Calendar cutoffDate = Calendar.getInstance();
         cutoffDate.add(Calendar.MONTH, -1);
         synchronized (RW_MUTEX) {
-            int count = dbRW.delete(DatabaseConstants.NOTIFY_DISMISS_TABLE, 
-                        DatabaseConstants.NOTIFY_DISMISS_TIME + " < ?",
-                        new String[]{Long.toString(cutoffDate.getTime().getTime())});
-            com.newsblur.util.Log.d(this.getClass().getName(), "cleaned up dismissals: " + count);
+            int deleted = deleteChunk(table, lastSeenCol + " < " + cutoffDate.getTime().getTime(), limit);
+            if (deleted > 0) cache.clear();
+            return deleted;
         }
     }
 
-    private void putFeedTagsExtSync(@Nullable String feedId, @NonNull Collection<String> tags) {
-        dbRW.delete(DatabaseConstants.FEED_TAGS_TABLE,
-                    DatabaseConstants.FEED_TAGS_FEEDID + " = ?",
-                    new String[]{feedId}
-                   );
-        List<ContentValues> valuesList = new ArrayList<ContentValues>(tags.size());
-        for (String tag : tags) {
-            ContentValues values = new ContentValues();
-            values.put(DatabaseConstants.FEED_TAGS_FEEDID, feedId);
-            values.put(DatabaseConstants.FEED_TAGS_TAG, tag);
-            valuesList.add(values);
+    @NonNull
+    private static <V> Map<String,V> newLruCache(final int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<String,V>(maxSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,V> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * Bring the stored tags or authors of a feed in line with the full list just reported for
+     * it, writing only the terms that changed rather than rewriting the list.  The cache is not
+     * touched, so that the caller can update it once the write has committed.
+     *
+     * @return the terms of the feed as written, or null if none of them changed.
+     */
+    @Nullable
+    private FeedTermCounts putFeedTermsExtSync(@NonNull Map<String,FeedTermCounts> cache, @NonNull String table, @NonNull String feedIdCol,
+                                     @NonNull String termCol, @NonNull String countCol, @NonNull String lastSeenCol,
+                                     @NonNull String feedId, @NonNull Map<String,Integer> reported) {
+        FeedTermCounts current = getFeedTerms(cache, table, feedIdCol, termCol, countCol, lastSeenCol, feedId);
+        List<FeedTermCounts.Term> changes = current.changesFrom(reported, System.currentTimeMillis());
+        if (changes.isEmpty()) return null;
+        SQLiteStatement update = dbRW.compileStatement("UPDATE " + table +
+                                                       " SET " + countCol + " = ?, " + lastSeenCol + " = ?" +
+                                                       " WHERE " + feedIdCol + " = ? AND " + termCol + " = ?");
+        SQLiteStatement insert = dbRW.compileStatement("INSERT OR REPLACE INTO " + table +
+                                                       " (" + feedIdCol + ", " + termCol + ", " + countCol + ", " + lastSeenCol + ")" +
+                                                       " VALUES (?, ?, ?, ?)");
+        try {
+            for (FeedTermCounts.Term term : changes) {
+                boolean updated = false;
+                if (current.get(term.name) != null) {
+                    update.bindLong(1, term.count);
+                    update.bindLong(2, term.lastSeen);
+                    update.bindString(3, feedId);
+                    update.bindString(4, term.name);
+                    // fall back to an insert should the row have been deleted behind the cache
+                    updated = update.executeUpdateDelete() > 0;
+                }
+                if (!updated) {
+                    insert.bindString(1, feedId);
+                    insert.bindString(2, term.name);
+                    insert.bindLong(3, term.count);
+                    insert.bindLong(4, term.lastSeen);
+                    insert.executeInsert();
+                }
+            }
+        } finally {
+            update.close();
+            insert.close();
         }
-        bulkInsertValuesExtSync(DatabaseConstants.FEED_TAGS_TABLE, valuesList);
+        return current.with(changes);
     }
 
+    /**
+     * Get the stored tags or authors of a feed, from the cache if it has them.
+     */
     @NonNull
-    public List<String> getTagsForFeed(@Nullable String feedId) {
-        Cursor c = dbRO.query(DatabaseConstants.FEED_TAGS_TABLE, 
-                              new String[]{DatabaseConstants.FEED_TAGS_TAG}, 
-                              DatabaseConstants.FEED_TAGS_FEEDID + " = ?", 
-                              new String[]{feedId}, 
-                              null, 
-                              null, 
-                              DatabaseConstants.FEED_TAGS_TAG + " ASC"
-                             );
-        List<String> result = new ArrayList<String>(c.getCount());
-        while (c.moveToNext()) {
-            result.add(c.getString(c.getColumnIndexOrThrow(DatabaseConstants.FEED_TAGS_TAG)));
+    private FeedTermCounts getFeedTerms(@NonNull Map<String,FeedTermCounts> cache, @NonNull String table, @NonNull String feedIdCol,
+                                        @NonNull String termCol, @NonNull String countCol, @NonNull String lastSeenCol,
+                                        @Nullable String feedId) {
+        if (feedId == null) return FeedTermCounts.EMPTY;
+        FeedTermCounts cached = cache.get(feedId);
+        if (cached != null) return cached;
+        Cursor c = dbRO.query(table, new String[]{termCol, countCol, lastSeenCol}, feedIdCol + " = ?", new String[]{feedId}, null, null, null);
+        List<FeedTermCounts.Term> terms = new ArrayList<FeedTermCounts.Term>(c.getCount());
+        try {
+            while (c.moveToNext()) {
+                terms.add(new FeedTermCounts.Term(c.getString(0), c.getInt(1), c.getLong(2)));
+            }
+        } finally {
+            closeQuietly(c);
         }
-        closeQuietly(c);
+        FeedTermCounts result = FeedTermCounts.of(terms);
+        cache.put(feedId, result);
         return result;
     }
-        
-    private void putFeedAuthorsExtSync(@Nullable String feedId, @NonNull Collection<String> authors) {
-        dbRW.delete(DatabaseConstants.FEED_AUTHORS_TABLE,
-                    DatabaseConstants.FEED_AUTHORS_FEEDID + " = ?",
-                    new String[]{feedId}
-                   );
-        List<ContentValues> valuesList = new ArrayList<ContentValues>(authors.size());
-        for (String author : authors) {
-            ContentValues values = new ContentValues();
-            values.put(DatabaseConstants.FEED_AUTHORS_FEEDID, feedId);
-            values.put(DatabaseConstants.FEED_AUTHORS_AUTHOR, author);
-            valuesList.add(values);
-        }
-        bulkInsertValuesExtSync(DatabaseConstants.FEED_AUTHORS_TABLE, valuesList);
+
+    /**
+     * Get the known tags of a feed, those on the most stories first.
+     */
+    @NonNull
+    public List<String> getTagsForFeed(@Nullable String feedId) {
+        FeedTermCounts tags = getFeedTerms(feedTagsCache, DatabaseConstants.FEED_TAGS_TABLE, DatabaseConstants.FEED_TAGS_FEEDID,
+                                           DatabaseConstants.FEED_TAGS_TAG, DatabaseConstants.FEED_TAGS_COUNT, DatabaseConstants.FEED_TAGS_LAST_SEEN,
+                                           feedId);
+        return new ArrayList<String>(tags.getRanked());
     }
 
+    /**
+     * Get the known authors of a feed, those of the most stories first.
+     */
     @NonNull
     public List<String> getAuthorsForFeed(@Nullable String feedId) {
-        Cursor c = dbRO.query(DatabaseConstants.FEED_AUTHORS_TABLE, 
-                              new String[]{DatabaseConstants.FEED_AUTHORS_AUTHOR}, 
-                              DatabaseConstants.FEED_AUTHORS_FEEDID + " = ?", 
-                              new String[]{feedId}, 
-                              null, 
-                              null, 
-                              DatabaseConstants.FEED_AUTHORS_AUTHOR + " ASC"
-                             );
-        List<String> result = new ArrayList<String>(c.getCount());
-        while (c.moveToNext()) {
-            result.add(c.getString(c.getColumnIndexOrThrow(DatabaseConstants.FEED_AUTHORS_AUTHOR)));
-        }
-        closeQuietly(c);
-        return result;
+        FeedTermCounts authors = getFeedTerms(feedAuthorsCache, DatabaseConstants.FEED_AUTHORS_TABLE, DatabaseConstants.FEED_AUTHORS_FEEDID,
+                                              DatabaseConstants.FEED_AUTHORS_AUTHOR, DatabaseConstants.FEED_AUTHORS_COUNT, DatabaseConstants.FEED_AUTHORS_LAST_SEEN,
+                                              feedId);
+        return new ArrayList<String>(authors.getRanked());
     }
 
     public void renameFeed(@Nullable String feedId, @Nullable String newFeedName) {
         ContentValues values = new ContentValues();
         values.put(DatabaseConstants.FEED_TITLE, newFeedName);
-        synchronized (RW_MUTEX) {dbRW.update(DatabaseConstants.FEED_TABLE, values, DatabaseConstants.FEED_ID + " = ?", new String[]{feedId});}
+        synchronized (RW_MUTEX) {
+            dbRW.update(DatabaseConstants.FEED_TABLE, values, DatabaseConstants.FEED_ID + " = ?", new String[]{feedId});
+            storyChanges.invalidate();
+        }
     }
 
     public static void closeQuietly(@Nullable Cursor c) {
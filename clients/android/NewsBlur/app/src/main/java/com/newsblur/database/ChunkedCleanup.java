@@ -0,0 +1,139 @@
+package com.newsblur.database;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs deletes a bounded chunk at a time, so that no single write holds the DB lock for long.
+ * The chunk size is adjusted as it goes to keep each chunk near a target duration, and the
+ * whole run stops once its time budget is spent, leaving the rest for next time.  Between
+ * chunks the tasks hold no lock, and the runner pauses briefly so that waiting UI reads and
+ * sync writes can get in.
+ */
+public class ChunkedCleanup {
+
+    public interface Task {
+        /**
+         * Delete at most the given number of rows, taking and releasing any locks needed.
+         *
+         * @return the number of rows deleted; fewer than the limit means the task is done.
+         */
+        int deleteChunk(int limit);
+    }
+
+    public interface Clock {
+        long millis();
+    }
+
+    public interface Condition {
+        boolean isTrue();
+    }
+
+    /** What a run got through, for logging and for deciding whether to run again. */
+    public static class Stats {
+        /** Rows deleted, by task name, in the order the tasks ran. */
+        public final Map<String,Integer> deleted = new LinkedHashMap<String,Integer>();
+        public int chunks;
+        public long longestChunkMillis;
+        public long elapsedMillis;
+        /** Whether every task ran to completion. */
+        public boolean finished;
+
+        public int getTotalDeleted() {
+            int total = 0;
+            for (int count : deleted.values()) total += count;
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %d rows %s in %d chunks over %dms (longest %dms)",
+                    finished ? "finished:" : "paused:", getTotalDeleted(), deleted, chunks, elapsedMillis, longestChunkMillis);
+        }
+    }
+
+    private final List<String> names = new ArrayList<String>();
+    private final List<Task> tasks = new ArrayList<Task>();
+    private final Clock clock;
+    private final int minChunk;
+    private final int maxChunk;
+    private final long targetChunkMillis;
+    private final long pauseMillis;
+
+    /**
+     * @param targetChunkMillis how long a single chunk, and so a single hold of the DB lock, should take.
+     * @param pauseMillis how long to stand aside between chunks.
+     */
+    public ChunkedCleanup(Clock clock, int minChunk, int maxChunk, long targetChunkMillis, long pauseMillis) {
+        this.clock = clock;
+        this.minChunk = minChunk;
+        this.maxChunk = maxChunk;
+        this.targetChunkMillis = targetChunkMillis;
+        this.pauseMillis = pauseMillis;
+    }
+
+    public ChunkedCleanup add(String name, Task task) {
+        names.add(name);
+        tasks.add(task);
+        return this;
+    }
+
+    /**
+     * Run the tasks in order until they are all done, the budget is spent or stop is true.
+     */
+    public Stats run(long budgetMillis, Condition stop) {
+        Stats stats = new Stats();
+        long startTime = clock.millis();
+        int chunkSize = minChunk;
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                String name = names.get(i);
+                Task task = tasks.get(i);
+                int deleted = 0;
+                while (true) {
+                    if (stop.isTrue() || Thread.currentThread().isInterrupted()) return stats;
+                    if (clock.millis() - startTime >= budgetMillis) return stats;
+                    long chunkStart = clock.millis();
+                    int count = task.deleteChunk(chunkSize);
+                    long chunkMillis = clock.millis() - chunkStart;
+                    deleted += count;
+                    stats.deleted.put(name, deleted);
+                    stats.chunks++;
+                    stats.longestChunkMillis = Math.max(stats.longestChunkMillis, chunkMillis);
+                    if (count < chunkSize) break;
+                    chunkSize = nextChunkSize(chunkSize, chunkMillis);
+                    pause();
+                }
+            }
+            stats.finished = true;
+            return stats;
+        } finally {
+            stats.elapsedMillis = clock.millis() - startTime;
+        }
+    }
+
+    /**
+     * Grow chunks that finish well inside the target and shrink ones that overrun it.
+     */
+    private int nextChunkSize(int chunkSize, long chunkMillis) {
+        int next = chunkSize;
+        if (chunkMillis > targetChunkMillis) {
+            next = chunkSize / 2;
+        } else if (chunkMillis * 2 < targetChunkMillis) {
+            next = chunkSize * 2;
+        }
+        return Math.max(minChunk, Math.min(maxChunk, next));
+    }
+
+    private void pause() {
+        if (pauseMillis <= 0) return;
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.newsblur.database
+
+import android.database.sqlite.SQLiteDatabase
+import com.newsblur.domain.Comment
+import com.newsblur.domain.Reply
+import com.newsblur.domain.UserProfile
+
+/**
+ * Everything needed to render the comment section of one story: its comments, the replies to
+ * each, and the profile of every user either of them refers to.
+ */
+class CommentThread(
+        val comments: List<Comment>,
+        private val replies: Map<String, List<Reply>>,
+        private val profiles: Map<String, UserProfile>,
+) {
+    fun getReplies(commentId: String?): List<Reply> = replies[commentId] ?: emptyList()
+
+    fun getProfile(userId: String?): UserProfile? = profiles[userId]
+}
+
+/**
+ * Loads a story's [CommentThread] in set-based queries rather than a lookup per comment, reply
+ * and liking user: one for the comments, one for all their replies and one per
+ * [BlurDatabaseHelper.HASHES_PER_QUERY] user profiles referenced by either.
+ */
+class CommentThreadLoader(private val source: Source) {
+
+    interface Source {
+        fun getComments(storyId: String): List<Comment>
+        fun getStoryReplies(storyId: String): List<Reply>
+        fun getUserProfiles(userIds: Collection<String>): Map<String, UserProfile>
+    }
+
+    constructor(dbHelper: BlurDatabaseHelper) : this(object : Source {
+        override fun getComments(storyId: String): List<Comment> = dbHelper.getComments(storyId)
+        override fun getStoryReplies(storyId: String): List<Reply> = dbHelper.getStoryReplies(storyId)
+        override fun getUserProfiles(userIds: Collection<String>): Map<String, UserProfile> = dbHelper.getUserProfiles(userIds)
+    })
+
+    internal constructor(db: SQLiteDatabase) : this(object : Source {
+        override fun getComments(storyId: String): List<Comment> = BlurDatabaseHelper.getComments(db, storyId)
+        override fun getStoryReplies(storyId: String): List<Reply> = BlurDatabaseHelper.getStoryReplies(db, storyId)
+        override fun getUserProfiles(userIds: Collection<String>): Map<String, UserProfile> = BlurDatabaseHelper.getUserProfiles(db, userIds)
+    })
+
+    /**
+     * @param sharedUserIds users who shared the story, whose profiles are wanted for the share bar.
+     * @param includePublic whether to keep comments by users who aren't friends.
+     */
+    fun load(storyId: String, sharedUserIds: Array<String>?, includePublic: Boolean): CommentThread {
+        val comments = source.getComments(storyId).filter { includePublic || it.byFriend }
+        val userIds = HashSet<String>()
+        sharedUserIds?.let { userIds.addAll(it) }
+        for (comment in comments) {
+            comment.userId?.let { userIds.add(it) }
+            comment.sourceUserId?.let { if (it.isNotEmpty()) userIds.add(it) }
+            comment.likingUsers?.let { userIds.addAll(it) }
+        }
+
+        val replies = HashMap<String, MutableList<Reply>>()
+        if (comments.isNotEmpty()) {
+            val commentIds = comments.mapTo(HashSet()) { it.id }
+            for (reply in source.getStoryReplies(storyId)) {
+                if (!commentIds.contains(reply.commentId)) continue
+                replies.getOrPut(reply.commentId) { ArrayList() }.add(reply)
+                reply.userId?.let { userIds.add(it) }
+            }
+        }
+
+        userIds.remove("")
+        val profiles = if (userIds.isEmpty()) emptyMap() else source.getUserProfiles(userIds)
+        return CommentThread(comments, replies, profiles)
+    }
+}
+
+/**
+ * A bounded cache of parsed comment and reply text, keyed by comment or reply ID so that paging
+ * back and forth over a story doesn't re-parse the HTML of its whole thread. Entries are only
+ * reused while the raw text they were parsed from is unchanged, so edits are picked up.
+ */
+class ParsedTextCache(
+        private val maxSize: Int,
+        private val parse: (String) -> CharSequence,
+) {
+    private class Parsed(val text: String, val parsed: CharSequence)
+
+    private val entries = object : LinkedHashMap<String, Parsed>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Parsed>?): Boolean = size > maxSize
+    }
+
+    @Synchronized
+    fun get(id: String?, text: String?): CharSequence {
+        if (text == null) return ""
+        if (id == null) return parse(text)
+        val cached = entries[id]
+        if (cached != null && cached.text == text) return cached.parsed
+        val parsed = parse(text)
+        entries[id] = Parsed(text, parsed)
+        return parsed
+    }
+
+    @Synchronized
+    fun size(): Int = entries.size
+}
@@ -9,6 +9,7 @@ import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import com.newsblur.domain.Feed;
+import com.newsblur.util.FeedSet;
 import com.newsblur.util.ReadFilter;
 import com.newsblur.util.StateFilter;
 import com.newsblur.util.StoryOrder;
@@ -22,6 +23,7 @@ public class DatabaseConstants {
 
 	private static final String TEXT = " TEXT";
 	private static final String INTEGER = " INTEGER";
+	private static final String BLOB = " BLOB";
 
 	public static final String FOLDER_TABLE = "folders";
 	public static final String FOLDER_NAME = "folder_name";
@@ -109,13 +111,24 @@ public class DatabaseConstants {
     public static final String STORY_INFREQUENT = "infrequent";
     public static final String STORY_HAS_MODIFICATIONS = "has_modifications";
 
+    // reading sessions are now held in memory; this table is only dropped from older DBs
     public static final String READING_SESSION_TABLE = "reading_session";
-    public static final String READING_SESSION_STORY_HASH = "session_story_hash";
 
     public static final String STORY_TEXT_TABLE = "storytext";
     public static final String STORY_TEXT_STORY_HASH = "story_hash";
     public static final String STORY_TEXT_STORY_TEXT = "story_text";
 
+    // the content of modified stories with and without their changes marked up, as fetched for "show changes"
+    public static final String STORY_REVISION_TABLE = "story_revision";
+    public static final String STORY_REVISION_STORY_HASH = "story_hash";
+    public static final String STORY_REVISION_SHOW_CHANGES = "show_changes";
+    public static final String STORY_REVISION_CONTENT = "content";
+
+    // one row per user tag on a saved story, so saved stories can be looked up by tag through an index
+    public static final String STORY_USER_TAG_MAP_TABLE = "story_user_tag_map";
+    public static final String STORY_USER_TAG_MAP_STORY_HASH = "story_hash";
+    public static final String STORY_USER_TAG_MAP_TAG = "tag";
+
 	public static final String COMMENT_TABLE = "comments";
 	public static final String COMMENT_ID = BaseColumns._ID;
 	public static final String COMMENT_STORYID = "comment_storyid";
@@ -163,15 +176,24 @@ public class DatabaseConstants {
     public static final String FEED_TAGS_TABLE = "feed_tags";
     public static final String FEED_TAGS_FEEDID = "feed_id";
     public static final String FEED_TAGS_TAG = "tag";
+    public static final String FEED_TAGS_COUNT = "count";
+    public static final String FEED_TAGS_LAST_SEEN = "last_seen";
 
     public static final String FEED_AUTHORS_TABLE = "feed_authors";
     public static final String FEED_AUTHORS_FEEDID = "feed_id";
     public static final String FEED_AUTHORS_AUTHOR = "author";
+    public static final String FEED_AUTHORS_COUNT = "count";
+    public static final String FEED_AUTHORS_LAST_SEEN = "last_seen";
 
     public static final String SYNC_METADATA_TABLE = "sync_metadata";
     public static final String SYNC_METADATA_KEY = "key";
     public static final String SYNC_METADATA_VALUE = "value";
 
+    public static final String WORK_QUEUE_TABLE = "work_queue";
+    public static final String WORK_QUEUE_ID = BaseColumns._ID;
+    public static final String WORK_QUEUE_NAME = "queue";
+    public static final String WORK_QUEUE_ITEM = "item";
+
 	static final String FOLDER_SQL = "CREATE TABLE " + FOLDER_TABLE + " (" +
 		FOLDER_NAME + TEXT + " PRIMARY KEY, " +  
         FOLDER_PARENT_NAMES + TEXT + ", " +
@@ -247,7 +269,8 @@ public class DatabaseConstants {
 	static final String STORY_SQL = "CREATE TABLE " + STORY_TABLE + " (" + 
 		STORY_HASH + TEXT + " PRIMARY KEY, " +
 		STORY_AUTHORS + TEXT + ", " +
-		STORY_CONTENT + TEXT + ", " +
+		// packed by StoryContentCodec
+		STORY_CONTENT + BLOB + ", " +
 		STORY_SHORT_CONTENT + TEXT + ", " +
 		STORY_TIMESTAMP + INTEGER + ", " +
 		STORY_SHARED_DATE + INTEGER + ", " +
@@ -277,15 +300,30 @@ public class DatabaseConstants {
         STORY_HAS_MODIFICATIONS + INTEGER +
         ")";
 
-    static final String READING_SESSION_SQL = "CREATE TABLE " + READING_SESSION_TABLE + " (" +
-        READING_SESSION_STORY_HASH + TEXT +
-        ")";
-
     static final String STORY_TEXT_SQL = "CREATE TABLE " + STORY_TEXT_TABLE + " (" +
         STORY_TEXT_STORY_HASH + TEXT + ", " +
-        STORY_TEXT_STORY_TEXT + TEXT +
+        // packed by StoryContentCodec
+        STORY_TEXT_STORY_TEXT + BLOB +
+        ")";
+
+    static final String STORY_REVISION_SQL = "CREATE TABLE " + STORY_REVISION_TABLE + " (" +
+        STORY_REVISION_STORY_HASH + TEXT + " NOT NULL, " +
+        STORY_REVISION_SHOW_CHANGES + INTEGER + " NOT NULL, " +
+        // packed by StoryContentCodec
+        STORY_REVISION_CONTENT + BLOB + ", " +
+        "PRIMARY KEY (" + STORY_REVISION_STORY_HASH + ", " + STORY_REVISION_SHOW_CHANGES + ")" +
+        ")";
+
+    // keyed by tag first, so that finding the stories with a tag is a range scan of the key
+    static final String STORY_USER_TAG_MAP_SQL = "CREATE TABLE " + STORY_USER_TAG_MAP_TABLE + " (" +
+        STORY_USER_TAG_MAP_STORY_HASH + TEXT + " NOT NULL, " +
+        STORY_USER_TAG_MAP_TAG + TEXT + " NOT NULL, " +
+        "PRIMARY KEY (" + STORY_USER_TAG_MAP_TAG + ", " + STORY_USER_TAG_MAP_STORY_HASH + ")" +
         ")";
 
+    static final String STORY_USER_TAG_MAP_INDEX_SQL = "CREATE INDEX " + STORY_USER_TAG_MAP_TABLE + "_by_story" +
+        " ON " + STORY_USER_TAG_MAP_TABLE + " (" + STORY_USER_TAG_MAP_STORY_HASH + ")";
+
 	static final String CLASSIFIER_SQL = "CREATE TABLE " + CLASSIFIER_TABLE + " (" +
 		CLASSIFIER_ID + TEXT + ", " +
 		CLASSIFIER_KEY + TEXT + ", " + 
@@ -325,14 +363,21 @@ public class DatabaseConstants {
         NOTIFY_DISMISS_TIME + INTEGER + " NOT NULL " +
         ")";
 
+    // counts are as last reported by the API; terms it stops reporting drop to zero until cleaned up
     static final String FEED_TAGS_SQL = "CREATE TABLE " + FEED_TAGS_TABLE + " (" +
-        FEED_TAGS_FEEDID + TEXT + ", " +
-        FEED_TAGS_TAG + TEXT +
+        FEED_TAGS_FEEDID + TEXT + " NOT NULL, " +
+        FEED_TAGS_TAG + TEXT + " NOT NULL, " +
+        FEED_TAGS_COUNT + INTEGER + " NOT NULL DEFAULT 0, " +
+        FEED_TAGS_LAST_SEEN + INTEGER + " NOT NULL, " +
+        "PRIMARY KEY (" + FEED_TAGS_FEEDID + ", " + FEED_TAGS_TAG + ")" +
         ")";
 
     static final String FEED_AUTHORS_SQL = "CREATE TABLE " + FEED_AUTHORS_TABLE + " (" +
-        FEED_AUTHORS_FEEDID + TEXT + ", " +
-        FEED_AUTHORS_AUTHOR + TEXT +
+        FEED_AUTHORS_FEEDID + TEXT + " NOT NULL, " +
+        FEED_AUTHORS_AUTHOR + TEXT + " NOT NULL, " +
+        FEED_AUTHORS_COUNT + INTEGER + " NOT NULL DEFAULT 0, " +
+        FEED_AUTHORS_LAST_SEEN + INTEGER + " NOT NULL, " +
+        "PRIMARY KEY (" + FEED_AUTHORS_FEEDID + ", " + FEED_AUTHORS_AUTHOR + ")" +
         ")";
 
     static final String SYNC_METADATA_SQL = "CREATE TABLE " + SYNC_METADATA_TABLE + " (" +
@@ -340,6 +385,14 @@ public class DatabaseConstants {
         SYNC_METADATA_VALUE + TEXT +
         ")";
 
+    // rows are ordered by ID, so the first insertion of an item fixes its place in the queue
+    static final String WORK_QUEUE_SQL = "CREATE TABLE " + WORK_QUEUE_TABLE + " (" +
+        WORK_QUEUE_ID + INTEGER + " PRIMARY KEY AUTOINCREMENT, " +
+        WORK_QUEUE_NAME + TEXT + " NOT NULL, " +
+        WORK_QUEUE_ITEM + TEXT + " NOT NULL, " +
+        "UNIQUE (" + WORK_QUEUE_NAME + ", " + WORK_QUEUE_ITEM + ")" +
+        ")";
+
 	private static final String[] BASE_STORY_COLUMNS = {
 		STORY_AUTHORS, STORY_SHORT_CONTENT, STORY_TIMESTAMP, STORY_SHARED_DATE,
         STORY_TABLE + "." + STORY_FEED_ID, STORY_TABLE + "." + STORY_ID,
@@ -370,13 +423,57 @@ public class DatabaseConstants {
     public static final String STORY_QUERY_BASE_2 =
         " GROUP BY " + STORY_HASH;
 
-    public static final String SESSION_STORY_QUERY_BASE = 
-        STORY_QUERY_BASE_1 +
-        STORY_HASH + " IN (" +
-        " SELECT DISTINCT " + READING_SESSION_STORY_HASH +
-        " FROM " + READING_SESSION_TABLE +
-        ")" + 
-        STORY_QUERY_BASE_2;
+    /**
+     * Selects the users with the given number of user ID arguments, which are looked up by key.
+     */
+    public static String getUsersByIdQuery(int idCount) {
+        StringBuilder q = new StringBuilder("SELECT * FROM " + USER_TABLE + " WHERE " + USER_USERID + " IN (");
+        appendPlaceholders(q, idCount);
+        q.append(")");
+        return q.toString();
+    }
+
+    /**
+     * Selects the displayable rows of the stories with the given number of story hash arguments,
+     * in no particular order.
+     */
+    public static String getStoriesByHashQuery(int hashCount) {
+        StringBuilder q = new StringBuilder(STORY_QUERY_BASE_1);
+        q.append(STORY_TABLE + "." + STORY_HASH + " IN (");
+        appendPlaceholders(q, hashCount);
+        q.append(")");
+        return q.toString();
+    }
+
+    /**
+     * Selects just the hash, read state and feed of the displayable stories with the given number
+     * of story hash arguments, which is enough to index a reading session without its rows.
+     */
+    public static String getStoryIndexByHashQuery(int hashCount) {
+        StringBuilder q = new StringBuilder("SELECT ");
+        q.append(STORY_TABLE + "." + STORY_HASH + ", " + STORY_READ + ", " + STORY_TABLE + "." + STORY_FEED_ID);
+        q.append(" FROM " + STORY_TABLE);
+        q.append(" INNER JOIN " + FEED_TABLE);
+        q.append(" ON " + STORY_TABLE + "." + STORY_FEED_ID + " = " + FEED_TABLE + "." + FEED_ID);
+        q.append(" WHERE " + STORY_TABLE + "." + STORY_HASH + " IN (");
+        appendPlaceholders(q, hashCount);
+        q.append(")");
+        return q.toString();
+    }
+
+    public static String getStoryUserTagMapByHashSelection(int hashCount) {
+        StringBuilder q = new StringBuilder(STORY_USER_TAG_MAP_STORY_HASH + " IN (");
+        appendPlaceholders(q, hashCount);
+        q.append(")");
+        return q.toString();
+    }
+
+    private static void appendPlaceholders(StringBuilder q, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) q.append(",");
+            q.append("?");
+        }
+    }
 
     public static String NOTIFY_FOCUS_STORY_QUERY = 
         STORY_QUERY_BASE_1 +
@@ -395,10 +492,6 @@ public class DatabaseConstants {
     public static final String JOIN_STORIES_ON_SOCIALFEED_MAP = 
         " INNER JOIN " + STORY_TABLE + " ON " + STORY_TABLE + "." + STORY_ID + " = " + SOCIALFEED_STORY_MAP_TABLE + "." + SOCIALFEED_STORY_STORYID;
 
-    public static final String READ_STORY_ORDER = STORY_LAST_READ_DATE + " DESC";
-
-    public static final String SHARED_STORY_ORDER = STORY_SHARED_DATE + " DESC";
-
     /**
      * Appends to the given story query any and all selection statements that are required to satisfy the specified
      * filtration parameters.
@@ -441,23 +534,22 @@ public class DatabaseConstants {
         }
     }
     
-    public static String getStorySortOrder(StoryOrder storyOrder) {
-        // it is not uncommon for a feed to have multiple stories with exactly the same timestamp. we
-        // arbitrarily pick a second sort column so sortation is stable.
-        if (storyOrder == StoryOrder.NEWEST) {
-            return STORY_TIMESTAMP + " DESC, " + STORY_HASH + " DESC";
-        } else {
-            return STORY_TIMESTAMP + " ASC, " + STORY_HASH + " ASC";
-        }
+    /**
+     * The story column a reading session for the given feed set is ordered by.  Stories with the
+     * same value are ordered by hash, so the order is stable.
+     */
+    public static String getSessionSortColumn(FeedSet fs) {
+        if (fs.isAllRead()) return STORY_LAST_READ_DATE;
+        if (fs.isGlobalShared()) return STORY_SHARED_DATE;
+        // "newest" for saved stories means "most recently saved"
+        if (fs.isAllSaved()) return STORY_STARRED_DATE;
+        return STORY_TIMESTAMP;
     }
 
-    public static String getSavedStoriesSortOrder(StoryOrder storyOrder) {
-        // "newest" in this context means "most recently saved"
-        if (storyOrder == StoryOrder.NEWEST) {
-            return STORY_STARRED_DATE + " DESC";
-        } else {
-            return STORY_STARRED_DATE + " ASC";
-        }
+    public static boolean isSessionSortDescending(FeedSet fs, StoryOrder storyOrder) {
+        // recently read and shared stories always come first
+        if (fs.isAllRead() || fs.isGlobalShared()) return true;
+        return storyOrder == StoryOrder.NEWEST;
     }
     
     public static Long nullIfZero(Long l) {
@@ -481,5 +573,12 @@ public class DatabaseConstants {
         return JsonHelper.fromJson(flat, new TypeToken<List<String>>(){}.getType());
     }
 
-    public static final String SYNC_METADATA_KEY_SESSION_FEED_SET = "session_feed_set";
+    public static final String SYNC_METADATA_KEY_UNREADS_RECONCILE_PENDING = "unreads_reconcile_pending";
+
+    // names of the persisted background sync work queues
+    public static final String WORK_QUEUE_UNREADS = "unreads";
+    public static final String WORK_QUEUE_TEXT = "text";
+    public static final String WORK_QUEUE_IMAGES = "images";
+    public static final String WORK_QUEUE_THUMBNAILS = "thumbnails";
+    public static final String WORK_QUEUE_REVISIONS = "revisions";
 }
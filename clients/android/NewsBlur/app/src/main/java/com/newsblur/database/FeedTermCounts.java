@@ -0,0 +1,142 @@
+package com.newsblur.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot of the tags or authors known for one feed, each with the number of stories the API
+ * last reported for it and when it was last reported at all.  Every page of a feed's stories
+ * comes with the feed's full list again, so rather than rewriting that list each time, pages
+ * are diffed against the snapshot and only the terms that actually changed are written.
+ * Snapshots are never modified, so they can be shared with readers without locking.
+ */
+public class FeedTermCounts {
+
+    /** How stale a term's last-seen time may get before an otherwise unchanged sighting is written. */
+    static final long LAST_SEEN_REFRESH_MILLIS = 24L * 60L * 60L * 1000L;
+
+    public static class Term {
+        public final String name;
+        public final int count;
+        public final long lastSeen;
+
+        public Term(String name, int count, long lastSeen) {
+            this.name = name;
+            this.count = count;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    // most reported first, then most recently seen, then by name
+    private static final Comparator<Term> RANKING = new Comparator<Term>() {
+        @Override
+        public int compare(Term a, Term b) {
+            if (a.count != b.count) return (a.count > b.count) ? -1 : 1;
+            if (a.lastSeen != b.lastSeen) return (a.lastSeen > b.lastSeen) ? -1 : 1;
+            return a.name.compareToIgnoreCase(b.name);
+        }
+    };
+
+    public static final FeedTermCounts EMPTY = new FeedTermCounts(Collections.<String,Term>emptyMap());
+
+    private final Map<String,Term> terms;
+    private List<String> ranked;
+
+    private FeedTermCounts(Map<String,Term> terms) {
+        this.terms = terms;
+    }
+
+    public static FeedTermCounts of(Collection<Term> terms) {
+        Map<String,Term> map = new HashMap<String,Term>(terms.size());
+        for (Term term : terms) {
+            map.put(term.name, term);
+        }
+        return new FeedTermCounts(map);
+    }
+
+    /**
+     * Read the [name, count, ...] tuples the API sends for a feed's tags and authors.  A tuple
+     * with no usable count still shows the term exists, so it counts once.
+     */
+    public static Map<String,Integer> fromApiTuples(String[][] tuples) {
+        Map<String,Integer> result = new LinkedHashMap<String,Integer>(tuples.length);
+        for (String[] tuple : tuples) {
+            if ((tuple == null) || (tuple.length < 1) || (tuple[0] == null)) continue;
+            int count = 1;
+            if (tuple.length > 1 && tuple[1] != null) {
+                try {
+                    count = Math.max(0, (int) Double.parseDouble(tuple[1]));
+                } catch (NumberFormatException nfe) {
+                    // keep the default
+                }
+            }
+            Integer existing = result.get(tuple[0]);
+            if ((existing == null) || (existing < count)) result.put(tuple[0], count);
+        }
+        return result;
+    }
+
+    public Term get(String name) {
+        return terms.get(name);
+    }
+
+    public int size() {
+        return terms.size();
+    }
+
+    /**
+     * Find the terms to write so that the stored terms reflect a newly reported list: those that
+     * are new or whose count has changed, those whose last-seen time has gone stale, and those
+     * that are no longer reported, whose count drops to zero while their last-seen time is kept.
+     */
+    public List<Term> changesFrom(Map<String,Integer> reported, long now) {
+        List<Term> changes = new ArrayList<Term>();
+        for (Map.Entry<String,Integer> entry : reported.entrySet()) {
+            Term current = terms.get(entry.getKey());
+            int count = entry.getValue();
+            if ((current == null) || (current.count != count) || (now - current.lastSeen >= LAST_SEEN_REFRESH_MILLIS)) {
+                changes.add(new Term(entry.getKey(), count, now));
+            }
+        }
+        for (Term current : terms.values()) {
+            if ((current.count != 0) && !reported.containsKey(current.name)) {
+                changes.add(new Term(current.name, 0, current.lastSeen));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * A new snapshot with the given changes applied.
+     */
+    public FeedTermCounts with(Collection<Term> changes) {
+        if (changes.isEmpty()) return this;
+        Map<String,Term> map = new HashMap<String,Term>(terms);
+        for (Term term : changes) {
+            map.put(term.name, term);
+        }
+        return new FeedTermCounts(map);
+    }
+
+    /**
+     * The names of the terms, most reported first.
+     */
+    public synchronized List<String> getRanked() {
+        if (ranked == null) {
+            List<Term> sorted = new ArrayList<Term>(terms.values());
+            Collections.sort(sorted, RANKING);
+            List<String> names = new ArrayList<String>(sorted.size());
+            for (Term term : sorted) {
+                names.add(term.name);
+            }
+            ranked = Collections.unmodifiableList(names);
+        }
+        return ranked;
+    }
+}
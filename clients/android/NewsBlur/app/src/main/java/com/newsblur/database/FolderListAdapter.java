@@ -12,10 +12,8 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -45,7 +43,6 @@ import com.newsblur.domain.StarredCount;
 import com.newsblur.domain.SocialFeed;
 import com.newsblur.util.Session;
 import com.newsblur.util.AppConstants;
-import com.newsblur.util.FeedListOrder;
 import com.newsblur.util.SessionDataSource;
 import com.newsblur.util.SpacingStyle;
 import com.newsblur.util.FeedSet;
@@ -80,12 +77,8 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
     /** Total active feeds. */
     public int totalActiveFeedCount = 0;
 
-    /** Feeds, indexed by feed ID. */
-    private Map<String,Feed> feeds = Collections.emptyMap();
-    /** Neutral counts for active feeds, indexed by feed ID. */
-    private Map<String,Integer> feedNeutCounts = Collections.emptyMap();
-    /** Positive counts for active feeds, indexed by feed ID. */
-    private Map<String,Integer> feedPosCounts = Collections.emptyMap();
+    /** Feeds and folders, which keep their identity and are updated in place as cursors change. */
+    private final FolderTree tree = new FolderTree();
     /** Total neutral unreads for all feeds. */
     public int totalNeutCount = 0;
     /** Total positive unreads for all feeds. */
@@ -93,18 +86,14 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
     /** Saved counts for active feeds, indexed by feed ID. */
     private Map<String,Integer> feedSavedCounts = Collections.emptyMap();
 
-    /** Folders, indexed by canonical name. */
-    private Map<String,Folder> folders = Collections.emptyMap();
-    /** Folders, indexed by flat name. */
-    private Map<String,Folder> flatFolders = Collections.emptyMap();
     /** Flat names of currently displayed folders in display order. */
     private List<String> activeFolderNames;
     /** List of currently displayed feeds for a folder, ordered the same as activeFolderNames. */
     private List<List<Feed>> activeFolderChildren;
-    /** List of folder neutral counts, ordered the same as activeFolderNames. */
-    private List<Integer> folderNeutCounts;
-    /** List of foler positive counts, ordered the same as activeFolderNames. */
-    private List<Integer> folderPosCounts;
+    /** List of displayed folders, null for special rows, ordered the same as activeFolderNames. */
+    private List<FolderTree.FolderNode> activeFolderNodes;
+    /** Whether the special rows or ordering of groups might have changed since they were laid out. */
+    private boolean groupsDirty = true;
 
     /** Starred story sets in display order. */
     private List<StarredCount> starredCountsByTag = Collections.emptyList();
@@ -200,7 +189,8 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
 			TextView folderTitle = v.findViewById(R.id.row_foldername);
 		    folderTitle.setText(folderName);
 		    folderTitle.setTextSize(textSize * defaultTextSize_childName);
-            bindCountViews(v, folderNeutCounts.get(groupPosition), folderPosCounts.get(groupPosition), false);
+            FolderTree.FolderNode folder = activeFolderNodes.get(groupPosition);
+            bindCountViews(v, folder.neutCount, folder.posCount, false);
             v.findViewById(R.id.row_foldersums).setVisibility(isExpanded ? View.INVISIBLE : View.VISIBLE);
             ImageView folderIconView = v.findViewById(R.id.row_folder_icon);
             if ( folderIconView != null ) {
@@ -426,14 +416,11 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
      */
     public String getGroupFolderName(int groupPosition) {
         if (isRowRootFolder(groupPosition)) return AppConstants.ROOT_FOLDER;
-        String flatFolderName = activeFolderNames.get(groupPosition);
-        Folder folder = flatFolders.get(flatFolderName);
-        return folder.name;
+        return activeFolderNodes.get(groupPosition).folder.name;
     }
 
     public Folder getGroupFolder(int groupPosition) {
-        String flatFolderName = activeFolderNames.get(groupPosition);
-        return flatFolders.get(flatFolderName);
+        return activeFolderNodes.get(groupPosition).folder;
     }
 
 	@Override
@@ -563,44 +550,25 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
 
     public synchronized void setFoldersCursor(Cursor cursor) {
         if ((cursor.getCount() < 1) || (!cursor.isBeforeFirst())) return;
-        folders = new LinkedHashMap<String,Folder>(cursor.getCount());
-        flatFolders = new LinkedHashMap<String,Folder>(cursor.getCount());
+        List<Folder> folders = new ArrayList<Folder>(cursor.getCount());
         while (cursor.moveToNext()) {
-            Folder folder = Folder.fromCursor(cursor);
-            folders.put(folder.name, folder);
-            flatFolders.put(folder.flatName(), folder);
+            folders.add(Folder.fromCursor(cursor));
         }
-        recountFeeds();
-        notifyDataSetChanged();
+        tree.setFolders(folders);
+        applyChange(recountFeeds());
     }
 
 	public synchronized void setFeedCursor(Cursor cursor) {
         if (!cursor.isBeforeFirst()) return;
-        feeds = new LinkedHashMap<String,Feed>(cursor.getCount());
-        feedNeutCounts = new HashMap<String,Integer>();
-        feedPosCounts = new HashMap<String,Integer>();
-        totalNeutCount = 0;
-        totalPosCount = 0;
-        totalActiveFeedCount = 0;
+        Feed.CursorMapper mapper = new Feed.CursorMapper(cursor);
+        tree.beginFeeds();
         while (cursor.moveToNext()) {
-            Feed f = Feed.fromCursor(cursor);
-            feeds.put(f.feedId, f);
-            if (f.active && f.positiveCount > 0) {
-                int pos = checkNegativeUnreads(f.positiveCount);
-                feedPosCounts.put(f.feedId, pos);
-                totalPosCount += pos;
-            }
-            if (f.active && f.neutralCount > 0) {
-                int neut = checkNegativeUnreads(f.neutralCount);
-                feedNeutCounts.put(f.feedId, neut);
-                totalNeutCount += neut;
-            }
-            if (f.active) {
-                totalActiveFeedCount++;
-            }
+            FolderTree.FeedNode node = tree.beginFeed(mapper.feedId(cursor));
+            mapper.fill(node.feed, cursor);
+            tree.endFeed(node);
         }
-        recountFeeds();
-        notifyDataSetChanged();
+        tree.endFeeds();
+        applyChange(recountFeeds());
 	}
 
 	public synchronized void setStarredCountCursor(Cursor cursor) {
@@ -618,7 +586,9 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
             }
         }
         Collections.sort(starredCountsByTag, StarredCount.StarredCountComparatorByTag);
+        tree.setSavedFeedIds(feedSavedCounts.keySet());
         recountFeeds();
+        // the saved tag rows live outside the tree, so always lay them out again
         notifyDataSetChanged();
 	}
 
@@ -633,63 +603,38 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
         notifyDataSetChanged();
     }
 
-    private void recountFeeds() {
-        if ((folders == null) || (feeds == null)) return;
-        // re-init our local vars
+    /**
+     * Bring the tree up to date with the current filters and, if any rows were added, removed or
+     * moved, lay out the groups again.
+     */
+    private FolderTree.Change recountFeeds() {
+        FolderTree.Change change = tree.refresh(currentState, activeSearchQuery, closedFolders, lastFeedViewedId, lastFolderViewed, PrefsUtils.getFeedListOrder(context));
+        totalNeutCount = tree.totalNeutCount;
+        totalPosCount = tree.totalPosCount;
+        totalActiveFeedCount = tree.totalActiveFeedCount;
+        if (groupsDirty || (change == FolderTree.Change.STRUCTURE)) {
+            layoutGroups();
+            groupsDirty = false;
+            change = FolderTree.Change.STRUCTURE;
+        }
+        recountChildren();
+        return change;
+    }
+
+    private void layoutGroups() {
         activeFolderNames = new ArrayList<String>();
         activeFolderChildren = new ArrayList<List<Feed>>();
-        folderNeutCounts = new ArrayList<Integer>();
-        folderPosCounts = new ArrayList<Integer>();
+        activeFolderNodes = new ArrayList<FolderTree.FolderNode>();
 
         if (PrefsUtils.isEnableRowInfrequent(context) && (currentState != StateFilter.SAVED)) addSpecialRow(INFREQUENT_SITE_STORIES_GROUP_KEY);
         addSpecialRow(ALL_STORIES_GROUP_KEY);
+        // un-foldered feeds are shown under the all stories row
+        activeFolderChildren.set(getRootFolderIndex(), tree.getRootFeeds());
 
-        // create a sorted list of folder display names
-        List<String> sortedFolderNames = new ArrayList<String>(flatFolders.keySet());
-        Collections.sort(sortedFolderNames, Folder.FolderNameComparator);
-        // figure out which sub-folders are hidden because their parents are closed (flat names)
-        Set<String> hiddenSubFolders = getSubFoldersRecursive(closedFolders);
-        Set<String> hiddenSubFoldersFlat = new HashSet<String>(hiddenSubFolders.size());
-        for (String hiddenSub : hiddenSubFolders) hiddenSubFoldersFlat.add(folders.get(hiddenSub).flatName());
-        // inspect folders to see if the are active for display
-        for (String folderName : sortedFolderNames) {
-            if (hiddenSubFoldersFlat.contains(folderName)) continue;
-            Folder folder = flatFolders.get(folderName);
-            List<Feed> activeFeeds = new ArrayList<Feed>();
-            feedinfolderloop: for (String feedId : folder.feedIds) {
-                Feed f = feeds.get(feedId);
-                // activeFeeds is a list, so it doesn't handle duplication (which the API allows) gracefully
-                if (f == null) continue feedinfolderloop;
-                if (activeFeeds.contains(f)) break feedinfolderloop;
-
-                if ( (currentState == StateFilter.ALL) ||
-                     ((currentState == StateFilter.SOME) && (feedNeutCounts.containsKey(feedId) || feedPosCounts.containsKey(feedId))) ||
-                     ((currentState == StateFilter.BEST) && feedPosCounts.containsKey(feedId)) ||
-                     ((currentState == StateFilter.SAVED) && feedSavedCounts.containsKey(feedId)) ||
-                     f.feedId.equals(lastFeedViewedId) ) {
-                    if ((activeSearchQuery == null) || (f.title.toLowerCase().indexOf(activeSearchQuery.toLowerCase()) >= 0)) {
-                        activeFeeds.add(f);
-                    }
-                }
-            }
-            if ((activeFeeds.size() > 0) || (folderName.equals(AppConstants.ROOT_FOLDER)) || folder.name.equals(lastFolderViewed)) {
-                Collections.sort(activeFeeds);
-                if (folderName.equals(AppConstants.ROOT_FOLDER)) {
-                    activeFolderChildren.set(getRootFolderIndex(), activeFeeds);
-                } else {
-                    activeFolderNames.add(folderName);
-                    activeFolderChildren.add(activeFeeds);
-                    folderNeutCounts.add(getFolderNeutralCountRecursive(folder, null));
-                    folderPosCounts.add(getFolderPositiveCountRecursive(folder, null));
-                }
-            }
-        }
-
-        // sort feeds within each folder
-        FeedListOrder feedListOrder = PrefsUtils.getFeedListOrder(context);
-        Comparator<Feed> feedComparator = Feed.getFeedListOrderComparator(feedListOrder);
-        for (List<Feed> folderChildren : activeFolderChildren) {
-            Collections.sort(folderChildren, feedComparator);
+        for (FolderTree.FolderNode folder : tree.getVisibleFolders()) {
+            activeFolderNames.add(folder.flatName);
+            activeFolderChildren.add(folder.getVisibleFeeds());
+            activeFolderNodes.add(folder);
         }
 
         addSpecialRow(READ_STORIES_GROUP_KEY);
@@ -697,7 +642,48 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
         if ((currentState != StateFilter.SAVED)) addSpecialRow(ALL_SHARED_STORIES_GROUP_KEY);
         addSpecialRow(SAVED_SEARCHES_GROUP_KEY);
         addSpecialRow(SAVED_STORIES_GROUP_KEY);
-        recountChildren();
+    }
+
+    /**
+     * Tell the list about a change to the tree: a full re-layout if rows moved, otherwise just a
+     * re-bind of the rows on screen, or nothing at all.
+     */
+    private void applyChange(FolderTree.Change change) {
+        switch (change) {
+            case STRUCTURE:
+                notifyDataSetChanged();
+                break;
+            case COUNTS:
+                refreshVisibleRows();
+                break;
+            case NONE:
+                break;
+        }
+    }
+
+    /**
+     * Re-bind the rows currently on screen in place, for changes that don't add, remove or move
+     * any rows and so don't need the whole list to be laid out again.
+     */
+    private void refreshVisibleRows() {
+        ExpandableListView list = (listBackref == null) ? null : listBackref.get();
+        if (list == null) {
+            notifyDataSetChanged();
+            return;
+        }
+        int firstPosition = list.getFirstVisiblePosition();
+        for (int i = 0; i < list.getChildCount(); i++) {
+            long packedPosition = list.getExpandableListPosition(firstPosition + i);
+            int type = ExpandableListView.getPackedPositionType(packedPosition);
+            int groupPosition = ExpandableListView.getPackedPositionGroup(packedPosition);
+            if (type == ExpandableListView.PACKED_POSITION_TYPE_GROUP) {
+                getGroupView(groupPosition, list.isGroupExpanded(groupPosition), list.getChildAt(i), list);
+            } else if (type == ExpandableListView.PACKED_POSITION_TYPE_CHILD) {
+                int childPosition = ExpandableListView.getPackedPositionChild(packedPosition);
+                boolean isLastChild = (childPosition == getChildrenCount(groupPosition) - 1);
+                getChildView(groupPosition, childPosition, isLastChild, list.getChildAt(i), list);
+            }
+        }
     }
 
     /**
@@ -708,8 +694,7 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
         activeFolderNames.add(specialRowName);
         List<Feed> emptyList = Collections.emptyList();
         activeFolderChildren.add(emptyList);
-        folderNeutCounts.add(0);
-        folderPosCounts.add(0);
+        activeFolderNodes.add(null);
     }
 
     private void recountChildren() {
@@ -727,55 +712,8 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
         lastFeedCount = newFeedCount;
     }
 
-    /**
-     * Given a set of (not-flat) folder names, figure out child folder names (also not flat). Does
-     * not include the initially passed folder names, unless they occur as children of one of the
-     * other parents passed.
-     */
-    private Set<String> getSubFoldersRecursive(Set<String> parentFolders) {
-        HashSet<String> subFolders = new HashSet<String>();
-        for (String folder : parentFolders) {
-            Folder f = folders.get(folder);
-            if (f == null) continue;
-            subFolders.addAll(f.children);
-            subFolders.addAll(getSubFoldersRecursive(subFolders));
-        }
-        return subFolders;
-    }
-
-    private int getFolderNeutralCountRecursive(Folder folder, Set<String> visitedParents) {
-        int count = 0;
-        if (visitedParents == null) visitedParents = new HashSet<String>();
-        visitedParents.add(folder.name);
-        for (String feedId : folder.feedIds) {
-            Integer feedCount = feedNeutCounts.get(feedId);
-            if (feedCount != null) count += feedCount;
-        }
-        for (String childName : folder.children) {
-            if (!visitedParents.contains(childName)) {
-                count += getFolderNeutralCountRecursive(folders.get(childName), visitedParents);
-            }
-        }
-        return count;
-    }
-
-    private int getFolderPositiveCountRecursive(Folder folder, Set<String> visitedParents) {
-        int count = 0;
-        if (visitedParents == null) visitedParents = new HashSet<String>();
-        visitedParents.add(folder.name);
-        for (String feedId : folder.feedIds) {
-            Integer feedCount = feedPosCounts.get(feedId);
-            if (feedCount != null) count += feedCount;
-        }
-        for (String childName : folder.children) {
-            if (!visitedParents.contains(childName)) {
-                count += getFolderPositiveCountRecursive(folders.get(childName), visitedParents);
-            }
-        }
-        return count;
-    }
-
     public synchronized void forceRecount() {
+        groupsDirty = true;
         recountFeeds();
         recountSocialFeeds();
         notifyDataSetChanged();
@@ -790,16 +728,11 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
             totalSocialNeutCount = 0;
             totalSocialPosiCount = 0;
 
-            folders = Collections.emptyMap();
-            flatFolders = Collections.emptyMap();
+            tree.clear();
+            groupsDirty = true;
             safeClear(activeFolderNames);
             safeClear(activeFolderChildren);
-            safeClear(folderNeutCounts);
-            safeClear(folderPosCounts);
-
-            feeds = Collections.emptyMap();
-            safeClear(feedNeutCounts);
-            safeClear(feedPosCounts);
+            safeClear(activeFolderNodes);
             totalNeutCount = 0;
             totalPosCount = 0;
 
@@ -819,8 +752,7 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
     }
 
     public Set<String> getAllFeedsForFolder(int groupPosition) {
-        String flatFolderName = activeFolderNames.get(groupPosition);
-        Folder folder = flatFolders.get(flatFolderName);
+        Folder folder = activeFolderNodes.get(groupPosition).folder;
         return new HashSet<>(folder.feedIds);
     }
 
@@ -838,6 +770,7 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
 		currentState = state;
         lastFeedViewedId = null; // clear when changing modes
         lastFolderViewed = null;
+        groupsDirty = true;
     }
 
     /**
@@ -845,12 +778,12 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
      */
     public void setFolderClosed(String folderName, boolean closed) {
         // we get a flat name, but need to use a canonical name internally
-        Folder folder = flatFolders.get(folderName);
+        FolderTree.FolderNode folder = tree.getFolderByFlatName(folderName);
         if (folder == null) return; // beat the cursors
         if (closed) {
-            closedFolders.add(folder.name);
+            closedFolders.add(folder.folder.name);
         } else {
-            closedFolders.remove(folder.name);
+            closedFolders.remove(folder.folder.name);
         }
         // the logic to open/close sub-folders happens during recounts
         forceRecount();
@@ -978,6 +911,9 @@ public class FolderListAdapter extends BaseExpandableListAdapter {
     }
 
     public SessionDataSource buildSessionDataSource(Session activeSession) {
-        return new SessionDataSource(activeSession, activeFolderNames, activeFolderChildren);
+        // the tree reuses its lists as counts change, so hand the session a copy of them
+        List<List<Feed>> folderChildren = new ArrayList<List<Feed>>(activeFolderChildren.size());
+        for (List<Feed> children : activeFolderChildren) folderChildren.add(new ArrayList<Feed>(children));
+        return new SessionDataSource(activeSession, new ArrayList<String>(activeFolderNames), folderChildren);
     }
 }
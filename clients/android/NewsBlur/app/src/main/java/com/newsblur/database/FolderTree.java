@@ -0,0 +1,434 @@
+package com.newsblur.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.newsblur.domain.Feed;
+import com.newsblur.domain.Folder;
+import com.newsblur.util.AppConstants;
+import com.newsblur.util.FeedListOrder;
+import com.newsblur.util.StateFilter;
+
+/**
+ * The persistent folder/feed tree behind {@link FolderListAdapter}.  Feed and folder nodes keep
+ * their identity across cursor swaps and are updated in place, search keys are normalised once per
+ * title, and each folder keeps its feeds pre-sorted so that the displayed list is just a filtered
+ * pass over them.  Sorting and re-linking only happen when a title, sort key or folder membership
+ * actually changes, so a sync tick that only moves unread counts costs one pass over the feeds
+ * and folders with no allocation.
+ */
+public class FolderTree {
+
+    /** What a call to {@link #refresh} changed, from the point of view of a list showing the tree. */
+    public enum Change {
+        /** Nothing that is displayed changed. */
+        NONE,
+        /** Only counts or other row contents changed; every displayed row is still where it was. */
+        COUNTS,
+        /** Rows were added, removed or moved. */
+        STRUCTURE
+    }
+
+    public static final class FeedNode {
+        /** The feed, which is updated in place and keeps its identity for as long as the node. */
+        public final Feed feed = new Feed();
+        /** Lower-cased title, for search filtering and sorting. */
+        public String searchKey = "";
+        /** Unread counts, zero for inactive feeds and never negative. */
+        public int neutCount;
+        public int posCount;
+        public boolean saved;
+
+        // what the feed looked like before the current update, to tell what it changed
+        private String lastTitle;
+        private String lastFaviconUrl;
+        private int lastOpens;
+        private boolean lastActive;
+        private boolean lastFetchPending;
+        private int lastNeut;
+        private int lastPos;
+        private int generation;
+
+        private FeedNode(String feedId) {
+            feed.feedId = feedId;
+        }
+    }
+
+    public static final class FolderNode {
+        public Folder folder;
+        public String flatName;
+        /** Neutral unreads of this folder and every folder below it. */
+        public int neutCount;
+        /** Positive unreads of this folder and every folder below it. */
+        public int posCount;
+
+        /** Feeds in this folder, de-duplicated and in display order. */
+        private final List<FeedNode> members = new ArrayList<FeedNode>();
+        private final List<FolderNode> children = new ArrayList<FolderNode>();
+        /** Feeds currently displayed for this folder; replaced rather than changed once handed out. */
+        private List<Feed> visible = new ArrayList<Feed>();
+        private List<Feed> scratch = new ArrayList<Feed>();
+        private boolean hidden;
+        private int countState;
+
+        public List<Feed> getVisibleFeeds() {
+            return visible;
+        }
+    }
+
+    /** Feeds, indexed by feed ID. */
+    private final Map<String,FeedNode> feeds = new HashMap<String,FeedNode>();
+    /** Folders, indexed by canonical name. */
+    private final Map<String,FolderNode> folders = new HashMap<String,FolderNode>();
+    /** Folders, indexed by flat name. */
+    private final Map<String,FolderNode> flatFolders = new HashMap<String,FolderNode>();
+    /** All folders, in display order. */
+    private final List<FolderNode> sortedFolders = new ArrayList<FolderNode>();
+    /** Non-root folders currently displayed, in display order. */
+    private List<FolderNode> visibleFolders = new ArrayList<FolderNode>();
+    private List<FolderNode> visibleFoldersScratch = new ArrayList<FolderNode>();
+    private FolderNode rootFolder;
+    private Set<String> savedFeedIds = Collections.emptySet();
+
+    /** Total neutral unreads for all feeds. */
+    public int totalNeutCount;
+    /** Total positive unreads for all feeds. */
+    public int totalPosCount;
+    /** Total active feeds. */
+    public int totalActiveFeedCount;
+
+    private static final int COUNT_PENDING = 0;
+    private static final int COUNT_IN_PROGRESS = 1;
+    private static final int COUNT_DONE = 2;
+
+    private int generation;
+    private boolean foldersRecounted;
+    private boolean membershipDirty;
+    private boolean sortDirty;
+    private boolean countsDirty;
+    private boolean rowsDirty;
+    private FeedListOrder lastOrder;
+    private final Comparator<FeedNode> alphabetical = new Comparator<FeedNode>() {
+        @Override
+        public int compare(FeedNode n1, FeedNode n2) {
+            return n1.searchKey.compareTo(n2.searchKey);
+        }
+    };
+    private final Comparator<FeedNode> mostUsed = new Comparator<FeedNode>() {
+        @Override
+        public int compare(FeedNode n1, FeedNode n2) {
+            int c = Integer.compare(n2.feed.feedOpens, n1.feed.feedOpens);
+            if (c != 0) return c;
+            return n1.searchKey.compareTo(n2.searchKey);
+        }
+    };
+
+    /**
+     * Replace the folder structure.  Folders that are still present keep their nodes.
+     */
+    public void setFolders(Collection<Folder> newFolders) {
+        Map<String,FolderNode> oldFolders = new HashMap<String,FolderNode>(folders);
+        folders.clear();
+        flatFolders.clear();
+        sortedFolders.clear();
+        rootFolder = null;
+        for (Folder folder : newFolders) {
+            FolderNode node = oldFolders.get(folder.name);
+            if (node == null) node = new FolderNode();
+            node.folder = folder;
+            node.flatName = folder.flatName();
+            folders.put(folder.name, node);
+            flatFolders.put(node.flatName, node);
+            sortedFolders.add(node);
+            if (AppConstants.ROOT_FOLDER.equals(folder.name)) rootFolder = node;
+        }
+        Collections.sort(sortedFolders, new Comparator<FolderNode>() {
+            @Override
+            public int compare(FolderNode f1, FolderNode f2) {
+                return Folder.compareFolderNames(f1.flatName, f2.flatName);
+            }
+        });
+        membershipDirty = true;
+    }
+
+    /**
+     * Start a pass over every feed.  Each feed should be handed out with {@link #beginFeed} and its
+     * changes applied with {@link #endFeed}; feeds not seen before {@link #endFeeds} are dropped.
+     */
+    public void beginFeeds() {
+        generation++;
+    }
+
+    /**
+     * Get the node for a feed, whose {@link FeedNode#feed} should then be filled in place with the
+     * current values of the feed before calling {@link #endFeed}.
+     */
+    public FeedNode beginFeed(String feedId) {
+        FeedNode node = feeds.get(feedId);
+        if (node == null) {
+            node = new FeedNode(feedId);
+            node.saved = savedFeedIds.contains(feedId);
+            feeds.put(feedId, node);
+            membershipDirty = true;
+        }
+        node.generation = generation;
+        return node;
+    }
+
+    public void endFeed(FeedNode node) {
+        Feed f = node.feed;
+        node.neutCount = f.active ? Math.max(0, f.neutralCount) : 0;
+        node.posCount = f.active ? Math.max(0, f.positiveCount) : 0;
+        String title = (f.title == null) ? "" : f.title;
+        if (!title.equals(node.lastTitle)) {
+            node.searchKey = title.toLowerCase(Locale.getDefault());
+            node.lastTitle = title;
+            // the row shows the title even where the order doesn't change
+            sortDirty = true;
+            rowsDirty = true;
+        }
+        if (f.feedOpens != node.lastOpens) {
+            node.lastOpens = f.feedOpens;
+            sortDirty = true;
+        }
+        if ((f.active != node.lastActive) || (node.neutCount != node.lastNeut) || (node.posCount != node.lastPos)) {
+            node.lastActive = f.active;
+            node.lastNeut = node.neutCount;
+            node.lastPos = node.posCount;
+            countsDirty = true;
+        }
+        if ((f.fetchPending != node.lastFetchPending) || !Objects.equals(f.faviconUrl, node.lastFaviconUrl)) {
+            node.lastFetchPending = f.fetchPending;
+            node.lastFaviconUrl = f.faviconUrl;
+            rowsDirty = true;
+        }
+    }
+
+    public void endFeeds() {
+        Iterator<FeedNode> i = feeds.values().iterator();
+        while (i.hasNext()) {
+            if (i.next().generation != generation) {
+                i.remove();
+                membershipDirty = true;
+            }
+        }
+        countsDirty = true;
+    }
+
+    /**
+     * Set which feeds have saved stories, for the saved-stories view.
+     */
+    public void setSavedFeedIds(Set<String> savedFeedIds) {
+        this.savedFeedIds = savedFeedIds;
+        for (FeedNode node : feeds.values()) {
+            node.saved = savedFeedIds.contains(node.feed.feedId);
+        }
+    }
+
+    /**
+     * Apply any pending changes and work out which feeds and folders are to be displayed.
+     *
+     * @param closedFolders canonical names of folders closed by the user, whose sub-folders are hidden.
+     * @param lastFeedViewedId a feed to show even if the filter would hide it, or null.
+     * @param lastFolderViewed the canonical name of a folder to show even if empty, or null.
+     */
+    public Change refresh(StateFilter state, String searchQuery, Set<String> closedFolders, String lastFeedViewedId, String lastFolderViewed, FeedListOrder order) {
+        boolean structureChanged = false;
+        if (membershipDirty) {
+            relink();
+            membershipDirty = false;
+            sortDirty = true;
+            countsDirty = true;
+            structureChanged = true;
+        }
+        if (order != lastOrder) {
+            lastOrder = order;
+            sortDirty = true;
+        }
+        if (sortDirty) {
+            Comparator<FeedNode> comparator = (order == FeedListOrder.MOST_USED_AT_TOP) ? mostUsed : alphabetical;
+            for (FolderNode folder : sortedFolders) Collections.sort(folder.members, comparator);
+            sortDirty = false;
+        }
+        boolean countsChanged = rowsDirty;
+        rowsDirty = false;
+        if (countsDirty) {
+            countsChanged |= recount();
+            countsDirty = false;
+        }
+
+        for (FolderNode folder : sortedFolders) folder.hidden = false;
+        for (String closedName : closedFolders) {
+            FolderNode closed = folders.get(closedName);
+            if (closed != null) hideSubFolders(closed);
+        }
+
+        String query = (searchQuery == null) ? null : searchQuery.toLowerCase(Locale.getDefault());
+        visibleFoldersScratch.clear();
+        for (FolderNode folder : sortedFolders) {
+            if (folder.hidden) continue;
+            List<Feed> scratch = folder.scratch;
+            scratch.clear();
+            for (FeedNode node : folder.members) {
+                if (!isFeedVisible(node, state, lastFeedViewedId)) continue;
+                if ((query != null) && (!node.searchKey.contains(query))) continue;
+                scratch.add(node.feed);
+            }
+            if (!scratch.equals(folder.visible)) {
+                folder.scratch = folder.visible;
+                folder.visible = scratch;
+                structureChanged = true;
+            }
+            if ((folder != rootFolder) && ((folder.visible.size() > 0) || folder.folder.name.equals(lastFolderViewed))) {
+                visibleFoldersScratch.add(folder);
+            }
+        }
+        if (!visibleFoldersScratch.equals(visibleFolders)) {
+            List<FolderNode> swap = visibleFolders;
+            visibleFolders = visibleFoldersScratch;
+            visibleFoldersScratch = swap;
+            structureChanged = true;
+        }
+
+        if (structureChanged) return Change.STRUCTURE;
+        if (countsChanged) return Change.COUNTS;
+        return Change.NONE;
+    }
+
+    private static boolean isFeedVisible(FeedNode node, StateFilter state, String lastFeedViewedId) {
+        switch (state) {
+            case ALL:
+                return true;
+            case SOME:
+                if ((node.neutCount > 0) || (node.posCount > 0)) return true;
+                break;
+            case BEST:
+                if (node.posCount > 0) return true;
+                break;
+            case SAVED:
+                if (node.saved) return true;
+                break;
+        }
+        return node.feed.feedId.equals(lastFeedViewedId);
+    }
+
+    /**
+     * Resolve the feed IDs and child names of each folder to nodes, skipping feeds we don't have
+     * and duplicates, which the API allows.
+     */
+    private void relink() {
+        Set<FeedNode> seen = new HashSet<FeedNode>();
+        for (FolderNode folder : sortedFolders) {
+            folder.members.clear();
+            folder.children.clear();
+            seen.clear();
+            for (String feedId : folder.folder.feedIds) {
+                FeedNode node = feeds.get(feedId);
+                if ((node != null) && seen.add(node)) folder.members.add(node);
+            }
+            for (String childName : folder.folder.children) {
+                FolderNode child = folders.get(childName);
+                if (child != null) folder.children.add(child);
+            }
+        }
+    }
+
+    /**
+     * Recompute the totals and recursive folder counts.
+     *
+     * @return whether any of them changed.
+     */
+    private boolean recount() {
+        int neut = 0;
+        int pos = 0;
+        int active = 0;
+        for (FeedNode node : feeds.values()) {
+            neut += node.neutCount;
+            pos += node.posCount;
+            if (node.feed.active) active++;
+        }
+        boolean changed = (neut != totalNeutCount) || (pos != totalPosCount) || (active != totalActiveFeedCount);
+        totalNeutCount = neut;
+        totalPosCount = pos;
+        totalActiveFeedCount = active;
+
+        for (FolderNode folder : sortedFolders) folder.countState = COUNT_PENDING;
+        foldersRecounted = false;
+        for (FolderNode folder : sortedFolders) {
+            if (folder.countState == COUNT_PENDING) countRecursive(folder);
+        }
+        return changed || foldersRecounted;
+    }
+
+    private void countRecursive(FolderNode folder) {
+        // the in-progress state guards against loops in the folder graph
+        folder.countState = COUNT_IN_PROGRESS;
+        int neut = 0;
+        int pos = 0;
+        for (FeedNode node : folder.members) {
+            neut += node.neutCount;
+            pos += node.posCount;
+        }
+        for (FolderNode child : folder.children) {
+            if (child.countState == COUNT_IN_PROGRESS) continue;
+            if (child.countState == COUNT_PENDING) countRecursive(child);
+            neut += child.neutCount;
+            pos += child.posCount;
+        }
+        if ((neut != folder.neutCount) || (pos != folder.posCount)) foldersRecounted = true;
+        folder.neutCount = neut;
+        folder.posCount = pos;
+        folder.countState = COUNT_DONE;
+    }
+
+    private void hideSubFolders(FolderNode parent) {
+        for (FolderNode child : parent.children) {
+            if (child.hidden) continue;
+            child.hidden = true;
+            hideSubFolders(child);
+        }
+    }
+
+    /** The displayed feeds of the root folder, which are shown under the all-stories row. */
+    public List<Feed> getRootFeeds() {
+        if (rootFolder == null) return Collections.emptyList();
+        return rootFolder.visible;
+    }
+
+    /** Non-root folders currently displayed, in display order. */
+    public List<FolderNode> getVisibleFolders() {
+        return visibleFolders;
+    }
+
+    public FolderNode getFolderByFlatName(String flatName) {
+        return flatFolders.get(flatName);
+    }
+
+    public FolderNode getFolder(String name) {
+        return folders.get(name);
+    }
+
+    public void clear() {
+        feeds.clear();
+        folders.clear();
+        flatFolders.clear();
+        sortedFolders.clear();
+        visibleFolders = new ArrayList<FolderNode>();
+        rootFolder = null;
+        savedFeedIds = Collections.emptySet();
+        totalNeutCount = 0;
+        totalPosCount = 0;
+        totalActiveFeedCount = 0;
+        membershipDirty = true;
+    }
+}
@@ -44,8 +44,13 @@ class ReadingAdapter(
     private val fragments = mutableMapOf<String, ReadingItemFragment>()
     private val states = mutableMapOf<String, Fragment.SavedState?>()
 
-    // the live list of stories being used by the adapter
-    private val stories = mutableListOf<Story>()
+    // the live set of stories being used by the adapter, thawed only around the current position
+    @Volatile
+    private var stories = WindowedStorySource.EMPTY
+
+    // the story the pager is on, so that the window can follow it into a new cursor
+    @Volatile
+    private var currentHash: String? = null
 
     // classifiers for each feed seen in the story list
     private val classifiers = mutableMapOf<String, Classifier>()
@@ -61,36 +66,27 @@ class ReadingAdapter(
     }
 
     /**
-     * Attempt to thaw a new set of stories from the cursor most recently
-     * seen when the that cycle started.
+     * Attempt to index a new set of stories from the cursor most recently seen when that
+     * cycle started, thawing just those around the current story.
      */
     private suspend fun thaw(c: Cursor?) = coroutineScope {
         if (c !== mostRecentCursor) return@coroutineScope
 
-        // thawed stories
-        val newStories: MutableList<Story>
+        val newStories: WindowedStorySource
         // attempt to thaw as gracefully as possible despite the fact that the loader
         // framework could close our cursor at any moment.  if this happens, it is fine,
         // as a new one will be provided and another cycle will start.  just return.
         try {
             if (c == null) {
-                newStories = ArrayList(0)
+                newStories = WindowedStorySource.EMPTY
             } else {
-                if (c.isClosed) return@coroutineScope
-                newStories = ArrayList(c.count)
-                // keep track of which feeds are in this story set so we can also fetch Classifiers
-                val feedIdsSeen: MutableSet<String> = HashSet()
-                c.moveToPosition(-1)
-                while (c.moveToNext()) {
-                    if (c.isClosed) return@coroutineScope
-                    val s = Story.fromCursor(c)
-                    s.bindExternValues(c)
-                    newStories.add(s)
-                    feedIdsSeen.add(s.feedId)
-                }
-                for (feedId in feedIdsSeen) {
+                newStories = WindowedStorySource.fromCursor(c) ?: return@coroutineScope
+                // fetch Classifiers for every feed in this story set
+                for (feedId in newStories.feedIds) {
                     classifiers[feedId] = dbHelper.getClassifierForFeed(feedId)
                 }
+                val current = currentHash?.let { newStories.findHash(it) } ?: -1
+                newStories.moveWindow(if (current >= 0) current else 0)
             }
         } catch (e: Exception) {
             // because we use interruptable loaders that auto-close cursors, it is expected
@@ -101,16 +97,38 @@ class ReadingAdapter(
         }
         if (c !== mostRecentCursor) return@coroutineScope
         withContext(Dispatchers.Main) {
-            stories.clear()
-            stories.addAll(newStories)
+            stories = newStories
             notifyDataSetChanged()
             activity.pagerUpdated()
         }
     }
 
-    fun getStory(position: Int): Story? =
-            if (position >= stories.size || position < 0) null
-            else stories[position]
+    /**
+     * Note the position the pager has moved to, so that stories near it are thawed ahead of
+     * being shown and those far from it are released. Does DB work, so call off the UI thread.
+     */
+    fun setCurrentPosition(position: Int) {
+        val source = stories
+        currentHash = source.getHash(position)
+        source.moveWindow(position)
+    }
+
+    /**
+     * Get the story at a position, thawing it if needed. Does DB work, so call off the UI thread.
+     */
+    fun getStory(position: Int): Story? = stories.get(position)
+
+    /**
+     * Get the story at a position if it is near enough to the current one to already be thawed.
+     */
+    fun getThawedStory(position: Int): Story? = stories.peek(position)
+
+    fun getStoryHash(position: Int): String? = stories.getHash(position)
+
+    /**
+     * Whether the story at a position was read as of the current cursor, without thawing it.
+     */
+    fun isStoryRead(position: Int): Boolean? = stories.isRead(position)
 
     override fun getCount(): Int = stories.size
 
@@ -127,11 +145,26 @@ class ReadingAdapter(
             sourceUserId,
     )
 
+    /**
+     * Thaw a story the pager asked for before the window reached it, then have the pager swap
+     * out the placeholder it was given.
+     */
+    private fun thawForPager(source: WindowedStorySource, position: Int) {
+        NBScope.launch(Dispatchers.IO) {
+            source.get(position) ?: return@launch
+            withContext(Dispatchers.Main) {
+                if (stories === source) notifyDataSetChanged()
+            }
+        }
+    }
+
     override fun instantiateItem(container: ViewGroup, position: Int): Fragment {
-        val story = getStory(position)
+        val source = stories
+        val story = source.peek(position)
         var fragment: Fragment?
         if (story == null) {
             fragment = LoadingFragment()
+            if (position >= 0 && position < source.size) thawForPager(source, position)
         } else {
             fragment = fragments[story.storyHash]
             if (fragment == null) {
@@ -196,16 +229,7 @@ class ReadingAdapter(
             if (it.isClosed) 0 else it.count
         } ?: 0
 
-    fun getPosition(story: Story): Int {
-        var pos = 0
-        while (pos < stories.size) {
-            if (stories[pos] == story) {
-                return pos
-            }
-            pos++
-        }
-        return -1
-    }
+    fun getPosition(story: Story): Int = findHash(story.storyHash)
 
     override fun getItemPosition(`object`: Any): Int {
         if (`object` is ReadingItemFragment) {
@@ -216,42 +240,24 @@ class ReadingAdapter(
     }
 
     fun getExistingItem(pos: Int): ReadingItemFragment? =
-            getStory(pos)?.let { fragments[it.storyHash] }
+            stories.getHash(pos)?.let { fragments[it] }
 
     override fun notifyDataSetChanged() {
         super.notifyDataSetChanged()
 
         // go one step further than the default pager adapter and also refresh the
         // story object inside each fragment we have active
-        for (s in stories) {
-            fragments[s.storyHash]?.let { rif ->
+        for ((storyHash, rif) in fragments) {
+            stories.peek(stories.findHash(storyHash))?.let { s ->
                 rif.offerStoryUpdate(s)
                 rif.handleUpdate(NbSyncManager.UPDATE_STORY)
             }
         }
     }
 
-    fun findFirstUnread(): Int {
-        var pos = 0
-        while (pos < stories.size) {
-            if (!stories[pos].read) {
-                return pos
-            }
-            pos++
-        }
-        return -1
-    }
+    fun findFirstUnread(): Int = stories.findFirstUnread()
 
-    fun findHash(storyHash: String): Int {
-        var pos = 0
-        while (pos < stories.size) {
-            if (stories[pos].storyHash == storyHash) {
-                return pos
-            }
-            pos++
-        }
-        return -1
-    }
+    fun findHash(storyHash: String): Int = stories.findHash(storyHash)
 
     override fun saveState(): Parcelable {
         // collect state from any active fragments alongside already-frozen ones
@@ -0,0 +1,105 @@
+package com.newsblur.database
+
+import com.newsblur.util.FeedSet
+
+/**
+ * The stories of the current reading session, held in memory as hashes in display order. Each
+ * story is sorted into place as it arrives, by a key from whichever story column the session is
+ * ordered by, so story lists can be read straight off the index instead of copying hashes into
+ * a table and joining them back to the stories on every requery. Ties sort by hash, in the same
+ * direction as the key, to keep the order stable.
+ */
+class ReadingSession {
+
+    private class Entry(val hash: String, val sortKey: Long)
+
+    private val entries = ArrayList<Entry>()
+    private val sortKeys = HashMap<String, Long>()
+
+    /** the feed set the session holds stories for, or null if it must be reset before use */
+    @get:Synchronized @set:Synchronized
+    var feedSet: FeedSet? = null
+
+    /** the story column the session is ordered by, or null if no order has been set */
+    @get:Synchronized
+    var sortColumn: String? = null
+        private set
+
+    @get:Synchronized
+    var isDescending = true
+        private set
+
+    /** bumped by every change to the stories in the session */
+    @get:Synchronized
+    var version = 0L
+        private set
+
+    @get:Synchronized
+    val size: Int
+        get() = entries.size
+
+    private val comparator = Comparator<Entry> { a, b ->
+        val byKey = a.sortKey.compareTo(b.sortKey)
+        val result = if (byKey != 0) byKey else a.hash.compareTo(b.hash)
+        if (isDescending) -result else result
+    }
+
+    /**
+     * Set the order of the session. Stories already in a session with a different order were
+     * keyed by the wrong column, so they are dropped.
+     */
+    @Synchronized
+    fun orderBy(column: String, descending: Boolean) {
+        if (column == sortColumn && descending == isDescending) return
+        clear()
+        sortColumn = column
+        isDescending = descending
+    }
+
+    @Synchronized
+    fun clear() {
+        if (entries.isEmpty()) return
+        entries.clear()
+        sortKeys.clear()
+        version++
+    }
+
+    /**
+     * Add a story, or move it if its sort key has changed.
+     *
+     * @return true if the story was not already in the session.
+     */
+    @Synchronized
+    fun add(hash: String, sortKey: Long): Boolean {
+        val oldKey = sortKeys[hash]
+        if (oldKey == sortKey) return false
+        if (oldKey != null) entries.removeAt(indexOf(Entry(hash, oldKey)))
+        val entry = Entry(hash, sortKey)
+        // pages mostly arrive in order, so this is nearly always an append
+        val index = indexOf(entry)
+        entries.add(if (index < 0) -(index + 1) else index, entry)
+        sortKeys[hash] = sortKey
+        version++
+        return oldKey == null
+    }
+
+    @Synchronized
+    fun remove(hashes: Collection<String>) {
+        for (hash in hashes) {
+            val sortKey = sortKeys.remove(hash) ?: continue
+            entries.removeAt(indexOf(Entry(hash, sortKey)))
+            version++
+        }
+    }
+
+    @Synchronized
+    fun contains(hash: String): Boolean = sortKeys.containsKey(hash)
+
+    /**
+     * Get a copy of the session's hashes in display order.
+     */
+    @Synchronized
+    fun getHashes(): Array<String> = Array(entries.size) { entries[it].hash }
+
+    private fun indexOf(entry: Entry): Int = entries.binarySearch(entry, comparator)
+}
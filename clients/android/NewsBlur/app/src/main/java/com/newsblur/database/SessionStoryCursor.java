@@ -0,0 +1,216 @@
+package com.newsblur.database;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cursor over the stories of a reading session, in session order, that fetches full story rows
+ * by hash a window at a time as it is moved, rather than running one big joined and sorted query
+ * up front.  The hash, feed and read state of every story are known from the start, so the
+ * session can be indexed without loading any rows at all.
+ */
+public class SessionStoryCursor extends AbstractCursor {
+
+    /** How many story rows to fetch per query. */
+    static final int WINDOW_ROWS = 100;
+
+    private final SQLiteDatabase db;
+    private final CancellationSignal cancellationSignal;
+    private final String[] hashes;
+    private final String[] feedIds;
+    private final boolean[] readStates;
+    private final String[] columnNames;
+
+    private int windowStart = 0;
+    private Object[][] window = new Object[0][];
+    private Object[] row;
+
+    SessionStoryCursor(SQLiteDatabase db, String[] hashes, String[] feedIds, boolean[] readStates, CancellationSignal cancellationSignal) {
+        this.db = db;
+        this.hashes = hashes;
+        this.feedIds = feedIds;
+        this.readStates = readStates;
+        this.cancellationSignal = cancellationSignal;
+        Cursor c = db.rawQuery(DatabaseConstants.STORY_QUERY_BASE_1 + "0", null, cancellationSignal);
+        try {
+            columnNames = c.getColumnNames();
+        } finally {
+            c.close();
+        }
+    }
+
+    /** The hash of the story at each position, without loading any rows. */
+    public String[] getHashes() {
+        return hashes;
+    }
+
+    /** The feed of the story at each position, without loading any rows. */
+    public String[] getFeedIds() {
+        return feedIds;
+    }
+
+    /** The read state of the story at each position, as of when the cursor was made. */
+    public boolean[] getReadStates() {
+        return readStates;
+    }
+
+    @Override
+    public int getCount() {
+        return hashes.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * Moves onto a story deleted since the cursor was made fail, as there is no row to read, so
+     * callers must move to each position rather than stepping with moveToNext to get past one.
+     */
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        if ((newPosition < windowStart) || (newPosition >= windowStart + window.length)) {
+            // moving back fills the window behind the new position, anything else ahead of it
+            int start = (newPosition < windowStart) ? Math.max(0, newPosition - WINDOW_ROWS + 1) : newPosition;
+            loadWindow(start);
+        }
+        row = window[newPosition - windowStart];
+        return row != null;
+    }
+
+    private void loadWindow(int start) {
+        int end = Math.min(hashes.length, start + WINDOW_ROWS);
+        String[] windowHashes = Arrays.copyOfRange(hashes, start, end);
+        Map<String,Integer> offsets = new HashMap<String,Integer>(windowHashes.length);
+        for (int i = 0; i < windowHashes.length; i++) {
+            offsets.put(windowHashes[i], i);
+        }
+        // a story deleted since the cursor was made leaves no row
+        Object[][] rows = new Object[windowHashes.length][];
+        Cursor c = db.rawQuery(DatabaseConstants.getStoriesByHashQuery(windowHashes.length), windowHashes, cancellationSignal);
+        try {
+            int hashIndex = c.getColumnIndexOrThrow(DatabaseConstants.STORY_HASH);
+            int columnCount = c.getColumnCount();
+            while (c.moveToNext()) {
+                Integer offset = offsets.get(c.getString(hashIndex));
+                if (offset == null) continue;
+                Object[] values = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    switch (c.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[i] = c.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[i] = c.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        values[i] = c.getBlob(i);
+                        break;
+                    default:
+                        values[i] = c.getString(i);
+                    }
+                }
+                rows[offset] = values;
+            }
+        } finally {
+            c.close();
+        }
+        windowStart = start;
+        window = rows;
+    }
+
+    private Object value(int column) {
+        if (row == null) return null;
+        return row[column];
+    }
+
+    @Override
+    public String getString(int column) {
+        Object v = value(column);
+        if (v == null) return null;
+        if (v instanceof byte[]) return new String((byte[]) v);
+        return v.toString();
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object v = value(column);
+        if (v instanceof Number) return ((Number) v).longValue();
+        if (v instanceof String) {
+            try {
+                return Long.parseLong((String) v);
+            } catch (NumberFormatException nfe) {
+                return 0L;
+            }
+        }
+        return 0L;
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object v = value(column);
+        if (v instanceof Number) return ((Number) v).doubleValue();
+        if (v instanceof String) {
+            try {
+                return Double.parseDouble((String) v);
+            } catch (NumberFormatException nfe) {
+                return 0.0;
+            }
+        }
+        return 0.0;
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object v = value(column);
+        if (v == null) return null;
+        if (v instanceof byte[]) return (byte[]) v;
+        return v.toString().getBytes();
+    }
+
+    @Override
+    public int getType(int column) {
+        Object v = value(column);
+        if (v == null) return Cursor.FIELD_TYPE_NULL;
+        if (v instanceof Long) return Cursor.FIELD_TYPE_INTEGER;
+        if (v instanceof Double) return Cursor.FIELD_TYPE_FLOAT;
+        if (v instanceof byte[]) return Cursor.FIELD_TYPE_BLOB;
+        return Cursor.FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return value(column) == null;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        window = new Object[0][];
+        row = null;
+    }
+}
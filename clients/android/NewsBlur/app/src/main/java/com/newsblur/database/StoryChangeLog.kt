@@ -0,0 +1,107 @@
+package com.newsblur.database
+
+/**
+ * The story hashes touched by DB writes since some earlier version of the [StoryChangeLog].
+ * Hashes are listed under the last kind of change made to them. If [isFull] is set, the
+ * changes could not be tracked per story and callers must requery their whole story set.
+ */
+class StoryChangeSet(
+        @JvmField val version: Long,
+        @JvmField val inserted: Set<String>,
+        @JvmField val updated: Set<String>,
+        @JvmField val removed: Set<String>,
+        @JvmField val isFull: Boolean,
+) {
+    fun isEmpty(): Boolean = !isFull && inserted.isEmpty() && updated.isEmpty() && removed.isEmpty()
+}
+
+/**
+ * A bounded, versioned log of story-level changes made to the local DB, so that consumers like
+ * the story list can pick up only what changed since they last looked instead of requerying.
+ * Writes that affect stories in ways that aren't tracked per hash (bulk marking, session
+ * rebuilds, feed metadata changes) call [invalidate], forcing consumers to a full requery.
+ */
+class StoryChangeLog(private val capacity: Int = DEFAULT_CAPACITY) {
+
+    private enum class Kind { INSERTED, UPDATED, REMOVED }
+
+    private class Entry(val version: Long, val hash: String, val kind: Kind)
+
+    private val entries = ArrayDeque<Entry>()
+
+    private var version = 0L
+
+    /** the newest version at or before which changes are no longer itemised */
+    private var fullThrough = 0L
+
+    @Synchronized
+    fun currentVersion(): Long = version
+
+    /** Record stories newly added to the reading session. */
+    @Synchronized
+    fun recordInserted(hashes: Collection<String>) = record(hashes, Kind.INSERTED)
+
+    /** Record stories whose displayable state changed. */
+    @Synchronized
+    fun recordUpdated(hashes: Collection<String>) = record(hashes, Kind.UPDATED)
+
+    /** Record stories that were deleted or dropped from the reading session. */
+    @Synchronized
+    fun recordRemoved(hashes: Collection<String>) = record(hashes, Kind.REMOVED)
+
+    /**
+     * Note a change that can't be described per story; anyone holding an older version must
+     * requery everything.
+     */
+    @Synchronized
+    fun invalidate() {
+        version++
+        fullThrough = version
+        entries.clear()
+    }
+
+    /**
+     * Get everything that changed after the given version. A version of 0 means the caller has
+     * never seen the data, so always gets a full change set.
+     */
+    @Synchronized
+    fun changesSince(sinceVersion: Long): StoryChangeSet {
+        if (sinceVersion <= 0L || sinceVersion < fullThrough) {
+            return StoryChangeSet(version, emptySet(), emptySet(), emptySet(), true)
+        }
+        val latest = LinkedHashMap<String, Kind>()
+        for (entry in entries) {
+            if (entry.version <= sinceVersion) continue
+            val previous = latest[entry.hash]
+            // an update to a story the caller has not seen yet is still an insertion for them
+            latest[entry.hash] = if (previous == Kind.INSERTED && entry.kind == Kind.UPDATED) Kind.INSERTED else entry.kind
+        }
+        val inserted = LinkedHashSet<String>()
+        val updated = LinkedHashSet<String>()
+        val removed = LinkedHashSet<String>()
+        for ((hash, kind) in latest) {
+            when (kind) {
+                Kind.INSERTED -> inserted.add(hash)
+                Kind.UPDATED -> updated.add(hash)
+                Kind.REMOVED -> removed.add(hash)
+            }
+        }
+        return StoryChangeSet(version, inserted, updated, removed, false)
+    }
+
+    private fun record(hashes: Collection<String>, kind: Kind) {
+        if (hashes.isEmpty()) return
+        version++
+        for (hash in hashes) {
+            entries.addLast(Entry(version, hash, kind))
+        }
+        // once the log overflows, the oldest versions can no longer be described per story
+        while (entries.size > capacity) {
+            fullThrough = entries.removeFirst().version
+        }
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 2000
+    }
+}
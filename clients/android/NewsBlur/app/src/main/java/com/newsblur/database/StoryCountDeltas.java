@@ -0,0 +1,65 @@
+package com.newsblur.database;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * How many stories in each feed had a state flag actually flipped by a bulk update, split
+ * by the same negative/neutral/positive intel buckets that the feed counters use.
+ */
+public class StoryCountDeltas {
+
+    private static final int NEG = 0;
+    private static final int NEUT = 1;
+    private static final int POS = 2;
+
+    private final Map<String,int[]> byFeed = new HashMap<String,int[]>();
+    private int total = 0;
+
+    /**
+     * @param intelBucket the sign of the total intel of the stories counted.
+     */
+    void add(String feedId, int intelBucket, int count) {
+        int[] counts = byFeed.get(feedId);
+        if (counts == null) {
+            counts = new int[3];
+            byFeed.put(feedId, counts);
+        }
+        int i = (intelBucket < 0) ? NEG : ((intelBucket == 0) ? NEUT : POS);
+        counts[i] += count;
+        total += count;
+    }
+
+    public Set<String> getFeedIds() {
+        return Collections.unmodifiableSet(byFeed.keySet());
+    }
+
+    public int getNegativeCount(String feedId) {
+        return get(feedId, NEG);
+    }
+
+    public int getNeutralCount(String feedId) {
+        return get(feedId, NEUT);
+    }
+
+    public int getPositiveCount(String feedId) {
+        return get(feedId, POS);
+    }
+
+    /** The number of stories changed, over all feeds. */
+    public int getTotal() {
+        return total;
+    }
+
+    private int get(String feedId, int i) {
+        int[] counts = byFeed.get(feedId);
+        return (counts == null) ? 0 : counts[i];
+    }
+
+    @Override
+    public String toString() {
+        return total + " stories in " + byFeed.size() + " feeds";
+    }
+}
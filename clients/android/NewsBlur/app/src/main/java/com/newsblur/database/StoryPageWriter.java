@@ -0,0 +1,424 @@
+package com.newsblur.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.newsblur.domain.Classifier;
+import com.newsblur.domain.Comment;
+import com.newsblur.domain.Reply;
+import com.newsblur.domain.Story;
+import com.newsblur.domain.UserProfile;
+import com.newsblur.util.StoryContentCodec;
+import com.newsblur.util.StoryUtil;
+
+import java.util.Map;
+
+/**
+ * Writes the rows that come with a page of stories through statements that are compiled once
+ * and then reused for every row of the page, binding each column by position.  Building a
+ * ContentValues per row and handing it to insertWithOnConflict() costs a map, boxing of every
+ * value and a freshly compiled statement per row, which adds up to most of the time spent
+ * storing a page.
+ *
+ * A writer belongs to one transaction on the RW DB: the caller must hold the write lock and
+ * have begun the transaction before making one, and must close it before ending the
+ * transaction.  The rows written here must stay identical to those from the getValues() of
+ * the domain classes, which are still used wherever single rows are written.
+ */
+public class StoryPageWriter {
+
+    private static final String[] STORY_COLUMNS = {
+        DatabaseConstants.STORY_ID,
+        DatabaseConstants.STORY_TITLE,
+        DatabaseConstants.STORY_TIMESTAMP,
+        DatabaseConstants.STORY_CONTENT,
+        DatabaseConstants.STORY_SHORT_CONTENT,
+        DatabaseConstants.STORY_PERMALINK,
+        DatabaseConstants.STORY_AUTHORS,
+        DatabaseConstants.STORY_SOCIAL_USER_ID,
+        DatabaseConstants.STORY_SOURCE_USER_ID,
+        DatabaseConstants.STORY_SHARED_USER_IDS,
+        DatabaseConstants.STORY_FRIEND_USER_IDS,
+        DatabaseConstants.STORY_INTELLIGENCE_AUTHORS,
+        DatabaseConstants.STORY_INTELLIGENCE_FEED,
+        DatabaseConstants.STORY_INTELLIGENCE_TAGS,
+        DatabaseConstants.STORY_INTELLIGENCE_TITLE,
+        DatabaseConstants.STORY_INTELLIGENCE_TOTAL,
+        DatabaseConstants.STORY_TAGS,
+        DatabaseConstants.STORY_USER_TAGS,
+        DatabaseConstants.STORY_READ,
+        DatabaseConstants.STORY_STARRED,
+        DatabaseConstants.STORY_STARRED_DATE,
+        DatabaseConstants.STORY_FEED_ID,
+        DatabaseConstants.STORY_HASH,
+        DatabaseConstants.STORY_IMAGE_URLS,
+        DatabaseConstants.STORY_LAST_READ_DATE,
+        DatabaseConstants.STORY_SHARED_DATE,
+        DatabaseConstants.STORY_SEARCH_HIT,
+        DatabaseConstants.STORY_THUMBNAIL_URL,
+        DatabaseConstants.STORY_INFREQUENT,
+        DatabaseConstants.STORY_HAS_MODIFICATIONS,
+    };
+
+    private static final String[] COMMENT_COLUMNS = {
+        DatabaseConstants.COMMENT_DATE,
+        DatabaseConstants.COMMENT_STORYID,
+        DatabaseConstants.COMMENT_LIKING_USERS,
+        DatabaseConstants.COMMENT_TEXT,
+        DatabaseConstants.COMMENT_SHAREDDATE,
+        DatabaseConstants.COMMENT_BYFRIEND,
+        DatabaseConstants.COMMENT_SOURCE_USERID,
+        DatabaseConstants.COMMENT_USERID,
+        DatabaseConstants.COMMENT_ID,
+        DatabaseConstants.COMMENT_ISPSEUDO,
+        DatabaseConstants.COMMENT_ISPLACEHOLDER,
+    };
+
+    private static final String[] REPLY_COLUMNS = {
+        DatabaseConstants.REPLY_DATE,
+        DatabaseConstants.REPLY_SHORTDATE,
+        DatabaseConstants.REPLY_TEXT,
+        DatabaseConstants.REPLY_COMMENTID,
+        DatabaseConstants.REPLY_ID,
+        DatabaseConstants.REPLY_USERID,
+        DatabaseConstants.REPLY_ISPLACEHOLDER,
+    };
+
+    private static final String[] USER_COLUMNS = {
+        DatabaseConstants.USER_PHOTO_URL,
+        DatabaseConstants.USER_USERID,
+        DatabaseConstants.USER_USERNAME,
+        DatabaseConstants.USER_LOCATION,
+    };
+
+    private static final String[] CLASSIFIER_COLUMNS = {
+        DatabaseConstants.CLASSIFIER_ID,
+        DatabaseConstants.CLASSIFIER_KEY,
+        DatabaseConstants.CLASSIFIER_TYPE,
+        DatabaseConstants.CLASSIFIER_VALUE,
+    };
+
+    private static final String[] SOCIALFEED_STORY_COLUMNS = {
+        DatabaseConstants.SOCIALFEED_STORY_USER_ID,
+        DatabaseConstants.SOCIALFEED_STORY_STORYID,
+    };
+
+    private static final String[] USER_TAG_MAP_COLUMNS = {
+        DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH,
+        DatabaseConstants.STORY_USER_TAG_MAP_TAG,
+    };
+
+    private final SQLiteDatabase db;
+
+    // compiled on first use, since many pages have no comments, replies or classifiers at all
+    private SQLiteStatement insertStory;
+    private SQLiteStatement dropStaleRevisions;
+    private SQLiteStatement deleteUserTags;
+    private SQLiteStatement insertUserTag;
+    private SQLiteStatement insertSocialStory;
+    private SQLiteStatement deletePlaceholderComments;
+    private SQLiteStatement deleteReplies;
+    private SQLiteStatement insertComment;
+    private SQLiteStatement insertReply;
+    private SQLiteStatement insertUser;
+    private SQLiteStatement deleteClassifiers;
+    private SQLiteStatement insertClassifier;
+
+    private boolean placeholdersCleared = false;
+
+    public StoryPageWriter(@NonNull SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    private static String insertSql(String conflict, String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT OR ").append(conflict).append(" INTO ").append(table).append(" (");
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                params.append(", ");
+            }
+            sql.append(columns[i]);
+            params.append('?');
+        }
+        return sql.append(") VALUES (").append(params).append(')').toString();
+    }
+
+    private SQLiteStatement deleteBy(String table, String column) {
+        return db.compileStatement("DELETE FROM " + table + " WHERE " + column + " = ?");
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, @Nullable String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void bindBlob(SQLiteStatement statement, int index, @Nullable byte[] value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindBlob(index, value);
+        }
+    }
+
+    private static void bindBoolean(SQLiteStatement statement, int index, boolean value) {
+        statement.bindLong(index, value ? 1L : 0L);
+    }
+
+    // the comment and reply tables have always stored their flags as strings
+    private static void bindFlagString(SQLiteStatement statement, int index, boolean value) {
+        statement.bindString(index, value ? "true" : "false");
+    }
+
+    /**
+     * Write a story, replacing any older copy, along with its tag map rows, its social feed
+     * rows and its comments.
+     */
+    public void putStory(@NonNull Story story) {
+        byte[] content = StoryContentCodec.encode(story.content);
+        if (story.hasModifications) dropStaleRevisions(story.storyHash, content);
+
+        if (insertStory == null) insertStory = db.compileStatement(insertSql("REPLACE", DatabaseConstants.STORY_TABLE, STORY_COLUMNS));
+        SQLiteStatement s = insertStory;
+        s.clearBindings();
+        int i = 0;
+        bindString(s, ++i, story.id);
+        bindString(s, ++i, story.title.replace("\n", " ").replace("\r", " "));
+        s.bindLong(++i, story.timestamp);
+        bindBlob(s, ++i, content);
+        bindString(s, ++i, story.shortContent);
+        bindString(s, ++i, story.permalink);
+        bindString(s, ++i, story.authors);
+        bindString(s, ++i, story.socialUserId);
+        bindString(s, ++i, story.sourceUserId);
+        bindString(s, ++i, StoryUtil.nullSafeJoin(",", story.getSharedUserIds()));
+        bindString(s, ++i, StoryUtil.nullSafeJoin(",", story.getFriendUserIds()));
+        s.bindLong(++i, story.intelligence.intelligenceAuthors);
+        s.bindLong(++i, story.intelligence.intelligenceFeed);
+        s.bindLong(++i, story.intelligence.intelligenceTags);
+        s.bindLong(++i, story.intelligence.intelligenceTitle);
+        s.bindLong(++i, story.intelligence.calcTotalIntel());
+        bindString(s, ++i, StoryUtil.nullSafeJoin(",", story.getTags()));
+        bindString(s, ++i, StoryUtil.nullSafeJoin(",", story.getUserTags()));
+        bindBoolean(s, ++i, story.read);
+        bindBoolean(s, ++i, story.starred);
+        s.bindLong(++i, story.starredTimestamp);
+        bindString(s, ++i, story.feedId);
+        bindString(s, ++i, story.storyHash);
+        bindString(s, ++i, StoryUtil.nullSafeJoin(",", story.imageUrls));
+        s.bindLong(++i, story.lastReadTimestamp);
+        s.bindLong(++i, story.sharedTimestamp);
+        bindString(s, ++i, story.searchHit);
+        bindString(s, ++i, story.thumbnailUrl);
+        bindBoolean(s, ++i, story.infrequent);
+        bindBoolean(s, ++i, story.hasModifications);
+        s.executeInsert();
+
+        // keep the user tag lookup table in step.  the saved counts by tag come from the API along
+        // with these stories, so unlike a local save, they need no adjusting here
+        if (deleteUserTags == null) {
+            deleteUserTags = deleteBy(DatabaseConstants.STORY_USER_TAG_MAP_TABLE, DatabaseConstants.STORY_USER_TAG_MAP_STORY_HASH);
+            insertUserTag = db.compileStatement(insertSql("IGNORE", DatabaseConstants.STORY_USER_TAG_MAP_TABLE, USER_TAG_MAP_COLUMNS));
+        }
+        putUserTags(story.storyHash, story.starred ? story.getUserTags() : null);
+
+        // if a story was shared by a user, also insert it into the social table under their userid, too
+        String[] sharedUserIds = story.getSharedUserIds();
+        if (sharedUserIds != null) {
+            for (String sharedUserId : sharedUserIds) {
+                if (insertSocialStory == null) insertSocialStory = db.compileStatement(insertSql("REPLACE", DatabaseConstants.SOCIALFEED_STORY_MAP_TABLE, SOCIALFEED_STORY_COLUMNS));
+                insertSocialStory.clearBindings();
+                bindString(insertSocialStory, 1, sharedUserId);
+                bindString(insertSocialStory, 2, story.id);
+                insertSocialStory.executeInsert();
+            }
+        }
+
+        // handle comments
+        if (story.publicComments != null) {
+            for (Comment comment : story.publicComments) {
+                comment.storyId = story.id;
+                putComment(comment);
+            }
+        }
+        if (story.friendsComments != null) {
+            for (Comment comment : story.friendsComments) {
+                comment.storyId = story.id;
+                comment.byFriend = true;
+                putComment(comment);
+            }
+        }
+        if (story.friendsShares != null) {
+            for (Comment comment : story.friendsShares) {
+                comment.isPseudo = true;
+                comment.storyId = story.id;
+                comment.byFriend = true;
+                putComment(comment);
+            }
+        }
+    }
+
+    private void putUserTags(String hash, @Nullable String[] tags) {
+        deleteUserTags.bindString(1, hash);
+        deleteUserTags.executeUpdateDelete();
+        if (tags == null) return;
+        for (String tag : tags) {
+            if (TextUtils.isEmpty(tag)) continue;
+            insertUserTag.bindString(1, hash);
+            insertUserTag.bindString(2, tag);
+            insertUserTag.executeInsert();
+        }
+    }
+
+    /**
+     * Drop the stored revisions of a story if it has been modified again since they were
+     * fetched, which shows as new content replacing the old.  Packing is deterministic, so the
+     * packed contents can be compared as they are.  Must be called before the story is replaced.
+     */
+    private void dropStaleRevisions(@NonNull String hash, @Nullable byte[] packedContent) {
+        if (dropStaleRevisions == null) {
+            dropStaleRevisions = db.compileStatement(
+                    "DELETE FROM " + DatabaseConstants.STORY_REVISION_TABLE +
+                    " WHERE " + DatabaseConstants.STORY_REVISION_STORY_HASH + " = ?" +
+                    " AND NOT EXISTS (SELECT 1 FROM " + DatabaseConstants.STORY_TABLE +
+                    " WHERE " + DatabaseConstants.STORY_HASH + " = ? AND " + DatabaseConstants.STORY_CONTENT + " = ?)");
+        }
+        dropStaleRevisions.bindString(1, hash);
+        dropStaleRevisions.bindString(2, hash);
+        bindBlob(dropStaleRevisions, 3, packedContent);
+        dropStaleRevisions.executeUpdateDelete();
+    }
+
+    /**
+     * Write a comment and the replies that come with it, replacing any older copy and replies.
+     */
+    public void putComment(@NonNull Comment comment) {
+        // real comments replace placeholders. nothing this writer puts is a placeholder, so
+        // clearing them once per transaction is enough
+        if (!placeholdersCleared) {
+            if (deletePlaceholderComments == null) deletePlaceholderComments = deleteBy(DatabaseConstants.COMMENT_TABLE, DatabaseConstants.COMMENT_ISPLACEHOLDER);
+            deletePlaceholderComments.bindString(1, "true");
+            deletePlaceholderComments.executeUpdateDelete();
+            placeholdersCleared = true;
+        }
+        // comments always come with an updated set of replies, so remove old ones first
+        if (deleteReplies == null) deleteReplies = deleteBy(DatabaseConstants.REPLY_TABLE, DatabaseConstants.REPLY_COMMENTID);
+        bindString(deleteReplies, 1, comment.id);
+        deleteReplies.executeUpdateDelete();
+
+        if (insertComment == null) insertComment = db.compileStatement(insertSql("REPLACE", DatabaseConstants.COMMENT_TABLE, COMMENT_COLUMNS));
+        SQLiteStatement s = insertComment;
+        s.clearBindings();
+        int i = 0;
+        bindString(s, ++i, comment.date);
+        bindString(s, ++i, comment.storyId);
+        bindString(s, ++i, StoryUtil.nullSafeJoin(",", comment.likingUsers));
+        bindString(s, ++i, comment.commentText);
+        bindString(s, ++i, comment.sharedDate);
+        bindFlagString(s, ++i, comment.byFriend);
+        bindString(s, ++i, comment.sourceUserId);
+        bindString(s, ++i, comment.userId);
+        bindString(s, ++i, comment.id);
+        bindFlagString(s, ++i, comment.isPseudo);
+        bindFlagString(s, ++i, comment.isPlaceholder);
+        s.executeInsert();
+
+        if (comment.replies == null) return;
+        for (Reply reply : comment.replies) {
+            reply.commentId = comment.id;
+            putReply(reply);
+        }
+    }
+
+    private void putReply(@NonNull Reply reply) {
+        if (insertReply == null) insertReply = db.compileStatement(insertSql("REPLACE", DatabaseConstants.REPLY_TABLE, REPLY_COLUMNS));
+        SQLiteStatement s = insertReply;
+        s.clearBindings();
+        int i = 0;
+        s.bindLong(++i, reply.date.getTime());
+        bindString(s, ++i, reply.shortDate);
+        bindString(s, ++i, reply.text);
+        bindString(s, ++i, reply.commentId);
+        bindString(s, ++i, reply.id);
+        bindString(s, ++i, reply.userId);
+        bindFlagString(s, ++i, reply.isPlaceholder);
+        s.executeInsert();
+    }
+
+    public void putUser(@NonNull UserProfile user) {
+        if (insertUser == null) insertUser = db.compileStatement(insertSql("REPLACE", DatabaseConstants.USER_TABLE, USER_COLUMNS));
+        SQLiteStatement s = insertUser;
+        s.clearBindings();
+        int i = 0;
+        bindString(s, ++i, user.photoUrl);
+        bindString(s, ++i, user.userId);
+        bindString(s, ++i, user.username);
+        bindString(s, ++i, user.location);
+        s.executeInsert();
+    }
+
+    /**
+     * Replace all the classifiers of a feed.
+     */
+    public void putClassifiers(@NonNull String feedId, @NonNull Classifier classifier) {
+        if (deleteClassifiers == null) deleteClassifiers = deleteBy(DatabaseConstants.CLASSIFIER_TABLE, DatabaseConstants.CLASSIFIER_ID);
+        deleteClassifiers.bindString(1, feedId);
+        deleteClassifiers.executeUpdateDelete();
+        putClassifierValues(feedId, Classifier.AUTHOR, classifier.authors);
+        putClassifierValues(feedId, Classifier.TITLE, classifier.title);
+        putClassifierValues(feedId, Classifier.TAG, classifier.tags);
+        putClassifierValues(feedId, Classifier.FEED, classifier.feeds);
+    }
+
+    private void putClassifierValues(String feedId, int type, @Nullable Map<String,Integer> values) {
+        if ((values == null) || values.isEmpty()) return;
+        if (insertClassifier == null) insertClassifier = db.compileStatement(insertSql("REPLACE", DatabaseConstants.CLASSIFIER_TABLE, CLASSIFIER_COLUMNS));
+        SQLiteStatement s = insertClassifier;
+        for (Map.Entry<String,Integer> entry : values.entrySet()) {
+            s.clearBindings();
+            s.bindString(1, feedId);
+            bindString(s, 2, entry.getKey());
+            s.bindLong(3, type);
+            if (entry.getValue() == null) {
+                s.bindNull(4);
+            } else {
+                s.bindLong(4, entry.getValue());
+            }
+            s.executeInsert();
+        }
+    }
+
+    /**
+     * Release the compiled statements.  Safe to call more than once.
+     */
+    public void close() {
+        closeAll(insertStory, dropStaleRevisions, deleteUserTags, insertUserTag,
+                 insertSocialStory, deletePlaceholderComments, deleteReplies, insertComment, insertReply,
+                 insertUser, deleteClassifiers, insertClassifier);
+        insertStory = null;
+        dropStaleRevisions = null;
+        deleteUserTags = null;
+        insertUserTag = null;
+        insertSocialStory = null;
+        deletePlaceholderComments = null;
+        deleteReplies = null;
+        insertComment = null;
+        insertReply = null;
+        insertUser = null;
+        deleteClassifiers = null;
+        insertClassifier = null;
+    }
+
+    private static void closeAll(SQLiteStatement... statements) {
+        for (SQLiteStatement statement : statements) {
+            if (statement != null) statement.close();
+        }
+    }
+}
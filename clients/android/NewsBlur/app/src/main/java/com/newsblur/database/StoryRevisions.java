@@ -0,0 +1,57 @@
+package com.newsblur.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.newsblur.util.StoryContentCodec;
+
+/**
+ * Reads and writes the stored revisions of modified stories, with and without their changes
+ * marked up.  A revision the API had no content for is stored without any, so that it counts as
+ * fetched and isn't asked for again on every sync.  Callers hold whatever locks the DB needs.
+ */
+final class StoryRevisions {
+
+    private static final String WHERE_HASH = DatabaseConstants.STORY_REVISION_STORY_HASH + " = ?";
+    private static final String WHERE_HASH_AND_SHOW_CHANGES = WHERE_HASH + " AND " + DatabaseConstants.STORY_REVISION_SHOW_CHANGES + " = ?";
+
+    private StoryRevisions() {} // util class - no instances
+
+    /**
+     * @return the content of a revision, or null if it hasn't been fetched or the API had none.
+     */
+    @Nullable
+    static String get(@NonNull SQLiteDatabase db, @NonNull String hash, boolean showChanges) {
+        Cursor c = db.query(DatabaseConstants.STORY_REVISION_TABLE,
+                            new String[]{DatabaseConstants.STORY_REVISION_CONTENT},
+                            WHERE_HASH_AND_SHOW_CHANGES,
+                            new String[]{hash, showChanges ? "1" : "0"}, null, null, null);
+        try {
+            if (!c.moveToFirst()) return null;
+            return StoryContentCodec.decode(c.getBlob(0));
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * @return whether both revisions of a story have been fetched, whether or not the API had
+     *         content for them.
+     */
+    static boolean isFetched(@NonNull SQLiteDatabase db, @NonNull String hash) {
+        return DatabaseUtils.queryNumEntries(db, DatabaseConstants.STORY_REVISION_TABLE, WHERE_HASH, new String[]{hash}) >= 2;
+    }
+
+    static void put(@NonNull SQLiteDatabase db, @NonNull String hash, boolean showChanges, @Nullable String content) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseConstants.STORY_REVISION_STORY_HASH, hash);
+        values.put(DatabaseConstants.STORY_REVISION_SHOW_CHANGES, showChanges);
+        values.put(DatabaseConstants.STORY_REVISION_CONTENT, StoryContentCodec.encode(content));
+        db.insertWithOnConflict(DatabaseConstants.STORY_REVISION_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
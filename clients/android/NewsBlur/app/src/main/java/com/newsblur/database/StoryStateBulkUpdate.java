@@ -0,0 +1,81 @@
+package com.newsblur.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Collection;
+
+/**
+ * Sets a boolean state column, like read or starred, on a large set of stories at once.  The
+ * hashes are staged in a temp table through a single compiled insert, and then the counting and
+ * the update are each one set-based statement joined against it, rather than one UPDATE per
+ * story.  Only stories whose flag actually changes are counted or written.
+ */
+public class StoryStateBulkUpdate {
+
+    private static final String STAGING_TABLE_NAME = "bulk_story_hashes";
+    private static final String STAGING_TABLE = "temp." + STAGING_TABLE_NAME;
+    private static final String STAGING_HASH = "hash";
+
+    private static final String STAGED_STORIES =
+        DatabaseConstants.STORY_HASH + " IN (SELECT " + STAGING_HASH + " FROM " + STAGING_TABLE + ")";
+
+    private StoryStateBulkUpdate() {} // util class - no instances
+
+    /**
+     * Set the given column of the given stories.  Must be called within a transaction, so that
+     * the counts returned match what was written.
+     *
+     * @param column a boolean column of the story table.
+     * @return how many stories in each feed were changed.
+     */
+    public static StoryCountDeltas apply(SQLiteDatabase db, Collection<String> hashes, String column, boolean value) {
+        StoryCountDeltas deltas = new StoryCountDeltas();
+        if (hashes.isEmpty()) return deltas;
+
+        // temp tables live with the connection, which a transaction keeps for its duration
+        db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + STAGING_TABLE_NAME + " (" + STAGING_HASH + " TEXT PRIMARY KEY)");
+        db.execSQL("DELETE FROM " + STAGING_TABLE);
+        try {
+            SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + STAGING_TABLE + " VALUES (?)");
+            try {
+                for (String hash : hashes) {
+                    if (hash == null) continue;
+                    insert.bindString(1, hash);
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+
+            String changed = STAGED_STORIES + " AND " + column + " IS NOT " + (value ? "1" : "0");
+            String bucket = "CASE WHEN " + DatabaseConstants.STORY_INTELLIGENCE_TOTAL + " < 0 THEN -1" +
+                            " WHEN " + DatabaseConstants.STORY_INTELLIGENCE_TOTAL + " > 0 THEN 1 ELSE 0 END";
+            Cursor c = db.rawQuery("SELECT " + DatabaseConstants.STORY_FEED_ID + ", " + bucket + ", COUNT(*)" +
+                                   " FROM " + DatabaseConstants.STORY_TABLE +
+                                   " WHERE " + changed +
+                                   " GROUP BY 1, 2", null);
+            try {
+                while (c.moveToNext()) {
+                    deltas.add(c.getString(0), c.getInt(1), c.getInt(2));
+                }
+            } finally {
+                c.close();
+            }
+            if (deltas.getTotal() == 0) return deltas;
+
+            SQLiteStatement update = db.compileStatement("UPDATE " + DatabaseConstants.STORY_TABLE +
+                                                         " SET " + column + " = " + (value ? "1" : "0") +
+                                                         " WHERE " + changed);
+            try {
+                update.executeUpdateDelete();
+            } finally {
+                update.close();
+            }
+        } finally {
+            db.execSQL("DELETE FROM " + STAGING_TABLE);
+        }
+        return deltas;
+    }
+}
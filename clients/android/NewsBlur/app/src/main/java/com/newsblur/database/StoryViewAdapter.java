@@ -3,9 +3,12 @@ package com.newsblur.database;
 import android.database.Cursor;
 import android.graphics.Color;
 import android.os.Parcelable;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.DiffUtil;
 import android.text.TextUtils;
@@ -25,6 +28,7 @@ import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -43,6 +47,7 @@ import com.newsblur.util.FeedUtils;
 import com.newsblur.util.GestureAction;
 import com.newsblur.util.ImageLoader;
 import com.newsblur.util.PrefsUtils;
+import com.newsblur.util.ScrollSpeedTracker;
 import com.newsblur.util.SpacingStyle;
 import com.newsblur.util.StoryContentPreviewStyle;
 import com.newsblur.util.StoryListStyle;
@@ -52,6 +57,7 @@ import com.newsblur.util.StoryUtils;
 import com.newsblur.util.ThumbnailStyle;
 import com.newsblur.util.UIUtils;
 import com.newsblur.view.StoryThumbnailView;
+import com.newsblur.viewModel.StoryListDelta;
 
 /**
  * Story list adapter, RecyclerView style.
@@ -70,12 +76,23 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
     private final static float READ_STORY_ALPHA = 0.35f;
     private final static int READ_STORY_ALPHA_B255 = (int) (255f * READ_STORY_ALPHA);
 
+    // past this speed rows are gone again before their thumbnails could be decoded, so
+    // thumbnails are only loaded once the list slows down
+    private final static int FAST_SCROLL_DP_PER_SEC = 3000;
+    // how many rows past the visible ones to load thumbnails for, in the direction of scrolling
+    private final static int THUMBNAIL_PREFETCH_ROWS = 2;
+
     private List<View> footerViews = new ArrayList<View>();
     
     // the cursor from which we pull story objects. should not be used except by the thaw/diff worker
     private Cursor cursor;
+    // how many stories deltas applied since the cursor was swapped in have added (or removed)
+    private volatile int deltaStoryCount = 0;
     // the live list of stories being used by the adapter
     private List<Story> stories = new ArrayList<Story>(0);
+    // the most recent list produced by the thaw/diff worker, which may not be live yet. should
+    // not be used except by the thaw/diff worker
+    private List<Story> thawedStories = stories;
 
     private Parcelable oldScrollState;
 
@@ -97,6 +114,31 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
     private SpacingStyle spacingStyle;
     private StoryOrder storyOrder;
 
+    private final ScrollSpeedTracker scrollSpeed;
+    // the size of the last thumbnail view measured, which prefetches are decoded for
+    private int thumbSizePx = 0;
+    // the positions last prefetched for, so that slow scrolling doesn't ask for them every frame
+    private int prefetchedFrom = 0;
+    private int prefetchedTo = -1;
+
+    private final RecyclerView.OnScrollListener thumbnailScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+            boolean idle = (newState == RecyclerView.SCROLL_STATE_IDLE);
+            scrollSpeed.onScrollStateChanged(idle, SystemClock.uptimeMillis());
+            if (idle) catchUpThumbnails(recyclerView);
+        }
+
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            if (scrollSpeed.onScrolled(dy, SystemClock.uptimeMillis())) {
+                catchUpThumbnails(recyclerView);
+            } else if ((dy != 0) && !scrollSpeed.isTooFast()) {
+                prefetchThumbnails(recyclerView);
+            }
+        }
+    };
+
     public StoryViewAdapter(NbActivity context,
                             ItemSetFragment fragment,
                             FeedSet fs,
@@ -132,10 +174,21 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         storyOrder = PrefsUtils.getStoryOrder(context, fs);
 
         executorService = Executors.newFixedThreadPool(1);
+        scrollSpeed = new ScrollSpeedTracker(UIUtils.dp2px(context, FAST_SCROLL_DP_PER_SEC));
 
         setHasStableIds(true);
     }
 
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(thumbnailScrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(thumbnailScrollListener);
+    }
+
     public void updateFeedSet(FeedSet fs) {
         this.fs = fs;
     }
@@ -184,7 +237,7 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
             // rather than worry about sync locking for cursor changes, just fail. a
             // closing cursor may as well not be loaded.
         }
-        return count;
+        return count + deltaStoryCount;
     }
 
     @Override
@@ -211,6 +264,7 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         // cache the identity of the most recent cursor so async batches can check to
         // see if they are stale
         cursor = c;
+        deltaStoryCount = 0;
         // if the caller wants to restore a scroll state, hold onto it for when we update
         // the dataset and use that state at the right moment
         if (oldScrollState != null) {
@@ -226,6 +280,61 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         executorService.submit(r);
     }
 
+    /**
+     * Apply a set of story changes on top of the stories thawed from the current cursor, rather
+     * than requerying and thawing the whole list.
+     */
+    public void applyDelta(final StoryListDelta delta, final RecyclerView rv, final boolean skipBackFillingStories) {
+        final Cursor c = cursor;
+        Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                thawDeltaUpdate(c, delta, rv, skipBackFillingStories);
+            }
+        };
+        executorService.submit(r);
+    }
+
+    private void thawDeltaUpdate(final Cursor c, final StoryListDelta delta, final RecyclerView rv, final boolean skipBackFillingStories) {
+        // a newer cursor supersedes any delta queued against the old one
+        if (c != cursor) return;
+
+        // build on the worker's latest list, as earlier deltas may not have been posted yet
+        final List<Story> oldStories = thawedStories;
+        Set<String> currentStoryHashes = StoryUtil.getStoryHashes(oldStories);
+        List<Story> changed = new ArrayList<>(delta.changed.size());
+        int countChange = 0;
+        for (Story s : delta.changed) {
+            if (!currentStoryHashes.contains(s.storyHash)) {
+                countChange++;
+                // the same backfill rule as for full thaws, so a resumed list doesn't jump
+                if (skipBackFillingStories && isBackFillingStory(s, oldStories)) continue;
+            }
+            changed.add(s);
+        }
+        for (String hash : delta.removed) {
+            if (currentStoryHashes.contains(hash)) countChange--;
+        }
+
+        Comparator<Story> comparator = StoryUtil.getSessionStoryComparator(fs, storyOrder);
+        final List<Story> newStories = StoryUtil.applyStoryDelta(oldStories, changed, delta.removed, comparator);
+        int indexOfLastUnread = -1;
+        for (int i = 0; i < newStories.size(); i++) {
+            if (!newStories.get(i).read) indexOfLastUnread = i;
+        }
+        deltaStoryCount += countChange;
+
+        dispatchStories(c, newStories, indexOfLastUnread, rv);
+    }
+
+    private boolean isBackFillingStory(Story s, List<Story> currentStories) {
+        if (storyOrder == StoryOrder.NEWEST) {
+            return s.timestamp >= StoryUtil.getOldestStoryTimestamp(currentStories);
+        } else {
+            return s.timestamp <= StoryUtil.getNewestStoryTimestamp(currentStories);
+        }
+    }
+
     /**
      * Attempt to thaw a new set of stories from the cursor most recently
      * seen when the that cycle started.
@@ -262,9 +371,13 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
                     storyTimestampThreshold = null;
                 }
 
-                while (c.moveToNext()) {
+                Story.CursorMapper mapper = new Story.CursorMapper(c, true);
+                int count = c.getCount();
+                for (int pos = 0; pos < count; pos++) {
                     if (c.isClosed()) return;
-                    Story s = Story.fromCursor(c);
+                    // a session cursor can't move onto a story deleted since it was made
+                    if (!c.moveToPosition(pos)) continue;
+                    Story s = mapper.fromCursor(c);
                     if (skipBackFillingStories && !currentStoryHashes.contains(s.storyHash)) {
                         if (storyOrder == StoryOrder.NEWEST &&
                                 storyTimestampThreshold != null &&
@@ -277,7 +390,7 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
                         }
                     }
 
-                    s.bindExternValues(c);
+                    mapper.bindExternValues(s, c);
                     newStories.add(s);
                     if (! s.read) indexOfLastUnread = c.getPosition();
                 }
@@ -287,11 +400,23 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
             return;
         }
 
+        dispatchStories(c, newStories, indexOfLastUnread, rv);
+    }
+
+    /**
+     * Diff a freshly thawed story list against the live one and hand it to the RecyclerView.
+     */
+    private void dispatchStories(final Cursor c, final List<Story> newStories, int indexOfLastUnread, final RecyclerView rv) {
         // generate the RecyclerView diff
-        final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new StoryListDiffer(newStories), false);
+        final List<Story> oldStories;
+        synchronized (this) {
+            oldStories = stories;
+        }
+        final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new StoryListDiffer(oldStories, newStories), false);
 
         if (c != cursor) return;
 
+        thawedStories = newStories;
         fragment.storyThawCompleted(indexOfLastUnread);
 
         rv.post(new Runnable() {
@@ -304,8 +429,14 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
                 // in instance state, so keep it and re-apply after deltas to preserve position
                 Parcelable scrollState = rv.getLayoutManager().onSaveInstanceState();
                 synchronized (StoryViewAdapter.this) {
-                    stories = newStories;
-                    diff.dispatchUpdatesTo(StoryViewAdapter.this);
+                    if (stories == oldStories) {
+                        stories = newStories;
+                        diff.dispatchUpdatesTo(StoryViewAdapter.this);
+                    } else {
+                        // another update went live since the diff was made, so it no longer applies
+                        stories = newStories;
+                        notifyDataSetChanged();
+                    }
                     // the one exception to restoring state is if we were passed an old state to restore
                     // along with the cursor
                     if (oldScrollState != null) {
@@ -319,9 +450,11 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         });
     }
 
-    private class StoryListDiffer extends DiffUtil.Callback {
+    private static class StoryListDiffer extends DiffUtil.Callback {
+        private List<Story> stories;
         private List<Story> newStories;
-        public StoryListDiffer(List<Story> newStories) {
+        public StoryListDiffer(List<Story> stories, List<Story> newStories) {
+            StoryListDiffer.this.stories = stories;
             StoryListDiffer.this.newStories = newStories;
         }
         public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
@@ -395,6 +528,9 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         Story story;
         ImageLoader.PhotoToLoad thumbLoader;
         String lastThumbUrl;
+        // set if the thumbnail was skipped while the list was flinging and still needs loading
+        @Nullable
+        ImageView deferredThumbView;
         GestureDetector gestureDetector = new GestureDetector(context, new StoryViewGestureDetector(StoryViewHolder.this));
         boolean gestureR2L = false;
         boolean gestureL2R = false;
@@ -633,7 +769,7 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         }
 
         boolean shared = false;
-        findshareloop: for (String userId : story.sharedUserIds) {
+        findshareloop: for (String userId : story.getSharedUserIds()) {
             if (TextUtils.equals(userId, user.id)) {
                 shared = true;
                 break findshareloop;
@@ -692,11 +828,69 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
             // the view will display a stale, recycled thumb before the new one loads if the old is not cleared
             int thumbSizeGuess = vh.thumbTileView.getMeasuredHeight();
             vh.thumbTileView.setImageBitmap(null);
-            vh.thumbLoader = thumbnailLoader.displayImage(story.thumbnailUrl, vh.thumbTileView, thumbSizeGuess, true);
+            loadThumbnail(vh, story.thumbnailUrl, vh.thumbTileView, thumbSizeGuess);
             vh.lastThumbUrl = story.thumbnailUrl;
         }
     }
 
+    /**
+     * Start loading a row's thumbnail, unless the list is flinging by too fast for the row to
+     * still be showing by the time it loads, in which case it waits for the list to slow down.
+     */
+    private void loadThumbnail(StoryViewHolder vh, String url, ImageView view, int thumbSizeGuess) {
+        if (thumbSizeGuess > 0) thumbSizePx = thumbSizeGuess;
+        if (scrollSpeed.isTooFast()) {
+            vh.thumbLoader = null;
+            vh.deferredThumbView = thumbnailLoader.deferImage(url, view) ? null : view;
+        } else {
+            vh.deferredThumbView = null;
+            vh.thumbLoader = thumbnailLoader.displayImage(url, view, thumbSizeGuess, true);
+        }
+    }
+
+    /**
+     * Once the list slows down, load the thumbnails skipped for the rows it settled on, ahead
+     * of anything queued while it was moving, then look ahead.
+     */
+    private void catchUpThumbnails(RecyclerView rv) {
+        thumbnailLoader.cancelPrefetches();
+        prefetchedFrom = 0;
+        prefetchedTo = -1;
+        for (int i=0; i<rv.getChildCount(); i++) {
+            RecyclerView.ViewHolder holder = rv.getChildViewHolder(rv.getChildAt(i));
+            if (!(holder instanceof StoryViewHolder)) continue;
+            StoryViewHolder vh = (StoryViewHolder) holder;
+            if (vh.deferredThumbView == null) continue;
+            vh.thumbLoader = thumbnailLoader.displayImage(vh.lastThumbUrl, vh.deferredThumbView, vh.deferredThumbView.getMeasuredHeight(), false);
+            vh.deferredThumbView = null;
+        }
+        prefetchThumbnails(rv);
+    }
+
+    /**
+     * Load the thumbnails for the next few rows in the direction the list is moving, so they
+     * are ready when those rows show.
+     */
+    private void prefetchThumbnails(RecyclerView rv) {
+        if (thumbnailStyle.isOff() || (thumbSizePx < 1)) return;
+        if (!(rv.getLayoutManager() instanceof LinearLayoutManager)) return;
+        LinearLayoutManager layoutManager = (LinearLayoutManager) rv.getLayoutManager();
+        int span = 1;
+        if (layoutManager instanceof GridLayoutManager) span = ((GridLayoutManager) layoutManager).getSpanCount();
+        int[] range = ScrollSpeedTracker.aheadRange(layoutManager.findFirstVisibleItemPosition(),
+                                                    layoutManager.findLastVisibleItemPosition(),
+                                                    scrollSpeed.getDirection(),
+                                                    THUMBNAIL_PREFETCH_ROWS * span,
+                                                    getStoryCount());
+        if ((range[0] == prefetchedFrom) && (range[1] == prefetchedTo)) return;
+        prefetchedFrom = range[0];
+        prefetchedTo = range[1];
+        for (int i=range[0]; i<=range[1]; i++) {
+            Story story = getStory(i);
+            if (story != null) thumbnailLoader.prefetchImage(story.thumbnailUrl, thumbSizePx);
+        }
+    }
+
     private void bindRow(StoryRowViewHolder vh, Story story) {
         StoryContentPreviewStyle storyContentPreviewStyle = PrefsUtils.getStoryContentPreviewStyle(context);
         if (storyContentPreviewStyle != StoryContentPreviewStyle.NONE) {
@@ -746,13 +940,13 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
             if (thumbnailStyle.isLeft()) {
                 int thumbSizeGuess = vh.thumbViewLeft.getMeasuredHeight();
                 vh.thumbViewLeft.setImageBitmap(null);
-                vh.thumbLoader = thumbnailLoader.displayImage(story.thumbnailUrl, vh.thumbViewLeft, thumbSizeGuess, true);
+                loadThumbnail(vh, story.thumbnailUrl, vh.thumbViewLeft, thumbSizeGuess);
                 vh.thumbViewRight.setVisibility(View.GONE);
                 vh.thumbViewLeft.setVisibility(View.VISIBLE);
             } else if (thumbnailStyle.isRight()) {
                 int thumbSizeGuess = vh.thumbViewRight.getMeasuredHeight();
                 vh.thumbViewRight.setImageBitmap(null);
-                vh.thumbLoader = thumbnailLoader.displayImage(story.thumbnailUrl, vh.thumbViewRight, thumbSizeGuess, true);
+                loadThumbnail(vh, story.thumbnailUrl, vh.thumbViewRight, thumbSizeGuess);
                 vh.thumbViewLeft.setVisibility(View.GONE);
                 boolean hideThumbnail = TextUtils.isEmpty(story.thumbnailUrl) && storyContentPreviewStyle == StoryContentPreviewStyle.NONE;
                 vh.thumbViewRight.setVisibility(hideThumbnail ? View.GONE : View.VISIBLE);
@@ -815,6 +1009,7 @@ public class StoryViewAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         if (viewHolder instanceof StoryViewHolder) {
             StoryViewHolder vh = (StoryViewHolder) viewHolder;
             if (vh.thumbLoader != null) vh.thumbLoader.cancel = true;
+            vh.deferredThumbView = null;
         }
         if (viewHolder instanceof FooterViewHolder) {
             FooterViewHolder vh = (FooterViewHolder) viewHolder;
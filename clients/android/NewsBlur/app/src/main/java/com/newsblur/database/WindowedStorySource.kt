@@ -0,0 +1,132 @@
+package com.newsblur.database
+
+import android.database.Cursor
+import com.newsblur.domain.Story
+import com.newsblur.util.AppConstants
+import com.newsblur.util.Log
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * The stories of a reading session cursor, of which only a window around the current pager
+ * position is kept thawed. The rest are known just by hash, feed and read state, and are thawed
+ * again from the cursor when the pager comes back to them.
+ */
+class WindowedStorySource private constructor(
+        private val cursor: Cursor?,
+        private val hashes: Array<String>,
+        private val readStates: BooleanArray,
+        /** every feed with a story in the source */
+        val feedIds: Set<String>,
+) {
+
+    private val positions = HashMap<String, Int>(hashes.size)
+    private val mapper = cursor?.let { Story.CursorMapper(it, false) }
+    private val window = HashMap<Int, Story>()
+    private var center = 0
+
+    init {
+        for (i in hashes.indices) positions[hashes[i]] = i
+    }
+
+    val size: Int
+        get() = hashes.size
+
+    fun getHash(position: Int): String? =
+            if (position < 0 || position >= hashes.size) null
+            else hashes[position]
+
+    fun findHash(storyHash: String): Int = positions[storyHash] ?: -1
+
+    fun isRead(position: Int): Boolean? =
+            if (position < 0 || position >= hashes.size) null
+            else readStates[position]
+
+    fun findFirstUnread(): Int = readStates.indexOfFirst { !it }
+
+    /**
+     * Get the story at a position, thawing it if it isn't in the window. Does DB work, so call
+     * off the UI thread. A story thawed outside the window is kept until the window next moves.
+     */
+    @Synchronized
+    fun get(position: Int): Story? {
+        if (position < 0 || position >= hashes.size) return null
+        window[position]?.let { return it }
+        val story = thaw(position) ?: return null
+        window[position] = story
+        return story
+    }
+
+    /**
+     * Get the story at a position only if it is already thawed. Safe to call on the UI thread.
+     */
+    @Synchronized
+    fun peek(position: Int): Story? = window[position]
+
+    /**
+     * Centre the window on a new position, releasing stories that fall out of it and thawing
+     * any that come into it.
+     */
+    @Synchronized
+    fun moveWindow(position: Int) {
+        center = position
+        window.keys.removeAll { abs(it - center) > AppConstants.READING_STORY_WINDOW }
+        val start = max(0, center - AppConstants.READING_STORY_WINDOW)
+        val end = min(hashes.size - 1, center + AppConstants.READING_STORY_WINDOW)
+        for (pos in start..end) {
+            if (!window.containsKey(pos)) thaw(pos)?.let { window[pos] = it }
+        }
+    }
+
+    private fun thaw(position: Int): Story? {
+        val c = cursor ?: return null
+        val m = mapper ?: return null
+        return try {
+            if (c.isClosed || !c.moveToPosition(position)) return null
+            val story = m.fromCursor(c)
+            m.bindExternValues(story, c)
+            story
+        } catch (e: Exception) {
+            // the cursor can be closed out from under us at any time; a fresh one will follow
+            Log.e(this, "error thawing story: " + e.message, e)
+            null
+        }
+    }
+
+    companion object {
+
+        @JvmField
+        val EMPTY = WindowedStorySource(null, emptyArray(), BooleanArray(0), emptySet())
+
+        /**
+         * Index a session cursor by reading just the few columns needed to find stories in it.
+         * Returns null if the cursor is closed partway through.
+         */
+        @JvmStatic
+        fun fromCursor(c: Cursor): WindowedStorySource? {
+            if (c.isClosed) return null
+            // a session cursor already knows every story's hash, feed and read state
+            if (c is SessionStoryCursor) {
+                return WindowedStorySource(c, c.hashes, c.readStates, c.feedIds.toHashSet())
+            }
+            val count = c.count
+            val hashes = arrayOfNulls<String>(count)
+            val readStates = BooleanArray(count)
+            val feedIds = HashSet<String>()
+            val hashIndex = c.getColumnIndex(DatabaseConstants.STORY_HASH)
+            val readIndex = c.getColumnIndex(DatabaseConstants.STORY_READ)
+            val feedIdIndex = c.getColumnIndex(DatabaseConstants.STORY_FEED_ID)
+            c.moveToPosition(-1)
+            while (c.moveToNext()) {
+                if (c.isClosed) return null
+                val pos = c.position
+                hashes[pos] = c.getString(hashIndex)
+                readStates[pos] = c.getInt(readIndex) > 0
+                feedIds.add(c.getString(feedIdIndex))
+            }
+            @Suppress("UNCHECKED_CAST")
+            return WindowedStorySource(c, hashes as Array<String>, readStates, feedIds)
+        }
+    }
+}
@@ -11,6 +11,7 @@ import android.database.Cursor;
 
 import com.google.gson.annotations.SerializedName;
 import com.newsblur.database.DatabaseConstants;
+import com.newsblur.util.TitleMatcher;
 
 public class Classifier implements Serializable {
 	
@@ -45,6 +46,19 @@ public class Classifier implements Serializable {
     // not vended by API, but all classifiers are received in the context of a feed, where this is set. needs to
     // be set manually when unfrozen.
     public String feedId;
+
+    // compiled from the title rules on first use, unless the DB helper already had one for the feed.
+    // edits to the rules in memory are not reflected until the classifier is saved and loaded again.
+    private transient TitleMatcher titleMatcher;
+
+    public TitleMatcher getTitleMatcher() {
+        if (titleMatcher == null) titleMatcher = new TitleMatcher(title);
+        return titleMatcher;
+    }
+
+    public void setTitleMatcher(TitleMatcher titleMatcher) {
+        this.titleMatcher = titleMatcher;
+    }
 	
     public ValueMultimap getAPITuples() {
         ValueMultimap values = new ValueMultimap();
@@ -109,31 +109,97 @@ public class Feed implements Comparable<Feed>, Serializable {
 		if (cursor.isBeforeFirst()) {
 			cursor.moveToFirst();
 		}
-		Feed feed = new Feed();
-		feed.active = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_ACTIVE)).equals("1");
-		feed.address = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_ADDRESS));
-		feed.faviconColor = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_COLOR));
-        feed.faviconFade = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_FADE));
-        feed.faviconBorder = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_BORDER));
-        feed.faviconText = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_TEXT));
-		feed.faviconUrl = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_URL));
-		feed.feedId = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_ID));
-		feed.feedLink = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_LINK));
-		feed.negativeCount = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.FEED_NEGATIVE_COUNT));
-		feed.neutralCount = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.FEED_NEUTRAL_COUNT));
-		feed.positiveCount = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.FEED_POSITIVE_COUNT));
-		feed.subscribers = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_SUBSCRIBERS));
-		feed.feedOpens = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.FEED_OPENS));
-		feed.storiesPerMonth = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.FEED_AVERAGE_STORIES_PER_MONTH));
-		feed.lastStoryDate = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_LAST_STORY_DATE));
-		feed.title = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_TITLE));
-        feed.lastUpdated = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.FEED_UPDATED_SECONDS));
-        feed.notificationTypes = DatabaseConstants.unflattenStringList(cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_NOTIFICATION_TYPES)));
-        feed.notificationFilter = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_NOTIFICATION_FILTER));
-        feed.fetchPending = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FETCH_PENDING)).equals("1");
-		return feed;
+		return new CursorMapper(cursor).fromCursor(cursor);
 	}
 
+    /**
+     * Reads feeds from the rows of a cursor, resolving the column indices once per cursor
+     * rather than once per row.
+     */
+    public static class CursorMapper {
+        private final int active;
+        private final int address;
+        private final int faviconColor;
+        private final int faviconFade;
+        private final int faviconBorder;
+        private final int faviconText;
+        private final int faviconUrl;
+        private final int feedId;
+        private final int feedLink;
+        private final int negativeCount;
+        private final int neutralCount;
+        private final int positiveCount;
+        private final int subscribers;
+        private final int feedOpens;
+        private final int storiesPerMonth;
+        private final int lastStoryDate;
+        private final int title;
+        private final int lastUpdated;
+        private final int notificationTypes;
+        private final int notificationFilter;
+        private final int fetchPending;
+
+        public CursorMapper(Cursor cursor) {
+            active = cursor.getColumnIndex(DatabaseConstants.FEED_ACTIVE);
+            address = cursor.getColumnIndex(DatabaseConstants.FEED_ADDRESS);
+            faviconColor = cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_COLOR);
+            faviconFade = cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_FADE);
+            faviconBorder = cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_BORDER);
+            faviconText = cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_TEXT);
+            faviconUrl = cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_URL);
+            feedId = cursor.getColumnIndex(DatabaseConstants.FEED_ID);
+            feedLink = cursor.getColumnIndex(DatabaseConstants.FEED_LINK);
+            negativeCount = cursor.getColumnIndex(DatabaseConstants.FEED_NEGATIVE_COUNT);
+            neutralCount = cursor.getColumnIndex(DatabaseConstants.FEED_NEUTRAL_COUNT);
+            positiveCount = cursor.getColumnIndex(DatabaseConstants.FEED_POSITIVE_COUNT);
+            subscribers = cursor.getColumnIndex(DatabaseConstants.FEED_SUBSCRIBERS);
+            feedOpens = cursor.getColumnIndex(DatabaseConstants.FEED_OPENS);
+            storiesPerMonth = cursor.getColumnIndex(DatabaseConstants.FEED_AVERAGE_STORIES_PER_MONTH);
+            lastStoryDate = cursor.getColumnIndex(DatabaseConstants.FEED_LAST_STORY_DATE);
+            title = cursor.getColumnIndex(DatabaseConstants.FEED_TITLE);
+            lastUpdated = cursor.getColumnIndex(DatabaseConstants.FEED_UPDATED_SECONDS);
+            notificationTypes = cursor.getColumnIndex(DatabaseConstants.FEED_NOTIFICATION_TYPES);
+            notificationFilter = cursor.getColumnIndex(DatabaseConstants.FEED_NOTIFICATION_FILTER);
+            fetchPending = cursor.getColumnIndex(DatabaseConstants.FEED_FETCH_PENDING);
+        }
+
+        public Feed fromCursor(Cursor cursor) {
+            Feed feed = new Feed();
+            fill(feed, cursor);
+            return feed;
+        }
+
+        /** Read the ID of the feed at the current row without thawing the rest of it. */
+        public String feedId(Cursor cursor) {
+            return cursor.getString(feedId);
+        }
+
+        /** Overwrite an existing feed with the current row, so that it can keep its identity. */
+        public void fill(Feed feed, Cursor cursor) {
+            feed.active = cursor.getString(active).equals("1");
+            feed.address = cursor.getString(address);
+            feed.faviconColor = cursor.getString(faviconColor);
+            feed.faviconFade = cursor.getString(faviconFade);
+            feed.faviconBorder = cursor.getString(faviconBorder);
+            feed.faviconText = cursor.getString(faviconText);
+            feed.faviconUrl = cursor.getString(faviconUrl);
+            feed.feedId = cursor.getString(feedId);
+            feed.feedLink = cursor.getString(feedLink);
+            feed.negativeCount = cursor.getInt(negativeCount);
+            feed.neutralCount = cursor.getInt(neutralCount);
+            feed.positiveCount = cursor.getInt(positiveCount);
+            feed.subscribers = cursor.getString(subscribers);
+            feed.feedOpens = cursor.getInt(feedOpens);
+            feed.storiesPerMonth = cursor.getInt(storiesPerMonth);
+            feed.lastStoryDate = cursor.getString(lastStoryDate);
+            feed.title = cursor.getString(title);
+            feed.lastUpdated = cursor.getInt(lastUpdated);
+            feed.notificationTypes = DatabaseConstants.unflattenStringList(cursor.getString(notificationTypes));
+            feed.notificationFilter = cursor.getString(notificationFilter);
+            feed.fetchPending = cursor.getString(fetchPending).equals("1");
+        }
+    }
+
     /**
      * Creates an returns the implicit zero-id feed that NewsBlur uses for feedless stories.
      */
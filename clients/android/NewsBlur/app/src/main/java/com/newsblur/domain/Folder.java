@@ -103,7 +103,7 @@ public class Folder {
      * starting with an underscore should show up on top.
      */
     public static int compareFolderNames(String s1, String s2) {
-        if (TextUtils.equals(s1, s2)) return 0;
+        if (s1.equals(s2)) return 0;
         if (s1.equals(AppConstants.ROOT_FOLDER)) return -1;
         if (s2.equals(AppConstants.ROOT_FOLDER)) return 1;
         if (s1.startsWith("_")) return -1;
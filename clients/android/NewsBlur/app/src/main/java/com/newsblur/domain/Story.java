@@ -3,12 +3,9 @@ package com.newsblur.domain;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import android.content.ContentValues;
 import android.database.Cursor;
-import android.text.TextUtils;
 
 import androidx.annotation.Nullable;
 
@@ -16,6 +13,7 @@ import com.google.gson.annotations.SerializedName;
 
 import com.newsblur.database.DatabaseConstants;
 import com.newsblur.util.StateFilter;
+import com.newsblur.util.StoryContentCodec;
 import com.newsblur.util.StoryUtil;
 
 public class Story implements Serializable {
@@ -29,10 +27,10 @@ public class Story implements Serializable {
 	public String permalink;
 
 	@SerializedName("share_user_ids")
-	public String[] sharedUserIds;
+	private String[] sharedUserIds;
 
 	@SerializedName("shared_by_friends")
-	public String[] friendUserIds = new String[]{};
+	private String[] friendUserIds = new String[]{};
 
 	@SerializedName("read_status")
 	public boolean read;
@@ -44,10 +42,16 @@ public class Story implements Serializable {
     public long starredTimestamp;
 
 	@SerializedName("story_tags")
-	public String[] tags;
+	private String[] tags;
 
 	@SerializedName("user_tags")
-    public String[] userTags = new String[]{};
+    private String[] userTags = new String[]{};
+
+    // the comma-joined DB forms of the above, kept by list-projection thaws and only split when first asked for
+    private String sharedUserIdsJoined;
+    private String friendUserIdsJoined;
+    private String tagsJoined;
+    private String userTagsJoined;
 
 	@SerializedName("social_user_id")
 	public String socialUserId;
@@ -129,26 +133,46 @@ public class Story implements Serializable {
     public String extern_faviconBorderColor;
     public String extern_feedTitle;
 
+    public String[] getSharedUserIds() {
+        if (sharedUserIds == null && sharedUserIdsJoined != null) sharedUserIds = StoryUtil.splitJoined(sharedUserIdsJoined);
+        return sharedUserIds;
+    }
+
+    public String[] getFriendUserIds() {
+        if (friendUserIds == null && friendUserIdsJoined != null) friendUserIds = StoryUtil.splitJoined(friendUserIdsJoined);
+        return friendUserIds;
+    }
+
+    public String[] getTags() {
+        if (tags == null && tagsJoined != null) tags = StoryUtil.splitJoined(tagsJoined);
+        return tags;
+    }
+
+    public String[] getUserTags() {
+        if (userTags == null && userTagsJoined != null) userTags = StoryUtil.splitJoined(userTagsJoined);
+        return userTags;
+    }
+
 	public ContentValues getValues() {
 		final ContentValues values = new ContentValues();
 		values.put(DatabaseConstants.STORY_ID, id);
 		values.put(DatabaseConstants.STORY_TITLE, title.replace("\n", " ").replace("\r", " "));
 		values.put(DatabaseConstants.STORY_TIMESTAMP, timestamp);
-        values.put(DatabaseConstants.STORY_CONTENT, content);
+        values.put(DatabaseConstants.STORY_CONTENT, StoryContentCodec.encode(content));
         values.put(DatabaseConstants.STORY_SHORT_CONTENT, shortContent);
 		values.put(DatabaseConstants.STORY_PERMALINK, permalink);
 		values.put(DatabaseConstants.STORY_AUTHORS, authors);
 		values.put(DatabaseConstants.STORY_SOCIAL_USER_ID, socialUserId);
 		values.put(DatabaseConstants.STORY_SOURCE_USER_ID, sourceUserId);
-		values.put(DatabaseConstants.STORY_SHARED_USER_IDS, StoryUtil.nullSafeJoin(",", sharedUserIds));
-		values.put(DatabaseConstants.STORY_FRIEND_USER_IDS, StoryUtil.nullSafeJoin(",", friendUserIds));
+		values.put(DatabaseConstants.STORY_SHARED_USER_IDS, StoryUtil.nullSafeJoin(",", getSharedUserIds()));
+		values.put(DatabaseConstants.STORY_FRIEND_USER_IDS, StoryUtil.nullSafeJoin(",", getFriendUserIds()));
 		values.put(DatabaseConstants.STORY_INTELLIGENCE_AUTHORS, intelligence.intelligenceAuthors);
 		values.put(DatabaseConstants.STORY_INTELLIGENCE_FEED, intelligence.intelligenceFeed);
 		values.put(DatabaseConstants.STORY_INTELLIGENCE_TAGS, intelligence.intelligenceTags);
 		values.put(DatabaseConstants.STORY_INTELLIGENCE_TITLE, intelligence.intelligenceTitle);
         values.put(DatabaseConstants.STORY_INTELLIGENCE_TOTAL, intelligence.calcTotalIntel());
-		values.put(DatabaseConstants.STORY_TAGS, StoryUtil.nullSafeJoin(",", tags));
-		values.put(DatabaseConstants.STORY_USER_TAGS, StoryUtil.nullSafeJoin(",", userTags));
+		values.put(DatabaseConstants.STORY_TAGS, StoryUtil.nullSafeJoin(",", getTags()));
+		values.put(DatabaseConstants.STORY_USER_TAGS, StoryUtil.nullSafeJoin(",", getUserTags()));
 		values.put(DatabaseConstants.STORY_READ, read);
 		values.put(DatabaseConstants.STORY_STARRED, starred);
 		values.put(DatabaseConstants.STORY_STARRED_DATE, starredTimestamp);
@@ -168,43 +192,153 @@ public class Story implements Serializable {
 		if (cursor.isBeforeFirst()) {
 			cursor.moveToFirst();
 		}
-		Story story = new Story();
-		story.authors = cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_AUTHORS));
-		story.shortContent = cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_SHORT_CONTENT));
-		story.title = cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_TITLE));
-		story.timestamp = cursor.getLong(cursor.getColumnIndex(DatabaseConstants.STORY_TIMESTAMP));
-		story.socialUserId = cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_SOCIAL_USER_ID));
-		story.sourceUserId = cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_SOURCE_USER_ID));
-		story.permalink = cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_PERMALINK));
-		story.sharedUserIds = TextUtils.split(cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_SHARED_USER_IDS)), ",");
-		story.friendUserIds = TextUtils.split(cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_FRIEND_USER_IDS)), ",");
-		story.intelligence.intelligenceAuthors = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.STORY_INTELLIGENCE_AUTHORS));
-		story.intelligence.intelligenceFeed = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.STORY_INTELLIGENCE_FEED));
-		story.intelligence.intelligenceTags = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.STORY_INTELLIGENCE_TAGS));
-		story.intelligence.intelligenceTitle = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.STORY_INTELLIGENCE_TITLE));
-		story.read = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.STORY_READ)) > 0;
-		story.starred = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.STORY_STARRED)) > 0;
-		story.starredTimestamp = cursor.getLong(cursor.getColumnIndex(DatabaseConstants.STORY_STARRED_DATE));
-		story.tags = TextUtils.split(cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_TAGS)), ",");
-		story.userTags = TextUtils.split(cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_USER_TAGS)), ",");
-		story.feedId = cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_FEED_ID));
-		story.id = cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_ID));
-        story.storyHash = cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_HASH));
-        story.lastReadTimestamp = cursor.getLong(cursor.getColumnIndex(DatabaseConstants.STORY_LAST_READ_DATE));
-        story.sharedTimestamp = cursor.getLong(cursor.getColumnIndex(DatabaseConstants.STORY_SHARED_DATE));
-		story.thumbnailUrl = cursor.getString(cursor.getColumnIndex(DatabaseConstants.STORY_THUMBNAIL_URL));
-		story.hasModifications = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.STORY_HAS_MODIFICATIONS)) > 0;
-		return story;
+		return new CursorMapper(cursor, false).fromCursor(cursor);
 	}
 
     public void bindExternValues(Cursor cursor) {
-        extern_feedColor = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_COLOR));
-        extern_feedFade = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_FADE));
-        extern_intelTotalScore = cursor.getInt(cursor.getColumnIndex(DatabaseConstants.STORY_INTELLIGENCE_TOTAL));
-        extern_faviconUrl = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_URL));
-        extern_faviconTextColor = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_TEXT));
-        extern_faviconBorderColor = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_BORDER));
-        extern_feedTitle = cursor.getString(cursor.getColumnIndex(DatabaseConstants.FEED_TITLE));
+        new CursorMapper(cursor, false).bindExternValues(this, cursor);
+    }
+
+    /**
+     * Thaws stories from the rows of a cursor, resolving column indexes once for the whole
+     * cursor rather than once per row. A list-projection mapper skips fields that only the
+     * reading and sharing UIs use and leaves the comma-joined user ID and tag columns to be
+     * split on first access.
+     */
+    public static class CursorMapper {
+        private final boolean listProjection;
+        private final int authors;
+        private final int shortContent;
+        private final int title;
+        private final int timestamp;
+        private final int socialUserId;
+        private final int sourceUserId;
+        private final int permalink;
+        private final int sharedUserIds;
+        private final int friendUserIds;
+        private final int intelAuthors;
+        private final int intelFeed;
+        private final int intelTags;
+        private final int intelTitle;
+        private final int read;
+        private final int starred;
+        private final int starredTimestamp;
+        private final int tags;
+        private final int userTags;
+        private final int feedId;
+        private final int id;
+        private final int storyHash;
+        private final int lastReadTimestamp;
+        private final int sharedTimestamp;
+        private final int thumbnailUrl;
+        private final int hasModifications;
+        // the joined columns aren't in every story cursor, so these are only resolved when asked for
+        private boolean externsResolved = false;
+        private int feedColor;
+        private int feedFade;
+        private int intelTotal;
+        private int faviconUrl;
+        private int faviconText;
+        private int faviconBorder;
+        private int feedTitle;
+
+        public CursorMapper(Cursor cursor, boolean listProjection) {
+            this.listProjection = listProjection;
+            authors = cursor.getColumnIndex(DatabaseConstants.STORY_AUTHORS);
+            shortContent = cursor.getColumnIndex(DatabaseConstants.STORY_SHORT_CONTENT);
+            title = cursor.getColumnIndex(DatabaseConstants.STORY_TITLE);
+            timestamp = cursor.getColumnIndex(DatabaseConstants.STORY_TIMESTAMP);
+            socialUserId = cursor.getColumnIndex(DatabaseConstants.STORY_SOCIAL_USER_ID);
+            sourceUserId = cursor.getColumnIndex(DatabaseConstants.STORY_SOURCE_USER_ID);
+            permalink = cursor.getColumnIndex(DatabaseConstants.STORY_PERMALINK);
+            sharedUserIds = cursor.getColumnIndex(DatabaseConstants.STORY_SHARED_USER_IDS);
+            friendUserIds = cursor.getColumnIndex(DatabaseConstants.STORY_FRIEND_USER_IDS);
+            intelAuthors = cursor.getColumnIndex(DatabaseConstants.STORY_INTELLIGENCE_AUTHORS);
+            intelFeed = cursor.getColumnIndex(DatabaseConstants.STORY_INTELLIGENCE_FEED);
+            intelTags = cursor.getColumnIndex(DatabaseConstants.STORY_INTELLIGENCE_TAGS);
+            intelTitle = cursor.getColumnIndex(DatabaseConstants.STORY_INTELLIGENCE_TITLE);
+            read = cursor.getColumnIndex(DatabaseConstants.STORY_READ);
+            starred = cursor.getColumnIndex(DatabaseConstants.STORY_STARRED);
+            starredTimestamp = cursor.getColumnIndex(DatabaseConstants.STORY_STARRED_DATE);
+            tags = cursor.getColumnIndex(DatabaseConstants.STORY_TAGS);
+            userTags = cursor.getColumnIndex(DatabaseConstants.STORY_USER_TAGS);
+            feedId = cursor.getColumnIndex(DatabaseConstants.STORY_FEED_ID);
+            id = cursor.getColumnIndex(DatabaseConstants.STORY_ID);
+            storyHash = cursor.getColumnIndex(DatabaseConstants.STORY_HASH);
+            lastReadTimestamp = cursor.getColumnIndex(DatabaseConstants.STORY_LAST_READ_DATE);
+            sharedTimestamp = cursor.getColumnIndex(DatabaseConstants.STORY_SHARED_DATE);
+            thumbnailUrl = cursor.getColumnIndex(DatabaseConstants.STORY_THUMBNAIL_URL);
+            hasModifications = cursor.getColumnIndex(DatabaseConstants.STORY_HAS_MODIFICATIONS);
+        }
+
+        /**
+         * Thaw the story at the current position of the cursor, which must be the one this
+         * mapper was created for or have the same columns.
+         */
+        public Story fromCursor(Cursor cursor) {
+            Story story = new Story();
+            story.authors = cursor.getString(authors);
+            story.shortContent = cursor.getString(shortContent);
+            story.title = cursor.getString(title);
+            story.timestamp = cursor.getLong(timestamp);
+            story.permalink = cursor.getString(permalink);
+            story.intelligence.intelligenceAuthors = cursor.getInt(intelAuthors);
+            story.intelligence.intelligenceFeed = cursor.getInt(intelFeed);
+            story.intelligence.intelligenceTags = cursor.getInt(intelTags);
+            story.intelligence.intelligenceTitle = cursor.getInt(intelTitle);
+            story.read = cursor.getInt(read) > 0;
+            story.starred = cursor.getInt(starred) > 0;
+            story.starredTimestamp = cursor.getLong(starredTimestamp);
+            story.feedId = cursor.getString(feedId);
+            story.id = cursor.getString(id);
+            story.storyHash = cursor.getString(storyHash);
+            story.lastReadTimestamp = cursor.getLong(lastReadTimestamp);
+            story.sharedTimestamp = cursor.getLong(sharedTimestamp);
+            story.thumbnailUrl = cursor.getString(thumbnailUrl);
+            story.socialUserId = cursor.getString(socialUserId);
+            if (listProjection) {
+                story.sharedUserIds = null;
+                story.sharedUserIdsJoined = cursor.getString(sharedUserIds);
+                story.friendUserIds = null;
+                story.friendUserIdsJoined = cursor.getString(friendUserIds);
+                story.tags = null;
+                story.tagsJoined = cursor.getString(tags);
+                story.userTags = null;
+                story.userTagsJoined = cursor.getString(userTags);
+            } else {
+                story.sourceUserId = cursor.getString(sourceUserId);
+                story.hasModifications = cursor.getInt(hasModifications) > 0;
+                story.sharedUserIds = StoryUtil.splitJoined(cursor.getString(sharedUserIds));
+                story.friendUserIds = StoryUtil.splitJoined(cursor.getString(friendUserIds));
+                story.tags = StoryUtil.splitJoined(cursor.getString(tags));
+                story.userTags = StoryUtil.splitJoined(cursor.getString(userTags));
+            }
+            return story;
+        }
+
+        /**
+         * Populate the extern_ values of a story thawed from the current row of a cursor that
+         * was joined on the feeds table.
+         */
+        public void bindExternValues(Story story, Cursor cursor) {
+            if (!externsResolved) {
+                feedColor = cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_COLOR);
+                feedFade = cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_FADE);
+                intelTotal = cursor.getColumnIndex(DatabaseConstants.STORY_INTELLIGENCE_TOTAL);
+                faviconUrl = cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_URL);
+                faviconText = cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_TEXT);
+                faviconBorder = cursor.getColumnIndex(DatabaseConstants.FEED_FAVICON_BORDER);
+                feedTitle = cursor.getColumnIndex(DatabaseConstants.FEED_TITLE);
+                externsResolved = true;
+            }
+            story.extern_feedColor = cursor.getString(feedColor);
+            story.extern_feedFade = cursor.getString(feedFade);
+            story.extern_intelTotalScore = cursor.getInt(intelTotal);
+            story.extern_faviconUrl = cursor.getString(faviconUrl);
+            story.extern_faviconTextColor = cursor.getString(faviconText);
+            story.extern_faviconBorderColor = cursor.getString(faviconBorder);
+            story.extern_feedTitle = cursor.getString(feedTitle);
+        }
     }
 
 	public static class Intelligence implements Serializable {
@@ -291,8 +425,8 @@ public class Story implements Serializable {
         // only check mutable params
         if (s.read != read) return false;
         if (s.starred != starred) return false;
-        if (!Arrays.deepEquals(s.sharedUserIds, sharedUserIds)) return false;
-        if (!Arrays.deepEquals(s.friendUserIds, friendUserIds)) return false;
+        if (!joinedFieldEquals(s.sharedUserIdsJoined, sharedUserIdsJoined) && !Arrays.deepEquals(s.getSharedUserIds(), getSharedUserIds())) return false;
+        if (!joinedFieldEquals(s.friendUserIdsJoined, friendUserIdsJoined) && !Arrays.deepEquals(s.getFriendUserIds(), getFriendUserIds())) return false;
         if (!Arrays.deepEquals(s.publicComments, publicComments)) return false;
         if (!Arrays.deepEquals(s.friendsComments, friendsComments)) return false;
         if (!Arrays.deepEquals(s.friendsShares, friendsShares)) return false;
@@ -300,45 +434,12 @@ public class Story implements Serializable {
         return true;
     }
 
-    private static final Pattern ytSniff1 = Pattern.compile("youtube\\.com/embed/([A-Za-z0-9_-]+)", Pattern.CASE_INSENSITIVE);
-    private static final Pattern ytSniff2 = Pattern.compile("youtube\\.com/v/([A-Za-z0-9_-]+)", Pattern.CASE_INSENSITIVE);
-    private static final Pattern ytSniff3 = Pattern.compile("ytimg\\.com/vi/([A-Za-z0-9_-]+)", Pattern.CASE_INSENSITIVE);
-    private static final Pattern ytSniff4 = Pattern.compile("youtube\\.com/watch\\?v=([A-Za-z0-9_-]+)", Pattern.CASE_INSENSITIVE);
-    private static final String YT_THUMB_PRE = "https://img.youtube.com/vi/";
-    private static final String YT_THUMB_POST = "/0.jpg";
-
-    public static String guessStoryThumbnailURL(Story story) {
-        String content = story.content;
-        
-        String ytUrl = null;
-        if (ytUrl == null) {
-            Matcher m = ytSniff1.matcher(content);
-            if (m.find()) ytUrl = m.group(1);
-        }
-        if (ytUrl == null) {
-            Matcher m = ytSniff2.matcher(content);
-            if (m.find()) ytUrl = m.group(1);
-        }
-        if (ytUrl == null) {
-            Matcher m = ytSniff3.matcher(content);
-            if (m.find()) ytUrl = m.group(1);
-        }
-        if (ytUrl == null) {
-            Matcher m = ytSniff4.matcher(content);
-            if (m.find()) ytUrl = m.group(1);
-        }
-        if (ytUrl != null) {
-            return YT_THUMB_PRE + ytUrl + YT_THUMB_POST;
-        }
-
-        if (story.imageUrls != null && story.imageUrls.length > 0) {
-            String thumbnail = story.imageUrls[0];
-            if (thumbnail.startsWith("http://") && story.secureImageThumbnails != null && story.secureImageThumbnails.containsKey(thumbnail)){
-                thumbnail = story.secureImageThumbnails.get(thumbnail);
-            }
-            return thumbnail;
-        }
-        return null;
+    /**
+     * Cheaply compare the joined forms of a split field, if both stories have them, so that
+     * diffing list-projection stories doesn't force them to be split.
+     */
+    private static boolean joinedFieldEquals(String a, String b) {
+        return (a != null) && a.equals(b);
     }
 
 }
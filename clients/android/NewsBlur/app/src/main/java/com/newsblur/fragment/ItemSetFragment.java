@@ -43,6 +43,7 @@ import com.newsblur.util.ThumbnailStyle;
 import com.newsblur.util.UIUtils;
 import com.newsblur.util.ViewUtils;
 import com.newsblur.viewModel.StoriesViewModel;
+import com.newsblur.viewModel.StoryListDelta;
 
 import javax.inject.Inject;
 
@@ -77,6 +78,9 @@ public class ItemSetFragment extends NbFragment {
      */
     private boolean skipBackFillingStories = false;
 
+    // whether the next update must requery the whole story list rather than just what changed
+    private boolean fullRequeryNeeded = true;
+
     private int itemGridWidthPx = 0;
     private int columnCount;
 
@@ -225,6 +229,9 @@ public class ItemSetFragment extends NbFragment {
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         storiesViewModel.getActiveStoriesLiveData().observe(getViewLifecycleOwner(), this::setCursor);
+        storiesViewModel.getStoryDeltaLiveData().observe(getViewLifecycleOwner(), this::applyDelta);
+        // a new view has a new adapter that has seen none of the deltas so far
+        fullRequeryNeeded = true;
 
         FeedSet fs = getFeedSet();
         if (fs == null) {
@@ -250,6 +257,7 @@ public class ItemSetFragment extends NbFragment {
     public void resetEmptyState() {
         updateAdapter(null);
         cursorSeenYet = false;
+        fullRequeryNeeded = true;
     }
 
     /**
@@ -281,7 +289,13 @@ public class ItemSetFragment extends NbFragment {
 	public void hasUpdated() {
         FeedSet fs = getFeedSet();
         if (isAdded() && fs != null) {
-            storiesViewModel.getActiveStories(fs, new CursorFilters(requireContext(), fs));
+            // deltas only make sense on top of a good cursor, which a pause or stale load throws away
+            if (fullRequeryNeeded || !cursorSeenYet) {
+                fullRequeryNeeded = false;
+                storiesViewModel.getActiveStories(fs, new CursorFilters(requireContext(), fs));
+            } else {
+                storiesViewModel.updateActiveStories(fs, new CursorFilters(requireContext(), fs));
+            }
         }
 	}
 
@@ -318,6 +332,14 @@ public class ItemSetFragment extends NbFragment {
         updateLoadingIndicators();
     }
 
+    private void applyDelta(@Nullable StoryListDelta delta) {
+        if (delta == null || !cursorSeenYet) return;
+        storiesViewModel.onStoryDeltaTaken(delta);
+        adapter.applyDelta(delta, binding.itemgridfragmentGrid, skipBackFillingStories);
+        ensureSufficientStories();
+        updateLoadingIndicators();
+    }
+
     private void updateLoadingIndicators() {
         calcFleuronPadding();
 
@@ -642,9 +642,7 @@ class ReadingItemFragment : NbFragment(), PopupMenu.OnMenuItemClickListener {
             }
         }
 
-        var title = story!!.title
-        title = UIUtils.colourTitleFromClassifier(title, classifier)
-        binding.readingItemTitle.text = UIUtils.fromHtml(title)
+        binding.readingItemTitle.text = UIUtils.colourTitleFromClassifier(story!!.title, classifier)
     }
 
     fun switchSelectedViewMode() {
@@ -808,11 +806,15 @@ class ReadingItemFragment : NbFragment(), PopupMenu.OnMenuItemClickListener {
                         binding.readingStoryChanges.setText(R.string.story_changes_loading)
                     },
                     doInBackground = {
-                        apiManager.getStoryChanges(story.storyHash, showChanges)
+                        // revisions are usually prefetched by sync, so only go to the API if this one wasn't
+                        dbHelper.getStoryRevision(story.storyHash, showChanges)
+                                ?: apiManager.getStoryChanges(story.storyHash, showChanges)
+                                        ?.takeIf { !it.isError }?.story?.content
+                                        ?.also { dbHelper.putStoryRevision(story.storyHash, showChanges, it) }
                     },
-                    onPostExecute = { response ->
-                        if (!response.isError && response.story != null) {
-                            storyContent = response.story.content
+                    onPostExecute = { content ->
+                        if (content != null) {
+                            storyContent = content
                             reloadStoryContent()
                             binding.readingStoryChanges.setText(if (showChanges) R.string.story_hide_changes else R.string.story_show_changes)
                             storyChangesState = if (showChanges) StoryChangesState.HIDE_CHANGES else StoryChangesState.SHOW_CHANGES
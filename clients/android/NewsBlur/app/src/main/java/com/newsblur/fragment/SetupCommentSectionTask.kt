@@ -2,6 +2,7 @@ package com.newsblur.fragment
 
 import android.content.Context
 import android.content.Intent
+import android.text.SpannedString
 import android.text.TextUtils
 import android.util.Log
 import android.view.LayoutInflater
@@ -15,6 +16,8 @@ import androidx.lifecycle.lifecycleScope
 import com.google.android.material.imageview.ShapeableImageView
 import com.newsblur.R
 import com.newsblur.activity.Profile
+import com.newsblur.database.CommentThreadLoader
+import com.newsblur.database.ParsedTextCache
 import com.newsblur.domain.Comment
 import com.newsblur.domain.Story
 import com.newsblur.domain.UserDetails
@@ -56,18 +59,15 @@ class SetupCommentSectionTask(private val fragment: ReadingItemFragment, view: V
 
     private fun doInBackground() {
         if (context == null || story == null || story.id.isNullOrEmpty()) return
-        comments.addAll(fragment.dbHelper.getComments(story.id!!))
+        val thread = CommentThreadLoader(fragment.dbHelper).load(story.id!!, story.sharedUserIds, PrefsUtils.showPublicComments(context))
+        comments.addAll(thread.comments)
 
         // users by whom we saw non-pseudo comments
         val commentingUserIds: MutableSet<String> = HashSet()
         // users by whom we saw shares
         val sharingUserIds: MutableSet<String> = HashSet()
         for (comment in comments) {
-            // skip public comments if they are disabled
-            if (!comment.byFriend && !PrefsUtils.showPublicComments(context)) {
-                continue
-            }
-            val commentUser = fragment.dbHelper.getUserProfile(comment.userId)
+            val commentUser = thread.getProfile(comment.userId)
             // rarely, we get a comment but never got the user's profile, so we can't display it
             if (commentUser == null) {
                 Log.w(this.javaClass.name, "cannot display comment from missing user ID: " + comment.userId)
@@ -75,7 +75,7 @@ class SetupCommentSectionTask(private val fragment: ReadingItemFragment, view: V
             }
             val commentView = inflater.inflate(R.layout.include_comment, null)
             val commentText = commentView.findViewById<View>(R.id.comment_text) as TextView
-            commentText.text = UIUtils.fromHtml(comment.commentText)
+            commentText.text = parsedTextCache.get(comment.id, comment.commentText)
             val commentImage = commentView.findViewById<View>(R.id.comment_user_image) as ShapeableImageView
             val commentSharedDate = commentView.findViewById<View>(R.id.comment_shareddate) as TextView
             // TODO: this uses hard-coded "ago" values, which will be wrong when reading prefetched stories
@@ -91,7 +91,7 @@ class SetupCommentSectionTask(private val fragment: ReadingItemFragment, view: V
                 }
                 for (id in comment.likingUsers) {
                     val favouriteImage = ShapeableImageView(context)
-                    val user = fragment.dbHelper.getUserProfile(id)
+                    val user = thread.getProfile(id)
                     if (user != null) {
                         fragment.iconLoader.displayImage(user.photoUrl, favouriteImage)
                         favouriteContainer.addView(favouriteImage)
@@ -115,20 +115,16 @@ class SetupCommentSectionTask(private val fragment: ReadingItemFragment, view: V
                 replyIcon.visibility = View.INVISIBLE
             } else {
                 replyIcon.setOnClickListener {
-                    val user = fragment.dbHelper.getUserProfile(comment.userId)
-                    if (user != null) {
-                        val newFragment: DialogFragment = ReplyDialogFragment.newInstance(story, comment.userId, user.username)
-                        newFragment.show(manager, "dialog")
-                    }
+                    val newFragment: DialogFragment = ReplyDialogFragment.newInstance(story, comment.userId, commentUser.username)
+                    newFragment.show(manager, "dialog")
                 }
             }
-            val replies = fragment.dbHelper.getCommentReplies(comment.id)
-            for (reply in replies) {
+            for (reply in thread.getReplies(comment.id)) {
                 val replyView = inflater.inflate(R.layout.include_reply, null)
                 val replyText = replyView.findViewById<View>(R.id.reply_text) as TextView
-                replyText.text = UIUtils.fromHtml(reply.text)
+                replyText.text = parsedTextCache.get(reply.id, reply.text)
                 val replyImage = replyView.findViewById<View>(R.id.reply_user_image) as ShapeableImageView
-                val replyUser = fragment.dbHelper.getUserProfile(reply.userId)
+                val replyUser = thread.getProfile(reply.userId)
                 if (replyUser != null) {
                     fragment.iconLoader.displayImage(replyUser.photoUrl, replyImage)
                     replyImage.setOnClickListener {
@@ -173,7 +169,7 @@ class SetupCommentSectionTask(private val fragment: ReadingItemFragment, view: V
                 sourceUserImage.visibility = View.VISIBLE
                 usershareImage.visibility = View.VISIBLE
                 commentImage.visibility = View.INVISIBLE
-                val sourceUser = fragment.dbHelper.getUserProfile(comment.sourceUserId)
+                val sourceUser = thread.getProfile(comment.sourceUserId)
                 if (sourceUser != null) {
                     fragment.iconLoader.displayImage(sourceUser.photoUrl, sourceUserImage)
                     fragment.iconLoader.displayImage(userPhoto, usershareImage)
@@ -213,7 +209,7 @@ class SetupCommentSectionTask(private val fragment: ReadingItemFragment, view: V
 
         // now that we have all shares from the comments table and story object, populate the shares row
         for (userId in sharingUserIds) {
-            val user = fragment.dbHelper.getUserProfile(userId)
+            val user = thread.getProfile(userId)
             if (user == null) {
                 Log.w(this.javaClass.name, "cannot display share from missing user ID: $userId")
                 continue
@@ -334,6 +330,11 @@ class SetupCommentSectionTask(private val fragment: ReadingItemFragment, view: V
         fragment.onSocialLoadFinished()
     }
 
+    companion object {
+        // comment and reply text parsed from HTML, shared by all reading pages
+        private val parsedTextCache = ParsedTextCache(500) { SpannedString(UIUtils.fromHtml(it)) }
+    }
+
     init {
         context = fragment.requireContext()
         manager = fragment.parentFragmentManager
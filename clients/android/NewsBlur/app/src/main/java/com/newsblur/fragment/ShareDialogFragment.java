@@ -56,7 +56,7 @@ public class ShareDialogFragment extends DialogFragment {
         sourceUserId = getArguments().getString(SOURCE_USER_ID);
 
         boolean hasBeenShared = false;
-        for (String sharedUserId : story.sharedUserIds) {
+        for (String sharedUserId : story.getSharedUserIds()) {
             if (TextUtils.equals(user.id, sharedUserId)) {
                 hasBeenShared = true;
                 break;
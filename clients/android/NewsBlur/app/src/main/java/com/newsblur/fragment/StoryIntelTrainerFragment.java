@@ -1,6 +1,5 @@
 package com.newsblur.fragment;
 
-import java.util.Map;
 
 import android.app.Dialog;
 import android.content.DialogInterface;
@@ -107,25 +106,23 @@ public class StoryIntelTrainerFragment extends DialogFragment {
         });
 
         // scan trained title fragments for this feed and see if any apply to this story
-        for (Map.Entry<String, Integer> rule : classifier.title.entrySet()) {
-            if (story.title.indexOf(rule.getKey()) >= 0) {
-                View row = getLayoutInflater().inflate(R.layout.include_intel_row, null);
-                TextView label = row.findViewById(R.id.intel_row_label);
-                label.setText(rule.getKey());
-                UIUtils.setupIntelDialogRow(row, classifier.title, rule.getKey());
-                binding.existingTitleIntelContainer.addView(row);
-            }
+        for (String key : classifier.getTitleMatcher().matchingKeys(story.title)) {
+            View row = getLayoutInflater().inflate(R.layout.include_intel_row, null);
+            TextView label = row.findViewById(R.id.intel_row_label);
+            label.setText(key);
+            UIUtils.setupIntelDialogRow(row, classifier.title, key);
+            binding.existingTitleIntelContainer.addView(row);
         }
         
         // list all tags for this story, trained or not
-        for (String tag : story.tags) {
+        for (String tag : story.getTags()) {
             View row = getLayoutInflater().inflate(R.layout.include_intel_row, null);
             TextView label = row.findViewById(R.id.intel_row_label);
             label.setText(tag);
             UIUtils.setupIntelDialogRow(row, classifier.tags, tag);
             binding.existingTagIntelContainer.addView(row);
         }
-        if (story.tags.length < 1) binding.intelTagHeader.setVisibility(View.GONE);
+        if (story.getTags().length < 1) binding.intelTagHeader.setVisibility(View.GONE);
 
         // there is a single author per story
         if (!TextUtils.isEmpty(story.authors)) {
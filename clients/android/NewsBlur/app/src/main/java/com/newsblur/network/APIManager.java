@@ -10,7 +10,6 @@ import java.util.Set;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.net.Uri;
 
 import androidx.annotation.NonNull;
@@ -42,7 +41,7 @@ import com.newsblur.network.domain.UnreadStoryHashesResponse;
 import com.newsblur.util.AppConstants;
 import com.newsblur.util.FeedSet;
 import com.newsblur.util.NetworkUtils;
-import com.newsblur.util.PrefConstants;
+import com.newsblur.util.PrefsSnapshot;
 import com.newsblur.util.PrefsUtils;
 import com.newsblur.util.ReadFilter;
 import com.newsblur.util.StoryOrder;
@@ -401,23 +400,27 @@ public class APIManager {
      *        the first time, in which case it is more appropriate to make a separate,
      *        additional call to refreshFeedCounts().
      */
-    public FeedFolderResponse getFolderFeedMapping(boolean doUpdateCounts) {
+    public FeedFolderResponse getFolderFeedMapping(boolean doUpdateCounts, FeedFolderResponse.Listener listener) {
 		ContentValues params = new ContentValues();
 		params.put(APIConstants.PARAMETER_UPDATE_COUNTS, (doUpdateCounts ? "true" : "false"));
-		APIResponse response = get(buildUrl(APIConstants.PATH_FEEDS), params);
+        String urlString = buildUrl(APIConstants.PATH_FEEDS) + "?" + builderGetParametersString(params);
 
-		if (response.isError()) {
+		// note: this response is large enough that the FFR streams it straight to the listener
+        // rather than buffering it. a retry replays the whole response, which the listener is
+        // told of by another onBegin().
+        FeedFolderResponse[] result = new FeedFolderResponse[1];
+		APIResponse response = get(urlString, body -> result[0] = new FeedFolderResponse(body, gson, listener));
+
+		if (response.isError() || result[0] == null) {
             // we can't use the magic polymorphism of NewsBlurResponse because this result uses
-            // a custom parser below. let the caller know the action failed.
+            // a custom parser above. let the caller know the action failed.
             return null;
         }
 
-		// note: this response is complex enough, we have to do a custom parse in the FFR
-        FeedFolderResponse result = new FeedFolderResponse(response.getResponseBody(), gson);
         // bind a litle extra instrumentation to this response, since it powers the feedback link
-        result.connTime = response.connectTime;
-        result.readTime = response.readTime;
-        return result;
+        result[0].connTime = response.connectTime;
+        result[0].readTime = response.readTime;
+        return result[0];
 	}
 
     public NewsBlurResponse updateFeedIntel(String feedId, Classifier classifier) {
@@ -464,13 +467,19 @@ public class APIManager {
         }
     }
 
-	public StoryTextResponse getStoryText(String feedId, String storyId) {
+	/**
+	 * Fetch the original text of a story.  Responses that decode to more than maxLength chars are
+	 * abandoned as soon as that is seen rather than read in full, and come back with tooLarge set.
+	 */
+	public StoryTextResponse getStoryText(String feedId, String storyId, int maxLength) {
 		final ContentValues values = new ContentValues();
 		values.put(APIConstants.PARAMETER_FEEDID, feedId);
 		values.put(APIConstants.PARAMETER_STORYID, storyId);
-		final APIResponse response = get(buildUrl(APIConstants.PATH_STORY_TEXT), values);
+		String urlString = buildUrl(APIConstants.PATH_STORY_TEXT) + "?" + builderGetParametersString(values);
+		StoryTextResponse[] result = new StoryTextResponse[1];
+		final APIResponse response = get(urlString, body -> result[0] = StoryTextResponse.read(body, gson, maxLength));
 		if (!response.isError()) {
-            return response.getResponse(gson, StoryTextResponse.class);
+            return result[0];
 		} else {
 			return null;
 		}
@@ -671,12 +680,25 @@ public class APIManager {
         int tryCount = 0;
         do {
             backoffSleep(tryCount++);
-            response = get_single(urlString, HttpURLConnection.HTTP_OK);
+            response = get_single(urlString, HttpURLConnection.HTTP_OK, null);
+        } while ((response.isError()) && (tryCount < AppConstants.MAX_API_TRIES));
+        return response;
+    }
+
+    /**
+     * Like get(), but streams the response body to the given reader rather than buffering it.
+     */
+	private APIResponse get(final String urlString, APIResponse.BodyReader bodyReader) {
+        APIResponse response;
+        int tryCount = 0;
+        do {
+            backoffSleep(tryCount++);
+            response = get_single(urlString, HttpURLConnection.HTTP_OK, bodyReader);
         } while ((response.isError()) && (tryCount < AppConstants.MAX_API_TRIES));
         return response;
     }
 
-	private APIResponse get_single(final String urlString, int expectedReturnCode) {
+	private APIResponse get_single(final String urlString, int expectedReturnCode, APIResponse.BodyReader bodyReader) {
 		if (!NetworkUtils.isOnline(context)) {
 			return new APIResponse();
 		}
@@ -685,12 +707,11 @@ public class APIManager {
 		addCookieHeader(requestBuilder);
 		requestBuilder.header("User-Agent", this.customUserAgent);
 
-		return new APIResponse(apiOkHttpClient, requestBuilder.build(), expectedReturnCode);
+		return new APIResponse(apiOkHttpClient, requestBuilder.build(), expectedReturnCode, bodyReader);
 	}
 
 	private void addCookieHeader(Request.Builder requestBuilder) {
-		SharedPreferences preferences = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
-		String cookie = preferences.getString(PrefConstants.PREF_COOKIE, null);
+		String cookie = PrefsSnapshot.get(context).cookie;
 		if (cookie != null) {
 			requestBuilder.header("Cookie", cookie);
 		}
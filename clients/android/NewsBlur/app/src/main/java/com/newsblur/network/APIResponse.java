@@ -1,6 +1,7 @@
 package com.newsblur.network;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 
 import android.text.TextUtils;
@@ -17,6 +18,7 @@ import com.newsblur.util.AppConstants;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * A JSON-encoded response from the API servers.  This class encodes the possible outcomes of
@@ -33,6 +35,14 @@ public class APIResponse {
     public long connectTime;
     public long readTime;
 
+    /**
+     * Consumes the body of a successful response as it comes off the wire, for responses
+     * too large to comfortably buffer into memory.
+     */
+    public interface BodyReader {
+        void read(Reader body) throws IOException;
+    }
+
     /**
      * Construct an online response.  Will test the response for errors and extract all the
      * info we might need.
@@ -46,6 +56,14 @@ public class APIResponse {
      * info we might need.
      */
     public APIResponse(@ApiOkHttpClient OkHttpClient httpClient, Request request, int expectedReturnCode) {
+        this(httpClient, request, expectedReturnCode, null);
+    }
+
+    /**
+     * Construct an online response.  If a body reader is given, the body of a successful
+     * response is streamed to it rather than buffered, and getResponseBody() will be null.
+     */
+    public APIResponse(@ApiOkHttpClient OkHttpClient httpClient, Request request, int expectedReturnCode, BodyReader bodyReader) {
 
         try {
             long startTime = System.currentTimeMillis();
@@ -61,6 +79,20 @@ public class APIResponse {
 
             this.cookie = response.header("Set-Cookie");
 
+            if (bodyReader != null) {
+                try (ResponseBody body = response.body()) {
+                    startTime = System.currentTimeMillis();
+                    bodyReader.read(body.charStream());
+                    readTime = System.currentTimeMillis() - startTime;
+                } catch (Exception e) {
+                    com.newsblur.util.Log.e(this.getClass().getName(), e.getClass().getName() + " (" + e.getMessage() + ") streaming " + request.url().toString(), e);
+                    this.isError = true;
+                    return;
+                }
+                com.newsblur.util.Log.d(this.getClass().getName(), String.format("called %s in %dms and %dms to stream", request.url().toString(), connectTime, readTime));
+                return;
+            }
+
             try {
                 startTime = System.currentTimeMillis();
                 this.responseBody = response.body().string();
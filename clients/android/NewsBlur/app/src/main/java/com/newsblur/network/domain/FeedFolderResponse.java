@@ -1,18 +1,14 @@
 package com.newsblur.network.domain;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.Set;
 
 import android.util.Log;
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.newsblur.domain.Feed;
 import com.newsblur.domain.Folder;
 import com.newsblur.domain.SavedSearch;
@@ -20,19 +16,37 @@ import com.newsblur.domain.SocialFeed;
 import com.newsblur.domain.StarredCount;
 import com.newsblur.util.AppConstants;
 
+/**
+ * The result of the /reader/feeds call. Since that response grows with the number of feeds and
+ * social feeds an account has, it is parsed as a stream: feeds, folders, social feeds, starred
+ * counts and saved searches are each handed to a {@link Listener} as soon as they are read, and
+ * only the scalar account fields are kept here.
+ */
 public class FeedFolderResponse {
-    
+
+    /**
+     * Receives the collections of the response, one element at a time, in the order the server
+     * sends them.  Note that a feed may arrive before the folder that contains it.
+     */
+    public interface Listener {
+        /**
+         * Called as each attempt at reading a response starts, before any of its elements.  A
+         * retried request sends everything again, so anything kept from an earlier attempt
+         * should be dropped.
+         */
+        void onBegin();
+        void onFeed(Feed feed);
+        void onSocialFeed(SocialFeed socialFeed);
+        void onFolder(Folder folder);
+        void onStarredCount(StarredCount starredCount);
+        void onSavedSearch(SavedSearch savedSearch);
+    }
+
     /** Helper variables so users of the parser can pass along instrumentation. */
     public long connTime;
     public long readTime;
     public long parseTime;
-	
-    public Set<Folder> folders;
-	public Set<Feed> feeds;
-	public Set<SocialFeed> socialFeeds;
-    public Set<StarredCount> starredCounts;
-    public Set<SavedSearch> savedSearches;
-	
+
 	public boolean isAuthenticated;
     public boolean isPremium;
     public boolean isArchive;
@@ -41,136 +55,172 @@ public class FeedFolderResponse {
 	public int starredCount;
 
     public String shareExtToken;
-	
-	public FeedFolderResponse(String json, Gson gson) {
-        long startTime = System.currentTimeMillis();
 
-		JsonObject asJsonObject = JsonParser.parseString(json).getAsJsonObject();
+    private final Gson gson;
+    private final Listener listener;
+    private boolean rootFolderSeen = false;
 
-        this.isAuthenticated = asJsonObject.get("authenticated").getAsBoolean();
-        if (asJsonObject.has("is_staff")) {
-            this.isStaff = asJsonObject.get("is_staff").getAsBoolean();
-        }
-        if (asJsonObject.has("share_ext_token")) {
-            this.shareExtToken = asJsonObject.get("share_ext_token").getAsString();
-        }
+	public FeedFolderResponse(Reader json, Gson gson, Listener listener) throws IOException {
+        long startTime = System.currentTimeMillis();
+        this.gson = gson;
+        this.listener = listener;
+        listener.onBegin();
 
-        JsonElement userProfile = asJsonObject.get("user_profile");
-        if (userProfile != null) {
-            JsonObject profile = (JsonObject) userProfile;
-            this.isPremium = profile.get("is_premium").getAsBoolean();
-            this.premiumExpire = profile.get("premium_expire").getAsLong();
-            if (asJsonObject.has("is_archive")) {
-                this.isArchive = profile.get("is_archive").getAsBoolean();
+        JsonReader reader = gson.newJsonReader(json);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "authenticated":
+                    this.isAuthenticated = gson.fromJson(reader, boolean.class);
+                    break;
+                case "is_staff":
+                    this.isStaff = gson.fromJson(reader, boolean.class);
+                    break;
+                case "share_ext_token":
+                    this.shareExtToken = reader.nextString();
+                    break;
+                case "user_profile":
+                    parseUserProfile(reader);
+                    break;
+                case "starred_count":
+                    this.starredCount = gson.fromJson(reader, int.class);
+                    break;
+                case "folders":
+                    // recursively parse folders
+                    parseFolderArray(reader, new ArrayList<String>(0), null);
+                    break;
+                case "feeds":
+                    parseFeeds(reader);
+                    break;
+                case "social_feeds":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        listener.onSocialFeed(gson.fromJson(reader, SocialFeed.class));
+                    }
+                    reader.endArray();
+                    break;
+                case "starred_counts":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        listener.onStarredCount(gson.fromJson(reader, StarredCount.class));
+                    }
+                    reader.endArray();
+                    break;
+                case "saved_searches":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        listener.onSavedSearch(gson.fromJson(reader, SavedSearch.class));
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
+        reader.endObject();
 
-		JsonElement starredCountElement = asJsonObject.get("starred_count");
-		if(starredCountElement != null) {
-			starredCount = gson.fromJson(starredCountElement, int.class);
-		}
-
-        folders = new HashSet<Folder>();
-        JsonArray jsonFoldersArray = (JsonArray) asJsonObject.get("folders");
-        // recursively parse folders
-		parseFolderArray(new ArrayList<String>(0), null, jsonFoldersArray);
-		
-		// Inconsistent server response here. When user has no feeds we get an empty array, otherwise an object
-		JsonElement feedsElement = asJsonObject.get("feeds");
-		feeds = new HashSet<Feed>();
-		if(feedsElement instanceof JsonObject) {
-			JsonObject feedsObject = (JsonObject) asJsonObject.get("feeds");
-			if(feedsObject != null) {
-				Set<Entry<String, JsonElement>> entrySet = feedsObject.entrySet();
-				Iterator<Entry<String, JsonElement>> iterator = entrySet.iterator();
-				while(iterator.hasNext()) {
-					Entry<String, JsonElement> feedElement = iterator.next();
-					Feed feed = gson.fromJson(feedElement.getValue(), Feed.class);
-					feeds.add(feed);
-				}
-			}
-		} // else server sent back '"feeds": []' 
-		
-		socialFeeds = new HashSet<SocialFeed>();
-		JsonArray socialFeedsArray = (JsonArray) asJsonObject.get("social_feeds");
-		if(socialFeedsArray != null) {
-			for(int i=0;i<socialFeedsArray.size();i++) {
-				JsonElement jsonElement = socialFeedsArray.get(i);
-				SocialFeed socialFeed = gson.fromJson(jsonElement, SocialFeed.class);
-				socialFeeds.add(socialFeed);
-			}
-		}
-        
         // sometimes the API won't declare the top-level/root folder, but most of the
         // codebase expects it to exist.  Declare it as empty if missing.
-        Folder emptyRootFolder = new Folder();
-        emptyRootFolder.name = AppConstants.ROOT_FOLDER;
-        // equality is based on folder name, so contains() will work
-        if (!folders.contains(emptyRootFolder)) {
-            folders.add(emptyRootFolder);
+        if (!rootFolderSeen) {
+            Folder emptyRootFolder = new Folder();
+            emptyRootFolder.name = AppConstants.ROOT_FOLDER;
+            listener.onFolder(emptyRootFolder);
             Log.d( this.getClass().getName(), "root folder was missing.  added it.");
-        } 
-
-        starredCounts = new HashSet<StarredCount>();
-        JsonArray starredCountsArray = (JsonArray) asJsonObject.get("starred_counts");
-        if (starredCountsArray != null) {
-            for (int i=0; i<starredCountsArray.size(); i++) {
-                JsonElement jsonElement = starredCountsArray.get(i);
-                StarredCount sc = gson.fromJson(jsonElement, StarredCount.class);
-                starredCounts.add(sc);
+        }
+
+        parseTime = System.currentTimeMillis() - startTime;
+	}
+
+    private void parseUserProfile(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "is_premium":
+                    this.isPremium = gson.fromJson(reader, boolean.class);
+                    break;
+                case "premium_expire":
+                    this.premiumExpire = reader.nextLong();
+                    break;
+                case "is_archive":
+                    this.isArchive = gson.fromJson(reader, boolean.class);
+                    break;
+                default:
+                    reader.skipValue();
             }
         }
+        reader.endObject();
+    }
 
-        savedSearches = new HashSet<>();
-        JsonArray savedSearchesArray = (JsonArray) asJsonObject.get("saved_searches");
-        if (savedSearchesArray != null) {
-            for (int i=0; i<savedSearchesArray.size(); i++) {
-                JsonElement jsonElement = savedSearchesArray.get(i);
-                SavedSearch savedSearch = gson.fromJson(jsonElement, SavedSearch.class);
-                savedSearches.add(savedSearch);
+    private void parseFeeds(JsonReader reader) throws IOException {
+		// Inconsistent server response here. When user has no feeds we get an empty array, otherwise an object
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
             }
+            listener.onFeed(gson.fromJson(reader, Feed.class));
         }
+        reader.endObject();
+    }
 
-        parseTime = System.currentTimeMillis() - startTime;
-	}
-	
 	/**
-     * Parses a folder, which is a list of feeds and/or more folders.
+     * Parses a folder, which is a list of feeds and/or more folders. Nested folders are
+     * handed to the listener before the folders that contain them.
      *
      * @param parentNames folder that surrounded this folder.
      * @param name the name of this folder or null if root.
-     * @param arrayValue the contents to be parsed.
      */
-    private void parseFolderArray(List<String> parentNames, String name, JsonArray arrayValue) {
+    private void parseFolderArray(JsonReader reader, List<String> parentNames, String name) throws IOException {
         if (name == null) name = AppConstants.ROOT_FOLDER;
         List<String> children = new ArrayList<String>();
 		List<String> feedIds = new ArrayList<String>();
-		for (JsonElement jsonElement : arrayValue) {
+        reader.beginArray();
+        while (reader.hasNext()) {
             // a folder array contains either feed IDs or nested folder objects
-			if(jsonElement.isJsonPrimitive()) {
-				feedIds.add(jsonElement.getAsString());
-			} else if (jsonElement.isJsonObject()) {
-                // if it wasn't a feed ID, it is a nested folder object
-                Set<Entry<String, JsonElement>> entrySet = ((JsonObject) jsonElement).entrySet();
+            JsonToken token = reader.peek();
+            if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+                feedIds.add(reader.nextString());
+            } else if (token == JsonToken.BEGIN_OBJECT) {
                 // recurse - nested folders are just objects with (usually one) field named for the folder
                 // that is a list of contained feeds or additional folders
-                for (Entry<String, JsonElement> next : entrySet) {
-                    String nextName = next.getKey();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String nextName = reader.nextName();
                     children.add(nextName);
                     List<String> appendedParentList = new ArrayList<String>(parentNames);
                     appendedParentList.add(name);
-                    parseFolderArray(appendedParentList, nextName, (JsonArray) next.getValue());
+                    parseFolderArray(reader, appendedParentList, nextName);
                 }
-			} else {
+                reader.endObject();
+            } else {
+                reader.skipValue();
                 Log.w( this.getClass().getName(), "folder had null or malformed child: " + name);
             }
-		}
+        }
+        reader.endArray();
         Folder folder = new Folder();
         folder.name = name;
         folder.parents = parentNames;
         folder.children = children;
         folder.feedIds = feedIds;
-        folders.add(folder);
+        if (AppConstants.ROOT_FOLDER.equals(name)) rootFolderSeen = true;
+        listener.onFolder(folder);
 	}
 
 }
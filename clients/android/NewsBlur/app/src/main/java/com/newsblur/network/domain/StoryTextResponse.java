@@ -1,10 +1,79 @@
 package com.newsblur.network.domain;
 
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.gson.annotations.SerializedName;
 
 public class StoryTextResponse extends NewsBlurResponse {
 	
 	@SerializedName("original_text")
 	public String originalText;
+
+    // not part of the response schema, but set when the response was abandoned for being too long
+    public transient boolean tooLarge = false;
+
+    /**
+     * Parse a response as it is streamed, giving up as soon as it decodes to more than maxLength
+     * chars rather than reading an oversized text into memory.  Escapes are counted as the one
+     * char they decode to, so that texts sent as unicode escapes (most non-Latin scripts) are held to the
+     * same limit as any other.
+     */
+    public static StoryTextResponse read(Reader body, Gson gson, int maxLength) {
+        CappedReader capped = new CappedReader(body, maxLength);
+        try {
+            return gson.fromJson(capped, StoryTextResponse.class);
+        } catch (JsonParseException e) {
+            if (!capped.exceeded) throw e;
+            StoryTextResponse response = new StoryTextResponse();
+            response.tooLarge = true;
+            return response;
+        }
+    }
+
+    private static class CappedReader extends FilterReader {
+        private long remaining;
+        private boolean exceeded = false;
+        // whether the last char was an escaping backslash, and how many hex digits of a unicode escape are still to come
+        private boolean escaped = false;
+        private int hexLeft = 0;
+
+        CappedReader(Reader in, int maxLength) {
+            super(in);
+            this.remaining = maxLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            char[] c = new char[1];
+            return (read(c, 0, 1) < 0) ? -1 : c[0];
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            for (int i = offset; i < offset + count; i++) {
+                char c = buffer[i];
+                if (hexLeft > 0) {
+                    hexLeft--;
+                } else if (escaped) {
+                    escaped = false;
+                    if (c == 'u') hexLeft = 4;
+                } else {
+                    // backslashes only appear inside JSON strings, so no need to track those
+                    if (c == '\\') escaped = true;
+                    remaining--;
+                }
+            }
+            if (remaining < 0) {
+                exceeded = true;
+                throw new IOException("response too long");
+            }
+            return count;
+        }
+    }
 	
 }
@@ -10,13 +10,14 @@ import com.google.gson.JsonParseException;
 import com.newsblur.NbApplication;
 import com.newsblur.domain.Story;
 import com.newsblur.network.APIConstants;
+import com.newsblur.util.StoryHtmlScanner;
 import com.newsblur.util.StoryUtil;
-import com.newsblur.util.UIUtils;
 
 import java.lang.reflect.Type;
+import java.util.Collections;
 import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created by mark on 15/03/2014.
@@ -25,10 +26,6 @@ public class StoryTypeAdapter implements JsonDeserializer<Story> {
 
     private Gson gson;
 
-    // any characters we don't want in the short description, such as newlines or placeholders
-    private final static Pattern ShortContentExcludes = Pattern.compile("[\\uFFFC\\u000A\\u000B\\u000C\\u000D]");
-    private final static Pattern httpSniff = Pattern.compile("(?:http):\\//");
-
     public StoryTypeAdapter() {
         this.gson = new GsonBuilder()
                 .registerTypeAdapter(Date.class, new DateStringTypeAdapter())
@@ -52,29 +49,33 @@ public class StoryTypeAdapter implements JsonDeserializer<Story> {
             story.content = StoryUtil.truncateContent(story.content);
         }
 
-        // replace http image urls with https
-        if (httpSniff.matcher(story.content).find() && story.secureImageUrls != null && !story.secureImageUrls.isEmpty()) {
-            for (String url : story.secureImageUrls.keySet()) {
-                if (httpSniff.matcher(url).find()) {
-                    String secureUrl = story.secureImageUrls.get(url);
-                    if (APIConstants.isCustomServer() && secureUrl != null && !secureUrl.startsWith("http")) {
-                        secureUrl = APIConstants.buildUrl(APIConstants.PATH_IMAGE_PROXY + secureUrl);
-                    }
-                    story.content = story.content.replace(url, secureUrl);
-                }
-            }
-        }
-        
-        // populate the shortContent field
+        // in one pass over the content, swap http image urls for https ones, build the
+        // shortContent field and find the images and video that the thumbnail is picked from
         if (story.content != null) {
-            CharSequence parsed = UIUtils.fromHtml(story.content);
-            int length = 400;
-            if (parsed.length() < length) { length = parsed.length(); }
-            story.shortContent = parsed.subSequence(0, length).toString();
-            Matcher m = ShortContentExcludes .matcher(story.shortContent);
-            story.shortContent = m.replaceAll(" ").trim();
+            StoryHtmlScanner.Result scan = StoryHtmlScanner.scan(story.content, getSecureUrlRewrites(story));
+            story.content = scan.content;
+            story.shortContent = scan.shortContent;
+            if ((story.imageUrls == null) || (story.imageUrls.length == 0)) {
+                story.imageUrls = scan.imageUrls.toArray(new String[0]);
+            }
+            story.thumbnailUrl = scan.pickThumbnail(story.imageUrls, story.secureImageThumbnails);
         }
-        
+
         return story;
     }
+
+    private static Map<String,String> getSecureUrlRewrites(Story story) {
+        if ((story.secureImageUrls == null) || story.secureImageUrls.isEmpty()) return Collections.emptyMap();
+        Map<String,String> rewrites = new HashMap<String,String>(story.secureImageUrls.size());
+        for (Map.Entry<String,String> entry : story.secureImageUrls.entrySet()) {
+            String url = entry.getKey();
+            String secureUrl = entry.getValue();
+            if ((url == null) || (secureUrl == null) || !url.startsWith("http://")) continue;
+            if (APIConstants.isCustomServer() && !secureUrl.startsWith("http")) {
+                secureUrl = APIConstants.buildUrl(APIConstants.PATH_IMAGE_PROXY + secureUrl);
+            }
+            rewrites.put(url, secureUrl);
+        }
+        return rewrites;
+    }
 }
@@ -27,9 +27,12 @@ public class BootReceiver extends BroadcastReceiver {
         }
     }
 
+    private static final int SYNC_JOB_ID = 1;
+    private static final int HEAVY_SYNC_JOB_ID = 2;
+
     public static void scheduleSyncService(Context context) {
         com.newsblur.util.Log.d(BootReceiver.class.getName(), "scheduling sync service");
-        JobInfo.Builder builder = new JobInfo.Builder(1, new ComponentName(context, NBSyncService.class));
+        JobInfo.Builder builder = new JobInfo.Builder(SYNC_JOB_ID, new ComponentName(context, NBSyncService.class));
         builder.setPeriodic(AppConstants.BG_SERVICE_CYCLE_MILLIS);
         builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY);
         builder.setPersisted(true);
@@ -37,6 +40,16 @@ public class BootReceiver extends BroadcastReceiver {
 
         int result = sched.schedule(builder.build());
         com.newsblur.util.Log.d("BootReceiver", String.format("Scheduling result: %s - %s", result, result == 0 ? "Failure" : "Success"));
+
+        // the sync scheduler defers prefetching until the device is charging on an unmetered network,
+        // so make sure we also get woken up when that happens
+        JobInfo.Builder heavyBuilder = new JobInfo.Builder(HEAVY_SYNC_JOB_ID, new ComponentName(context, NBSyncService.class));
+        heavyBuilder.setPeriodic(AppConstants.BG_SERVICE_CYCLE_MILLIS);
+        heavyBuilder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED);
+        heavyBuilder.setRequiresCharging(true);
+        heavyBuilder.setPersisted(true);
+        result = sched.schedule(heavyBuilder.build());
+        com.newsblur.util.Log.d("BootReceiver", String.format("Heavy sync scheduling result: %s - %s", result, result == 0 ? "Failure" : "Success"));
     }
 
     private static void resetWidgetSync(Context context) {
@@ -1,5 +1,8 @@
 package com.newsblur.service;
 
+import android.os.SystemClock;
+
+import com.newsblur.database.ChunkedCleanup;
 import com.newsblur.util.ExtensionsKt;
 import com.newsblur.util.PrefConstants;
 import com.newsblur.util.PrefsUtils;
@@ -8,6 +11,19 @@ public class CleanupService extends SubService {
 
     public static boolean activelyRunning = false;
 
+    /** The longest one cleanup may run; anything left over is picked up on the next sync. */
+    private static final long BUDGET_MILLIS = 10L * 1000L;
+    /** How long each chunk of deletes, and so each hold of the DB write lock, should take. */
+    private static final long CHUNK_TARGET_MILLIS = 50L;
+    /** How long to stand aside between chunks so UI reads and sync writes can get in. */
+    private static final long CHUNK_PAUSE_MILLIS = 20L;
+    private static final int MIN_CHUNK_ROWS = 100;
+    private static final int MAX_CHUNK_ROWS = 5000;
+    /** Free space inside the DB beyond which it is worth giving pages back to the filesystem. */
+    private static final long VACUUM_THRESHOLD_BYTES = 4L * 1024L * 1024L;
+    /** How many free pages to give back per write lock hold. */
+    private static final int VACUUM_CHUNK_PAGES = 256;
+
     public CleanupService(NBSyncService parent) {
         super(parent, ExtensionsKt.NBScope);
     }
@@ -18,31 +34,62 @@ public class CleanupService extends SubService {
         if (!PrefsUtils.isTimeToCleanup(parent)) return;
 
         activelyRunning = true;
+        try {
+            com.newsblur.util.Log.d(this.getClass().getName(), "cleaning up old stories, texts and dismissals");
+            long freeBefore = parent.dbHelper.getFreeBytes();
+            ChunkedCleanup cleanup = new ChunkedCleanup(SystemClock::uptimeMillis, MIN_CHUNK_ROWS, MAX_CHUNK_ROWS, CHUNK_TARGET_MILLIS, CHUNK_PAUSE_MILLIS);
+            cleanup.add("ancient stories", parent.dbHelper::cleanupVeryOldStories);
+            if (!PrefsUtils.isKeepOldStories(parent)) {
+                cleanup.add("read stories", parent.dbHelper::cleanupReadStories);
+            }
+            cleanup.add("story texts", parent.dbHelper::cleanupStoryText);
+            cleanup.add("story revisions", parent.dbHelper::cleanupStoryRevisions);
+            cleanup.add("story user tags", parent.dbHelper::cleanupStoryUserTags);
+            cleanup.add("dismissals", parent.dbHelper::cleanupDismissals);
+            cleanup.add("feed tags", parent.dbHelper::cleanupFeedTags);
+            cleanup.add("feed authors", parent.dbHelper::cleanupFeedAuthors);
+            ChunkedCleanup.Stats stats = cleanup.run(BUDGET_MILLIS, parent::stopSync);
+            long freedInDb = Math.max(0L, parent.dbHelper.getFreeBytes() - freeBefore);
+            com.newsblur.util.Log.i(this.getClass().getName(), "DB cleanup " + stats + ", freeing " + (freedInDb / 1024L) + "KB");
+            // if the budget ran out, leave the cleanup due so the next sync carries on with it
+            if (!stats.finished) return;
+            PrefsUtils.updateLastCleanupTime(parent);
 
-        com.newsblur.util.Log.d(this.getClass().getName(), "cleaning up old stories");
-        parent.dbHelper.cleanupVeryOldStories();
-        if (!PrefsUtils.isKeepOldStories(parent)) {
-            parent.dbHelper.cleanupReadStories();
-        }
-        PrefsUtils.updateLastCleanupTime(parent);
-
-        com.newsblur.util.Log.d(this.getClass().getName(), "cleaning up old story texts");
-        parent.dbHelper.cleanupStoryText();
+            long reclaimed = vacuumIfWorthwhile();
 
-        com.newsblur.util.Log.d(this.getClass().getName(), "cleaning up notification dismissals");
-        parent.dbHelper.cleanupDismissals();
+            com.newsblur.util.Log.d(this.getClass().getName(), "cleaning up story image cache");
+            reclaimed += parent.storyImageCache.cleanupUnusedAndOld(parent.dbHelper.getAllStoryImages(), PrefsUtils.getMaxCachedAgeMillis(parent));
 
-        com.newsblur.util.Log.d(this.getClass().getName(), "cleaning up story image cache");
-        parent.storyImageCache.cleanupUnusedAndOld(parent.dbHelper.getAllStoryImages(), PrefsUtils.getMaxCachedAgeMillis(parent));
+            com.newsblur.util.Log.d(this.getClass().getName(), "cleaning up icon cache");
+            reclaimed += parent.iconCache.cleanupOld(PrefConstants.CACHE_AGE_VALUE_30D);
 
-        com.newsblur.util.Log.d(this.getClass().getName(), "cleaning up icon cache");
-        parent.iconCache.cleanupOld(PrefConstants.CACHE_AGE_VALUE_30D);
+            com.newsblur.util.Log.d(this.getClass().getName(), "cleaning up thumbnail cache");
+            reclaimed += parent.thumbnailCache.cleanupUnusedAndOld(parent.dbHelper.getAllStoryThumbnails(), PrefsUtils.getMaxCachedAgeMillis(parent));
 
-        com.newsblur.util.Log.d(this.getClass().getName(), "cleaning up thumbnail cache");
-        parent.thumbnailCache.cleanupUnusedAndOld(parent.dbHelper.getAllStoryThumbnails(), PrefsUtils.getMaxCachedAgeMillis(parent));
+            com.newsblur.util.Log.i(this.getClass().getName(), "cleanup reclaimed " + (reclaimed / 1024L) + "KB of storage");
+        } finally {
+            activelyRunning = false;
+        }
+    }
 
-        activelyRunning = false;
+    /**
+     * Give free DB pages back to the filesystem, a few at a time, if enough have built up.
+     *
+     * @return the number of bytes the DB file shrank by.
+     */
+    private long vacuumIfWorthwhile() {
+        if (!parent.dbHelper.isIncrementalVacuumEnabled()) return 0L;
+        if (parent.dbHelper.getFreeBytes() < VACUUM_THRESHOLD_BYTES) return 0L;
+        long reclaimed = 0L;
+        long startTime = SystemClock.uptimeMillis();
+        while (!parent.stopSync() && (SystemClock.uptimeMillis() - startTime < BUDGET_MILLIS)) {
+            long freed = parent.dbHelper.incrementalVacuum(VACUUM_CHUNK_PAGES);
+            if (freed <= 0L) break;
+            reclaimed += freed;
+            SystemClock.sleep(CHUNK_PAUSE_MILLIS);
+        }
+        com.newsblur.util.Log.i(this.getClass().getName(), "incremental vacuum gave back " + (reclaimed / 1024L) + "KB");
+        return reclaimed;
     }
-    
+
 }
-        
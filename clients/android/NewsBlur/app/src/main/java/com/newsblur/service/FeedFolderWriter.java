@@ -0,0 +1,202 @@
+package com.newsblur.service;
+
+import android.content.ContentValues;
+
+import com.newsblur.database.BlurDatabaseHelper;
+import com.newsblur.domain.Feed;
+import com.newsblur.domain.Folder;
+import com.newsblur.domain.SavedSearch;
+import com.newsblur.domain.SocialFeed;
+import com.newsblur.domain.StarredCount;
+import com.newsblur.network.domain.FeedFolderResponse;
+import com.newsblur.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a streamed feed/folder sync to the DB as it is parsed.  Feeds and social feeds, which
+ * grow with the account, are staged in small batches so that neither the response nor the full set
+ * of parsed feeds is ever held in memory; only their IDs are kept so that stale and orphaned rows
+ * can be pruned once the whole response is in.  Nothing staged is visible until the response has
+ * been read to the end and found to be authenticated, when finish() writes it along with the
+ * folders, starred counts and saved searches, which are few enough to keep.
+ */
+class FeedFolderWriter implements FeedFolderResponse.Listener {
+
+    private static final int BATCH_SIZE = 200;
+
+    private final BlurDatabaseHelper dbHelper;
+
+    private final List<ContentValues> feedBatch = new ArrayList<ContentValues>(BATCH_SIZE);
+    private final List<ContentValues> socialFeedBatch = new ArrayList<ContentValues>(BATCH_SIZE);
+    private final Map<String, Folder> folders = new HashMap<String, Folder>();
+    private final List<StarredCount> starredCounts = new ArrayList<StarredCount>();
+    private final List<SavedSearch> savedSearches = new ArrayList<SavedSearch>();
+
+    // there is an issue with feeds that have no folder or folders that list feeds that do not exist.  capture them for workarounds.
+    private final Set<String> feedIdsFromFolders = new HashSet<String>();
+    private final Set<String> feedIdsFromFeeds = new HashSet<String>();
+    private final Set<String> socialFeedIds = new HashSet<String>();
+
+    final Set<String> orphanFeedIds = new HashSet<String>();
+    final Set<String> disabledFeedIds = new HashSet<String>();
+    final Map<String,Integer> storiesPerMonth = new HashMap<String,Integer>();
+    /** time spent writing while the response streamed in, and so inside its parse time */
+    long streamWriteMillis = 0L;
+    /** time spent in {@link #finish}, after the response was parsed */
+    long finishWriteMillis = 0L;
+    int feedCount = 0;
+
+    FeedFolderWriter(BlurDatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    @Override
+    public void onBegin() {
+        // a retried request replays the whole response, so forget everything from the last try
+        feedBatch.clear();
+        socialFeedBatch.clear();
+        folders.clear();
+        starredCounts.clear();
+        savedSearches.clear();
+        feedIdsFromFolders.clear();
+        feedIdsFromFeeds.clear();
+        socialFeedIds.clear();
+        orphanFeedIds.clear();
+        disabledFeedIds.clear();
+        storiesPerMonth.clear();
+        feedCount = 0;
+        finishWriteMillis = 0L;
+        long startTime = System.currentTimeMillis();
+        dbHelper.beginFeedsFoldersStaging();
+        streamWriteMillis = System.currentTimeMillis() - startTime;
+    }
+
+    @Override
+    public void onFeed(Feed feed) {
+        // note all feeds for which the API returned data
+        feedIdsFromFeeds.add(feed.feedId);
+        if (! feed.active) {
+            // the feed is disabled/hidden, we don't want to fetch unreads
+            disabledFeedIds.add(feed.feedId);
+        } else {
+            storiesPerMonth.put(feed.feedId, feed.storiesPerMonth);
+        }
+        feedBatch.add(feed.getValues());
+        if (feedBatch.size() >= BATCH_SIZE) streamFlush();
+    }
+
+    @Override
+    public void onSocialFeed(SocialFeed socialFeed) {
+        socialFeedIds.add(socialFeed.userId);
+        socialFeedBatch.add(socialFeed.getValues());
+        if (socialFeedBatch.size() >= BATCH_SIZE) streamFlush();
+    }
+
+    @Override
+    public void onFolder(Folder folder) {
+        // don't form graph loops in the folder tree
+        if (folders.containsKey(folder.name)) return;
+        folders.put(folder.name, folder);
+        // note all feeds that belong to some folder so we can find orphans
+        if (folder.feedIds != null) feedIdsFromFolders.addAll(folder.feedIds);
+    }
+
+    @Override
+    public void onStarredCount(StarredCount starredCount) {
+        starredCounts.add(starredCount);
+    }
+
+    @Override
+    public void onSavedSearch(SavedSearch savedSearch) {
+        savedSearches.add(savedSearch);
+    }
+
+    private void streamFlush() {
+        long startTime = System.currentTimeMillis();
+        flush();
+        streamWriteMillis += System.currentTimeMillis() - startTime;
+    }
+
+    private void flush() {
+        dbHelper.stageFeedsFoldersBatch(feedBatch, socialFeedBatch);
+        feedBatch.clear();
+        socialFeedBatch.clear();
+    }
+
+    /**
+     * Write out whatever is left of the sync and prune anything it did not include.  Only to be
+     * called once the whole response has been read and found to be authenticated.
+     */
+    void finish(int starredTotal) {
+        long startTime = System.currentTimeMillis();
+        flush();
+
+        // sanity-check that the returned feeds actually exist in a folder or at the root
+        // if they do not, they should neither display nor count towards unread numbers
+        for (String id : feedIdsFromFeeds) {
+            if (! feedIdsFromFolders.contains(id)) {
+                Log.w(this.getClass().getName(), "Found and ignoring orphan feed (in feeds but not folders): " + id );
+                orphanFeedIds.add(id);
+            }
+        }
+        // prune out missing feed IDs from folders
+        for (String id : feedIdsFromFolders) {
+            if (! feedIdsFromFeeds.contains(id)) {
+                Log.w(this.getClass().getName(), "Found and ignoring orphan feed (in folders but not feeds): " + id );
+                orphanFeedIds.add(id);
+            }
+        }
+        storiesPerMonth.keySet().removeAll(orphanFeedIds);
+
+        Set<String> keepFeedIds = new HashSet<String>(feedIdsFromFeeds);
+        keepFeedIds.removeAll(orphanFeedIds);
+        // also add the implied zero-id feed
+        Feed zeroFeed = Feed.getZeroFeed();
+        keepFeedIds.add(zeroFeed.feedId);
+        List<ContentValues> zeroFeedValues = new ArrayList<ContentValues>(1);
+        zeroFeedValues.add(zeroFeed.getValues());
+        dbHelper.stageFeedsFoldersBatch(zeroFeedValues, new ArrayList<ContentValues>(0));
+        feedCount = keepFeedIds.size();
+
+        // data for the folder table, with orphans pruned out before pushing to the DB
+        List<ContentValues> folderValues = new ArrayList<ContentValues>(folders.size());
+        for (Folder folder : folders.values()) {
+            if (folder.feedIds != null) folder.removeOrphanFeedIds(orphanFeedIds);
+            folderValues.add(folder.getValues());
+        }
+
+        // populate the starred stories count table
+        List<ContentValues> starredCountValues = new ArrayList<ContentValues>(starredCounts.size() + 1);
+        for (StarredCount sc : starredCounts) {
+            starredCountValues.add(sc.getValues());
+        }
+        // the API vends the starred total as a different element, roll it into
+        // the starred counts table using a special tag
+        StarredCount totalStarred = new StarredCount();
+        totalStarred.count = starredTotal;
+        totalStarred.tag = StarredCount.TOTAL_STARRED;
+        starredCountValues.add(totalStarred.getValues());
+
+        // saved searches table
+        List<ContentValues> savedSearchesValues = new ArrayList<ContentValues>(savedSearches.size());
+        for (SavedSearch savedSearch : savedSearches) {
+            savedSearchesValues.add(savedSearch.getValues(dbHelper));
+        }
+
+        dbHelper.finishFeedsFolders(keepFeedIds, socialFeedIds, folderValues, starredCountValues, savedSearchesValues);
+        finishWriteMillis = System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Throw out whatever was staged, for a sync that failed or was not authenticated.
+     */
+    void discard() {
+        dbHelper.discardFeedsFoldersStaging();
+    }
+}
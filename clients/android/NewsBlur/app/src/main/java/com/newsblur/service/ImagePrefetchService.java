@@ -2,10 +2,12 @@ package com.newsblur.service;
 
 import android.util.Log;
 
+import com.newsblur.database.DatabaseConstants;
 import com.newsblur.util.AppConstants;
 import com.newsblur.util.ExtensionsKt;
 import com.newsblur.util.PrefsUtils;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -14,6 +16,8 @@ public class ImagePrefetchService extends SubService {
 
     public static boolean activelyRunning = false;
 
+    // both queues are mirrored to the DB work queue so a restarted sync can pick up where it left off
+
     /** URLs of images contained in recently fetched stories that are candidates for prefetch. */
     static Set<String> StoryImageQueue = Collections.synchronizedSet(new HashSet<>());
     /** URLs of thumbnails for recently fetched stories that are candidates for prefetch. */
@@ -29,6 +33,8 @@ public class ImagePrefetchService extends SubService {
         try {
             if (!PrefsUtils.isImagePrefetchEnabled(parent)) return;
             if (!PrefsUtils.isBackgroundNetworkAllowed(parent)) return;
+            // prefetching is expensive, so leave the queues for a cycle on unmetered network and power
+            if (!parent.isHeavyWorkAllowed()) return;
 
             while (StoryImageQueue.size() > 0) {
                 if (! PrefsUtils.isImagePrefetchEnabled(parent)) return;
@@ -56,6 +62,7 @@ public class ImagePrefetchService extends SubService {
                     }
                 } finally {
                     StoryImageQueue.removeAll(fetchedImages);
+                    parent.dbHelper.dequeueWork(DatabaseConstants.WORK_QUEUE_IMAGES, fetchedImages);
                     com.newsblur.util.Log.d(this, "story images fetched: " + fetchedImages.size());
                 }
             }
@@ -88,6 +95,7 @@ public class ImagePrefetchService extends SubService {
                     }
                 } finally {
                     ThumbnailQueue.removeAll(fetchedImages);
+                    parent.dbHelper.dequeueWork(DatabaseConstants.WORK_QUEUE_THUMBNAILS, fetchedImages);
                     com.newsblur.util.Log.d(this, "story thumbs fetched: " + fetchedImages.size());
                 }
             }
@@ -96,12 +104,22 @@ public class ImagePrefetchService extends SubService {
         }
     }
 
-    public void addUrl(String url) {
-        StoryImageQueue.add(url);
+    public void addUrls(Collection<String> urls) {
+        StoryImageQueue.addAll(urls);
+        parent.dbHelper.enqueueWork(DatabaseConstants.WORK_QUEUE_IMAGES, urls);
+    }
+
+    public void addThumbnailUrls(Collection<String> urls) {
+        ThumbnailQueue.addAll(urls);
+        parent.dbHelper.enqueueWork(DatabaseConstants.WORK_QUEUE_THUMBNAILS, urls);
     }
 
-    public void addThumbnailUrl(String url) {
-        ThumbnailQueue.add(url);
+    /**
+     * Re-populate the in-memory queues from persisted ones, if the process was restarted mid-sync.
+     */
+    static void restoreQueues(Collection<String> imageUrls, Collection<String> thumbnailUrls) {
+        StoryImageQueue.addAll(imageUrls);
+        ThumbnailQueue.addAll(thumbnailUrls);
     }
 
     public static int getPendingCount() {
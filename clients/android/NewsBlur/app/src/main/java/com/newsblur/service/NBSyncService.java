@@ -3,7 +3,6 @@ package com.newsblur.service;
 import android.app.Service;
 import android.app.job.JobParameters;
 import android.app.job.JobService;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
@@ -25,11 +24,6 @@ import com.newsblur.database.DatabaseConstants;
 import com.newsblur.di.IconFileCache;
 import com.newsblur.di.StoryImageCache;
 import com.newsblur.di.ThumbnailCache;
-import com.newsblur.domain.Feed;
-import com.newsblur.domain.Folder;
-import com.newsblur.domain.SavedSearch;
-import com.newsblur.domain.SocialFeed;
-import com.newsblur.domain.StarredCount;
 import com.newsblur.domain.Story;
 import com.newsblur.network.APIConstants;
 import com.newsblur.network.APIManager;
@@ -135,6 +129,15 @@ public class NBSyncService extends JobService {
     private static final Set<FeedSet> RecountCandidates = new HashSet<>();
     private volatile static boolean FlushRecounts = false;
 
+    /** Whether the subservice work queues have been reloaded from the DB since process start. */
+    private volatile static boolean WorkQueuesRestored = false;
+
+    /** Tracks feed publishing cadence to decide how much work each sync cycle should do. */
+    static final SyncScheduler Scheduler = new SyncScheduler();
+
+    /** What the current cycle has been planned to do. */
+    private volatile SyncPlan syncPlan = SyncPlan.DEFAULT;
+
     protected final Set<String> orphanFeedIds = new HashSet<>();
     protected final Set<String> disabledFeedIds = new HashSet<>();
 
@@ -147,6 +150,7 @@ public class NBSyncService extends JobService {
     private OriginalTextService originalTextService;
     private UnreadsService unreadsService;
     protected ImagePrefetchService imagePrefetchService;
+    private StoryRevisionService storyRevisionService;
 
     @Inject
 	APIManager apiManager;
@@ -191,6 +195,7 @@ public class NBSyncService extends JobService {
             originalTextService = new OriginalTextService(this);
             unreadsService = new UnreadsService(this);
             imagePrefetchService = new ImagePrefetchService(this);
+            storyRevisionService = new StoryRevisionService(this);
             com.newsblur.util.Log.offerContext(this);
         }
     }
@@ -322,6 +327,10 @@ public class NBSyncService extends JobService {
             // ping activities to indicate that housekeeping is done, and the DB is safe to use
             sendSyncUpdate(UPDATE_DB_READY);
 
+            restoreWorkQueues();
+
+            planSync();
+
             // async text requests might have been queued up and are being waiting on by the live UI. give them priority
             originalTextService.start();
 
@@ -343,6 +352,7 @@ public class NBSyncService extends JobService {
             // async story and image prefetch are lower priority and don't affect active reading, do them last
             unreadsService.start();
             imagePrefetchService.start();
+            storyRevisionService.start();
 
             // almost all notifications will be pushed after the unreadsService gets new stories, but double-check
             // here in case some made it through the feed sync loop first
@@ -355,6 +365,50 @@ public class NBSyncService extends JobService {
         } 
     }
 
+    /**
+     * If the process was killed mid-sync, pick up the background work queues where they were
+     * last checkpointed rather than repeating the unread reconciliation and re-fetching.
+     */
+    private void restoreWorkQueues() {
+        if (WorkQueuesRestored) return;
+        UnreadsService.restoreQueue(dbHelper.getWorkQueue(DatabaseConstants.WORK_QUEUE_UNREADS));
+        if (dbHelper.isUnreadsReconcilePending()) UnreadsService.doMetadata();
+        OriginalTextService.restoreQueue(dbHelper.getWorkQueue(DatabaseConstants.WORK_QUEUE_TEXT));
+        ImagePrefetchService.restoreQueues(dbHelper.getWorkQueue(DatabaseConstants.WORK_QUEUE_IMAGES),
+                                           dbHelper.getWorkQueue(DatabaseConstants.WORK_QUEUE_THUMBNAILS));
+        StoryRevisionService.restoreQueue(dbHelper.getWorkQueue(DatabaseConstants.WORK_QUEUE_REVISIONS));
+        com.newsblur.util.Log.d(this, "restored work queues: " + UnreadsService.StoryHashQueue.size() + " unreads, " +
+                                      OriginalTextService.getPendingCount() + " texts, " +
+                                      ImagePrefetchService.getPendingCount() + " images, " +
+                                      StoryRevisionService.getPendingCount() + " revisions");
+        WorkQueuesRestored = true;
+    }
+
+    /**
+     * Decide how much of a full sync this cycle warrants based upon how recently the feed list
+     * was fetched, how busy the user's feeds are expected to be, and the device's network and
+     * power state.
+     */
+    private void planSync() {
+        if (!Scheduler.hasCadences()) {
+            // the process may have been restarted since the last metadata sync, so seed from the DB
+            Scheduler.setFeedCadences(dbHelper.getActiveFeedStoriesPerMonth(), PrefsUtils.getInfrequentCutoff(this));
+        }
+        SyncConditions conditions = new SyncConditions(NbApplication.isAppForeground(),
+                                                       NetworkUtils.isUnmetered(this),
+                                                       NetworkUtils.isCharging(this),
+                                                       System.currentTimeMillis());
+        syncPlan = Scheduler.planSync(conditions, PrefsUtils.getLastSyncTime(this), DoFeedsFolders);
+        com.newsblur.util.Log.d(this, "sync planned: " + syncPlan + " for " + conditions);
+    }
+
+    /**
+     * Whether the current cycle may do expensive prefetching of images and story text.
+     */
+    boolean isHeavyWorkAllowed() {
+        return syncPlan.heavyWork;
+    }
+
     /**
      * Check for upgrades and wipe the DB if necessary, and do DB maintenance
      */
@@ -381,7 +435,9 @@ public class NBSyncService extends JobService {
                 apiManager.updateCustomUserAgent(customUserAgent);
             }
 
-            boolean autoVac = PrefsUtils.isTimeToVacuum(this);
+            // once a DB is set up for incremental vacuuming, CleanupService frees space as it
+            // goes and a full rebuild is only needed on upgrade
+            boolean autoVac = PrefsUtils.isTimeToVacuum(this) && !dbHelper.isIncrementalVacuumEnabled();
             // this will lock up the DB for a few seconds, only do it if the UI is hidden
             if (NbApplication.isAppForeground()) autoVac = false;
             
@@ -433,7 +489,7 @@ public class NBSyncService extends JobService {
                 // don't block story loading unless this is a brand new action
                 if ((ra.getTried() > 0) && (PendingFeed != null)) continue actionsloop;
                     
-                com.newsblur.util.Log.d(this, "attempting action: " + ra.toContentValues().toString());
+                com.newsblur.util.Log.d(this, "attempting action: " + ra);
                 NewsBlurResponse response = ra.doRemote(apiManager, dbHelper, stateFilter);
 
                 if (response == null) {
@@ -507,7 +563,7 @@ public class NBSyncService extends JobService {
             return;
         }
 
-        if (DoFeedsFolders || PrefsUtils.isTimeToAutoSync(this)) {
+        if (DoFeedsFolders || syncPlan.metadata) {
             PrefsUtils.updateLastSyncTime(this);
             DoFeedsFolders = false;
         } else {
@@ -519,14 +575,14 @@ public class NBSyncService extends JobService {
         FFSyncRunning = true;
         sendSyncUpdate(UPDATE_STATUS);
 
-        // there is an issue with feeds that have no folder or folders that list feeds that do not exist.  capture them for workarounds.
-        Set<String> debugFeedIdsFromFolders = new HashSet<String>();
-        Set<String> debugFeedIdsFromFeeds = new HashSet<String>();
         orphanFeedIds.clear();
         disabledFeedIds.clear();
 
+        // the response is staged in the DB in batches as it is parsed
+        FeedFolderWriter feedFolderWriter = new FeedFolderWriter(dbHelper);
+        boolean feedFolderWriterFinished = false;
         try {
-            FeedFolderResponse feedResponse = apiManager.getFolderFeedMapping(true);
+            FeedFolderResponse feedResponse = apiManager.getFolderFeedMapping(true, feedFolderWriter);
 
             if (feedResponse == null) {
                 noteHardAPIFailure();
@@ -555,13 +611,9 @@ public class NBSyncService extends JobService {
             FeedPagesSeen.clear();
             FeedStoriesSeen.clear();
             UnreadsService.clear();
+            dbHelper.clearWorkQueue(DatabaseConstants.WORK_QUEUE_UNREADS);
             RecountCandidates.clear();
 
-            lastFFConnMillis = feedResponse.connTime;
-            lastFFReadMillis = feedResponse.readTime;
-            lastFFParseMillis = feedResponse.parseTime;
-            long startTime = System.currentTimeMillis();
-
             isPremium = feedResponse.isPremium;
             isArchive = feedResponse.isArchive;
             isStaff = feedResponse.isStaff;
@@ -570,89 +622,31 @@ public class NBSyncService extends JobService {
             PrefsUtils.setArchive(this, feedResponse.isArchive, feedResponse.premiumExpire);
             PrefsUtils.setExtToken(this, feedResponse.shareExtToken);
 
-            // note all feeds that belong to some folder so we can find orphans
-            for (Folder folder : feedResponse.folders) {
-                debugFeedIdsFromFolders.addAll(folder.feedIds);
-            }
+            // prune stale and orphaned feeds, and write the folders, starred counts and saved searches
+            feedFolderWriter.finish(feedResponse.starredCount);
+            feedFolderWriterFinished = true;
+            orphanFeedIds.addAll(feedFolderWriter.orphanFeedIds);
+            disabledFeedIds.addAll(feedFolderWriter.disabledFeedIds);
 
-            // data for the feeds table
-            List<ContentValues> feedValues = new ArrayList<ContentValues>();
-            feedaddloop: for (Feed feed : feedResponse.feeds) {
-                // note all feeds for which the API returned data
-                debugFeedIdsFromFeeds.add(feed.feedId);
-                // sanity-check that the returned feeds actually exist in a folder or at the root
-                // if they do not, they should neither display nor count towards unread numbers
-                if (! debugFeedIdsFromFolders.contains(feed.feedId)) {
-                    Log.w(this.getClass().getName(), "Found and ignoring orphan feed (in feeds but not folders): " + feed.feedId );
-                    orphanFeedIds.add(feed.feedId);
-                    continue feedaddloop;
-                }
-                if (! feed.active) {
-                    // the feed is disabled/hidden, we don't want to fetch unreads
-                    disabledFeedIds.add(feed.feedId);
-                }
-                feedValues.add(feed.getValues());
-            }
-            // also add the implied zero-id feed
-            feedValues.add(Feed.getZeroFeed().getValues());
-
-            // prune out missing feed IDs from folders
-            for (String id : debugFeedIdsFromFolders) {
-                if (! debugFeedIdsFromFeeds.contains(id)) {
-                    Log.w(this.getClass().getName(), "Found and ignoring orphan feed (in folders but not feeds): " + id );
-                    orphanFeedIds.add(id);
-                }
-            }
-            
-            // data for the folder table
-            List<ContentValues> folderValues = new ArrayList<ContentValues>();
-            Set<String> foldersSeen = new HashSet<String>(feedResponse.folders.size());
-            folderloop: for (Folder folder : feedResponse.folders) {
-                // don't form graph loops in the folder tree
-                if (foldersSeen.contains(folder.name)) continue folderloop;
-                foldersSeen.add(folder.name);
-                // prune out orphans before pushing to the DB
-                folder.removeOrphanFeedIds(orphanFeedIds);
-                folderValues.add(folder.getValues());
-            }
+            Scheduler.setFeedCadences(feedFolderWriter.storiesPerMonth, PrefsUtils.getInfrequentCutoff(this));
 
-            // data for the the social feeds table
-            List<ContentValues> socialFeedValues = new ArrayList<ContentValues>();
-            for (SocialFeed feed : feedResponse.socialFeeds) {
-                socialFeedValues.add(feed.getValues());
-            }
-            
-            // populate the starred stories count table
-            List<ContentValues> starredCountValues = new ArrayList<ContentValues>();
-            for (StarredCount sc : feedResponse.starredCounts) {
-                starredCountValues.add(sc.getValues());
-            }
-
-            // saved searches table
-            List<ContentValues> savedSearchesValues = new ArrayList<>();
-            for (SavedSearch savedSearch : feedResponse.savedSearches) {
-                savedSearchesValues.add(savedSearch.getValues(dbHelper));
-            }
-            // the API vends the starred total as a different element, roll it into
-            // the starred counts table using a special tag
-            StarredCount totalStarred = new StarredCount();
-            totalStarred.count = feedResponse.starredCount;
-            totalStarred.tag = StarredCount.TOTAL_STARRED;
-            starredCountValues.add(totalStarred.getValues());
-
-            dbHelper.setFeedsFolders(folderValues, feedValues, socialFeedValues, starredCountValues, savedSearchesValues);
-
-            lastFFWriteMillis = System.currentTimeMillis() - startTime;
-            lastFeedCount = feedValues.size();
+            // parsing and writing happen together as the response streams in, so split them back out
+            lastFFConnMillis = feedResponse.connTime;
+            lastFFReadMillis = feedResponse.readTime - feedResponse.parseTime;
+            lastFFParseMillis = feedResponse.parseTime - feedFolderWriter.streamWriteMillis;
+            lastFFWriteMillis = feedFolderWriter.streamWriteMillis + feedFolderWriter.finishWriteMillis;
+            lastFeedCount = feedFolderWriter.feedCount;
 
             com.newsblur.util.Log.i(this.getClass().getName(), "got feed list: " + getSpeedInfo());
 
             UnreadsService.doMetadata();
+            dbHelper.setUnreadsReconcilePending(true);
             unreadsService.start();
             cleanupService.start();
             starredService.start();
 
         } finally {
+            if (!feedFolderWriterFinished) feedFolderWriter.discard();
             FFSyncRunning = false;
             sendSyncUpdate(UPDATE_METADATA | UPDATE_STATUS);
         }
@@ -822,6 +816,7 @@ public class NBSyncService extends JobService {
                 sendSyncUpdate(UPDATE_STORY | UPDATE_STATUS);
 
                 prefetchOriginalText(apiResponse);
+                prefetchStoryRevisions(apiResponse);
             
                 FeedPagesSeen.put(fs, pageNumber);
                 totalStoriesSeen += apiResponse.stories.length;
@@ -934,6 +929,7 @@ public class NBSyncService extends JobService {
     }
 
     void prefetchOriginalText(StoriesResponse apiResponse) {
+        List<String> hashes = new ArrayList<String>();
         storyloop: for (Story story : apiResponse.stories) {
             // only prefetch for unreads, so we don't grind to cache when the user scrolls
             // through old read stories
@@ -941,15 +937,32 @@ public class NBSyncService extends JobService {
             // if the feed is viewed in text mode by default, fetch that for offline reading
             DefaultFeedView mode = PrefsUtils.getDefaultViewModeForFeed(this, story.feedId);
             if (mode == DefaultFeedView.TEXT) {
-                if (dbHelper.getStoryText(story.storyHash) == null) {
+                if (!dbHelper.hasStoryText(story.storyHash)) {
                     OriginalTextService.addHash(story.storyHash);
+                    hashes.add(story.storyHash);
                 }
             }
         }
+        dbHelper.enqueueWork(DatabaseConstants.WORK_QUEUE_TEXT, hashes);
         originalTextService.start();
     }
 
+    void prefetchStoryRevisions(StoriesResponse apiResponse) {
+        List<String> hashes = new ArrayList<String>();
+        for (Story story : apiResponse.stories) {
+            // only unread stories, like other prefetch, and only those the reading UI will offer changes for
+            if (story.read || !story.hasModifications) continue;
+            if (!dbHelper.hasStoryRevisions(story.storyHash)) hashes.add(story.storyHash);
+        }
+        if (hashes.isEmpty()) return;
+        storyRevisionService.addHashes(hashes);
+        // a running fetch loop picks up the new hashes by itself
+        if (!storyRevisionService.isRunning()) storyRevisionService.start();
+    }
+
     void prefetchImages(StoriesResponse apiResponse) {
+        List<String> imageUrls = new ArrayList<String>();
+        List<String> thumbnailUrls = new ArrayList<String>();
         storyloop: for (Story story : apiResponse.stories) {
             // only prefetch for unreads, so we don't grind to cache when the user scrolls
             // through old read stories
@@ -957,13 +970,15 @@ public class NBSyncService extends JobService {
             // if the story provides known images we'll need for it, fetch those for offline reading
             if (story.imageUrls != null) {
                 for (String url : story.imageUrls) {
-                    imagePrefetchService.addUrl(url);
+                    imageUrls.add(url);
                 }
             }
             if (story.thumbnailUrl != null) {
-                imagePrefetchService.addThumbnailUrl(story.thumbnailUrl);
+                thumbnailUrls.add(story.thumbnailUrl);
             }
         }
+        imagePrefetchService.addUrls(imageUrls);
+        imagePrefetchService.addThumbnailUrls(thumbnailUrls);
         imagePrefetchService.start();
     }
 
@@ -994,6 +1009,7 @@ public class NBSyncService extends JobService {
         if ((originalTextService != null) && originalTextService.isRunning()) return;
         if ((unreadsService != null) && unreadsService.isRunning()) return;
         if ((imagePrefetchService != null) && imagePrefetchService.isRunning()) return;
+        if ((storyRevisionService != null) && storyRevisionService.isRunning()) return;
         Log.d(this, "confirmed completion");
         // iff all threads have finished, mark all received work as completed
         synchronized (COMPLETION_CALLBACKS_MUTEX) {
@@ -1082,6 +1098,7 @@ public class NBSyncService extends JobService {
         if (UnreadsService.activelyRunning) return String.format(context.getResources().getString(R.string.sync_status_unreads), UnreadsService.getPendingCount());
         if (OriginalTextService.activelyRunning) return String.format(context.getResources().getString(R.string.sync_status_text), OriginalTextService.getPendingCount());
         if (ImagePrefetchService.activelyRunning) return String.format(context.getResources().getString(R.string.sync_status_images), ImagePrefetchService.getPendingCount());
+        if (StoryRevisionService.activelyRunning) return String.format(context.getResources().getString(R.string.sync_status_revisions), StoryRevisionService.getPendingCount());
         return null;
     }
 
@@ -1160,7 +1177,7 @@ public class NBSyncService extends JobService {
                 dbHelper.clearStorySession();
                 // don't just rely on the auto-prepare code when fetching stories, it might be called
                 // after we insert our first page and not trigger
-                dbHelper.prepareReadingSession(fs, cursorFilters.getStateFilter(), cursorFilters.getReadFilter());
+                dbHelper.prepareReadingSession(fs, cursorFilters.getStateFilter(), cursorFilters.getReadFilter(), cursorFilters.getStoryOrder());
                 // note which feedset we are loading so we can trigger another reset when it changes
                 dbHelper.setSessionFeedSet(fs);
                 NbSyncManager.submitUpdate(UPDATE_STORY | UPDATE_STATUS);
@@ -1223,6 +1240,7 @@ public class NBSyncService extends JobService {
         OriginalTextService.clear();
         UnreadsService.clear();
         ImagePrefetchService.clear();
+        StoryRevisionService.clear();
     }
 
     @Override
@@ -1239,6 +1257,7 @@ public class NBSyncService extends JobService {
             if (starredService != null) starredService.shutdown();
             if (originalTextService != null) originalTextService.shutdown();
             if (imagePrefetchService != null) imagePrefetchService.shutdown();
+            if (storyRevisionService != null) storyRevisionService.shutdown();
             if (primaryExecutor != null) {
                 primaryExecutor.shutdown();
                 try {
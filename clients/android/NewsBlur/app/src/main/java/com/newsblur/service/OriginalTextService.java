@@ -3,29 +3,34 @@ package com.newsblur.service;
 import static com.newsblur.service.NbSyncManager.UPDATE_TEXT;
 
 import com.newsblur.database.DatabaseConstants;
-import com.newsblur.network.domain.StoryTextResponse;
-import com.newsblur.util.AppConstants;
 import com.newsblur.util.ExtensionsKt;
 import com.newsblur.util.FeedUtils;
+import com.newsblur.util.StoryHtmlScanner;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 public class OriginalTextService extends SubService {
 
     public static boolean activelyRunning = false;
 
     // special value for when the API responds that it could fatally could not fetch text
-    public static final String NULL_STORY_TEXT = "__NULL_STORY_TEXT__";
+    public static final String NULL_STORY_TEXT = StoryTextFetcher.NULL_STORY_TEXT;
 
-    private static final Pattern imgSniff = Pattern.compile("<img[^>]*src=(['\"])((?:(?!\\1).)*)\\1[^>]*>", Pattern.CASE_INSENSITIVE);
+    /** How many texts to fetch at once. */
+    private static final int FETCH_CONCURRENCY = 4;
+    /** How many fetched texts to collect before writing them to the DB together. */
+    private static final int WRITE_BATCH_SIZE = 20;
+    /** Responses that decode to this many chars are abandoned while still streaming, with room for the JSON around the text. */
+    private static final int MAX_RESPONSE_LENGTH = DatabaseConstants.MAX_TEXT_SIZE + 4096;
 
-    /** story hashes we need to fetch (from newly found stories) */
-    private static final Set<String> Hashes = new HashSet<>();
-    /** story hashes we should fetch ASAP (they are waiting on-screen) */
-    private static final Set<String> PriorityHashes = new HashSet<>();
+    /** story hashes we need to fetch, ASAP for those waiting on-screen. background ones are mirrored to the DB work queue */
+    private static final StoryTextQueue Queue = new StoryTextQueue();
+
+    /** throughput of the last run, for tuning */
+    private static volatile StoryTextFetcher.Stats LastStats;
 
     public OriginalTextService(NBSyncService parent) {
         super(parent, ExtensionsKt.NBScope);
@@ -35,76 +40,62 @@ public class OriginalTextService extends SubService {
     protected void exec() {
         activelyRunning = true;
         try {
-            while ((Hashes.size() > 0) || (PriorityHashes.size() > 0)) {
-                if (parent.stopSync()) return;
-                fetchBatch(PriorityHashes);
-                fetchBatch(Hashes);
-            }
+            StoryTextFetcher fetcher = new StoryTextFetcher(Queue,
+                    hash -> parent.apiManager.getStoryText(FeedUtils.inferFeedId(hash), hash, MAX_RESPONSE_LENGTH),
+                    this::writeBatch,
+                    FETCH_CONCURRENCY, WRITE_BATCH_SIZE, DatabaseConstants.MAX_TEXT_SIZE);
+            // stories waiting on-screen are always fetched, but background prefetch is
+            // expensive and is left for a cycle on unmetered network and power
+            StoryTextFetcher.Stats stats = fetcher.run(parent::stopSync, parent::isHeavyWorkAllowed);
+            LastStats = stats;
+            if (stats.fetched + stats.failed > 0) com.newsblur.util.Log.d(this, "fetched " + stats);
+            if (stats.lastError != null) com.newsblur.util.Log.e(this, "error fetching story text", stats.lastError);
         } finally {
             activelyRunning = false;
         }
     }
 
-    private void fetchBatch(Set<String> hashes) {
-        Set<String> fetchedHashes = new HashSet<String>();
-        Set<String> batch = new HashSet<String>(AppConstants.IMAGE_PREFETCH_BATCH_SIZE);
-        batchloop: for (String hash : hashes) {
-            batch.add(hash);
-            if (batch.size() >= AppConstants.IMAGE_PREFETCH_BATCH_SIZE) break batchloop;
-        }
-        try {
-            fetchloop: for (String hash : batch) {
-                if (parent.stopSync()) break fetchloop;
-                fetchedHashes.add(hash);
-                String result = null;
-                StoryTextResponse response = parent.apiManager.getStoryText(FeedUtils.inferFeedId(hash), hash);
-                if (response != null) {
-                    if (response.originalText == null) {
-                        // a null value in an otherwise valid response to this call indicates a fatal
-                        // failure to extract text and should be recorded so the UI can inform the
-                        // user and switch them back to a valid view mode
-                        result = NULL_STORY_TEXT;
-                    } else if (response.originalText.length() >= DatabaseConstants.MAX_TEXT_SIZE) {
-                        // this API can occasionally return story texts that are much too large to query
-                        // from the DB.  stop insertion to prevent poisoning the DB and the cursor lifecycle
-                        com.newsblur.util.Log.w(this, "discarding too-large story text. hash " + hash + " size " + response.originalText.length());
-                        result = NULL_STORY_TEXT;
-                    } else {
-                        result = response.originalText;
-                    }
-                }
-                if (result != null) {   
-                    // store the fetched text in the DB
-                    parent.dbHelper.putStoryText(hash, result);
-                    // scan for potentially cache-able images in the extracted 'text'
-                    Matcher imgTagMatcher = imgSniff.matcher(result);
-                    while (imgTagMatcher.find()) {
-                        parent.imagePrefetchService.addUrl(imgTagMatcher.group(2));
-                    }
-                }
-            }
-        } finally {
-            parent.sendSyncUpdate(UPDATE_TEXT);
-            hashes.removeAll(fetchedHashes);
+    private void writeBatch(Map<String,String> texts, List<String> doneHashes) {
+        // store the fetched texts in the DB.  priority hashes are re-requested by the UI as
+        // needed and were never persisted, so dequeueing them is harmless
+        parent.dbHelper.putStoryTexts(texts, doneHashes);
+        parent.sendSyncUpdate(UPDATE_TEXT);
+        // scan for potentially cache-able images in the extracted 'text'
+        List<String> imageUrls = new ArrayList<String>();
+        for (String text : texts.values()) {
+            imageUrls.addAll(StoryHtmlScanner.scan(text).imageUrls);
         }
+        parent.imagePrefetchService.addUrls(imageUrls);
     }
 
     public static void addHash(String hash) {
-        Hashes.add(hash);
+        Queue.add(hash);
+    }
+
+    /**
+     * Re-populate the in-memory queue from a persisted one, if the process was restarted mid-sync.
+     */
+    static void restoreQueue(Collection<String> hashes) {
+        Queue.addAll(hashes);
     }
 
     public static void addPriorityHash(String hash) {
-        PriorityHashes.add(hash);
+        Queue.addPriority(hash);
     }
 
     public static int getPendingCount() {
-        return (Hashes.size() + PriorityHashes.size());
+        return Queue.size();
+    }
+
+    /**
+     * Throughput of the last completed run, or null if there hasn't been one.
+     */
+    public static StoryTextFetcher.Stats getLastStats() {
+        return LastStats;
     }
 
     public static void clear() {
-        Hashes.clear();
-        PriorityHashes.clear();
+        Queue.clear();
     }
 
 }
-        
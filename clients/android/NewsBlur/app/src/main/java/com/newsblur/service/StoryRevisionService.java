@@ -0,0 +1,127 @@
+package com.newsblur.service;
+
+import com.newsblur.database.DatabaseConstants;
+import com.newsblur.network.domain.StoryChangesResponse;
+import com.newsblur.util.ExtensionsKt;
+import com.newsblur.util.PrefsUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fetches both revisions of modified stories, with and without their changes marked up, so
+ * that toggling changes in the reading UI is instant and works offline.
+ */
+public class StoryRevisionService extends SubService {
+
+    public static boolean activelyRunning = false;
+
+    /** How many stories to fetch revisions for between checkpoints of the work queue. */
+    private static final int BATCH_SIZE = 10;
+
+    /** How many times in a row a story's revisions may fail to fetch before it is dropped. */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** hashes of modified stories whose revisions we need to fetch. mirrored to the DB work queue */
+    static Set<String> StoryHashQueue = Collections.synchronizedSet(new LinkedHashSet<>());
+
+    /** failed fetches so far of queued stories, by hash. not persisted, so a restart starts them over */
+    private static final Map<String,Integer> FailedAttempts = Collections.synchronizedMap(new HashMap<>());
+
+    public StoryRevisionService(NBSyncService parent) {
+        super(parent, ExtensionsKt.NBScope);
+    }
+
+    @Override
+    protected void exec() {
+        activelyRunning = true;
+        try {
+            while (StoryHashQueue.size() > 0) {
+                if (!PrefsUtils.isBackgroundNetworkAllowed(parent)) return;
+
+                List<String> batch = new ArrayList<>(BATCH_SIZE);
+                synchronized (StoryHashQueue) {
+                    for (String hash : StoryHashQueue) {
+                        batch.add(hash);
+                        if (batch.size() >= BATCH_SIZE) break;
+                    }
+                }
+                List<String> done = new ArrayList<>(batch.size());
+                try {
+                    for (String hash : batch) {
+                        if (parent.stopSync()) return;
+                        if (fetchRevision(hash, true) && fetchRevision(hash, false)) {
+                            FailedAttempts.remove(hash);
+                            done.add(hash);
+                            continue;
+                        }
+                        // the network or server failed, so stop until the next sync. the story goes to the
+                        // back of the queue so that it can't hold up the rest, and after a few tries it is
+                        // dropped. it will be queued again if a later page still shows it unfetched.
+                        Integer attempts = FailedAttempts.get(hash);
+                        attempts = (attempts == null) ? 1 : attempts + 1;
+                        if (attempts >= MAX_ATTEMPTS) {
+                            com.newsblur.util.Log.w(this, "giving up on story revisions for " + hash);
+                            FailedAttempts.remove(hash);
+                            done.add(hash);
+                        } else {
+                            FailedAttempts.put(hash, attempts);
+                            synchronized (StoryHashQueue) {
+                                if (StoryHashQueue.remove(hash)) StoryHashQueue.add(hash);
+                            }
+                        }
+                        return;
+                    }
+                } finally {
+                    StoryHashQueue.removeAll(done);
+                    parent.dbHelper.dequeueWork(DatabaseConstants.WORK_QUEUE_REVISIONS, done);
+                    com.newsblur.util.Log.d(this, "story revisions fetched: " + done.size());
+                }
+            }
+        } finally {
+            activelyRunning = false;
+        }
+    }
+
+    /**
+     * @return false if the API couldn't be reached or failed, true if the revision was stored.
+     *         A revision the API answers for with an error or without content is stored empty,
+     *         so that the story isn't queued again.
+     */
+    private boolean fetchRevision(String hash, boolean showChanges) {
+        StoryChangesResponse response = parent.apiManager.getStoryChanges(hash, showChanges);
+        if (response == null || response.isProtocolError) return false;
+        String content = null;
+        if (!response.isError() && response.getStory() != null) content = response.getStory().content;
+        parent.dbHelper.putStoryRevision(hash, showChanges, content);
+        return true;
+    }
+
+    public void addHashes(Collection<String> hashes) {
+        StoryHashQueue.addAll(hashes);
+        parent.dbHelper.enqueueWork(DatabaseConstants.WORK_QUEUE_REVISIONS, hashes);
+    }
+
+    /**
+     * Re-populate the in-memory queue from a persisted one, if the process was restarted mid-sync.
+     */
+    static void restoreQueue(Collection<String> hashes) {
+        StoryHashQueue.addAll(hashes);
+    }
+
+    public static int getPendingCount() {
+        return StoryHashQueue.size();
+    }
+
+    public static void clear() {
+        StoryHashQueue.clear();
+        FailedAttempts.clear();
+    }
+
+}
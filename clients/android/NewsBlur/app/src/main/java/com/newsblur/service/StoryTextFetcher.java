@@ -0,0 +1,238 @@
+package com.newsblur.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.newsblur.network.domain.StoryTextResponse;
+
+/**
+ * Drains a {@link StoryTextQueue} by fetching a few texts at once and handing the results to a
+ * {@link Sink} in batches, so that neither the round trips nor the DB writes are paid one story
+ * at a time.  Texts for stories waiting on-screen are handed over as soon as they arrive.
+ */
+public class StoryTextFetcher {
+
+    /** Special value for when the API responds that it could fatally could not fetch text. */
+    public static final String NULL_STORY_TEXT = "__NULL_STORY_TEXT__";
+
+    public interface Source {
+        /** Fetch the text of a story, or return null if the call failed. */
+        StoryTextResponse fetch(String hash);
+    }
+
+    public interface Sink {
+        /**
+         * Store a batch of results.
+         *
+         * @param texts fetched texts by story hash, which may be {@link #NULL_STORY_TEXT}.
+         * @param doneHashes every story finished since the last batch.  Failed fetches are not
+         *        included, so they stay on the persisted work queue, and they are queued again
+         *        in memory once the run ends, to be retried by the next one.
+         */
+        void write(Map<String,String> texts, List<String> doneHashes);
+    }
+
+    public interface Condition {
+        boolean isTrue();
+    }
+
+    /** Throughput counters for one run, for tuning the concurrency and batch size. */
+    public static class Stats {
+        public int fetched;
+        public int failed;
+        public int tooLarge;
+        public long chars;
+        public int batches;
+        /** Time spent waiting on the API, summed over all fetches. */
+        public long fetchMillis;
+        /** Time spent writing batches. */
+        public long writeMillis;
+        public long elapsedMillis;
+        /** The last error thrown by the source, if any. */
+        public Exception lastError;
+
+        public double textsPerSecond() {
+            if (elapsedMillis <= 0) return 0;
+            return (fetched * 1000.0) / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d texts (%d failed, %d too large, %dKB) in %dms: %.1f/s, %dms fetching, %dms writing %d batches",
+                    fetched, failed, tooLarge, chars / 1024, elapsedMillis, textsPerSecond(), fetchMillis, writeMillis, batches);
+        }
+    }
+
+    private static class Result {
+        final String hash;
+        final boolean priority;
+        final StoryTextResponse response;
+        final Exception error;
+        final long millis;
+
+        Result(String hash, boolean priority, StoryTextResponse response, Exception error, long millis) {
+            this.hash = hash;
+            this.priority = priority;
+            this.response = response;
+            this.error = error;
+            this.millis = millis;
+        }
+    }
+
+    private final StoryTextQueue queue;
+    private final Source source;
+    private final Sink sink;
+    private final int concurrency;
+    private final int batchSize;
+    private final int maxTextLength;
+
+    private final Map<String,String> pendingTexts = new LinkedHashMap<String,String>();
+    private final List<String> pendingDone = new ArrayList<String>();
+    // put back only once the run ends, so that a failing story isn't retried straight away
+    private final List<String> failedHashes = new ArrayList<String>();
+    private final Stats stats = new Stats();
+
+    /**
+     * @param concurrency how many texts to fetch at once.
+     * @param batchSize how many results to collect before handing them to the sink.
+     * @param maxTextLength texts at least this long are recorded as unavailable rather than stored.
+     */
+    public StoryTextFetcher(StoryTextQueue queue, Source source, Sink sink, int concurrency, int batchSize, int maxTextLength) {
+        this.queue = queue;
+        this.source = source;
+        this.sink = sink;
+        this.concurrency = concurrency;
+        this.batchSize = batchSize;
+        this.maxTextLength = maxTextLength;
+    }
+
+    /**
+     * Fetch until the queue is empty or stop is true.  Background stories are only started while
+     * backgroundAllowed is true; stories already started are always finished and written.
+     */
+    public Stats run(Condition stop, Condition backgroundAllowed) {
+        long startTime = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        CompletionService<Result> completions = new ExecutorCompletionService<Result>(pool);
+        Set<String> inFlight = new HashSet<String>();
+        try {
+            while (true) {
+                while ((inFlight.size() < concurrency) && !stop.isTrue()) {
+                    String hash = queue.takePriority();
+                    boolean priority = (hash != null);
+                    if ((hash == null) && backgroundAllowed.isTrue()) hash = queue.takeBackground();
+                    if (hash == null) break;
+                    completions.submit(fetchTask(hash, priority));
+                    inFlight.add(hash);
+                }
+                if (inFlight.isEmpty()) break;
+
+                boolean flushNow;
+                Future<Result> done = completions.poll(500L, TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    Result result = done.get();
+                    inFlight.remove(result.hash);
+                    flushNow = collect(result);
+                } else {
+                    // nothing arrived in a while, so don't sit on what we have
+                    flushNow = !pendingDone.isEmpty();
+                }
+                if (flushNow || (pendingDone.size() >= batchSize) || inFlight.isEmpty()) flush();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            // fetchTask() doesn't throw, so this would be a bug
+            throw new IllegalStateException(ee.getCause());
+        } finally {
+            pool.shutdownNow();
+            flush();
+            // if we were interrupted, put back anything that didn't finish so it isn't lost
+            for (String hash : inFlight) {
+                queue.finish(hash);
+                queue.add(hash);
+            }
+            queue.addAll(failedHashes);
+            failedHashes.clear();
+            stats.elapsedMillis = System.currentTimeMillis() - startTime;
+        }
+        return stats;
+    }
+
+    private Callable<Result> fetchTask(final String hash, final boolean priority) {
+        return new Callable<Result>() {
+            @Override
+            public Result call() {
+                long startTime = System.currentTimeMillis();
+                StoryTextResponse response = null;
+                Exception error = null;
+                try {
+                    response = source.fetch(hash);
+                } catch (RuntimeException e) {
+                    // count it as a failure so that the story isn't left in flight forever
+                    error = e;
+                }
+                return new Result(hash, priority, response, error, System.currentTimeMillis() - startTime);
+            }
+        };
+    }
+
+    /**
+     * Record a finished fetch.
+     *
+     * @return whether it should be written right away.
+     */
+    private boolean collect(Result result) {
+        queue.finish(result.hash);
+        stats.fetchMillis += result.millis;
+        if (result.response == null) {
+            // a failed call or a stream cut off part way says nothing about the text itself,
+            // so don't record it as unavailable
+            stats.failed++;
+            if (result.error != null) stats.lastError = result.error;
+            failedHashes.add(result.hash);
+            return false;
+        }
+        pendingDone.add(result.hash);
+        String text = result.response.originalText;
+        if (result.response.tooLarge || ((text != null) && (text.length() >= maxTextLength))) {
+            // this API can occasionally return story texts that are much too large to query
+            // from the DB.  stop insertion to prevent poisoning the DB and the cursor lifecycle
+            stats.tooLarge++;
+            text = NULL_STORY_TEXT;
+        } else if (text == null) {
+            // a null value in an otherwise valid response to this call indicates a fatal
+            // failure to extract text and should be recorded so the UI can inform the
+            // user and switch them back to a valid view mode
+            text = NULL_STORY_TEXT;
+        } else {
+            stats.chars += text.length();
+        }
+        stats.fetched++;
+        pendingTexts.put(result.hash, text);
+        return result.priority;
+    }
+
+    private void flush() {
+        if (pendingDone.isEmpty()) return;
+        long startTime = System.currentTimeMillis();
+        sink.write(new LinkedHashMap<String,String>(pendingTexts), new ArrayList<String>(pendingDone));
+        stats.writeMillis += System.currentTimeMillis() - startTime;
+        stats.batches++;
+        pendingTexts.clear();
+        pendingDone.clear();
+    }
+}
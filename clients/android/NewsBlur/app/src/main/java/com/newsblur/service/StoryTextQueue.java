@@ -0,0 +1,122 @@
+package com.newsblur.service;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Story hashes waiting for their original text, handed out in three tiers: stories waiting
+ * on-screen first, then other stories from the feed of the last such story, then everything
+ * else in the order it was found.  A hash that has been handed out stays counted as pending
+ * until it is finished, so it isn't queued again while it is being fetched.  Thread-safe.
+ */
+public class StoryTextQueue {
+
+    private final Set<String> priority = new LinkedHashSet<String>();
+    /** Background hashes, grouped by feed ID so that the focused feed can be drained first. */
+    private final Map<String,Set<String>> background = new LinkedHashMap<String,Set<String>>();
+    private final Set<String> inFlight = new HashSet<String>();
+    private int backgroundCount = 0;
+    private String focusFeedId;
+
+    /**
+     * Queue a story found by a sync, to be fetched when background work is allowed.
+     */
+    public synchronized void add(String hash) {
+        if (priority.contains(hash) || inFlight.contains(hash)) return;
+        String feedId = feedIdOf(hash);
+        Set<String> hashes = background.get(feedId);
+        if (hashes == null) {
+            hashes = new LinkedHashSet<String>();
+            background.put(feedId, hashes);
+        }
+        if (hashes.add(hash)) backgroundCount++;
+    }
+
+    public synchronized void addAll(Collection<String> hashes) {
+        for (String hash : hashes) add(hash);
+    }
+
+    /**
+     * Queue a story that is waiting on-screen, ahead of everything else.  Its feed becomes the
+     * next one to be prefetched.
+     */
+    public synchronized void addPriority(String hash) {
+        String feedId = feedIdOf(hash);
+        focusFeedId = feedId;
+        if (inFlight.contains(hash)) return;
+        Set<String> hashes = background.get(feedId);
+        if ((hashes != null) && hashes.remove(hash)) {
+            backgroundCount--;
+            if (hashes.isEmpty()) background.remove(feedId);
+        }
+        priority.add(hash);
+    }
+
+    /**
+     * Hand out the next story waiting on-screen, or null if there are none.
+     */
+    public synchronized String takePriority() {
+        Iterator<String> i = priority.iterator();
+        if (!i.hasNext()) return null;
+        String hash = i.next();
+        i.remove();
+        inFlight.add(hash);
+        return hash;
+    }
+
+    /**
+     * Hand out the next background story, preferring the focused feed, or null if there are none.
+     */
+    public synchronized String takeBackground() {
+        Set<String> hashes = (focusFeedId == null) ? null : background.get(focusFeedId);
+        String feedId = focusFeedId;
+        if (hashes == null) {
+            Iterator<Map.Entry<String,Set<String>>> feeds = background.entrySet().iterator();
+            if (!feeds.hasNext()) return null;
+            Map.Entry<String,Set<String>> first = feeds.next();
+            feedId = first.getKey();
+            hashes = first.getValue();
+        }
+        Iterator<String> i = hashes.iterator();
+        String hash = i.next();
+        i.remove();
+        if (hashes.isEmpty()) background.remove(feedId);
+        backgroundCount--;
+        inFlight.add(hash);
+        return hash;
+    }
+
+    /**
+     * Note that a handed-out story is no longer being fetched, whether or not that worked.
+     */
+    public synchronized void finish(String hash) {
+        inFlight.remove(hash);
+    }
+
+    public synchronized boolean hasPriority() {
+        return !priority.isEmpty();
+    }
+
+    /** The number of stories queued or being fetched. */
+    public synchronized int size() {
+        return priority.size() + backgroundCount + inFlight.size();
+    }
+
+    public synchronized void clear() {
+        priority.clear();
+        background.clear();
+        backgroundCount = 0;
+        focusFeedId = null;
+    }
+
+    private static String feedIdOf(String hash) {
+        // story hashes take the form feedId:storyId
+        int i = hash.indexOf(':');
+        return (i < 0) ? "" : hash.substring(0, i);
+    }
+}
@@ -0,0 +1,134 @@
+package com.newsblur.service
+
+import com.newsblur.util.AppConstants
+
+/**
+ * The device state the scheduler weighs when planning a sync cycle.
+ */
+data class SyncConditions(
+        val isForeground: Boolean,
+        val isUnmetered: Boolean,
+        val isCharging: Boolean,
+        val nowMillis: Long,
+)
+
+/**
+ * What a single run of the sync service should do beyond the work that always happens
+ * (reading actions and stories requested by the live UI).
+ */
+data class SyncPlan(
+        /** refresh the feed/folder list and kick off the unreads, starred and cleanup subservices */
+        @JvmField val metadata: Boolean,
+        /** drain the image and background original text prefetch queues */
+        @JvmField val heavyWork: Boolean,
+) {
+    companion object {
+        /** plan used by subservices started outside of a planned cycle: the historical behaviour */
+        @JvmField
+        val DEFAULT = SyncPlan(metadata = false, heavyWork = true)
+    }
+}
+
+/**
+ * Decides how much work each sync cycle should do. Rather than refreshing everything on a
+ * fixed interval, the scheduler tracks how often each feed publishes and only does a full
+ * metadata sync once it expects there to be new stories, falling back to a light cycle that
+ * just flushes actions during quiet periods. Expensive prefetching is held back until the
+ * device is on an unmetered network and either charging or in active use.
+ *
+ * This class holds no Android dependencies and takes time only via [SyncConditions] so that
+ * it can be driven deterministically by tests.
+ */
+class SyncScheduler {
+
+    private class FeedCadence(
+            var storiesPerMilli: Double,
+            var isInfrequent: Boolean,
+    )
+
+    private val cadences = HashMap<String, FeedCadence>()
+
+    /** when we last recorded story arrivals, or 0 if we have no baseline to measure from */
+    private var lastArrivalsMillis = 0L
+
+    @Synchronized
+    fun hasCadences(): Boolean = cadences.isNotEmpty()
+
+    /**
+     * Seed or refresh per-feed publishing rates from the API's stories-per-month statistic.
+     * Rates already learned from observed arrivals are kept; feeds that are gone are dropped.
+     * Feeds publishing less often than the user's infrequent-site cutoff are marked as such
+     * and do not on their own trigger a metadata sync.
+     */
+    @Synchronized
+    fun setFeedCadences(storiesPerMonth: Map<String, Int>, infrequentCutoff: Int) {
+        cadences.keys.retainAll(storiesPerMonth.keys)
+        for ((feedId, perMonth) in storiesPerMonth) {
+            val isInfrequent = perMonth < infrequentCutoff
+            val cadence = cadences[feedId]
+            if (cadence == null) {
+                cadences[feedId] = FeedCadence(perMonth / MONTH_MILLIS, isInfrequent)
+            } else {
+                cadence.isInfrequent = isInfrequent
+            }
+        }
+    }
+
+    /**
+     * Fold a set of newly discovered stories into the learned publishing rates. Feeds without
+     * entries in the map are taken to have published nothing since the last call.
+     */
+    @Synchronized
+    fun recordArrivals(newStoriesByFeed: Map<String, Int>, nowMillis: Long) {
+        val windowMillis = nowMillis - lastArrivalsMillis
+        // the first reconciliation after startup reports the whole unread backlog, not recent arrivals
+        val hasBaseline = lastArrivalsMillis > 0L
+        lastArrivalsMillis = nowMillis
+        if (!hasBaseline || windowMillis <= 0L) return
+        for ((feedId, cadence) in cadences) {
+            val observed = (newStoriesByFeed[feedId] ?: 0) / windowMillis.toDouble()
+            cadence.storiesPerMilli += RATE_SMOOTHING * (observed - cadence.storiesPerMilli)
+        }
+    }
+
+    /**
+     * The number of new stories we expect frequently-updated feeds to have published in the
+     * given span of time.
+     */
+    @Synchronized
+    fun expectedNewStories(elapsedMillis: Long): Double {
+        var expected = 0.0
+        for (cadence in cadences.values) {
+            if (cadence.isInfrequent) continue
+            expected += cadence.storiesPerMilli * elapsedMillis
+        }
+        return expected
+    }
+
+    /**
+     * @param lastMetadataMillis when the feed/folder list was last synced.
+     * @param forced whether something has explicitly requested a feed/folder refresh.
+     */
+    @Synchronized
+    fun planSync(conditions: SyncConditions, lastMetadataMillis: Long, forced: Boolean): SyncPlan {
+        val elapsed = conditions.nowMillis - lastMetadataMillis
+        val metadata = when {
+            forced -> true
+            elapsed < AppConstants.AUTO_SYNC_TIME_MILLIS -> false
+            conditions.isForeground -> true
+            elapsed >= AppConstants.QUIET_SYNC_MAX_MILLIS -> true
+            // with nothing to go on, don't risk missing stories
+            cadences.isEmpty() -> true
+            else -> expectedNewStories(elapsed) >= AppConstants.QUIET_SYNC_STORY_THRESHOLD
+        }
+        val heavyWork = conditions.isUnmetered && (conditions.isCharging || conditions.isForeground)
+        return SyncPlan(metadata = metadata, heavyWork = heavyWork)
+    }
+
+    companion object {
+        const val MONTH_MILLIS = 30.0 * 24.0 * 60.0 * 60.0 * 1000.0
+
+        // weight given to each new observation of a feed's publishing rate
+        private const val RATE_SMOOTHING = 0.3
+    }
+}
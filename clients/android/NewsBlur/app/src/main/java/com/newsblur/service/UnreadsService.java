@@ -1,5 +1,7 @@
 package com.newsblur.service;
 
+import com.newsblur.database.DatabaseConstants;
+import com.newsblur.database.StoryCountDeltas;
 import com.newsblur.network.domain.StoriesResponse;
 import com.newsblur.network.domain.UnreadStoryHashesResponse;
 import com.newsblur.util.AppConstants;
@@ -12,7 +14,9 @@ import com.newsblur.util.StoryOrder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -22,7 +26,8 @@ public class UnreadsService extends SubService {
 
     private static volatile boolean doMetadata = false;
 
-    /** Unread story hashes the API listed that we do not appear to have locally yet. */
+    /** Unread story hashes the API listed that we do not appear to have locally yet. Mirrored
+     *  to the DB work queue so a restarted sync can pick up where it left off. */
     static List<String> StoryHashQueue;
     static { StoryHashQueue = new ArrayList<String>(); }
 
@@ -35,8 +40,10 @@ public class UnreadsService extends SubService {
         activelyRunning = true;
         try {
             if (doMetadata) {
-                syncUnreadList();
-                doMetadata = false;
+                if (syncUnreadList()) {
+                    doMetadata = false;
+                    parent.dbHelper.setUnreadsReconcilePending(false);
+                }
             }
 
             if (StoryHashQueue.size() > 0) {
@@ -48,13 +55,16 @@ public class UnreadsService extends SubService {
         }
     }
 
-    private void syncUnreadList() {
-        if (parent.stopSync()) return;
+    /**
+     * @return true if the reconciliation ran to completion.
+     */
+    private boolean syncUnreadList() {
+        if (parent.stopSync()) return false;
 
         // get unread hashes and dates from the API
         UnreadStoryHashesResponse unreadHashes = parent.apiManager.getUnreadStoryHashes();
         
-        if (parent.stopSync()) return;
+        if (parent.stopSync()) return false;
 
         // get all the stories we thought were unread before. we should not enqueue a fetch of
         // stories we already have.  also, if any existing unreads fail to appear in
@@ -68,6 +78,9 @@ public class UnreadsService extends SubService {
         // is crucial that we re-use objects as much as possible to avoid memory churn
         List<String[]> sortationList = new ArrayList<String[]>();
 
+        // how many stories each feed has published that we haven't seen, to tune the sync scheduler
+        Map<String,Integer> newUnreadsByFeed = new HashMap<String,Integer>();
+
         // process the api response, both bookkeeping no-longer-unread stories and populating
         // the sortation list we will use to create the fetch list for step two
         int count = 0;
@@ -83,6 +96,8 @@ public class UnreadsService extends SubService {
                 // only fetch the reported unreads if we don't already have them
                 if (!oldUnreadHashes.contains(newUnread[0])) {
                     sortationList.add(newUnread);
+                    Integer feedCount = newUnreadsByFeed.get(feedId);
+                    newUnreadsByFeed.put(feedId, (feedCount == null) ? 1 : feedCount + 1);
                 } else {
                     oldUnreadHashes.remove(newUnread[0]);
                 }
@@ -93,12 +108,15 @@ public class UnreadsService extends SubService {
         com.newsblur.util.Log.i(this, "new unreads found:     " + sortationList.size());
         com.newsblur.util.Log.i(this, "unreads to retire:     " + oldUnreadHashes.size());
 
+        NBSyncService.Scheduler.recordArrivals(newUnreadsByFeed, System.currentTimeMillis());
+
         // any stories that we previously thought to be unread but were not found in the
         // list, mark them read now
 
-        parent.dbHelper.markStoryHashesRead(oldUnreadHashes);
+        StoryCountDeltas retired = parent.dbHelper.markStoryHashesRead(oldUnreadHashes);
+        com.newsblur.util.Log.i(this, "unreads retired:       " + retired);
 
-        if (parent.stopSync()) return;
+        if (parent.stopSync()) return false;
 
         // now sort the unreads we need to fetch so they are fetched roughly in the order
         // the user is likely to read them.  if the user reads newest first, those come first.
@@ -126,7 +144,9 @@ public class UnreadsService extends SubService {
             // element [0] of the tuple is the story hash, the rest can safely be thown out
             StoryHashQueue.add(tuple[0]);
         }
+        parent.dbHelper.replaceWorkQueue(DatabaseConstants.WORK_QUEUE_UNREADS, StoryHashQueue);
 
+        return true;
     }
 
     private void getNewUnreadStories() {
@@ -164,11 +184,15 @@ public class UnreadsService extends SubService {
             for (String hash : hashSkips) {
                 StoryHashQueue.remove(hash);
             } 
+            // checkpoint now that the batch is committed, so a killed sync doesn't re-fetch it
+            parent.dbHelper.dequeueWork(DatabaseConstants.WORK_QUEUE_UNREADS, hashBatch);
+            parent.dbHelper.dequeueWork(DatabaseConstants.WORK_QUEUE_UNREADS, hashSkips);
 
             if (isTextPrefetchEnabled) {
                 parent.prefetchOriginalText(response);
             }
             parent.prefetchImages(response);
+            parent.prefetchStoryRevisions(response);
         }
     }
 
@@ -188,6 +212,14 @@ public class UnreadsService extends SubService {
         StoryHashQueue.clear();
     }
 
+    /**
+     * Re-populate the in-memory queue from a persisted one, if the process was restarted mid-sync.
+     */
+    static void restoreQueue(List<String> hashes) {
+        if (StoryHashQueue.size() > 0) return;
+        StoryHashQueue.addAll(hashes);
+    }
+
     /**
      * Describe the number of unreads left to be synced or return an empty message (space padded).
      */
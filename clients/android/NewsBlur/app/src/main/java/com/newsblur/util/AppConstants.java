@@ -25,6 +25,14 @@ public class AppConstants {
     // how long to wait before auto-syncing the feed/folder list
     public static final long AUTO_SYNC_TIME_MILLIS = 15L * 60L * 1000L;
 
+    // the longest a background sync will go without refreshing the feed/folder list, even if
+    // no feeds are expected to have published anything new
+    public static final long QUIET_SYNC_MAX_MILLIS = 4L * 60L * 60L * 1000L;
+
+    // how many new stories we must expect to have been published before a background sync
+    // will refresh the feed/folder list
+    public static final double QUIET_SYNC_STORY_THRESHOLD = 1.0;
+
     // how often to rebuild the DB
     public static final long VACUUM_TIME_MILLIS = 12L * 60L * 60L * 1000L;
 
@@ -62,6 +70,9 @@ public class AppConstants {
     // when reading stories, how many stories worth of buffer to keep loaded ahead of the user
     public static final int READING_STORY_PRELOAD = 10;
 
+    // when reading stories, how many stories either side of the current one to keep thawed
+    public static final int READING_STORY_WINDOW = 3;
+
     // how many unread stories to fetch via hash at a time
     public static final int UNREAD_FETCH_BATCH_SIZE = 50;
 
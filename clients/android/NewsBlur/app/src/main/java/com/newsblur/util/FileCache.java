@@ -135,16 +135,23 @@ public class FileCache {
         return fileName;
     }
 
-    public void cleanupOld(long maxFileAgeMillis) {
+    /**
+     * Clean up files in this cache that are past the specified age.
+     *
+     * @return the number of bytes freed.
+     */
+    public long cleanupOld(long maxFileAgeMillis) {
+        long freed = 0L;
         try {
             int cleaned = 0;
             File[] files = cacheDir.listFiles();
-            if (files == null) return;
+            if (files == null) return 0L;
             com.newsblur.util.Log.i(this, String.format("have %d files", files.length));
             for (File f : files) {
                 long timestamp = f.lastModified();
                 if (System.currentTimeMillis() > (timestamp + maxFileAgeMillis)) {
-                    f.delete();
+                    long length = f.length();
+                    if (f.delete()) freed += length;
                     cleaned++;
                 }
             }
@@ -152,28 +159,33 @@ public class FileCache {
         } catch (Exception e) {
             com.newsblur.util.Log.e(this, "exception cleaning up cache", e);
         }
+        return freed;
     }
 
     /**
      * Clean up files in this cache that are both unused and past the specified age.
+     *
+     * @return the number of bytes freed.
      */
-    public void cleanupUnusedAndOld(Set<String> currentUrls, long maxFileAgeMillis) {
+    public long cleanupUnusedAndOld(Set<String> currentUrls, long maxFileAgeMillis) {
         // if there appear to be zero images in the system, a DB rebuild probably just
         // occured, so don't trust that data for cleanup
-        if (currentUrls.size() == 0) return;
+        if (currentUrls.size() == 0) return 0L;
 
         Set<String> currentFiles = new HashSet<String>(currentUrls.size());
         for (String url : currentUrls) currentFiles.add(getFileName(url));
+        long freed = 0L;
         try {
             int cleaned = 0;
             File[] files = cacheDir.listFiles();
-            if (files == null) return;
+            if (files == null) return 0L;
             com.newsblur.util.Log.i(this, String.format("have %d files", files.length));
             for (File f : files) {
                 long timestamp = f.lastModified();
                 if ((System.currentTimeMillis() > (timestamp + maxFileAgeMillis)) &&
                         (!currentFiles.contains(f.getName()))) {
-                    f.delete();
+                    long length = f.length();
+                    if (f.delete()) freed += length;
                     cleaned++;
                 }
             }
@@ -181,6 +193,7 @@ public class FileCache {
         } catch (Exception e) {
             com.newsblur.util.Log.e(this, "exception cleaning up cache", e);
         }
+        return freed;
     }
 
     /**
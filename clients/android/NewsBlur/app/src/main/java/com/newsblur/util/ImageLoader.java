@@ -2,16 +2,23 @@ package com.newsblur.util;
 
 import java.io.File;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Process;
+import android.os.Trace;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.RemoteViews;
@@ -23,35 +30,52 @@ import dagger.hilt.android.internal.managers.FragmentComponentManager;
 
 public class ImageLoader {
 
+    /** Images for views that are showing now, which are loaded first. */
+    private static final int PRIORITY_VISIBLE = 0;
+    /** Images for views that are expected to show soon, which are loaded once nothing visible is waiting. */
+    private static final int PRIORITY_PREFETCH = 1;
+
 	private final MemoryCache memoryCache;
 	private final FileCache fileCache;
 	private final ExecutorService executorService;
     private final int emptyRID;
     private final int minImgHeight;
     private final boolean hideMissing;
+    // the trace section decodes are marked with, and another for decodes nobody got to see
+    private final String decodeTraceName;
+    private final String wastedDecodeTraceName;
+
+    // queued loads are taken in priority order, then in the order they were asked for
+    private final AtomicLong loadSequence = new AtomicLong();
+    // prefetches asked for before the latest cancelPrefetches() are dropped when they come up
+    private final AtomicInteger prefetchGeneration = new AtomicInteger();
+    private final Set<String> queuedPrefetches = Collections.synchronizedSet(new HashSet<String>());
 
     // some image loads can happen after the imageview in question is already reused for some other image. keep
     // track of what image each view wants so that when it comes time to load them, they aren't stale
 	private final Map<ImageView, String> imageViewMappings = Collections.synchronizedMap(new WeakHashMap<ImageView, String>());
 
-	private ImageLoader(FileCache fileCache, int emptyRID, int minImgHeight, boolean hideMissing, long memoryCacheSize) {
+	private ImageLoader(FileCache fileCache, int emptyRID, int minImgHeight, boolean hideMissing, long memoryCacheSize, String traceName) {
         this.memoryCache = new MemoryCache(memoryCacheSize);
 		this.fileCache = fileCache;
         this.emptyRID = emptyRID;
         this.minImgHeight = minImgHeight;
         this.hideMissing = hideMissing;
+        this.decodeTraceName = traceName + "Decode";
+        this.wastedDecodeTraceName = traceName + "DecodeWasted";
 
         int threadCount = Runtime.getRuntime().availableProcessors() - 2;
         if (threadCount < 1) threadCount = 1;
-		executorService = Executors.newFixedThreadPool(threadCount);
+        // loads are only ever queued via execute(), so that the queue sees the PhotosLoaders themselves
+		executorService = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
 	}
 
     public static ImageLoader asIconLoader(Context context, FileCache iconCache) {
-        return new ImageLoader(iconCache, R.drawable.ic_world, UIUtils.dp2px(context, 4), false, (Runtime.getRuntime().maxMemory()/20));
+        return new ImageLoader(iconCache, R.drawable.ic_world, UIUtils.dp2px(context, 4), false, (Runtime.getRuntime().maxMemory()/20), "Icon");
     }
 
     public static ImageLoader asThumbnailLoader(Context context, FileCache chainedCache) {
-        return new ImageLoader(chainedCache, android.R.color.transparent, UIUtils.dp2px(context, 32), false, (Runtime.getRuntime().maxMemory()/8));
+        return new ImageLoader(chainedCache, android.R.color.transparent, UIUtils.dp2px(context, 32), false, (Runtime.getRuntime().maxMemory()/8), "Thumbnail");
     }
 	
     public PhotoToLoad displayImage(String url, ImageView imageView) {
@@ -115,10 +139,51 @@ public class ImageLoader {
 		imageViewMappings.put(imageView, url);
         PhotoToLoad photoToLoad = new PhotoToLoad(url, imageView, maxDimPX, allowDelay);
 
-        executorService.submit(new PhotosLoader(photoToLoad));
+        executorService.execute(new PhotosLoader(photoToLoad, PRIORITY_VISIBLE, 0));
         return photoToLoad;
 	}
 
+    /**
+     * Point a view at an image without queueing a load for it, for views that may well be
+     * gone again before a load could finish.  The image is shown right away if it happens to
+     * be in memory; otherwise the caller should ask for it with displayImage() later if the
+     * view is still showing.
+     *
+     * @return true if the image was shown.
+     */
+    public boolean deferImage(String url, ImageView imageView) {
+        if (url == null) {
+            imageView.setImageResource(emptyRID);
+            return true;
+        }
+        url = buildUrlIfNeeded(url);
+        imageViewMappings.put(imageView, url);
+        Bitmap bitmap = memoryCache.get(url);
+        if ((bitmap == null) || (bitmap.getHeight() < minImgHeight)) return false;
+        imageView.setVisibility(View.VISIBLE);
+        imageView.setImageBitmap(bitmap);
+        return true;
+    }
+
+    /**
+     * Load an image into memory ahead of it being shown, behind any loads for visible views.
+     */
+    public void prefetchImage(String url, int maxDimPX) {
+        if (url == null) return;
+        url = buildUrlIfNeeded(url);
+        if (memoryCache.get(url) != null) return;
+        if (!queuedPrefetches.add(url)) return;
+        PhotoToLoad photoToLoad = new PhotoToLoad(url, null, maxDimPX, false);
+        executorService.execute(new PhotosLoader(photoToLoad, PRIORITY_PREFETCH, prefetchGeneration.get()));
+    }
+
+    /**
+     * Drop any prefetches that haven't started yet, such as when the list has moved on.
+     */
+    public void cancelPrefetches() {
+        prefetchGeneration.incrementAndGet();
+    }
+
 	public static class PhotoToLoad {
 		public String url;
 		public ImageView imageView;
@@ -134,16 +199,32 @@ public class ImageLoader {
 		}
 	}
 
-	private class PhotosLoader implements Runnable {
+	private class PhotosLoader implements Runnable, Comparable<PhotosLoader> {
 		PhotoToLoad photoToLoad;
+        final int priority;
+        final int generation;
+        final long sequence;
 
-		public PhotosLoader(PhotoToLoad photoToLoad) {
+		public PhotosLoader(PhotoToLoad photoToLoad, int priority, int generation) {
 			this.photoToLoad = photoToLoad;
+            this.priority = priority;
+            this.generation = generation;
+            this.sequence = loadSequence.getAndIncrement();
 		}
 
+        @Override
+        public int compareTo(PhotosLoader other) {
+            if (priority != other.priority) return (priority < other.priority) ? -1 : 1;
+            return Long.compare(sequence, other.sequence);
+        }
+
 		@Override
 		public void run() {
             Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT + Process.THREAD_PRIORITY_LESS_FAVORABLE);
+            if (photoToLoad.imageView == null) {
+                prefetch();
+                return;
+            }
             if (photoToLoad.cancel) return;
 
             // try from memory
@@ -176,21 +257,53 @@ public class ImageLoader {
                 photoToLoad.maxDimPX = 800;
             }
             
+            bitmap = decode(photoToLoad);
+            if (photoToLoad.cancel || !isUrlMapped(photoToLoad.imageView, photoToLoad.url)) {
+                // the view moved on while the image was being decoded
+                markWastedDecode();
+                return;
+            }
+            setViewImage(bitmap, photoToLoad);
+		}
+
+        private void prefetch() {
+            try {
+                if (generation != prefetchGeneration.get()) return;
+                if (memoryCache.get(photoToLoad.url) != null) return;
+                if (photoToLoad.maxDimPX < 1) {
+                    photoToLoad.maxDimPX = 800;
+                }
+                decode(photoToLoad);
+            } finally {
+                queuedPrefetches.remove(photoToLoad.url);
+            }
+        }
+	}
+
+    private Bitmap decode(PhotoToLoad photoToLoad) {
+        Trace.beginSection(decodeTraceName);
+        try {
             // try from disk
-            bitmap = getImageFromDisk(photoToLoad.url, photoToLoad.maxDimPX);
+            Bitmap bitmap = getImageFromDisk(photoToLoad.url, photoToLoad.maxDimPX);
             if (bitmap == null) {
                 // try for network
-                if (photoToLoad.cancel) return;
+                if (photoToLoad.cancel) return null;
                 bitmap = getImageFromNetwork(photoToLoad.url, photoToLoad.maxDimPX);
             }
-
             if (bitmap != null) {
                 memoryCache.put(photoToLoad.url, bitmap);
             }
-            if (photoToLoad.cancel) return;
-            setViewImage(bitmap, photoToLoad);
-		}
-	}
+            return bitmap;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    // an empty section, so that benchmarks can count how often decoding was for nothing
+    private void markWastedDecode() {
+        Trace.beginSection(wastedDecodeTraceName);
+        Trace.endSection();
+    }
 
     private void setViewImage(Bitmap bitmap, PhotoToLoad photoToLoad) {
         BitmapDisplayer bitmapDisplayer = new BitmapDisplayer(bitmap, photoToLoad);
@@ -0,0 +1,71 @@
+package com.newsblur.util
+
+import com.newsblur.domain.Classifier
+import com.newsblur.domain.Story
+
+/**
+ * Scores stories against a feed's trained classifier the same way the server does, so that
+ * training can take effect locally and offline instead of waiting on freshly fetched stories.
+ *
+ * Within each of the author, title, tag and feed categories, any liked match scores 1, else
+ * any disliked match scores -1, else the category scores 0. Rules that were cleared in the
+ * trainer count for nothing. Totals are left to [Story.Intelligence.calcTotalIntel].
+ */
+class IntelScorer(classifier: Classifier) {
+
+    private val authors = activeRules(classifier.authors)
+    private val tags = activeRules(classifier.tags)
+    private val feeds = activeRules(classifier.feeds)
+
+    // title rules match case-insensitively anywhere in the title
+    private val titles = TitleMatcher(activeRules(classifier.title))
+
+    val isEmpty: Boolean
+        get() = authors.isEmpty() && tags.isEmpty() && feeds.isEmpty() && titles.isEmpty
+
+    fun scoreAuthors(storyAuthors: String?): Int {
+        if (storyAuthors == null) return 0
+        return authors[storyAuthors] ?: 0
+    }
+
+    fun scoreTitle(storyTitle: String?): Int {
+        if (storyTitle == null) return 0
+        return titles.score(storyTitle)
+    }
+
+    fun scoreTags(storyTags: Array<String>?): Int {
+        if (storyTags == null || tags.isEmpty()) return 0
+        var score = 0
+        for (tag in storyTags) {
+            val tagScore = tags[tag] ?: continue
+            if (tagScore > 0) return tagScore
+            score = tagScore
+        }
+        return score
+    }
+
+    fun scoreFeed(feedId: String?): Int {
+        if (feedId == null) return 0
+        return feeds[feedId] ?: 0
+    }
+
+    /**
+     * Score a story's fields into a fresh [Story.Intelligence].
+     */
+    fun score(feedId: String?, storyAuthors: String?, storyTitle: String?, storyTags: Array<String>?): Story.Intelligence {
+        val intel = Story.Intelligence()
+        intel.intelligenceFeed = scoreFeed(feedId)
+        intel.intelligenceAuthors = scoreAuthors(storyAuthors)
+        intel.intelligenceTitle = scoreTitle(storyTitle)
+        intel.intelligenceTags = scoreTags(storyTags)
+        return intel
+    }
+
+    private fun activeRules(rules: Map<String, Int>): Map<String, Int> {
+        val active = HashMap<String, Int>(rules.size)
+        for ((key, value) in rules) {
+            if (value == Classifier.LIKE || value == Classifier.DISLIKE) active[key] = value
+        }
+        return active
+    }
+}
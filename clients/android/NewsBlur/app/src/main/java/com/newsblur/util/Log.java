@@ -1,29 +1,19 @@
 package com.newsblur.util;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Queue;
-import java.util.TimeZone;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
+import java.io.IOException;
+import java.util.ArrayDeque;
 
 import android.content.Context;
 
 /**
  * A low-overhead, fail-fast, dependency-free, file-backed log collector.  This utility
- * will persist debug messages in a file in such a way that sacrifices any guarantees
- * in order to have as few side-effects as possible.  The resulting log file will have
- * as many of the messages sent here as possible, but should not be expected to have
- * all of them.  The file is trimmed down to a set number of lines if it grows too big.
+ * will persist debug messages in such a way that sacrifices any guarantees in order to
+ * have as few side-effects as possible.  Messages go into a fixed-size ring kept in a
+ * memory-mapped file, so adding one costs no syscalls and never waits on another thread;
+ * once the ring is full the oldest messages are dropped.  The ring is only turned into a
+ * readable text file when one is asked for.  Messages from before the ring can be opened, which
+ * needs a Context, are held in memory, up to a point, and added to it once it is.
  */
 public class Log {
 
@@ -33,22 +23,25 @@ public class Log {
     private static final String E = "ERROR ";
 
     private static final String LOG_NAME_INTERNAL = "logbuffer.txt";
-    private static final int MAX_QUEUE_SIZE = 10;
+    private static final String RING_NAME_INTERNAL = "logbuffer.ring";
     private static final int MAX_LINE_SIZE = 2 * 1024;
-    private static final int TRIM_LINES = 1000;                 // trim the log down to 1000 lines
-    private static final long MAX_SIZE = 2000L * MAX_LINE_SIZE; // when it is at least 2000 lines long
+    private static final int RING_SLOT_SIZE = 256;              // most lines fit in a single slot
+    private static final int RING_SLOTS = 8 * 1024;             // for a 2MB ring
+    private static final int MAX_EARLY_LINES = 128;
 
-    private static Queue<String> q;
-    private static ExecutorService executor;
+    private static volatile LogRingBuffer ring = null;
     private static File logloc = null;
-    static {
-        q = new ConcurrentLinkedQueue<String>();
-        executor = Executors.newFixedThreadPool(1);
-    }
-    private static DateFormat dateFormat = null;
-    static {
-        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    /** Lines logged before the ring was opened.  Guarded by itself. */
+    private static final ArrayDeque<EarlyLine> earlyLines = new ArrayDeque<EarlyLine>();
+
+    private static class EarlyLine {
+        final long time;
+        final String line;
+
+        EarlyLine(long time, String line) {
+            this.time = time;
+            this.line = line;
+        }
     }
 
     private Log() {} // util class - no instances
@@ -99,71 +92,69 @@ public class Log {
     }
 
     private static void add(String lvl, String tag, String m, Throwable t) {
-        if (q.size() < MAX_QUEUE_SIZE) {
-            if (m != null && m.length() > MAX_LINE_SIZE) m = m.substring(0, MAX_LINE_SIZE);
-            StringBuilder s = new StringBuilder();
-            synchronized (dateFormat) {s.append(dateFormat.format(new Date()));}
-            s.append(" ")
-             .append(lvl)
-             .append(tag)
-             .append(" ");
-            s.append(m);
-            if (t != null) {
-                s.append(" ");
-                s.append(t.getMessage());
-                s.append(" ");
-                s.append(android.util.Log.getStackTraceString(t));
-            }
-            q.offer(s.toString());
+        if (m != null && m.length() > MAX_LINE_SIZE) m = m.substring(0, MAX_LINE_SIZE);
+        StringBuilder s = new StringBuilder();
+        s.append(lvl)
+         .append(tag)
+         .append(" ");
+        s.append(m);
+        if (t != null) {
+            s.append(" ");
+            s.append(t.getMessage());
+            s.append(" ");
+            s.append(android.util.Log.getStackTraceString(t));
         }
-        Runnable r = new Runnable() {
-            public void run() {
-                proc();
+        long time = System.currentTimeMillis();
+        try {
+            LogRingBuffer r = ring;
+            if (r == null) {
+                synchronized (earlyLines) {
+                    r = ring;
+                    if (r == null) {
+                        // not yet spun up, so hold on to the line until it is
+                        if (earlyLines.size() >= MAX_EARLY_LINES) earlyLines.removeFirst();
+                        earlyLines.addLast(new EarlyLine(time, s.toString()));
+                        return;
+                    }
+                }
             }
-        };
-        executor.execute(r);
-    }
-
-    public static void offerContext(Context c) {
-        logloc = c.getExternalCacheDir();
-    }
-
-    private static void proc() {
-        if (logloc == null) return; // not yet spun up
-        for (String line = q.poll(); line != null; line = q.poll()) {
-            writeLine(line);
-        }
-    }
-
-    private static void writeLine(String line) {
-        File f = new File(logloc, LOG_NAME_INTERNAL);
-        try (BufferedWriter w = new BufferedWriter(new FileWriter(f, true))) {
-            w.append(line);
-            w.newLine();
-        } catch (Throwable t) {
+            r.append(time, s.toString());
+        } catch (Throwable e) {
             ; // explicitly do nothing, log nothing, and fail fast. this is a utility to
               // provice as much info as possible while having absolute minimal impact or
               // side effect on performance or app operation
         }
-        if (f.length() < MAX_SIZE) return;
-        android.util.Log.i(Log.class.getName(), "trimming");
-        List<String> lines = new ArrayList<String>(TRIM_LINES * 2);
-        try (BufferedReader r = new BufferedReader(new FileReader(f))) {
-            for (String l = r.readLine(); l != null; l = r.readLine()) {
-                lines.add(l);
-            }
-        } catch (Throwable t) {;}
-        int offset = lines.size() - TRIM_LINES;
-        try (BufferedWriter w = new BufferedWriter(new FileWriter(f, false))) {
-            for (int i = offset; i < lines.size(); i++) {
-                w.append(lines.get(i));
-                w.newLine();
+    }
+
+    public static synchronized void offerContext(Context c) {
+        if (ring != null) return;
+        logloc = c.getExternalCacheDir();
+        if (logloc == null) return;
+        try {
+            LogRingBuffer r = LogRingBuffer.open(new File(logloc, RING_NAME_INTERNAL), RING_SLOTS, RING_SLOT_SIZE);
+            synchronized (earlyLines) {
+                for (EarlyLine line : earlyLines) r.append(line.time, line.line);
+                earlyLines.clear();
+                ring = r;
             }
-        } catch (Throwable t) {;}
+        } catch (Throwable t) {
+            android.util.Log.w(Log.class.getName(), "could not open log ring: " + t.getMessage());
+        }
     }
 
+    /**
+     * Export the messages collected so far to a text file, oldest first.
+     */
     public static File getLogfile() {
-        return new File(logloc, LOG_NAME_INTERNAL);
+        File f = new File(logloc, LOG_NAME_INTERNAL);
+        LogRingBuffer r = ring;
+        if (r == null) return f;
+        try {
+            r.exportTo(f);
+        } catch (IOException ioe) {
+            android.util.Log.w(Log.class.getName(), "could not export log: " + ioe.getMessage());
+        }
+        return f;
     }
 
 }
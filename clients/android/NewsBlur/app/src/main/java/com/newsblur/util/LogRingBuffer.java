@@ -0,0 +1,243 @@
+package com.newsblur.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size ring of log lines, usually kept in a memory-mapped file so that it survives the
+ * process and costs no syscalls to append to.  The ring is cut into equal slots and each line
+ * takes as many consecutive slots as it needs.  Writers claim their slots with a single atomic
+ * add and then fill them without taking any lock, so appending never waits on the disk or on
+ * another writer.  In the rare case that a writer has fallen a whole lap of the ring behind and
+ * still holds a slot, the newer line wanting it is dropped rather than waiting.  Once the ring is
+ * full, the oldest lines are overwritten.
+ *
+ * Each slot starts with a header: the sequence number of the slot plus one (zero while it is
+ * being written), the time of the line, the index of the slot within the line, the number of
+ * slots in the line and the number of bytes of the line held by the slot.
+ */
+public class LogRingBuffer {
+
+    private static final int HEADER_SIZE = 24;
+    private static final int OFFSET_TIME = 8;
+    private static final int OFFSET_PART = 16;
+    private static final int OFFSET_PARTS = 18;
+    private static final int OFFSET_LENGTH = 20;
+
+    private final ByteBuffer buffer;
+    private final int slotSize;
+    private final int slotCount;
+    private final int maxParts;
+
+    /** The sequence number of the next slot to be claimed. */
+    private final AtomicLong nextSeq;
+    /**
+     * The stamp of the line owning each slot, negated while it is being written.  A writer only
+     * takes a slot from an older line, so a writer that falls a lap behind can't clobber newer
+     * lines.  Readers go by these rather than the stamps in the buffer, which are only there for
+     * when the ring is reopened, so that they see every slot they read whole.
+     */
+    private final AtomicLongArray claims;
+
+    private final DateFormat dateFormat;
+
+    /**
+     * @param buffer storage for the ring, which may already hold lines from an earlier ring
+     *               of the same slot size.
+     * @param slotSize the size of each slot, header included.
+     */
+    public LogRingBuffer(ByteBuffer buffer, int slotSize) {
+        if (slotSize <= HEADER_SIZE) throw new IllegalArgumentException("slot too small");
+        this.buffer = buffer;
+        this.slotSize = slotSize;
+        this.slotCount = buffer.capacity() / slotSize;
+        if (slotCount < 2) throw new IllegalArgumentException("buffer too small");
+        // no single line may take more than a quarter of the ring
+        this.maxParts = Math.max(1, Math.min(slotCount / 4, Short.MAX_VALUE));
+        this.claims = new AtomicLongArray(slotCount);
+        this.nextSeq = new AtomicLong(recoverNextSeq());
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Open a ring kept in the given file, creating it if needed.  The file stays mapped for the
+     * life of the process.
+     */
+    public static LogRingBuffer open(File file, int slotCount, int slotSize) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long size = (long) slotCount * slotSize;
+            // a ring of a different shape can't be read, so start over
+            if (raf.length() != size) {
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new LogRingBuffer(buffer, slotSize);
+        }
+    }
+
+    private long recoverNextSeq() {
+        long max = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            long stamp = buffer.getLong(slot * slotSize);
+            claims.set(slot, stamp);
+            max = Math.max(max, stamp);
+        }
+        return max;
+    }
+
+    /** The most bytes of a single line that will be kept; the rest is cut off. */
+    public int getMaxLineBytes() {
+        return maxParts * (slotSize - HEADER_SIZE);
+    }
+
+    /**
+     * Add a line to the ring.  Safe to call from any thread; never blocks.  The line is dropped
+     * if a writer that has fallen a lap behind still holds a slot it needs.
+     */
+    public void append(long time, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        int payloadSize = slotSize - HEADER_SIZE;
+        int length = Math.min(bytes.length, getMaxLineBytes());
+        int parts = Math.max(1, (length + payloadSize - 1) / payloadSize);
+        long firstSeq = nextSeq.getAndAdd(parts);
+        for (int part = 0; part < parts; part++) {
+            long stamp = firstSeq + part + 1;
+            int slot = (int) ((firstSeq + part) % slotCount);
+            // if the slot is taken, the reader will see this line is missing a part and skip it
+            if (!claim(slot, stamp)) break;
+            int base = slot * slotSize;
+            int from = part * payloadSize;
+            int partLength = Math.min(payloadSize, length - from);
+            // mark the slot as in progress so that a reader never takes half a line for a whole one
+            buffer.putLong(base, 0L);
+            buffer.putLong(base + OFFSET_TIME, time);
+            buffer.putShort(base + OFFSET_PART, (short) part);
+            buffer.putShort(base + OFFSET_PARTS, (short) parts);
+            buffer.putInt(base + OFFSET_LENGTH, partLength);
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(base + HEADER_SIZE);
+            payload.put(bytes, from, partLength);
+            buffer.putLong(base, stamp);
+            // publishes the slot to readers
+            claims.set(slot, stamp);
+        }
+    }
+
+    /**
+     * Take a slot for writing, unless a newer line already has it or an older one is still
+     * being written to it.
+     */
+    private boolean claim(int slot, long stamp) {
+        while (true) {
+            long current = claims.get(slot);
+            if ((current < 0) || (current >= stamp)) return false;
+            if (claims.compareAndSet(slot, current, -stamp)) return true;
+        }
+    }
+
+    /**
+     * Write every whole line in the ring to the given writer, oldest first, each prefixed with
+     * its time and followed by a newline.
+     */
+    public void export(Writer out) throws IOException {
+        long[] seqs = new long[slotCount];
+        int found = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            long stamp = claims.get(slot);
+            if (stamp > 0) seqs[found++] = stamp - 1;
+        }
+        Arrays.sort(seqs, 0, found);
+
+        int i = 0;
+        while (i < found) {
+            long seq = seqs[i];
+            int base = slotOffset(seq);
+            // the header may be half overwritten by now, but if so readLine() finds out
+            int part = buffer.getShort(base + OFFSET_PART);
+            int parts = buffer.getShort(base + OFFSET_PARTS);
+            long time = buffer.getLong(base + OFFSET_TIME);
+            if ((part != 0) || (parts < 1) || (i + parts > found) || (seqs[i + parts - 1] != seq + parts - 1)) {
+                // the head of this line was overwritten or is still being written
+                i++;
+                continue;
+            }
+            String line = readLine(seq, parts);
+            i += parts;
+            if (line == null) continue;
+            synchronized (dateFormat) {
+                out.write(dateFormat.format(time));
+            }
+            out.write(' ');
+            out.write(line);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Export the ring to a text file, replacing it.
+     */
+    public void exportTo(File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, false), StandardCharsets.UTF_8))) {
+            export(out);
+        }
+    }
+
+    /**
+     * Read the line starting at the given slot, or return null if any of its slots change
+     * while it is being read, including the header of the first as already read by the caller.
+     */
+    private String readLine(long firstSeq, int parts) {
+        List<byte[]> chunks = new ArrayList<byte[]>(parts);
+        int total = 0;
+        for (int part = 0; part < parts; part++) {
+            long seq = firstSeq + part;
+            int slot = (int) (seq % slotCount);
+            int base = slot * slotSize;
+            // reading the claim makes everything its writer put in the slot visible
+            if (claims.get(slot) != seq + 1) return null;
+            int length = buffer.getInt(base + OFFSET_LENGTH);
+            byte[] chunk = null;
+            if ((length >= 0) && (length <= slotSize - HEADER_SIZE)) {
+                chunk = new byte[length];
+                ByteBuffer payload = buffer.duplicate();
+                payload.position(base + HEADER_SIZE);
+                payload.get(chunk);
+            }
+            // a plain read could be reordered before the copy, but a CAS can't: if it succeeds,
+            // no writer had claimed the slot back by the time the copy was done
+            if (!claims.compareAndSet(slot, seq + 1, seq + 1)) return null;
+            if (chunk == null) return null;
+            chunks.add(chunk);
+            total += length;
+        }
+        byte[] bytes = new byte[total];
+        int at = 0;
+        for (byte[] chunk : chunks) {
+            System.arraycopy(chunk, 0, bytes, at, chunk.length);
+            at += chunk.length;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int slotOffset(long seq) {
+        return (int) (seq % slotCount) * slotSize;
+    }
+}
@@ -3,6 +3,7 @@ package com.newsblur.util;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.BatteryManager;
 import android.os.Build;
 
 import com.newsblur.di.ImageOkHttpClient;
@@ -29,6 +30,17 @@ public class NetworkUtils {
 		return (netInfo != null && netInfo.isConnected());
 	}
 
+    public static boolean isUnmetered(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo netInfo = cm.getActiveNetworkInfo();
+        return (netInfo != null && netInfo.isConnected() && !cm.isActiveNetworkMetered());
+    }
+
+    public static boolean isCharging(Context context) {
+        BatteryManager bm = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        return (bm != null && bm.isCharging());
+    }
+
     public static long loadURL(@ImageOkHttpClient OkHttpClient imageOkHttpClient, URL url, File file) {
         long bytesRead = 0;
         try {
@@ -39,8 +39,9 @@ public class NotificationUtils {
         NotificationManagerCompat nm = NotificationManagerCompat.from(context);
 
         int count = 0;
+        Story.CursorMapper focusMapper = new Story.CursorMapper(storiesFocus, false);
         while (storiesFocus.moveToNext()) {
-            Story story = Story.fromCursor(storiesFocus);
+            Story story = focusMapper.fromCursor(storiesFocus);
             if (story.read) {
                 nm.cancel(story.hashCode());
                 continue;
@@ -63,8 +64,9 @@ public class NotificationUtils {
             }
             count++;
         }
+        Story.CursorMapper unreadMapper = new Story.CursorMapper(storiesUnread, false);
         while (storiesUnread.moveToNext()) {
-            Story story = Story.fromCursor(storiesUnread);
+            Story story = unreadMapper.fromCursor(storiesUnread);
             if (story.read) {
                 nm.cancel(story.hashCode());
                 continue;
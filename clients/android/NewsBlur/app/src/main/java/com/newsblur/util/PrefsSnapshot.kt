@@ -0,0 +1,107 @@
+package com.newsblur.util
+
+import android.content.Context
+import android.content.SharedPreferences
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+
+/**
+ * An immutable, typed copy of the preferences read on hot paths such as per-request, per-story
+ * and per-comment code, so they can be read as plain fields rather than through a preferences
+ * lookup and string parse each time. The current snapshot is loaded once and replaced as a whole
+ * whenever the preferences change; see [PrefsSnapshot.get] and [PrefsSnapshot.updates].
+ */
+class PrefsSnapshot private constructor(
+        @JvmField val cookie: String?,
+        @JvmField val showPublicComments: Boolean,
+        @JvmField val isOfflineEnabled: Boolean,
+        @JvmField val isImagePrefetchEnabled: Boolean,
+        @JvmField val isTextPrefetchEnabled: Boolean,
+        private val feedViewModes: Map<String, DefaultFeedView>,
+) {
+
+    fun getDefaultViewModeForFeed(feedId: String?): DefaultFeedView {
+        if (feedId == null) return DefaultFeedView.STORY
+        return feedViewModes[feedId] ?: DefaultFeedView.STORY
+    }
+
+    companion object {
+
+        @Volatile
+        private var current: PrefsSnapshot? = null
+
+        private val _updates = MutableStateFlow<PrefsSnapshot?>(null)
+
+        /** Emits each new snapshot as it replaces the last. */
+        @JvmStatic
+        val updates: StateFlow<PrefsSnapshot?> = _updates.asStateFlow()
+
+        // preferences only weakly reference their listeners, so hold this one here
+        private val changeListener = SharedPreferences.OnSharedPreferenceChangeListener { prefs, _ ->
+            rebuild(prefs)
+        }
+
+        // whether changeListener has been registered, so that it is registered just once
+        private var listening = false
+
+        @JvmStatic
+        fun get(context: Context): PrefsSnapshot {
+            current?.let { return it }
+            return load(context, false)
+        }
+
+        /**
+         * Rebuild the snapshot right away. For writes that must be visible to the very next read,
+         * since change listeners are called later and not at all when preferences are cleared on
+         * older platforms.
+         */
+        @JvmStatic
+        fun reload(context: Context) {
+            load(context, true)
+        }
+
+        // the one path by which snapshots are loaded on request, which also makes sure that any
+        // later change is picked up no matter which request came first
+        @Synchronized
+        private fun load(context: Context, force: Boolean): PrefsSnapshot {
+            if (!force) current?.let { return it }
+            val prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0)
+            if (!listening) {
+                prefs.registerOnSharedPreferenceChangeListener(changeListener)
+                listening = true
+            }
+            return rebuild(prefs)
+        }
+
+        // serialised so that a slower rebuild can't replace a newer snapshot with an older one
+        @Synchronized
+        private fun rebuild(prefs: SharedPreferences): PrefsSnapshot {
+            val snapshot = fromValues(prefs.all)
+            current = snapshot
+            _updates.value = snapshot
+            return snapshot
+        }
+
+        /**
+         * Build a snapshot from the raw values of a preferences store, as given by getAll().
+         */
+        @JvmStatic
+        fun fromValues(values: Map<String, *>): PrefsSnapshot {
+            val feedViewModes = HashMap<String, DefaultFeedView>()
+            for ((key, value) in values) {
+                if (!key.startsWith(PrefConstants.FEED_DEFAULT_FEED_VIEW_PREFIX) || value !is String) continue
+                val mode = DefaultFeedView.values().firstOrNull { it.name == value } ?: continue
+                if (mode != DefaultFeedView.STORY) feedViewModes[key.substring(PrefConstants.FEED_DEFAULT_FEED_VIEW_PREFIX.length)] = mode
+            }
+            return PrefsSnapshot(
+                    cookie = values[PrefConstants.PREF_COOKIE] as? String,
+                    showPublicComments = values[PrefConstants.SHOW_PUBLIC_COMMENTS] as? Boolean ?: true,
+                    isOfflineEnabled = values[PrefConstants.ENABLE_OFFLINE] as? Boolean ?: false,
+                    isImagePrefetchEnabled = values[PrefConstants.ENABLE_IMAGE_PREFETCH] as? Boolean ?: false,
+                    isTextPrefetchEnabled = values[PrefConstants.ENABLE_TEXT_PREFETCH] as? Boolean ?: true,
+                    feedViewModes = feedViewModes,
+            )
+        }
+    }
+}
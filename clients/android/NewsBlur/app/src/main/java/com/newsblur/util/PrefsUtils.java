@@ -70,6 +70,7 @@ public class PrefsUtils {
 		edit.putString(PrefConstants.PREF_COOKIE, cookie);
 		edit.putString(PrefConstants.PREF_UNIQUE_LOGIN, userName + "_" + System.currentTimeMillis());
 		edit.commit();
+        PrefsSnapshot.reload(context);
 	}
 
     public static boolean checkForUpgrade(Context context) {
@@ -181,6 +182,7 @@ public class PrefsUtils {
 
         // wipe the prefs store
         context.getSharedPreferences(PrefConstants.PREFERENCES, 0).edit().clear().commit();
+        PrefsSnapshot.reload(context);
 
         // wipe the local DB
         dbHelper.dropAndRecreateTables();
@@ -213,6 +215,7 @@ public class PrefsUtils {
             editor.remove(key);
         }
         editor.commit();
+        PrefsSnapshot.reload(context);
 
         // wipe the local DB
         dbHelper.dropAndRecreateTables();
@@ -319,14 +322,9 @@ public class PrefsUtils {
 		}
 	}
 
-    /**
-     * Check to see if it has been sufficiently long since the last sync of the feed/folder
-     * data to justify automatically syncing again.
-     */
-    public static boolean isTimeToAutoSync(Context context) {
+    public static long getLastSyncTime(Context context) {
         SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
-        long lastTime = prefs.getLong(AppConstants.LAST_SYNC_TIME, 1L);
-        return ( (lastTime + AppConstants.AUTO_SYNC_TIME_MILLIS) < (new Date()).getTime() );
+        return prefs.getLong(AppConstants.LAST_SYNC_TIME, 1L);
     }
 
     /**
@@ -466,8 +464,7 @@ public class PrefsUtils {
     }
 
     public static boolean showPublicComments(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
-        return prefs.getBoolean(PrefConstants.SHOW_PUBLIC_COMMENTS, true);
+        return PrefsSnapshot.get(context).showPublicComments;
     }
     
     public static float getReadingTextSize(Context context) {
@@ -507,9 +504,7 @@ public class PrefsUtils {
     }
 
     public static DefaultFeedView getDefaultViewModeForFeed(Context context, String feedId) {
-        if ((feedId == null) || (feedId.equals(0))) return DefaultFeedView.STORY;
-        SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
-        return DefaultFeedView.valueOf(prefs.getString(PrefConstants.FEED_DEFAULT_FEED_VIEW_PREFIX + feedId, getDefaultFeedView().toString()));
+        return PrefsSnapshot.get(context).getDefaultViewModeForFeed(feedId);
     }
 
     public static void setDefaultViewModeForFeed(Context context, String feedId, DefaultFeedView newValue) {
@@ -518,6 +513,7 @@ public class PrefsUtils {
         Editor editor = prefs.edit();
         editor.putString(PrefConstants.FEED_DEFAULT_FEED_VIEW_PREFIX + feedId, newValue.toString());
         editor.commit();
+        PrefsSnapshot.reload(context);
     }
 
     public static StoryOrder getStoryOrder(Context context, FeedSet fs) {
@@ -691,10 +687,6 @@ public class PrefsUtils {
         }
     }
 
-    private static DefaultFeedView getDefaultFeedView() {
-        return DefaultFeedView.STORY;
-    }
-
     public static StoryContentPreviewStyle getStoryContentPreviewStyle(Context context) {
         SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
         return StoryContentPreviewStyle.valueOf(
@@ -744,18 +736,15 @@ public class PrefsUtils {
     }
 
     public static boolean isOfflineEnabled(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
-        return prefs.getBoolean(PrefConstants.ENABLE_OFFLINE, false);
+        return PrefsSnapshot.get(context).isOfflineEnabled;
     }
 
     public static boolean isImagePrefetchEnabled(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
-        return prefs.getBoolean(PrefConstants.ENABLE_IMAGE_PREFETCH, false);
+        return PrefsSnapshot.get(context).isImagePrefetchEnabled;
     }
 
     public static boolean isTextPrefetchEnabled(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PrefConstants.PREFERENCES, 0);
-        return prefs.getBoolean(PrefConstants.ENABLE_TEXT_PREFETCH, true);
+        return PrefsSnapshot.get(context).isTextPrefetchEnabled;
     }
 
     /**
@@ -1090,8 +1079,7 @@ public class PrefsUtils {
 
     @Nullable
     public static String getCookie(Context context) {
-        SharedPreferences preferences = context.getSharedPreferences(PrefConstants.PREFERENCES, Context.MODE_PRIVATE);
-        return preferences.getString(PrefConstants.PREF_COOKIE, null);
+        return PrefsSnapshot.get(context).cookie;
     }
 
     public static MarkStoryReadBehavior getMarkStoryReadBehavior(Context context) {
@@ -12,7 +12,13 @@ import android.database.Cursor;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 import com.newsblur.database.BlurDatabaseHelper;
 import com.newsblur.database.DatabaseConstants;
@@ -25,6 +31,8 @@ import com.newsblur.service.NbSyncManager;
 import com.newsblur.service.NBSyncService;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -32,6 +40,7 @@ public class ReadingAction implements Serializable {
 
     private static final long serialVersionUID = 0L;
 
+    // note: the binary codec stores these by ordinal, so new types must only ever be appended
     private enum ActionType {
         MARK_READ,
         MARK_UNREAD,
@@ -263,21 +272,208 @@ public class ReadingAction implements Serializable {
         // the number of parameters will continue growing unbounded.  to avoid having to frequently modify the
         // database and support a table with dozens or hundreds of columns that are only ever used at a low
         // cardinality, only the ACTION_TIME and ACTION_TRIED values are stored in columns of their own, and
-        // all remaining fields are frozen as JSON, since they are never queried upon.
-        values.put(DatabaseConstants.ACTION_PARAMS, DatabaseConstants.JsonHelper.toJson(this));
+        // all remaining fields are frozen with the compact Codec, since they are never queried upon.
+        values.put(DatabaseConstants.ACTION_PARAMS, Codec.encode(this));
 		return values;
 	}
 
 	public static ReadingAction fromCursor(@NonNull Cursor c) {
         long time = c.getLong(c.getColumnIndexOrThrow(DatabaseConstants.ACTION_TIME));
         int tried = c.getInt(c.getColumnIndexOrThrow(DatabaseConstants.ACTION_TRIED));
-        String params = c.getString(c.getColumnIndexOrThrow(DatabaseConstants.ACTION_PARAMS));
-		ReadingAction ra = DatabaseConstants.JsonHelper.fromJson(params, ReadingAction.class);
+        int paramsIndex = c.getColumnIndexOrThrow(DatabaseConstants.ACTION_PARAMS);
+        ReadingAction ra;
+        if (c.getType(paramsIndex) == Cursor.FIELD_TYPE_BLOB) {
+            ra = Codec.decode(c.getBlob(paramsIndex));
+        } else {
+            // actions queued before the binary codec were frozen as JSON
+            ra = DatabaseConstants.JsonHelper.fromJson(c.getString(paramsIndex), ReadingAction.class);
+        }
         ra.time = time;
         ra.tried = tried;
 		return ra;
 	}
 
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(type);
+        if (storyHash != null) s.append(" story:").append(storyHash);
+        if (feedId != null) s.append(" feed:").append(feedId);
+        if (feedSet != null) s.append(" feedset:").append(feedSet.toCompactSerial());
+        s.append(" tried:").append(tried);
+        return s.toString();
+    }
+
+    /**
+     * A versioned, compact binary freezing of the action-specific fields of a ReadingAction. The
+     * action queue can grow to thousands of entries while offline and is thawed on every sync, so
+     * this avoids a reflective JSON parse per action.  The few rare, structured fields (feed sets
+     * and classifiers) are still nested as JSON.
+     */
+    public static final class Codec {
+
+        private static final int MAGIC = 0xA7;
+        private static final int VERSION = 1;
+
+        // bits of the field presence mask. new fields must take new bits.
+        private static final int F_STORY_HASH = 1;
+        private static final int F_FEED_SET = 1 << 1;
+        private static final int F_OLDER_THAN = 1 << 2;
+        private static final int F_NEWER_THAN = 1 << 3;
+        private static final int F_STORY_ID = 1 << 4;
+        private static final int F_FEED_ID = 1 << 5;
+        private static final int F_SOURCE_USER_ID = 1 << 6;
+        private static final int F_COMMENT_REPLY_TEXT = 1 << 7;
+        private static final int F_COMMENT_USER_ID = 1 << 8;
+        private static final int F_REPLY_ID = 1 << 9;
+        private static final int F_NOTIFY_FILTER = 1 << 10;
+        private static final int F_NOTIFY_TYPES = 1 << 11;
+        private static final int F_USER_TAGS = 1 << 12;
+        private static final int F_CLASSIFIER = 1 << 13;
+        private static final int F_NEW_FEED_NAME = 1 << 14;
+        private static final int F_ACTIVE_FEED_IDS = 1 << 15;
+        private static final int F_MODIFIED_FEED_IDS = 1 << 16;
+
+        private static final ActionType[] TYPES = ActionType.values();
+
+        private Codec() {}
+
+        public static byte[] encode(@NonNull ReadingAction ra) {
+            int mask = 0;
+            if (ra.storyHash != null) mask |= F_STORY_HASH;
+            if (ra.feedSet != null) mask |= F_FEED_SET;
+            if (ra.olderThan != null) mask |= F_OLDER_THAN;
+            if (ra.newerThan != null) mask |= F_NEWER_THAN;
+            if (ra.storyId != null) mask |= F_STORY_ID;
+            if (ra.feedId != null) mask |= F_FEED_ID;
+            if (ra.sourceUserId != null) mask |= F_SOURCE_USER_ID;
+            if (ra.commentReplyText != null) mask |= F_COMMENT_REPLY_TEXT;
+            if (ra.commentUserId != null) mask |= F_COMMENT_USER_ID;
+            if (ra.replyId != null) mask |= F_REPLY_ID;
+            if (ra.notifyFilter != null) mask |= F_NOTIFY_FILTER;
+            if (ra.notifyTypes != null) mask |= F_NOTIFY_TYPES;
+            if (ra.userTags != null) mask |= F_USER_TAGS;
+            if (ra.classifier != null) mask |= F_CLASSIFIER;
+            if (ra.newFeedName != null) mask |= F_NEW_FEED_NAME;
+            if (ra.activeFeedIds != null) mask |= F_ACTIVE_FEED_IDS;
+            if (ra.modifiedFeedIds != null) mask |= F_MODIFIED_FEED_IDS;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeByte(MAGIC);
+                out.writeByte(VERSION);
+                writeVarInt(out, ra.type.ordinal());
+                writeVarInt(out, mask);
+                if (ra.storyHash != null) writeString(out, ra.storyHash);
+                if (ra.feedSet != null) writeString(out, ra.feedSet.toCompactSerial());
+                if (ra.olderThan != null) out.writeLong(ra.olderThan);
+                if (ra.newerThan != null) out.writeLong(ra.newerThan);
+                if (ra.storyId != null) writeString(out, ra.storyId);
+                if (ra.feedId != null) writeString(out, ra.feedId);
+                if (ra.sourceUserId != null) writeString(out, ra.sourceUserId);
+                if (ra.commentReplyText != null) writeString(out, ra.commentReplyText);
+                if (ra.commentUserId != null) writeString(out, ra.commentUserId);
+                if (ra.replyId != null) writeString(out, ra.replyId);
+                if (ra.notifyFilter != null) writeString(out, ra.notifyFilter);
+                if (ra.notifyTypes != null) writeStrings(out, ra.notifyTypes);
+                if (ra.userTags != null) writeStrings(out, ra.userTags);
+                if (ra.classifier != null) writeString(out, DatabaseConstants.JsonHelper.toJson(ra.classifier));
+                if (ra.newFeedName != null) writeString(out, ra.newFeedName);
+                if (ra.activeFeedIds != null) writeStrings(out, ra.activeFeedIds);
+                if (ra.modifiedFeedIds != null) writeStrings(out, ra.modifiedFeedIds);
+                out.flush();
+            } catch (IOException ioe) {
+                // cannot happen when writing to memory
+                throw new IllegalStateException(ioe);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * @throws IllegalArgumentException if the data are not a ReadingAction frozen by a known
+         *         version of this codec.
+         */
+        @NonNull
+        public static ReadingAction decode(@NonNull byte[] data) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            try {
+                if (in.readUnsignedByte() != MAGIC) throw new IllegalArgumentException("not a frozen ReadingAction");
+                int version = in.readUnsignedByte();
+                if (version != VERSION) throw new IllegalArgumentException("unknown ReadingAction version " + version);
+                int typeOrdinal = readVarInt(in);
+                if (typeOrdinal < 0 || typeOrdinal >= TYPES.length) throw new IllegalArgumentException("unknown ReadingAction type " + typeOrdinal);
+                ReadingAction ra = new ReadingAction(0L, 0);
+                ra.type = TYPES[typeOrdinal];
+                int mask = readVarInt(in);
+                if ((mask & F_STORY_HASH) != 0) ra.storyHash = readString(in);
+                if ((mask & F_FEED_SET) != 0) ra.feedSet = FeedSet.fromCompactSerial(readString(in));
+                if ((mask & F_OLDER_THAN) != 0) ra.olderThan = in.readLong();
+                if ((mask & F_NEWER_THAN) != 0) ra.newerThan = in.readLong();
+                if ((mask & F_STORY_ID) != 0) ra.storyId = readString(in);
+                if ((mask & F_FEED_ID) != 0) ra.feedId = readString(in);
+                if ((mask & F_SOURCE_USER_ID) != 0) ra.sourceUserId = readString(in);
+                if ((mask & F_COMMENT_REPLY_TEXT) != 0) ra.commentReplyText = readString(in);
+                if ((mask & F_COMMENT_USER_ID) != 0) ra.commentUserId = readString(in);
+                if ((mask & F_REPLY_ID) != 0) ra.replyId = readString(in);
+                if ((mask & F_NOTIFY_FILTER) != 0) ra.notifyFilter = readString(in);
+                if ((mask & F_NOTIFY_TYPES) != 0) ra.notifyTypes = readStrings(in, new ArrayList<String>());
+                if ((mask & F_USER_TAGS) != 0) ra.userTags = readStrings(in, new ArrayList<String>());
+                if ((mask & F_CLASSIFIER) != 0) ra.classifier = DatabaseConstants.JsonHelper.fromJson(readString(in), Classifier.class);
+                if ((mask & F_NEW_FEED_NAME) != 0) ra.newFeedName = readString(in);
+                if ((mask & F_ACTIVE_FEED_IDS) != 0) ra.activeFeedIds = readStrings(in, new HashSet<String>());
+                if ((mask & F_MODIFIED_FEED_IDS) != 0) ra.modifiedFeedIds = readStrings(in, new HashSet<String>());
+                return ra;
+            } catch (IOException ioe) {
+                throw new IllegalArgumentException("truncated ReadingAction", ioe);
+            }
+        }
+
+        private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private static int readVarInt(DataInputStream in) throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("malformed varint");
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, utf8.length);
+            out.write(utf8);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            int length = readVarInt(in);
+            if (length < 0 || length > in.available()) throw new IllegalArgumentException("malformed string length " + length);
+            byte[] utf8 = new byte[length];
+            in.readFully(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+            writeVarInt(out, strings.size());
+            for (String s : strings) writeString(out, s);
+        }
+
+        private static <T extends Collection<String>> T readStrings(DataInputStream in, T strings) throws IOException {
+            int count = readVarInt(in);
+            if (count < 0 || count > in.available()) throw new IllegalArgumentException("malformed list length " + count);
+            for (int i = 0; i < count; i++) strings.add(readString(in));
+            return strings;
+        }
+    }
+
     /**
      * Execute this action remotely via the API.
      */
@@ -356,9 +552,7 @@ public class ReadingAction implements Serializable {
 
             case UPDATE_INTEL:
                 result = apiManager.updateFeedIntel(feedId, classifier);
-                // also reset stories for the calling view so they get new scores
-                NBSyncService.resetFetchState(feedSet);
-                // and recount unreads to get new focus counts
+                // stories were re-scored locally, but recount unreads to get the server's focus counts
                 NBSyncService.addRecountCandidates(feedSet);
                 break;
 
@@ -493,13 +687,14 @@ public class ReadingAction implements Serializable {
                 break;
 
             case UPDATE_INTEL:
-                // TODO: because intel is always calculated on the server, we can change the disposition of
-                // individual tags and authors etc in the UI, but story scores won't be updated until a refresh.
-                // for best offline operation, we could try to duplicate that business logic locally
                 dbHelper.clearClassifiersForFeed(feedId);
                 classifier.feedId = feedId; 
                 dbHelper.insertClassifier(classifier);
+                // re-score stored stories locally so training shows up without waiting on a refresh
+                if (feedId != null) dbHelper.rescoreFeedStories(feedId, classifier);
                 impact |= UPDATE_INTEL;
+                impact |= UPDATE_STORY;
+                impact |= UPDATE_METADATA;
                 break;
 
             case RENAME_FEED:
@@ -0,0 +1,90 @@
+package com.newsblur.util;
+
+/**
+ * Follows how fast a list is being scrolled, so that thumbnails for rows that only fly past
+ * during a fling can be skipped rather than decoded for nobody, and so that loading can look
+ * ahead in the direction the list is moving once it slows down.
+ */
+public class ScrollSpeedTracker {
+
+    /** A gap between scroll callbacks longer than this starts a fresh speed estimate. */
+    static final long MAX_SAMPLE_GAP_MILLIS = 100L;
+
+    private final float fastPxPerSec;
+
+    private boolean scrolling = false;
+    private boolean fast = false;
+    private float pxPerSec = 0f;
+    private long lastSampleMillis = -1L;
+    private int direction = 1;
+
+    /**
+     * @param fastPxPerSec the speed above which a scroll counts as too fast to load for.
+     */
+    public ScrollSpeedTracker(float fastPxPerSec) {
+        this.fastPxPerSec = fastPxPerSec;
+    }
+
+    /**
+     * Note that the list has moved by the given distance.
+     *
+     * @return true if the scroll just slowed from too fast to load for to slow enough.
+     */
+    public boolean onScrolled(int dy, long nowMillis) {
+        if (dy == 0) return false;
+        direction = (dy > 0) ? 1 : -1;
+        if (!scrolling) return false;
+        long gap = nowMillis - lastSampleMillis;
+        lastSampleMillis = nowMillis;
+        if ((gap <= 0L) || (gap > MAX_SAMPLE_GAP_MILLIS)) return false;
+        float sample = Math.abs(dy) * 1000f / gap;
+        // halve the weight of each older sample, which smooths out the jitter of frame timing
+        // but still follows a decelerating fling within a few frames
+        pxPerSec = (pxPerSec == 0f) ? sample : (pxPerSec + sample) / 2f;
+        boolean wasFast = fast;
+        fast = pxPerSec > fastPxPerSec;
+        return wasFast && !fast;
+    }
+
+    /**
+     * Note that the list has started or stopped moving.
+     */
+    public void onScrollStateChanged(boolean idle, long nowMillis) {
+        if (idle) {
+            scrolling = false;
+            fast = false;
+            pxPerSec = 0f;
+        } else if (!scrolling) {
+            scrolling = true;
+            lastSampleMillis = nowMillis;
+        }
+    }
+
+    /**
+     * Whether the list is moving too fast for rows bound now to still be on screen by the
+     * time their images would be decoded.
+     */
+    public boolean isTooFast() {
+        return fast;
+    }
+
+    /**
+     * 1 if the list last moved towards later rows, -1 if towards earlier ones.
+     */
+    public int getDirection() {
+        return direction;
+    }
+
+    /**
+     * The positions just past the visible ones in the given direction, as a {first, last} pair,
+     * which is empty (last < first) if there is nothing that way.
+     */
+    public static int[] aheadRange(int firstVisible, int lastVisible, int direction, int count, int itemCount) {
+        if ((firstVisible < 0) || (lastVisible < firstVisible) || (count < 1)) return new int[]{0, -1};
+        if (direction >= 0) {
+            return new int[]{lastVisible + 1, Math.min(itemCount - 1, lastVisible + count)};
+        } else {
+            return new int[]{Math.max(0, firstVisible - count), firstVisible - 1};
+        }
+    }
+}
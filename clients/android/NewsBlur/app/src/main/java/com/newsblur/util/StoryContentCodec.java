@@ -0,0 +1,150 @@
+package com.newsblur.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Packs story HTML for storage in the DB, where the full content and original text of a few
+ * thousand offline stories would otherwise run to hundreds of MB.  Values are deflated against
+ * a preset dictionary of markup that feeds commonly send, which lets even modest stories
+ * compress well, and are only inflated again when a story is actually opened.
+ *
+ * Each packed value starts with a format byte, so stored values stay readable if the
+ * dictionary is ever replaced: a new dictionary must get a new format, never edit this one.
+ */
+public class StoryContentCodec {
+
+    /** The rest of the value is the plain UTF-8 bytes of the text. */
+    static final byte FORMAT_PLAIN = 0;
+    /** The rest of the value is the UTF-8 bytes of the text, deflated against {@link #DICTIONARY_1}. */
+    static final byte FORMAT_DEFLATE_1 = 1;
+
+    /** Below this many bytes the deflate overhead is rarely won back, so values are kept plain. */
+    static final int MIN_DEFLATE_BYTES = 256;
+
+    /**
+     * Fragments of the markup that turns up over and over in feed HTML.  Deflate can refer back
+     * up to 32 KB, and cheapest to the most recent bytes, so the most common fragments go last.
+     */
+    private static final byte[] DICTIONARY_1 = (
+        "<table><tbody><tr><td></td></tr></tbody></table><iframe width=\"560\" height=\"315\" " +
+        "frameborder=\"0\" allowfullscreen></iframe><video controls><source type=\"video/mp4\" " +
+        "</video><audio controls></audio><figure class=\"wp-block-image size-large\"><figcaption>" +
+        "</figcaption></figure><blockquote class=\"twitter-tweet\"><p lang=\"en\" dir=\"ltr\">" +
+        "</blockquote><pre><code></code></pre><h1></h1><h2></h2><h3></h3><h4></h4><sup></sup>" +
+        "<small></small><span style=\"font-weight: 400;\"></span><div class=\"feedflare\">" +
+        "<img src=\"http://feeds.feedburner.com/~r/\" height=\"1\" width=\"1\" alt=\"\"/>" +
+        "<a href=\"https://www.youtube.com/watch?v=\"><img src=\"https://i.ytimg.com/vi/" +
+        "<ol><li></li></ol><ul><li></li></ul><hr /><br /><br><strong></strong><em></em><b></b><i></i>" +
+        " srcset=\"\" sizes=\"(max-width: 1024px) 100vw, 1024px\" loading=\"lazy\" decoding=\"async\" " +
+        "class=\"aligncenter size-full wp-image-\" class=\"\" style=\"\" title=\"\" " +
+        "<img src=\"https://\" alt=\"\" width=\"\" height=\"\" /></a></p>\n<p><a href=\"https://\" " +
+        "target=\"_blank\" rel=\"noopener noreferrer\">.jpg\" .png\" .html\" " +
+        "</div><div class=\"\"></span><span class=\"\"></a> <a href=\"https://www.</a>, and the " +
+        "of the to the in the for the on the with the that is this was from and </p>\n<p>"
+    ).getBytes(StandardCharsets.US_ASCII);
+
+    private StoryContentCodec() {} // util class - no instances
+
+    /**
+     * Pack a story content or text value for storage.  Null stays null.
+     */
+    public static byte[] encode(String text) {
+        if (text == null) return null;
+        byte[] plain = text.getBytes(StandardCharsets.UTF_8);
+        if (plain.length >= MIN_DEFLATE_BYTES) {
+            byte[] deflated = deflate(plain);
+            if (deflated.length < plain.length) return deflated;
+        }
+        byte[] result = new byte[plain.length + 1];
+        result[0] = FORMAT_PLAIN;
+        System.arraycopy(plain, 0, result, 1, plain.length);
+        return result;
+    }
+
+    /**
+     * Unpack a value made by {@link #encode(String)}.  Null stays null.
+     *
+     * @throws IllegalArgumentException if the value is not in a known format or is corrupt.
+     */
+    public static String decode(byte[] value) {
+        if (value == null) return null;
+        if (value.length < 1) throw new IllegalArgumentException("empty story content value");
+        switch (value[0]) {
+        case FORMAT_PLAIN:
+            return new String(value, 1, value.length - 1, StandardCharsets.UTF_8);
+        case FORMAT_DEFLATE_1:
+            return new String(inflate(value), StandardCharsets.UTF_8);
+        default:
+            throw new IllegalArgumentException("unknown story content format " + value[0]);
+        }
+    }
+
+    private static byte[] deflate(byte[] plain) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY_1);
+            deflater.setInput(plain);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 3 + 16);
+            out.write(FORMAT_DEFLATE_1);
+            writeLength(out, plain.length);
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] value) {
+        int[] pos = {1};
+        int length = readLength(value, pos);
+        Inflater inflater = new Inflater(true);
+        try {
+            // raw streams take the dictionary up front rather than asking for it
+            inflater.setDictionary(DICTIONARY_1);
+            inflater.setInput(value, pos[0], value.length - pos[0]);
+            byte[] plain = new byte[length];
+            int done = 0;
+            while (done < length) {
+                int n = inflater.inflate(plain, done, length - done);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                done += n;
+            }
+            if (done != length) throw new IllegalArgumentException("truncated story content value");
+            return plain;
+        } catch (DataFormatException dfe) {
+            throw new IllegalArgumentException("corrupt story content value", dfe);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Write the plain length as a varint, so inflating can size its buffer exactly. */
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        while ((length & ~0x7F) != 0) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+    }
+
+    private static int readLength(byte[] value, int[] pos) {
+        int length = 0;
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= value.length || shift > 28) throw new IllegalArgumentException("corrupt story content length");
+            int b = value[pos[0]++] & 0xFF;
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return length;
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.newsblur.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A forward pass over the HTML of a story that gathers everything ingestion needs from it: the
+ * content with insecure image URLs swapped for their secure versions, a short plain-text summary,
+ * the images it shows and any YouTube video it embeds or links.  This is not a validating parser;
+ * it only needs to be as forgiving as the markup feeds actually send.
+ */
+public class StoryHtmlScanner {
+
+    /** Length of the plain-text summary shown in story lists. */
+    public static final int SHORT_CONTENT_LENGTH = 400;
+
+    private static final String YT_THUMB_PRE = "https://img.youtube.com/vi/";
+    private static final String YT_THUMB_POST = "/0.jpg";
+    /** Places a YouTube video ID can be found in a URL, most telling first. */
+    private static final String[] YT_ID_PREFIXES = {"youtube.com/embed/", "youtube.com/v/", "ytimg.com/vi/", "youtube.com/watch?v="};
+
+    private static final String HTTP = "http://";
+
+    public static class Result {
+        /** The content, with any URL rewrites applied. */
+        public final String content;
+        /** Up to {@link #SHORT_CONTENT_LENGTH} chars of the text of the content, whitespace collapsed. */
+        public final String shortContent;
+        /** Sources of the images in the content, in order and after rewriting. */
+        public final List<String> imageUrls;
+        /** The ID of the YouTube video the content embeds or links, or null. */
+        public final String youtubeId;
+
+        private Result(String content, String shortContent, List<String> imageUrls, String youtubeId) {
+            this.content = content;
+            this.shortContent = shortContent;
+            this.imageUrls = imageUrls;
+            this.youtubeId = youtubeId;
+        }
+
+        /**
+         * Pick a thumbnail for the story: a still of its YouTube video if it has one, else the
+         * first of the given images, preferring a secure copy of it if one is known.
+         */
+        public String pickThumbnail(String[] imageUrls, Map<String,String> secureThumbnails) {
+            if (youtubeId != null) return YT_THUMB_PRE + youtubeId + YT_THUMB_POST;
+            if ((imageUrls == null) || (imageUrls.length == 0)) return null;
+            String thumbnail = imageUrls[0];
+            if (thumbnail.startsWith(HTTP) && (secureThumbnails != null) && secureThumbnails.containsKey(thumbnail)) {
+                thumbnail = secureThumbnails.get(thumbnail);
+            }
+            return thumbnail;
+        }
+    }
+
+    private final String html;
+    private final int length;
+
+    private final StringBuilder text = new StringBuilder(SHORT_CONTENT_LENGTH);
+    private boolean lastWasSpace = true;
+    private final Set<String> imageUrls = new LinkedHashSet<String>();
+
+    private StoryHtmlScanner(String html) {
+        this.html = html;
+        this.length = html.length();
+    }
+
+    /**
+     * Scan some HTML.
+     *
+     * @param urlRewrites URLs starting with http:// to be replaced wherever they appear, by
+     *                    their replacements.  Where several match at once, the longest wins.
+     */
+    public static Result scan(String html, Map<String,String> urlRewrites) {
+        if (html == null) return new Result(null, "", Collections.<String>emptyList(), null);
+        return new StoryHtmlScanner(rewriteUrls(html, urlRewrites)).run();
+    }
+
+    public static Result scan(String html) {
+        return scan(html, Collections.<String,String>emptyMap());
+    }
+
+    private Result run() {
+        int i = 0;
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                i = tag(i);
+            } else if (c == '&') {
+                i = entity(i);
+            } else {
+                appendText(c);
+                i++;
+            }
+        }
+
+        int textLength = text.length();
+        if ((textLength > 0) && (text.charAt(textLength - 1) == ' ')) text.setLength(textLength - 1);
+        return new Result(html, text.toString(), new ArrayList<String>(imageUrls), findYoutubeId(html));
+    }
+
+    /**
+     * Replace every occurrence of a URL in the given rewrites, wherever it appears in the HTML
+     * and whatever surrounds it.
+     */
+    private static String rewriteUrls(String html, Map<String,String> urlRewrites) {
+        if (urlRewrites.isEmpty()) return html;
+        // the lengths of the URLs to be rewritten, longest first, so each place that might start
+        // one takes only a lookup per distinct length
+        TreeSet<Integer> urlLengths = new TreeSet<Integer>(Collections.<Integer>reverseOrder());
+        for (String url : urlRewrites.keySet()) urlLengths.add(url.length());
+
+        StringBuilder rewritten = null;
+        int copiedTo = 0;
+        int i = html.indexOf(HTTP);
+        while (i >= 0) {
+            int end = i + HTTP.length();
+            for (int urlLength : urlLengths) {
+                if (i + urlLength > html.length()) continue;
+                String replacement = urlRewrites.get(html.substring(i, i + urlLength));
+                if (replacement == null) continue;
+                if (rewritten == null) rewritten = new StringBuilder(html.length() + 64);
+                rewritten.append(html, copiedTo, i).append(replacement);
+                copiedTo = end = i + urlLength;
+                break;
+            }
+            i = html.indexOf(HTTP, end);
+        }
+        if (rewritten == null) return html;
+        rewritten.append(html, copiedTo, html.length());
+        return rewritten.toString();
+    }
+
+    /**
+     * Consume the tag, comment or stray '<' starting at the given index.
+     *
+     * @return the index just past it.
+     */
+    private int tag(int start) {
+        if (html.startsWith("<!--", start)) {
+            int end = html.indexOf("-->", start + 4);
+            return (end < 0) ? length : end + 3;
+        }
+        int i = start + 1;
+        boolean closing = (i < length) && (html.charAt(i) == '/');
+        if (closing) i++;
+        int nameStart = i;
+        while ((i < length) && Character.isLetterOrDigit(html.charAt(i))) i++;
+        if (i == nameStart) {
+            if ((i < length) && ((html.charAt(i) == '!') || (html.charAt(i) == '?'))) {
+                // doctypes and processing instructions
+                int end = html.indexOf('>', i);
+                return (end < 0) ? length : end + 1;
+            }
+            // not a tag at all, just a '<' in the text
+            appendText('<');
+            return start + 1;
+        }
+        String name = html.substring(nameStart, i).toLowerCase(Locale.US);
+
+        // attributes
+        while (i < length) {
+            char c = html.charAt(i);
+            if (c == '>') break;
+            if (Character.isWhitespace(c) || (c == '/')) {
+                i++;
+                continue;
+            }
+            int attrStart = i;
+            while ((i < length) && !isAttrNameEnd(html.charAt(i))) i++;
+            int attrEnd = i;
+            while ((i < length) && Character.isWhitespace(html.charAt(i))) i++;
+            if ((i >= length) || (html.charAt(i) != '=')) continue;
+            i++;
+            while ((i < length) && Character.isWhitespace(html.charAt(i))) i++;
+            if (i >= length) break;
+            int valueStart;
+            int valueEnd;
+            char quote = html.charAt(i);
+            if ((quote == '"') || (quote == '\'')) {
+                valueStart = i + 1;
+                valueEnd = html.indexOf(quote, valueStart);
+                if (valueEnd < 0) valueEnd = length;
+                i = valueEnd + 1;
+            } else {
+                valueStart = i;
+                while ((i < length) && !Character.isWhitespace(html.charAt(i)) && (html.charAt(i) != '>')) i++;
+                valueEnd = i;
+            }
+            if (!closing && name.equals("img") && isAttr("src", attrStart, attrEnd) && (valueEnd > valueStart)) {
+                imageUrls.add(html.substring(valueStart, valueEnd));
+            }
+        }
+        int end = Math.min(i + 1, length);
+
+        if (closing) {
+            if (isBlock(name)) appendSpace();
+            return end;
+        }
+        if (name.equals("script") || name.equals("style")) {
+            // the contents of these are not text
+            int close = indexOfIgnoreCase("</" + name, end);
+            if (close < 0) return length;
+            int closeEnd = html.indexOf('>', close);
+            return (closeEnd < 0) ? length : closeEnd + 1;
+        }
+        if (isBlock(name) || name.equals("img")) appendSpace();
+        return end;
+    }
+
+    private boolean isAttr(String name, int nameStart, int nameEnd) {
+        return (nameEnd - nameStart == name.length()) && html.regionMatches(true, nameStart, name, 0, name.length());
+    }
+
+    /**
+     * Decode the character reference starting at the given index into the text.
+     *
+     * @return the index just past it.
+     */
+    private int entity(int start) {
+        int end = start + 1;
+        int limit = Math.min(length, start + HtmlEntities.MAX_NAME_LENGTH + 2);
+        while ((end < limit) && (html.charAt(end) != ';')) end++;
+        if ((end >= limit) || (end == start + 1)) {
+            appendText('&');
+            return start + 1;
+        }
+        int decoded = -1;
+        if ((end > start + 2) && (html.charAt(start + 1) == '#')) {
+            try {
+                if ((html.charAt(start + 2) == 'x') || (html.charAt(start + 2) == 'X')) {
+                    decoded = Integer.parseInt(html.substring(start + 3, end), 16);
+                } else {
+                    decoded = Integer.parseInt(html.substring(start + 2, end));
+                }
+            } catch (NumberFormatException nfe) {
+                decoded = -1;
+            }
+        } else {
+            String named = HtmlEntities.decode(html.substring(start + 1, end));
+            if (named == null) {
+                appendText('&');
+                return start + 1;
+            }
+            for (int i = 0; i < named.length(); i++) appendText(named.charAt(i));
+            return end + 1;
+        }
+        if ((decoded < 0) || !Character.isValidCodePoint(decoded)) {
+            appendText('&');
+            return start + 1;
+        }
+        if (Character.isBmpCodePoint(decoded)) {
+            appendText((char) decoded);
+        } else {
+            appendText(Character.highSurrogate(decoded));
+            appendText(Character.lowSurrogate(decoded));
+        }
+        return end + 1;
+    }
+
+    private void appendText(char c) {
+        if (text.length() >= SHORT_CONTENT_LENGTH) return;
+        if (Character.isWhitespace(c) || Character.isSpaceChar(c) || (c == '\uFFFC')) {
+            appendSpace();
+        } else {
+            text.append(c);
+            lastWasSpace = false;
+        }
+    }
+
+    private void appendSpace() {
+        if (lastWasSpace || (text.length() >= SHORT_CONTENT_LENGTH)) return;
+        text.append(' ');
+        lastWasSpace = true;
+    }
+
+    private int indexOfIgnoreCase(String s, int from) {
+        for (int i = from; i <= length - s.length(); i++) {
+            if (html.regionMatches(true, i, s, 0, s.length())) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the YouTube video the HTML embeds or links, wherever its URL appears: not only in a src
+     * or href, but also in such places as the value of an {@code <object>}'s {@code <param>}.
+     * Every form of URL is looked for across the whole of the HTML before any less telling one.
+     */
+    private static String findYoutubeId(String html) {
+        String[] ids = new String[YT_ID_PREFIXES.length];
+        int length = html.length();
+        for (int i = 0; i < length; i++) {
+            // every prefix starts with a 'y', so there is only something to check at those
+            char c = html.charAt(i);
+            if ((c != 'y') && (c != 'Y')) continue;
+            for (int p = 0; p < YT_ID_PREFIXES.length; p++) {
+                if ((ids[p] != null) || !html.regionMatches(true, i, YT_ID_PREFIXES[p], 0, YT_ID_PREFIXES[p].length())) continue;
+                int start = i + YT_ID_PREFIXES[p].length();
+                int end = start;
+                while ((end < length) && isYoutubeIdChar(html.charAt(end))) end++;
+                if (end > start) ids[p] = html.substring(start, end);
+            }
+            // nothing is more telling than an embed
+            if (ids[0] != null) break;
+        }
+        for (String id : ids) {
+            if (id != null) return id;
+        }
+        return null;
+    }
+
+    private static boolean isYoutubeIdChar(char c) {
+        return ((c >= 'A') && (c <= 'Z')) || ((c >= 'a') && (c <= 'z')) || ((c >= '0') && (c <= '9')) || (c == '_') || (c == '-');
+    }
+
+    private static boolean isAttrNameEnd(char c) {
+        return (c == '=') || (c == '>') || (c == '/') || Character.isWhitespace(c);
+    }
+
+    private static boolean isBlock(String name) {
+        switch (name) {
+            case "br": case "p": case "div": case "li": case "ul": case "ol": case "tr": case "td": case "th":
+            case "h1": case "h2": case "h3": case "h4": case "h5": case "h6":
+            case "blockquote": case "pre": case "figure": case "figcaption": case "hr": case "table":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
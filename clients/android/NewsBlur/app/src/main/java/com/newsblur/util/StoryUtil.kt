@@ -11,6 +11,8 @@ object StoryUtil {
     @JvmStatic
     fun truncateContent(value: String): String {
         val maxBytes = 1024 * 300 // 300 kbs
+        // no char takes more than three bytes in UTF-8, so most stories can skip the encoding
+        if (value.length * 3 <= maxBytes) return value
         val bytes = value.encodeToByteArray()
         if (bytes.size <= maxBytes) return value
         val byteBuffer = ByteBuffer.wrap(bytes, 0, maxBytes)
@@ -38,4 +40,61 @@ object StoryUtil {
         if (tokens.isNullOrEmpty()) return ""
         return TextUtils.join(delimiter, tokens)
     }
+
+    /**
+     * The inverse of [nullSafeJoin] for the comma-joined story columns, splitting the same way
+     * TextUtils.split does but without needing the framework.
+     */
+    @JvmStatic
+    fun splitJoined(joined: String?): Array<String> {
+        if (joined.isNullOrEmpty()) return emptyArray()
+        return joined.split(',').toTypedArray()
+    }
+
+    /**
+     * The in-memory equivalent of the sort order BlurDatabaseHelper applies to session stories.
+     */
+    @JvmStatic
+    fun getSessionStoryComparator(fs: FeedSet, order: StoryOrder): Comparator<Story> = when {
+        fs.isAllRead -> compareByDescending<Story> { it.lastReadTimestamp }.thenByDescending { it.storyHash }
+        fs.isGlobalShared -> compareByDescending<Story> { it.sharedTimestamp }.thenByDescending { it.storyHash }
+        fs.isAllSaved && order == StoryOrder.NEWEST -> compareByDescending<Story> { it.starredTimestamp }.thenByDescending { it.storyHash }
+        fs.isAllSaved -> compareBy<Story> { it.starredTimestamp }.thenBy { it.storyHash }
+        order == StoryOrder.NEWEST -> compareByDescending<Story> { it.timestamp }.thenByDescending { it.storyHash }
+        else -> compareBy<Story> { it.timestamp }.thenBy { it.storyHash }
+    }
+
+    /**
+     * Apply a set of changed and removed stories to a sorted story list, returning a new list.
+     * Changed stories replace their old copies in place unless their sort key moved, and stories
+     * not yet in the list are inserted at their sorted position.
+     */
+    @JvmStatic
+    fun applyStoryDelta(
+            current: List<Story>,
+            changed: List<Story>,
+            removed: Set<String>,
+            comparator: Comparator<Story>,
+    ): MutableList<Story> {
+        val changedByHash = HashMap<String, Story>(changed.size)
+        for (story in changed) changedByHash[story.storyHash] = story
+        val result = ArrayList<Story>(current.size + changed.size)
+        val moved = ArrayList<Story>()
+        for (story in current) {
+            if (removed.contains(story.storyHash)) continue
+            val replacement = changedByHash.remove(story.storyHash)
+            when {
+                replacement == null -> result.add(story)
+                comparator.compare(story, replacement) == 0 -> result.add(replacement)
+                else -> moved.add(replacement)
+            }
+        }
+        moved.addAll(changedByHash.values)
+        for (story in moved) {
+            if (removed.contains(story.storyHash)) continue
+            val index = result.binarySearch(story, comparator)
+            result.add(if (index < 0) -(index + 1) else index, story)
+        }
+        return result
+    }
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package com.newsblur.util
+
+import com.newsblur.domain.Classifier
+
+/**
+ * Finds every classifier title rule occurring in a story title in a single pass, using an
+ * Aho-Corasick automaton built once from the rules. Matching ignores case, as the server's
+ * title scoring does.
+ */
+class TitleMatcher(rules: Map<String, Int>) {
+
+    fun interface MatchListener {
+        /**
+         * Called for each occurrence of a rule, with the range it covers in the text.
+         */
+        fun onMatch(start: Int, end: Int, rule: Int)
+    }
+
+    private val keys: Array<String>
+    private val scores: IntArray
+
+    // the automaton: per-node transitions, failure links, the rules ending at each node, and a
+    // link to the nearest node along the failure chain that has rules ending at it
+    private val transitions = ArrayList<HashMap<Char, Int>>()
+    private val outputs = ArrayList<IntArray>()
+    private val failures: IntArray
+    private val outputLinks: IntArray
+
+    init {
+        val entries = rules.entries.filter { it.key.isNotEmpty() }
+        keys = Array(entries.size) { entries[it].key }
+        scores = IntArray(entries.size) { entries[it].value }
+
+        addNode()
+        for (rule in keys.indices) {
+            var node = 0
+            for (ch in keys[rule]) {
+                val c = Character.toLowerCase(ch)
+                node = transitions[node][c] ?: addNode().also { transitions[node][c] = it }
+            }
+            outputs[node] = outputs[node] + rule
+        }
+
+        failures = IntArray(transitions.size)
+        outputLinks = IntArray(transitions.size) { -1 }
+        val queue = ArrayDeque<Int>()
+        for (child in transitions[0].values) queue.addLast(child)
+        while (queue.isNotEmpty()) {
+            val node = queue.removeFirst()
+            for ((c, child) in transitions[node]) {
+                var fallback = failures[node]
+                while (fallback != 0 && !transitions[fallback].containsKey(c)) fallback = failures[fallback]
+                val target = transitions[fallback][c]
+                failures[child] = if (target != null && target != child) target else 0
+                val failure = failures[child]
+                outputLinks[child] = if (outputs[failure].isNotEmpty()) failure else outputLinks[failure]
+                queue.addLast(child)
+            }
+        }
+    }
+
+    private fun addNode(): Int {
+        transitions.add(HashMap(4))
+        outputs.add(NO_RULES)
+        return transitions.size - 1
+    }
+
+    val isEmpty: Boolean
+        get() = keys.isEmpty()
+
+    fun ruleKey(rule: Int): String = keys[rule]
+
+    fun ruleScore(rule: Int): Int = scores[rule]
+
+    fun findAll(text: CharSequence, listener: MatchListener) {
+        if (keys.isEmpty()) return
+        var node = 0
+        for (i in text.indices) {
+            val c = Character.toLowerCase(text[i])
+            while (node != 0 && !transitions[node].containsKey(c)) node = failures[node]
+            node = transitions[node][c] ?: 0
+            var hit = if (outputs[node].isNotEmpty()) node else outputLinks[node]
+            while (hit != -1) {
+                for (rule in outputs[hit]) listener.onMatch(i + 1 - keys[rule].length, i + 1, rule)
+                hit = outputLinks[hit]
+            }
+        }
+    }
+
+    /**
+     * The keys of every rule found in the text, whatever their disposition.
+     */
+    fun matchingKeys(text: CharSequence): Set<String> {
+        val found = LinkedHashSet<String>()
+        findAll(text) { _, _, rule -> found.add(keys[rule]) }
+        return found
+    }
+
+    /**
+     * Score a title the way the server does: any liked rule found wins, else any disliked.
+     */
+    fun score(text: CharSequence): Int {
+        var liked = false
+        var disliked = false
+        findAll(text) { _, _, rule ->
+            when (scores[rule]) {
+                Classifier.LIKE -> liked = true
+                Classifier.DISLIKE -> disliked = true
+            }
+        }
+        return when {
+            liked -> Classifier.LIKE
+            disliked -> Classifier.DISLIKE
+            else -> 0
+        }
+    }
+
+    private companion object {
+        val NO_RULES = IntArray(0)
+    }
+}
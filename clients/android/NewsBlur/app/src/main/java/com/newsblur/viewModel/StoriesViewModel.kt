@@ -8,14 +8,42 @@ import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import com.newsblur.database.BlurDatabaseHelper
+import com.newsblur.domain.Story
 import com.newsblur.util.CursorFilters
 import com.newsblur.util.FeedSet
 import com.newsblur.util.Log
 import dagger.hilt.android.lifecycle.HiltViewModel
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import javax.inject.Inject
 
+/**
+ * Stories that changed since the last cursor or delta was delivered. [changed] holds fresh
+ * copies of new and updated stories, [removed] the hashes of stories no longer in the session.
+ */
+class StoryListDelta(
+        @JvmField val changed: List<Story>,
+        @JvmField val removed: Set<String>,
+) {
+
+    /**
+     * The changes of this delta followed by those of a newer one, as a single delta.
+     */
+    fun then(newer: StoryListDelta): StoryListDelta {
+        val merged = LinkedHashMap<String, Story>()
+        for (story in changed) {
+            if (!newer.removed.contains(story.storyHash)) merged[story.storyHash] = story
+        }
+        for (story in newer.changed) merged[story.storyHash] = story
+        val mergedRemoved = HashSet<String>(removed)
+        mergedRemoved.removeAll(merged.keys)
+        mergedRemoved.addAll(newer.removed)
+        return StoryListDelta(ArrayList(merged.values), mergedRemoved)
+    }
+}
+
 @HiltViewModel
 class StoriesViewModel
 @Inject constructor(private val dbHelper: BlurDatabaseHelper): ViewModel() {
@@ -23,12 +51,25 @@ class StoriesViewModel
     private val cancellationSignal = CancellationSignal()
     private val _activeStoriesLiveData = MutableLiveData<Cursor>()
     val activeStoriesLiveData: LiveData<Cursor> = _activeStoriesLiveData
+    private val _storyDeltaLiveData = MutableLiveData<StoryListDelta?>()
+    val storyDeltaLiveData: LiveData<StoryListDelta?> = _storyDeltaLiveData
+
+    // serialises loads so that change versions are consumed in order
+    private val loadMutex = Mutex()
+
+    /** the story change version reflected by the last cursor or delta delivered */
+    private var storyChangeVersion = 0L
+
+    // every delta posted since the list last took one, merged, since posting a new value
+    // replaces any the main thread hasn't seen yet
+    private val deltaLock = Any()
+    private var pendingDelta: StoryListDelta? = null
 
     fun getActiveStories(fs: FeedSet, cursorFilters: CursorFilters) {
         viewModelScope.launch(Dispatchers.IO) {
             try {
-                dbHelper.getActiveStoriesCursor(fs, cursorFilters, cancellationSignal).let {
-                    _activeStoriesLiveData.postValue(it)
+                loadMutex.withLock {
+                    loadActiveStories(fs, cursorFilters)
                 }
             } catch (e: OperationCanceledException) {
                 Log.e(this.javaClass.name, "Caught ${e.javaClass.name} in getActiveStories.")
@@ -36,8 +77,93 @@ class StoriesViewModel
         }
     }
 
+    /**
+     * Bring the story list up to date with any DB writes since it was last loaded. Where the
+     * writes can be described per story, only those stories are queried and delivered as a
+     * [StoryListDelta]; otherwise the whole list is requeried.
+     */
+    fun updateActiveStories(fs: FeedSet, cursorFilters: CursorFilters) {
+        viewModelScope.launch(Dispatchers.IO) {
+            try {
+                loadMutex.withLock {
+                    val changes = dbHelper.getStoryChangesSince(storyChangeVersion)
+                    val changedHashes = LinkedHashSet<String>(changes.inserted)
+                    changedHashes.addAll(changes.updated)
+                    if (changes.isFull || changedHashes.size + changes.removed.size > MAX_DELTA_STORIES) {
+                        loadActiveStories(fs, cursorFilters)
+                    } else if (!changes.isEmpty()) {
+                        loadStoryDelta(changedHashes, changes.removed)
+                        storyChangeVersion = changes.version
+                    }
+                }
+            } catch (e: OperationCanceledException) {
+                Log.e(this.javaClass.name, "Caught ${e.javaClass.name} in updateActiveStories.")
+            }
+        }
+    }
+
+    private fun loadActiveStories(fs: FeedSet, cursorFilters: CursorFilters) {
+        // note the version before querying, so that writes racing the query are picked up next time
+        val version = dbHelper.storyChangeVersion
+        dbHelper.getActiveStoriesCursor(fs, cursorFilters, cancellationSignal).let {
+            storyChangeVersion = version
+            // any delta still pending is older than this cursor
+            synchronized(deltaLock) {
+                pendingDelta = null
+                _storyDeltaLiveData.postValue(null)
+            }
+            _activeStoriesLiveData.postValue(it)
+        }
+    }
+
+    private fun loadStoryDelta(changedHashes: Set<String>, removedHashes: Set<String>) {
+        val changed = ArrayList<Story>(changedHashes.size)
+        val removed = HashSet<String>(removedHashes)
+        if (changedHashes.isNotEmpty()) {
+            val cursor = dbHelper.getActiveStoriesCursor(changedHashes, cancellationSignal)
+            try {
+                val mapper = Story.CursorMapper(cursor, true)
+                while (cursor.moveToNext()) {
+                    val story = mapper.fromCursor(cursor)
+                    mapper.bindExternValues(story, cursor)
+                    changed.add(story)
+                }
+            } finally {
+                cursor.close()
+            }
+            // changed stories that didn't come back have left the session
+            val found = HashSet<String>(changed.size)
+            for (story in changed) found.add(story.storyHash)
+            for (hash in changedHashes) {
+                if (!found.contains(hash)) removed.add(hash)
+            }
+        }
+        val delta = StoryListDelta(changed, removed)
+        synchronized(deltaLock) {
+            val merged = pendingDelta?.then(delta) ?: delta
+            pendingDelta = merged
+            _storyDeltaLiveData.postValue(merged)
+        }
+    }
+
+    /**
+     * Note that the list has taken a delta, so that later ones no longer need to carry its
+     * changes. A delta taken after newer changes were merged into it may be seen again, which
+     * is harmless as applying one is idempotent.
+     */
+    fun onStoryDeltaTaken(delta: StoryListDelta) {
+        synchronized(deltaLock) {
+            if (pendingDelta === delta) pendingDelta = null
+        }
+    }
+
     override fun onCleared() {
         cancellationSignal.cancel()
         super.onCleared()
     }
-}
\ No newline at end of file
+
+    companion object {
+        // past this many changed stories, a full requery is cheaper than a per-story one
+        private const val MAX_DELTA_STORIES = 500
+    }
+}
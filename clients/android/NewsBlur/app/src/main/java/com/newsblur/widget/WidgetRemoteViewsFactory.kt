@@ -203,7 +203,6 @@ class WidgetRemoteViewsFactory(context: Context, intent: Intent) : RemoteViewsFa
     }
 
     private fun bindStoryValues(story: Story, feed: Feed) = story.apply {
-        thumbnailUrl = Story.guessStoryThumbnailURL(story)
         extern_faviconBorderColor = feed.faviconBorder
         extern_faviconUrl = feed.faviconUrl
         extern_feedTitle = feed.title
@@ -0,0 +1,83 @@
+package com.newsblur
+
+import com.newsblur.database.ChunkedCleanup
+import org.junit.Assert
+import org.junit.Test
+
+class ChunkedCleanupTest {
+
+    /** A clock that only moves when a fake table does some work. */
+    private class FakeClock : ChunkedCleanup.Clock {
+        var now = 0L
+        override fun millis() = now
+    }
+
+    /** A table of rows that take a set time each to delete, which may change as it empties. */
+    private class FakeTable(var rows: Int, val clock: FakeClock, val millisPerRow: (deletedSoFar: Int) -> Double) : ChunkedCleanup.Task {
+        constructor(rows: Int, clock: FakeClock, millisPerRow: Double) : this(rows, clock, { _ -> millisPerRow })
+
+        val chunkSizes = mutableListOf<Int>()
+        private var deletedSoFar = 0
+
+        override fun deleteChunk(limit: Int): Int {
+            val deleted = minOf(limit, rows)
+            clock.now += (deleted * millisPerRow(deletedSoFar)).toLong()
+            rows -= deleted
+            deletedSoFar += deleted
+            chunkSizes.add(limit)
+            return deleted
+        }
+    }
+
+    private fun cleanup(clock: FakeClock) = ChunkedCleanup(clock, 100, 5000, 50L, 0L)
+
+    @Test
+    fun runsEveryTaskToCompletionInBoundedChunks() {
+        val clock = FakeClock()
+        val stories = FakeTable(20_000, clock, 0.001)
+        val texts = FakeTable(150, clock, 0.01)
+        val empty = FakeTable(0, clock, 0.01)
+        val stats = cleanup(clock).add("stories", stories).add("texts", texts).add("empty", empty).run(10_000L) { false }
+
+        Assert.assertTrue(stats.finished)
+        Assert.assertEquals(mapOf("stories" to 20_000, "texts" to 150, "empty" to 0), stats.deleted)
+        Assert.assertEquals(0, stories.rows + texts.rows)
+        // cheap chunks grow, but never past the cap
+        Assert.assertEquals(listOf(100, 200, 400, 800, 1600, 3200, 5000, 5000, 5000), stories.chunkSizes.take(9))
+        Assert.assertTrue(stories.chunkSizes.all { it <= 5000 })
+    }
+
+    @Test
+    fun slowChunksShrinkToStayNearTheTarget() {
+        val clock = FakeClock()
+        // at 1ms a row, even the smallest chunk overruns the 50ms target
+        val slow = FakeTable(10_000, clock, 1.0)
+        val stats = cleanup(clock).add("slow", slow).run(60_000L) { false }
+        Assert.assertTrue(stats.finished)
+        // every chunk overran the target, so they all stayed at the minimum
+        Assert.assertTrue(slow.chunkSizes.all { it == 100 })
+        Assert.assertEquals(100L, stats.longestChunkMillis)
+
+        // rows that get expensive partway through back the chunks off again
+        val mixed = FakeTable(20_000, clock) { deletedSoFar -> if (deletedSoFar < 6300) 0.001 else 1.0 }
+        Assert.assertTrue(cleanup(clock).add("mixed", mixed).run(60_000L) { false }.finished)
+        Assert.assertEquals(listOf(100, 200, 400, 800, 1600, 3200, 5000, 2500, 1250, 625, 312, 156, 100, 100), mixed.chunkSizes.take(14))
+    }
+
+    @Test
+    fun stopsWhenTheBudgetIsSpentOrSyncStops() {
+        val clock = FakeClock()
+        val table = FakeTable(100_000, clock, 0.5)
+        val stats = cleanup(clock).add("big", table).add("never", FakeTable(10, clock, 0.0)).run(1_000L) { false }
+        Assert.assertFalse(stats.finished)
+        Assert.assertTrue(table.rows > 0)
+        Assert.assertFalse(stats.deleted.containsKey("never"))
+        // the chunk that crossed the budget is finished, but no more are started
+        Assert.assertTrue(stats.elapsedMillis < 1_000L + 100L)
+
+        var calls = 0
+        val stopped = cleanup(clock).add("big", table).run(60_000L) { ++calls > 3 }
+        Assert.assertFalse(stopped.finished)
+        Assert.assertEquals(3, stopped.chunks)
+    }
+}
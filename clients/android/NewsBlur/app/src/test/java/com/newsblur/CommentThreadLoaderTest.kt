@@ -0,0 +1,131 @@
+package com.newsblur
+
+import com.newsblur.database.CommentThreadLoader
+import com.newsblur.database.ParsedTextCache
+import com.newsblur.domain.Comment
+import com.newsblur.domain.Reply
+import com.newsblur.domain.UserProfile
+import org.junit.Assert
+import org.junit.Test
+
+private fun profile(userId: String) = UserProfile().apply {
+    this.userId = userId
+    username = "user$userId"
+}
+
+class CommentThreadLoaderTest {
+
+    private class CountingSource(
+            val comments: List<Comment>,
+            val replies: List<Reply>,
+            userCount: Int,
+    ) : CommentThreadLoader.Source {
+
+        val profiles = (0 until userCount).associate { "$it" to profile("$it") }
+        var queries = 0
+
+        override fun getComments(storyId: String): List<Comment> {
+            queries++
+            return comments.filter { it.storyId == storyId }
+        }
+
+        override fun getStoryReplies(storyId: String): List<Reply> {
+            queries++
+            val commentIds = comments.filter { it.storyId == storyId }.map { it.id }.toSet()
+            return replies.filter { commentIds.contains(it.commentId) }
+        }
+
+        override fun getUserProfiles(userIds: Collection<String>): Map<String, UserProfile> {
+            queries++
+            return userIds.mapNotNull { profiles[it] }.associateBy { it.userId }
+        }
+    }
+
+    private fun thread(commentCount: Int, likesPerComment: Int, repliesPerComment: Int, userCount: Int): CountingSource {
+        val comments = (0 until commentCount).map { i ->
+            Comment().apply {
+                id = "c$i"
+                storyId = "story"
+                userId = "${i % userCount}"
+                commentText = "<b>comment $i</b>"
+                byFriend = i % 2 == 0
+                likingUsers = Array(likesPerComment) { "${(i + it) % userCount}" }
+            }
+        }
+        val replies = comments.flatMap { comment ->
+            (0 until repliesPerComment).map { j ->
+                Reply().apply {
+                    id = "${comment.id}r$j"
+                    commentId = comment.id
+                    userId = "${(j * 7) % userCount}"
+                    text = "reply $j"
+                }
+            }
+        }
+        return CountingSource(comments, replies, userCount)
+    }
+
+    /**
+     * Counts calls to the source, each of which the fake answers in one query. The real helper
+     * looks profiles up a chunk at a time, which CommentThreadQueryTest counts on a device.
+     */
+    @Test
+    fun queryCountIsBoundedByThreadSize() {
+        for (size in listOf(1, 10, 100, 1000)) {
+            val source = thread(commentCount = size, likesPerComment = size, repliesPerComment = 5, userCount = 3000)
+            val thread = CommentThreadLoader(source).load("story", arrayOf("2999"), true)
+            Assert.assertEquals(3, source.queries)
+            Assert.assertEquals(size, thread.comments.size)
+            for (comment in thread.comments) {
+                Assert.assertNotNull(thread.getProfile(comment.userId))
+                for (liker in comment.likingUsers) Assert.assertNotNull(thread.getProfile(liker))
+                Assert.assertEquals(5, thread.getReplies(comment.id).size)
+            }
+            Assert.assertNotNull(thread.getProfile("2999"))
+        }
+    }
+
+    @Test
+    fun emptyThreadOnlyQueriesComments() {
+        val source = thread(commentCount = 0, likesPerComment = 0, repliesPerComment = 0, userCount = 10)
+        val thread = CommentThreadLoader(source).load("story", null, true)
+        Assert.assertEquals(1, source.queries)
+        Assert.assertTrue(thread.comments.isEmpty())
+        Assert.assertTrue(thread.getReplies("c0").isEmpty())
+    }
+
+    @Test
+    fun publicCommentsCanBeExcluded() {
+        val source = thread(commentCount = 10, likesPerComment = 0, repliesPerComment = 1, userCount = 10)
+        val thread = CommentThreadLoader(source).load("story", null, false)
+        Assert.assertEquals(5, thread.comments.size)
+        Assert.assertTrue(thread.comments.all { it.byFriend })
+        Assert.assertTrue(thread.getReplies("c1").isEmpty())
+        Assert.assertEquals(1, thread.getReplies("c2").size)
+        Assert.assertNull(thread.getProfile("1"))
+    }
+
+    @Test
+    fun repliesKeepSourceOrder() {
+        val source = thread(commentCount = 2, likesPerComment = 0, repliesPerComment = 4, userCount = 10)
+        val thread = CommentThreadLoader(source).load("story", null, true)
+        Assert.assertEquals(listOf("c1r0", "c1r1", "c1r2", "c1r3"), thread.getReplies("c1").map { it.id })
+    }
+
+    @Test
+    fun parsedTextIsCachedPerIdUntilEdited() {
+        var parses = 0
+        val cache = ParsedTextCache(2) { parses++; it.uppercase() }
+        Assert.assertEquals("HELLO", cache.get("c1", "hello"))
+        Assert.assertEquals("HELLO", cache.get("c1", "hello"))
+        Assert.assertEquals(1, parses)
+        Assert.assertEquals("HELLO AGAIN", cache.get("c1", "hello again"))
+        Assert.assertEquals(2, parses)
+        cache.get("c2", "two")
+        cache.get("c3", "three")
+        Assert.assertEquals(2, cache.size())
+        cache.get("c1", "hello again")
+        Assert.assertEquals(5, parses)
+        Assert.assertEquals("", cache.get("c4", null))
+    }
+}
@@ -0,0 +1,190 @@
+package com.newsblur
+
+import com.google.gson.Gson
+import com.newsblur.domain.Feed
+import com.newsblur.domain.Folder
+import com.newsblur.domain.SavedSearch
+import com.newsblur.domain.SocialFeed
+import com.newsblur.domain.StarredCount
+import com.newsblur.network.domain.FeedFolderResponse
+import com.newsblur.util.AppConstants
+import org.junit.Assert
+import org.junit.Test
+import java.io.Reader
+import java.io.StringReader
+
+class FeedFolderResponseTest {
+
+    /**
+     * Counts what the parser emits without keeping the feeds, the way the sync writer only
+     * keeps their IDs.
+     */
+    private class CountingListener : FeedFolderResponse.Listener {
+        var begins = 0
+        var feeds = 0
+        var activeFeeds = 0
+        val folders = mutableListOf<Folder>()
+        val socialFeeds = mutableListOf<String>()
+        val starredCounts = mutableListOf<StarredCount>()
+        val savedSearches = mutableListOf<SavedSearch>()
+
+        override fun onBegin() {
+            // like the sync writer, forget anything handed over by an earlier attempt
+            begins++
+            feeds = 0
+            activeFeeds = 0
+            folders.clear()
+            socialFeeds.clear()
+            starredCounts.clear()
+            savedSearches.clear()
+        }
+
+        override fun onFeed(feed: Feed) {
+            Assert.assertTrue(begins > 0)
+            feeds++
+            if (feed.active) activeFeeds++
+        }
+
+        override fun onSocialFeed(socialFeed: SocialFeed) {
+            socialFeeds.add(socialFeed.userId)
+        }
+
+        override fun onFolder(folder: Folder) {
+            folders.add(folder)
+        }
+
+        override fun onStarredCount(starredCount: StarredCount) {
+            starredCounts.add(starredCount)
+        }
+
+        override fun onSavedSearch(savedSearch: SavedSearch) {
+            savedSearches.add(savedSearch)
+        }
+    }
+
+    /**
+     * Generates a feeds response for the given number of feeds piece by piece as it is read,
+     * so the whole body never exists in memory at once.
+     */
+    private class GeneratedResponseReader(private val feedCount: Int) : Reader() {
+        private val parts = iterator {
+            yield("""{"authenticated": true, "user_profile": {"is_premium": true, "premium_expire": 1700000000, "is_archive": false},""")
+            yield(""""feeds": {""")
+            for (i in 1..feedCount) {
+                if (i > 1) yield(",")
+                yield(""""$i": {"id": $i, "active": ${i % 10 != 0}, "feed_title": "Feed $i", "ps": 0, "nt": 3, "ng": 0, "average_stories_per_month": 30}""")
+            }
+            yield("""}, "folders": [""")
+            for (i in 1..feedCount) {
+                if (i > 1) yield(",")
+                yield(if (i % 2 == 0) "$i" else """{"Odd $i": [$i]}""")
+            }
+            yield("""], "starred_count": 12, "share_ext_token": "token"}""")
+        }
+        private var current = ""
+        private var offset = 0
+
+        override fun read(buffer: CharArray, off: Int, len: Int): Int {
+            while (offset == current.length) {
+                if (!parts.hasNext()) return -1
+                current = parts.next()
+                offset = 0
+            }
+            val count = minOf(len, current.length - offset)
+            current.toCharArray(buffer, off, offset, offset + count)
+            offset += count
+            return count
+        }
+
+        override fun close() {}
+    }
+
+    @Test
+    fun parsesAllSections() {
+        val json = """
+            {
+              "authenticated": true,
+              "is_staff": false,
+              "share_ext_token": "abc",
+              "user_profile": {"is_premium": true, "premium_expire": 1700000000, "is_archive": true, "username": "sam"},
+              "starred_count": 7,
+              "feeds": {
+                "1": {"id": 1, "active": true, "feed_title": "One"},
+                "2": {"id": 2, "active": false, "feed_title": "Two"}
+              },
+              "social_feeds": [{"user_id": "social:5", "username": "five"}],
+              "folders": [1, {"News": [2, {"Local": []}]}],
+              "starred_counts": [{"tag": "later", "count": 3}],
+              "saved_searches": [{"query": "kotlin", "feed_id": "river:"}],
+              "categories": {"ignored": [1, 2, 3]}
+            }
+        """
+        val listener = CountingListener()
+        val response = FeedFolderResponse(StringReader(json), Gson(), listener)
+
+        Assert.assertTrue(response.isAuthenticated)
+        Assert.assertTrue(response.isPremium)
+        Assert.assertTrue(response.isArchive)
+        Assert.assertEquals(1700000000L, response.premiumExpire)
+        Assert.assertEquals(7, response.starredCount)
+        Assert.assertEquals("abc", response.shareExtToken)
+
+        Assert.assertEquals(2, listener.feeds)
+        Assert.assertEquals(1, listener.activeFeeds)
+        Assert.assertEquals(listOf("social:5"), listener.socialFeeds)
+        Assert.assertEquals("later", listener.starredCounts.single().tag)
+        Assert.assertEquals("kotlin", listener.savedSearches.single().query)
+
+        // nested folders are emitted before the folders that contain them
+        Assert.assertEquals(listOf("Local", "News", AppConstants.ROOT_FOLDER), listener.folders.map { it.name })
+        val news = listener.folders[1]
+        Assert.assertEquals(listOf(AppConstants.ROOT_FOLDER), news.parents)
+        Assert.assertEquals(listOf("Local"), news.children)
+        Assert.assertEquals(listOf("2"), news.feedIds)
+        Assert.assertEquals(listOf(AppConstants.ROOT_FOLDER, "News"), listener.folders[0].parents)
+        Assert.assertEquals(listOf("1"), listener.folders[2].feedIds)
+    }
+
+    @Test
+    fun emptyFeedsArrayIsAccepted() {
+        val listener = CountingListener()
+        val json = """{"authenticated": true, "feeds": [], "folders": [], "social_feeds": []}"""
+        FeedFolderResponse(StringReader(json), Gson(), listener)
+        Assert.assertEquals(0, listener.feeds)
+        Assert.assertEquals(listOf(AppConstants.ROOT_FOLDER), listener.folders.map { it.name })
+    }
+
+    @Test
+    fun streamsLargeAccountsWithoutBuffering() {
+        val feedCount = 50000
+        val listener = CountingListener()
+        val response = FeedFolderResponse(GeneratedResponseReader(feedCount), Gson(), listener)
+        Assert.assertTrue(response.isAuthenticated)
+        Assert.assertEquals(12, response.starredCount)
+        Assert.assertEquals(feedCount, listener.feeds)
+        Assert.assertEquals(feedCount - feedCount / 10, listener.activeFeeds)
+        // one folder per odd feed, plus the root
+        Assert.assertEquals(feedCount / 2 + 1, listener.folders.size)
+        Assert.assertEquals(feedCount / 2, listener.folders.last().feedIds.size)
+    }
+
+    @Test
+    fun eachAttemptBeginsBeforeItsElements() {
+        val listener = CountingListener()
+        // a first attempt cut off partway through
+        try {
+            FeedFolderResponse(StringReader("""{"authenticated": true, "starred_counts": [{"tag": "later", "count": 3}], "feeds": {"1": {"id": 1, "active": true}, "2": {"id": 2"""), Gson(), listener)
+            Assert.fail("truncated response should not parse")
+        } catch (e: Exception) {
+            // expected
+        }
+        Assert.assertEquals(1, listener.feeds)
+        Assert.assertEquals(1, listener.starredCounts.size)
+
+        // the retry replays everything, which must not be counted twice
+        FeedFolderResponse(StringReader("""{"authenticated": true, "starred_counts": [{"tag": "later", "count": 3}], "feeds": {"1": {"id": 1, "active": true}, "2": {"id": 2, "active": true}}, "folders": [1, 2]}"""), Gson(), listener)
+        Assert.assertEquals(2, listener.begins)
+        Assert.assertEquals(2, listener.feeds)
+        Assert.assertEquals(1, listener.starredCounts.size)
+    }
+}
@@ -0,0 +1,91 @@
+package com.newsblur
+
+import com.newsblur.database.FeedTermCounts
+import org.junit.Assert
+import org.junit.Test
+
+class FeedTermCountsTest {
+
+    private val day = 24L * 60L * 60L * 1000L
+
+    private fun terms(vararg terms: FeedTermCounts.Term) = FeedTermCounts.of(terms.toList())
+
+    @Test
+    fun readsApiTuples() {
+        val reported = FeedTermCounts.fromApiTuples(arrayOf(
+                arrayOf("android", "12"),
+                arrayOf("kotlin", "3.0"),
+                arrayOf("sqlite"),
+                arrayOf("perf", "lots"),
+                arrayOf("android", "7"),
+                arrayOf(),
+        ))
+        Assert.assertEquals(mapOf("android" to 12, "kotlin" to 3, "sqlite" to 1, "perf" to 1), reported)
+    }
+
+    @Test
+    fun everythingIsNewAtFirst() {
+        val changes = FeedTermCounts.EMPTY.changesFrom(mapOf("a" to 1, "b" to 2), 1000L)
+        Assert.assertEquals(setOf("a", "b"), changes.map { it.name }.toSet())
+        Assert.assertTrue(changes.all { it.lastSeen == 1000L })
+    }
+
+    @Test
+    fun unchangedPagesWriteNothing() {
+        val current = terms(FeedTermCounts.Term("a", 1, 1000L), FeedTermCounts.Term("b", 2, 1000L))
+        Assert.assertTrue(current.changesFrom(mapOf("a" to 1, "b" to 2), 1000L + day / 2).isEmpty())
+    }
+
+    @Test
+    fun writesOnlyChangedCounts() {
+        val current = terms(FeedTermCounts.Term("a", 1, 1000L), FeedTermCounts.Term("b", 2, 1000L))
+        val changes = current.changesFrom(mapOf("a" to 1, "b" to 5), 2000L)
+        Assert.assertEquals(1, changes.size)
+        Assert.assertEquals("b", changes[0].name)
+        Assert.assertEquals(5, changes[0].count)
+    }
+
+    @Test
+    fun refreshesStaleLastSeen() {
+        val current = terms(FeedTermCounts.Term("a", 1, 1000L))
+        val changes = current.changesFrom(mapOf("a" to 1), 1000L + day)
+        Assert.assertEquals(1, changes.size)
+        Assert.assertEquals(1000L + day, changes[0].lastSeen)
+    }
+
+    @Test
+    fun unreportedTermsDropToZeroOnce() {
+        val current = terms(FeedTermCounts.Term("a", 4, 1000L), FeedTermCounts.Term("b", 2, 1000L))
+        val changes = current.changesFrom(mapOf("b" to 2), 2000L)
+        Assert.assertEquals(1, changes.size)
+        Assert.assertEquals("a", changes[0].name)
+        Assert.assertEquals(0, changes[0].count)
+        Assert.assertEquals(1000L, changes[0].lastSeen)
+
+        val next = current.with(changes)
+        Assert.assertTrue(next.changesFrom(mapOf("b" to 2), 3000L).isEmpty())
+    }
+
+    @Test
+    fun ranksByCountThenRecencyThenName() {
+        val counts = terms(
+                FeedTermCounts.Term("rare", 1, 5000L),
+                FeedTermCounts.Term("Common", 9, 1000L),
+                FeedTermCounts.Term("older", 3, 1000L),
+                FeedTermCounts.Term("newer", 3, 2000L),
+                FeedTermCounts.Term("beta", 3, 2000L),
+                FeedTermCounts.Term("gone", 0, 9000L),
+        )
+        Assert.assertEquals(listOf("Common", "beta", "newer", "older", "rare", "gone"), counts.getRanked())
+    }
+
+    @Test
+    fun withLeavesTheOriginalAlone() {
+        val current = terms(FeedTermCounts.Term("a", 1, 1000L))
+        val next = current.with(listOf(FeedTermCounts.Term("a", 2, 2000L), FeedTermCounts.Term("b", 1, 2000L)))
+        Assert.assertEquals(1, current.get("a").count)
+        Assert.assertNull(current.get("b"))
+        Assert.assertEquals(2, next.get("a").count)
+        Assert.assertEquals(2, next.size())
+    }
+}
@@ -0,0 +1,184 @@
+package com.newsblur
+
+import com.newsblur.database.FolderTree
+import com.newsblur.domain.Folder
+import com.newsblur.util.AppConstants
+import com.newsblur.util.FeedListOrder
+import com.newsblur.util.StateFilter
+import org.junit.Assert
+import org.junit.Test
+
+class FolderTreeTest {
+
+    private data class FeedRow(val id: String, val title: String, val neut: Int = 0, val pos: Int = 0, val active: Boolean = true, val opens: Int = 0, val favicon: String? = null)
+
+    private fun folder(name: String, parents: List<String>, children: List<String>, feedIds: List<String>) = Folder().apply {
+        this.name = name
+        this.parents = parents
+        this.children = children
+        this.feedIds = feedIds
+    }
+
+    /** Applies rows the way the adapter does for a feed cursor. */
+    private fun FolderTree.applyFeeds(rows: List<FeedRow>) {
+        beginFeeds()
+        for (row in rows) {
+            val node = beginFeed(row.id)
+            node.feed.title = row.title
+            node.feed.neutralCount = row.neut
+            node.feed.positiveCount = row.pos
+            node.feed.active = row.active
+            node.feed.feedOpens = row.opens
+            node.feed.faviconUrl = row.favicon
+            endFeed(node)
+        }
+        endFeeds()
+    }
+
+    private fun FolderTree.refresh(state: StateFilter = StateFilter.SOME, query: String? = null, closed: Set<String> = emptySet(), order: FeedListOrder = FeedListOrder.ALPHABETICAL) =
+            refresh(state, query, closed, null, null, order)
+
+    private fun FolderTree.visibleTitles() =
+            listOf(getRootFeeds().map { it.title }) + getVisibleFolders().map { it.getVisibleFeeds().map { f -> f.title } }
+
+    private fun sampleTree() = FolderTree().apply {
+        setFolders(listOf(
+                folder(AppConstants.ROOT_FOLDER, emptyList(), listOf("News"), listOf("1")),
+                folder("News", listOf(AppConstants.ROOT_FOLDER), listOf("Local"), listOf("2", "3", "2")),
+                folder("Local", listOf(AppConstants.ROOT_FOLDER, "News"), emptyList(), listOf("4")),
+        ))
+        applyFeeds(listOf(
+                FeedRow("1", "Root feed", neut = 1),
+                FeedRow("2", "beta", neut = 2, pos = 1),
+                FeedRow("3", "Alpha", neut = -4),
+                FeedRow("4", "Gamma", pos = 5),
+        ))
+    }
+
+    @Test
+    fun buildsFilteredSortedTree() {
+        val tree = sampleTree()
+        Assert.assertEquals(FolderTree.Change.STRUCTURE, tree.refresh())
+        Assert.assertEquals(listOf(listOf("Root feed"), listOf("beta"), listOf("Gamma")), tree.visibleTitles())
+        Assert.assertEquals(listOf("News", "News ▸ Local"), tree.getVisibleFolders().map { it.flatName })
+        // counts roll up into parents, and negative counts are clamped
+        val news = tree.getFolder("News")
+        Assert.assertEquals(2, news.neutCount)
+        Assert.assertEquals(6, news.posCount)
+        Assert.assertEquals(3, tree.totalNeutCount)
+
+        tree.refresh(StateFilter.ALL)
+        // duplicate feed IDs in a folder are shown once, sorted without regard to case
+        Assert.assertEquals(listOf("Alpha", "beta"), tree.getFolder("News").getVisibleFeeds().map { it.title })
+
+        tree.refresh(StateFilter.ALL, query = "ALP")
+        Assert.assertEquals(listOf(emptyList(), listOf("Alpha")), tree.visibleTitles())
+
+        tree.refresh(StateFilter.ALL, closed = setOf("News"))
+        Assert.assertEquals(listOf("News"), tree.getVisibleFolders().map { it.flatName })
+    }
+
+    @Test
+    fun countOnlyChangesKeepRowsInPlace() {
+        val tree = sampleTree()
+        tree.refresh()
+        val beta = tree.getFolder("News").getVisibleFeeds()[0]
+        val newsRows = tree.getFolder("News").getVisibleFeeds()
+
+        tree.applyFeeds(listOf(
+                FeedRow("1", "Root feed", neut = 1),
+                FeedRow("2", "beta", neut = 7, pos = 1),
+                FeedRow("3", "Alpha", neut = -4),
+                FeedRow("4", "Gamma", pos = 5),
+        ))
+        Assert.assertEquals(FolderTree.Change.COUNTS, tree.refresh())
+        // the same feed object and list are still displayed, now with the new count
+        Assert.assertSame(beta, tree.getFolder("News").getVisibleFeeds()[0])
+        Assert.assertSame(newsRows, tree.getFolder("News").getVisibleFeeds())
+        Assert.assertEquals(7, beta.neutralCount)
+        Assert.assertEquals(7, tree.getFolder("News").neutCount)
+
+        Assert.assertEquals(FolderTree.Change.NONE, tree.refresh())
+    }
+
+    @Test
+    fun renamesAndNewIconsRedrawRowsInPlace() {
+        val tree = sampleTree()
+        tree.refresh()
+        val beta = tree.getFolder("News").getVisibleFeeds()[0]
+
+        // a rename that keeps the feed where it was in the order
+        tree.applyFeeds(listOf(
+                FeedRow("1", "Root feed", neut = 1),
+                FeedRow("2", "Beta blog", neut = 2, pos = 1),
+                FeedRow("3", "Alpha", neut = -4),
+                FeedRow("4", "Gamma", pos = 5),
+        ))
+        Assert.assertEquals(FolderTree.Change.COUNTS, tree.refresh())
+        Assert.assertSame(beta, tree.getFolder("News").getVisibleFeeds()[0])
+        Assert.assertEquals("Beta blog", beta.title)
+
+        tree.applyFeeds(listOf(
+                FeedRow("1", "Root feed", neut = 1),
+                FeedRow("2", "Beta blog", neut = 2, pos = 1, favicon = "https://example.com/icon.png"),
+                FeedRow("3", "Alpha", neut = -4),
+                FeedRow("4", "Gamma", pos = 5),
+        ))
+        Assert.assertEquals(FolderTree.Change.COUNTS, tree.refresh())
+        Assert.assertEquals(FolderTree.Change.NONE, tree.refresh())
+    }
+
+    @Test
+    fun membershipChangesAreStructural() {
+        val tree = sampleTree()
+        tree.refresh()
+        // reading the last unread in Local empties it
+        tree.applyFeeds(listOf(
+                FeedRow("1", "Root feed", neut = 1),
+                FeedRow("2", "beta", neut = 2, pos = 1),
+                FeedRow("3", "Alpha", neut = 1),
+                FeedRow("4", "Gamma"),
+        ))
+        Assert.assertEquals(FolderTree.Change.STRUCTURE, tree.refresh())
+        Assert.assertEquals(listOf(listOf("Root feed"), listOf("Alpha", "beta")), tree.visibleTitles())
+
+        // a dropped feed disappears from its folder
+        tree.applyFeeds(listOf(FeedRow("1", "Root feed", neut = 1), FeedRow("2", "beta", neut = 2)))
+        Assert.assertEquals(FolderTree.Change.STRUCTURE, tree.refresh())
+        Assert.assertEquals(listOf(listOf("Root feed"), listOf("beta")), tree.visibleTitles())
+
+        // a change of order re-sorts
+        tree.applyFeeds(listOf(FeedRow("1", "Root feed", neut = 1), FeedRow("2", "beta", neut = 2), FeedRow("3", "Alpha", neut = 1, opens = 0), FeedRow("4", "Gamma", opens = 3)))
+        tree.refresh(StateFilter.ALL, order = FeedListOrder.MOST_USED_AT_TOP)
+        Assert.assertEquals(listOf("Alpha", "beta"), tree.getFolder("News").getVisibleFeeds().map { it.title })
+        tree.applyFeeds(listOf(FeedRow("1", "Root feed", neut = 1), FeedRow("2", "beta", neut = 2, opens = 9), FeedRow("3", "Alpha", neut = 1), FeedRow("4", "Gamma", opens = 3)))
+        Assert.assertEquals(FolderTree.Change.STRUCTURE, tree.refresh(StateFilter.ALL, order = FeedListOrder.MOST_USED_AT_TOP))
+        Assert.assertEquals(listOf("beta", "Alpha"), tree.getFolder("News").getVisibleFeeds().map { it.title })
+    }
+
+    @Test
+    fun countTicksOnLargeAccountsKeepRowsInPlace() {
+        val feedCount = 2000
+        val folderCount = 50
+        val folders = mutableListOf(folder(AppConstants.ROOT_FOLDER, emptyList(), (0 until folderCount).map { "Folder $it" }, emptyList()))
+        for (f in 0 until folderCount) {
+            folders.add(folder("Folder $f", listOf(AppConstants.ROOT_FOLDER), emptyList(), (f until feedCount step folderCount).map { "$it" }))
+        }
+        val tree = FolderTree()
+        tree.setFolders(folders)
+        tree.applyFeeds((0 until feedCount).map { FeedRow("$it", "Feed $it", neut = 1) })
+        tree.refresh()
+        val visibleFolders = tree.getVisibleFolders()
+        val firstFolderRows = visibleFolders[0].getVisibleFeeds()
+
+        for (tick in 1..20) {
+            tree.applyFeeds((0 until feedCount).map { FeedRow("$it", "Feed $it", neut = 1 + (tick + it) % 3) })
+            Assert.assertEquals(FolderTree.Change.COUNTS, tree.refresh())
+            // nothing is rebuilt for a tick that only moves counts
+            Assert.assertSame(visibleFolders, tree.getVisibleFolders())
+            Assert.assertSame(firstFolderRows, tree.getVisibleFolders()[0].getVisibleFeeds())
+        }
+        Assert.assertEquals(feedCount / folderCount, firstFolderRows.size)
+        Assert.assertEquals(1 + (20 + 0) % 3, firstFolderRows[0].neutralCount)
+    }
+}
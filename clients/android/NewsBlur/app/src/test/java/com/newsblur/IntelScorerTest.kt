@@ -0,0 +1,102 @@
+package com.newsblur
+
+import com.newsblur.domain.Classifier
+import com.newsblur.util.IntelScorer
+import org.junit.Assert
+import org.junit.Test
+import kotlin.random.Random
+
+class IntelScorerTest {
+
+    private fun classifier(
+            authors: Map<String, Int> = emptyMap(),
+            titles: Map<String, Int> = emptyMap(),
+            tags: Map<String, Int> = emptyMap(),
+            feeds: Map<String, Int> = emptyMap(),
+    ): Classifier {
+        val classifier = Classifier()
+        classifier.authors.putAll(authors)
+        classifier.title.putAll(titles)
+        classifier.tags.putAll(tags)
+        classifier.feeds.putAll(feeds)
+        return classifier
+    }
+
+    @Test
+    fun scoresEachCategory() {
+        val scorer = IntelScorer(classifier(
+                authors = mapOf("Jane Doe" to Classifier.LIKE),
+                titles = mapOf("Kotlin" to Classifier.DISLIKE),
+                tags = mapOf("android" to Classifier.LIKE),
+                feeds = mapOf("42" to Classifier.DISLIKE),
+        ))
+        val intel = scorer.score("42", "Jane Doe", "Why kotlin coroutines", arrayOf("android", "jvm"))
+        Assert.assertEquals(1, intel.intelligenceAuthors)
+        Assert.assertEquals(-1, intel.intelligenceTitle)
+        Assert.assertEquals(1, intel.intelligenceTags)
+        Assert.assertEquals(-1, intel.intelligenceFeed)
+        Assert.assertEquals(1, intel.calcTotalIntel())
+    }
+
+    @Test
+    fun likedMatchWinsWithinCategory() {
+        val scorer = IntelScorer(classifier(titles = mapOf("apple" to Classifier.DISLIKE, "watch" to Classifier.LIKE)))
+        Assert.assertEquals(1, scorer.scoreTitle("Apple Watch review"))
+        Assert.assertEquals(-1, scorer.scoreTitle("Apple earnings"))
+        Assert.assertEquals(0, scorer.scoreTitle("Pear earnings"))
+    }
+
+    @Test
+    fun clearedRulesAreIgnored() {
+        val scorer = IntelScorer(classifier(
+                authors = mapOf("Jane Doe" to Classifier.CLEAR_LIKE),
+                tags = mapOf("android" to Classifier.CLEAR_DISLIKE),
+        ))
+        Assert.assertTrue(scorer.isEmpty)
+        Assert.assertEquals(0, scorer.score("1", "Jane Doe", "title", arrayOf("android")).calcTotalIntel())
+    }
+
+    @Test
+    fun authorsAndTagsMatchExactly() {
+        val scorer = IntelScorer(classifier(authors = mapOf("Jane Doe" to Classifier.DISLIKE), tags = mapOf("Android" to Classifier.DISLIKE)))
+        Assert.assertEquals(0, scorer.scoreAuthors("Jane Doe and John Roe"))
+        Assert.assertEquals(0, scorer.scoreTags(arrayOf("android")))
+        Assert.assertEquals(-1, scorer.scoreTags(arrayOf("ios", "Android")))
+    }
+
+    private fun naiveCategory(matches: List<Int>): Int = when {
+        matches.any { it == Classifier.LIKE } -> 1
+        matches.any { it == Classifier.DISLIKE } -> -1
+        else -> 0
+    }
+
+    @Test
+    fun agreesWithPerRuleChecks() {
+        val random = Random(7)
+        val words = List(2000) { "word$it" }
+        val authors = HashMap<String, Int>()
+        val titles = HashMap<String, Int>()
+        val tags = HashMap<String, Int>()
+        repeat(100) { authors["Author ${random.nextInt(500)}"] = if (random.nextBoolean()) Classifier.LIKE else Classifier.DISLIKE }
+        repeat(200) { titles[words[random.nextInt(words.size)]] = if (random.nextBoolean()) Classifier.LIKE else Classifier.DISLIKE }
+        repeat(100) { tags[words[random.nextInt(words.size)]] = if (random.nextBoolean()) Classifier.LIKE else Classifier.DISLIKE }
+        val feeds = mapOf("1" to Classifier.LIKE)
+        val scorer = IntelScorer(classifier(authors, titles, tags, feeds))
+
+        var changed = 0
+        repeat(2000) { i ->
+            val feedId = (i % 3).toString()
+            val storyAuthors = "Author ${random.nextInt(500)}"
+            val storyTitle = (1..10).joinToString(" ") { words[random.nextInt(words.size)] }.uppercase()
+            val storyTags = Array(4) { words[random.nextInt(words.size)] }
+            val intel = scorer.score(feedId, storyAuthors, storyTitle, storyTags)
+
+            Assert.assertEquals(naiveCategory(listOfNotNull(feeds[feedId])), intel.intelligenceFeed)
+            Assert.assertEquals(naiveCategory(listOfNotNull(authors[storyAuthors])), intel.intelligenceAuthors)
+            Assert.assertEquals(naiveCategory(titles.filterKeys { storyTitle.contains(it, ignoreCase = true) }.values.toList()), intel.intelligenceTitle)
+            Assert.assertEquals(naiveCategory(storyTags.mapNotNull { tags[it] }), intel.intelligenceTags)
+            if (intel.calcTotalIntel() != 0) changed++
+        }
+        Assert.assertTrue(changed > 0)
+    }
+}
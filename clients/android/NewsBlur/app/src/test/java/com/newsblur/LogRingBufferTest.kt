@@ -0,0 +1,134 @@
+package com.newsblur
+
+import com.newsblur.util.LogRingBuffer
+import org.junit.Assert
+import org.junit.Test
+import java.io.File
+import java.io.StringWriter
+import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.concurrent.thread
+
+class LogRingBufferTest {
+
+    private fun LogRingBuffer.lines(): List<String> {
+        val out = StringWriter()
+        export(out)
+        // drop the timestamps
+        return out.toString().lines().filter { it.isNotEmpty() }.map { it.substringAfter(' ') }
+    }
+
+    @Test
+    fun wrapsAroundKeepingTheNewestWholeLines() {
+        // 16 slots of 16 payload bytes
+        val ring = LogRingBuffer(ByteBuffer.allocate(16 * 40), 40)
+        Assert.assertEquals(emptyList<String>(), ring.lines())
+
+        ring.append(0L, "first")
+        ring.append(0L, "a line long enough to need three slots")
+        Assert.assertEquals(listOf("first", "a line long enough to need three slots"), ring.lines())
+
+        for (i in 1..30) ring.append(0L, "line $i")
+        // the oldest lines were overwritten, including the head of the long one
+        Assert.assertEquals((15..30).map { "line $it" }, ring.lines())
+
+        // lines longer than a quarter of the ring are cut off
+        ring.append(0L, "x".repeat(100))
+        Assert.assertEquals("x".repeat(ring.maxLineBytes), ring.lines().last())
+        // and a long line whose tail survives but whose head doesn't is left out
+        for (i in 31..43) ring.append(0L, "line $i")
+        Assert.assertEquals((31..43).map { "line $it" }, ring.lines().takeLast(13))
+        Assert.assertFalse(ring.lines().any { it.startsWith("x") })
+    }
+
+    @Test(timeout = 5000)
+    fun appendingNeverWaitsOnAStalledWriter() {
+        // 16 slots, one per line
+        val ring = LogRingBuffer(ByteBuffer.allocate(16 * 40), 40)
+        for (i in 1..17) ring.append(0L, "line $i")
+        // as if the writer of line 17 had taken the first slot and then stalled
+        val claims = LogRingBuffer::class.java.getDeclaredField("claims").apply { isAccessible = true }.get(ring) as AtomicLongArray
+        claims.set(0, -17L)
+        // the line wanting that slot a lap later is dropped rather than waiting for it
+        for (i in 18..33) ring.append(0L, "line $i")
+        Assert.assertEquals((18..32).map { "line $it" }, ring.lines())
+    }
+
+    @Test
+    fun exportsTimesAndUnicode() {
+        val ring = LogRingBuffer(ByteBuffer.allocate(8 * 64), 64)
+        ring.append(1_600_000_000_000L, "héllo wörld ✓")
+        val out = StringWriter()
+        ring.export(out)
+        Assert.assertEquals("2020-09-13T12:26:40Z héllo wörld ✓\n", out.toString())
+    }
+
+    @Test
+    fun reopeningAMappedRingKeepsItsLines() {
+        val file = File.createTempFile("logring", ".ring")
+        try {
+            val ring = LogRingBuffer.open(file, 32, 64)
+            for (i in 1..40) ring.append(0L, "line $i")
+            val reopened = LogRingBuffer.open(file, 32, 64)
+            Assert.assertEquals((9..40).map { "line $it" }, reopened.lines())
+            // new lines carry on after the old ones
+            reopened.append(0L, "after")
+            Assert.assertEquals((10..40).map { "line $it" } + "after", reopened.lines())
+
+            val exported = File.createTempFile("logring", ".txt")
+            reopened.exportTo(exported)
+            Assert.assertEquals(32, exported.readLines().size)
+            exported.delete()
+
+            // a ring of another shape starts over
+            Assert.assertEquals(emptyList<String>(), LogRingBuffer.open(file, 16, 64).lines())
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun concurrentWritersNeverTearLines() {
+        val threads = 8
+        val perThread = 5000
+        val ring = LogRingBuffer(ByteBuffer.allocateDirect(4096 * 64), 64)
+        val start = CountDownLatch(1)
+        val writers = (0 until threads).map { t ->
+            thread {
+                start.await()
+                for (i in 0 until perThread) {
+                    // every tenth line spans several slots
+                    val padding = if (i % 10 == 0) "-".repeat(100) else ""
+                    ring.append(i.toLong(), "writer $t line $i$padding")
+                }
+            }
+        }
+        // export while the writers are busy; whatever comes out must be whole lines
+        val midRunLines = mutableListOf<String>()
+        val reader = thread {
+            start.await()
+            while (writers.any { it.isAlive }) midRunLines.addAll(ring.lines())
+        }
+        start.countDown()
+        writers.forEach { it.join() }
+        reader.join()
+        Assert.assertTrue(midRunLines.isNotEmpty())
+        for (line in midRunLines) {
+            Assert.assertTrue(line, line.matches(Regex("writer \\d line \\d+(-{100})?")))
+            val i = line.substringAfter("line ").trimEnd('-').toInt()
+            Assert.assertEquals(line, i % 10 == 0, line.endsWith("-"))
+        }
+
+        // once quiet, every writer's lines are there in order.  a line is dropped now and then
+        // when its writer catches up on a slot that another one is still writing a lap behind
+        val lines = ring.lines()
+        for (t in 0 until threads) {
+            val mine = lines.filter { it.startsWith("writer $t ") }.map { it.substringAfter("line ").trimEnd('-').toInt() }
+            Assert.assertEquals(mine.sorted().distinct(), mine)
+        }
+        // and they all but fill the ring
+        val slotsUsed = lines.sumOf { (it.length + 39) / 40 }
+        Assert.assertTrue("$slotsUsed", slotsUsed > 4096 * 3 / 4)
+    }
+}
@@ -0,0 +1,104 @@
+package com.newsblur
+
+import android.content.ContextWrapper
+import android.content.SharedPreferences
+import com.newsblur.util.DefaultFeedView
+import com.newsblur.util.PrefConstants
+import com.newsblur.util.PrefsSnapshot
+import org.junit.Assert
+import org.junit.Test
+
+class PrefsSnapshotTest {
+
+    /**
+     * Just enough of a preferences store to hold values and tell its listeners when one changes.
+     */
+    private class FakePrefs : SharedPreferences {
+        val values = HashMap<String, Any?>()
+        val listeners = ArrayList<SharedPreferences.OnSharedPreferenceChangeListener>()
+
+        fun change(key: String, value: Any?) {
+            values[key] = value
+            for (listener in listeners) listener.onSharedPreferenceChanged(this, key)
+        }
+
+        override fun getAll(): Map<String, *> = HashMap(values)
+        override fun getString(key: String, defValue: String?): String? = values[key] as? String ?: defValue
+        override fun getStringSet(key: String, defValues: Set<String>?): Set<String>? = defValues
+        override fun getInt(key: String, defValue: Int): Int = values[key] as? Int ?: defValue
+        override fun getLong(key: String, defValue: Long): Long = values[key] as? Long ?: defValue
+        override fun getFloat(key: String, defValue: Float): Float = values[key] as? Float ?: defValue
+        override fun getBoolean(key: String, defValue: Boolean): Boolean = values[key] as? Boolean ?: defValue
+        override fun contains(key: String): Boolean = values.containsKey(key)
+        override fun edit(): SharedPreferences.Editor = throw UnsupportedOperationException()
+        override fun registerOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {
+            if (!listeners.contains(listener)) listeners.add(listener)
+        }
+        override fun unregisterOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {
+            listeners.remove(listener)
+        }
+    }
+
+    @Test
+    fun changesAfterReloadAreSeen() {
+        val prefs = FakePrefs()
+        val context = object : ContextWrapper(null) {
+            override fun getSharedPreferences(name: String, mode: Int): SharedPreferences = prefs
+        }
+
+        // a reload before anything has asked for the snapshot must still start listening
+        PrefsSnapshot.reload(context)
+        Assert.assertNull(PrefsSnapshot.get(context).cookie)
+        Assert.assertEquals(1, prefs.listeners.size)
+
+        prefs.change(PrefConstants.PREF_COOKIE, "newsblur_sessionid=abc")
+        Assert.assertEquals("newsblur_sessionid=abc", PrefsSnapshot.get(context).cookie)
+
+        PrefsSnapshot.reload(context)
+        prefs.change(PrefConstants.ENABLE_OFFLINE, true)
+        Assert.assertTrue(PrefsSnapshot.get(context).isOfflineEnabled)
+        Assert.assertEquals(1, prefs.listeners.size)
+    }
+
+    @Test
+    fun defaultsWhenUnset() {
+        val snapshot = PrefsSnapshot.fromValues(emptyMap<String, Any>())
+        Assert.assertNull(snapshot.cookie)
+        Assert.assertTrue(snapshot.showPublicComments)
+        Assert.assertFalse(snapshot.isOfflineEnabled)
+        Assert.assertFalse(snapshot.isImagePrefetchEnabled)
+        Assert.assertTrue(snapshot.isTextPrefetchEnabled)
+        Assert.assertEquals(DefaultFeedView.STORY, snapshot.getDefaultViewModeForFeed("42"))
+        Assert.assertEquals(DefaultFeedView.STORY, snapshot.getDefaultViewModeForFeed(null))
+    }
+
+    @Test
+    fun readsTypedValues() {
+        val snapshot = PrefsSnapshot.fromValues(mapOf(
+                PrefConstants.PREF_COOKIE to "newsblur_sessionid=abc",
+                PrefConstants.SHOW_PUBLIC_COMMENTS to false,
+                PrefConstants.ENABLE_OFFLINE to true,
+                PrefConstants.ENABLE_IMAGE_PREFETCH to true,
+                PrefConstants.ENABLE_TEXT_PREFETCH to false,
+        ))
+        Assert.assertEquals("newsblur_sessionid=abc", snapshot.cookie)
+        Assert.assertFalse(snapshot.showPublicComments)
+        Assert.assertTrue(snapshot.isOfflineEnabled)
+        Assert.assertTrue(snapshot.isImagePrefetchEnabled)
+        Assert.assertFalse(snapshot.isTextPrefetchEnabled)
+    }
+
+    @Test
+    fun resolvesFeedViewModesFromMap() {
+        val snapshot = PrefsSnapshot.fromValues(mapOf(
+                PrefConstants.FEED_DEFAULT_FEED_VIEW_PREFIX + "1" to DefaultFeedView.TEXT.name,
+                PrefConstants.FEED_DEFAULT_FEED_VIEW_PREFIX + "2" to DefaultFeedView.STORY.name,
+                PrefConstants.FEED_DEFAULT_FEED_VIEW_PREFIX + "3" to "NOT_A_MODE",
+                PrefConstants.FEED_STORY_ORDER_PREFIX + "1" to "OLDEST",
+        ))
+        Assert.assertEquals(DefaultFeedView.TEXT, snapshot.getDefaultViewModeForFeed("1"))
+        Assert.assertEquals(DefaultFeedView.STORY, snapshot.getDefaultViewModeForFeed("2"))
+        Assert.assertEquals(DefaultFeedView.STORY, snapshot.getDefaultViewModeForFeed("3"))
+        Assert.assertEquals(DefaultFeedView.STORY, snapshot.getDefaultViewModeForFeed("4"))
+    }
+}
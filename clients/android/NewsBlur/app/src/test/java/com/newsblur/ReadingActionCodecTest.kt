@@ -0,0 +1,100 @@
+package com.newsblur
+
+import com.newsblur.database.DatabaseConstants
+import com.newsblur.domain.Classifier
+import com.newsblur.util.FeedSet
+import com.newsblur.util.ReadingAction
+import org.junit.Assert
+import org.junit.Test
+
+class ReadingActionCodecTest {
+
+    // the time and try count live in columns of their own, so only the other fields are frozen
+    private fun frozenFields(action: ReadingAction): String =
+            DatabaseConstants.JsonHelper.toJson(action).replace(Regex("\"time\":\\d+,"), "")
+
+    private fun assertRoundTrip(action: ReadingAction) {
+        val decoded = ReadingAction.Codec.decode(ReadingAction.Codec.encode(action))
+        Assert.assertEquals(frozenFields(action), frozenFields(decoded))
+    }
+
+    @Test
+    fun roundTripsEveryActionType() {
+        val classifier = Classifier().apply {
+            feedId = "42"
+            authors["Jane Doe"] = Classifier.LIKE
+            title["kotlin"] = Classifier.DISLIKE
+        }
+        val actions = listOf(
+                ReadingAction.markStoryRead("42:abcdef"),
+                ReadingAction.markStoryUnread("42:abcdef"),
+                ReadingAction.saveStory("42:abcdef", listOf("later", "büro ☕")),
+                ReadingAction.saveStory("42:abcdef", null),
+                ReadingAction.unsaveStory("42:abcdef"),
+                ReadingAction.markFeedRead(FeedSet.singleFeed("42"), 1700000000L, null),
+                ReadingAction.markFeedRead(FeedSet.folder("News", setOf("1", "2")), null, 1600000000L),
+                ReadingAction.shareStory("42:abcdef", "story", "42", "7", "a \"quoted\" comment\nover two lines"),
+                ReadingAction.unshareStory("42:abcdef", "story", "42"),
+                ReadingAction.likeComment("story", "7", "42"),
+                ReadingAction.unlikeComment("story", "7", "42"),
+                ReadingAction.replyToComment("story", "42", "7", "reply"),
+                ReadingAction.updateReply("story", "42", "7", "r1", "edited"),
+                ReadingAction.deleteReply("story", "42", "7", "r1"),
+                ReadingAction.muteFeeds(setOf("1", "2"), setOf("3")),
+                ReadingAction.unmuteFeeds(setOf("1", "2", "3"), setOf("3")),
+                ReadingAction.setNotify("42", listOf("ios", "android"), "focus"),
+                ReadingAction.instaFetch("42"),
+                ReadingAction.updateIntel("42", classifier, FeedSet.singleFeed("42")),
+                ReadingAction.renameFeed("42", "A new name"),
+        )
+        for (action in actions) assertRoundTrip(action)
+    }
+
+    @Test
+    fun roundTripsLongText() {
+        assertRoundTrip(ReadingAction.replyToComment("story", "42", "7", "x".repeat(100000)))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsUnknownVersion() {
+        val data = ReadingAction.Codec.encode(ReadingAction.markStoryRead("42:abcdef"))
+        data[1] = 99
+        ReadingAction.Codec.decode(data)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsTruncatedData() {
+        val data = ReadingAction.Codec.encode(ReadingAction.shareStory("42:abcdef", "story", "42", "7", "comment"))
+        ReadingAction.Codec.decode(data.copyOf(data.size - 3))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsJson() {
+        ReadingAction.Codec.decode(DatabaseConstants.JsonHelper.toJson(ReadingAction.markStoryRead("42:abcdef")).toByteArray())
+    }
+
+    private fun withTypeOrdinal(vararg ordinal: Int): ByteArray {
+        val data = ReadingAction.Codec.encode(ReadingAction.markStoryRead("42:abcdef"))
+        // the magic and version bytes, then the one-byte type ordinal
+        return data.copyOf(2) + ordinal.map { it.toByte() }.toByteArray() + data.copyOfRange(3, data.size)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsUnknownType() {
+        ReadingAction.Codec.decode(withTypeOrdinal(0x7F))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsNegativeType() {
+        // -1 as a five-byte varint
+        ReadingAction.Codec.decode(withTypeOrdinal(0xFF, 0xFF, 0xFF, 0xFF, 0x0F))
+    }
+
+    @Test
+    fun freezesSmallerThanJson() {
+        val actions = List(1000) { ReadingAction.markStoryRead("${it % 500}:${it.toString(16).padStart(6, '0')}") }
+        val jsonBytes = actions.sumOf { DatabaseConstants.JsonHelper.toJson(it).toByteArray().size }
+        val binaryBytes = actions.sumOf { ReadingAction.Codec.encode(it).size }
+        Assert.assertTrue(binaryBytes < jsonBytes)
+    }
+}
@@ -0,0 +1,103 @@
+package com.newsblur
+
+import com.newsblur.database.ReadingSession
+import org.junit.Assert
+import org.junit.Test
+
+class ReadingSessionTest {
+
+    @Test
+    fun newestFirst() {
+        val session = ReadingSession()
+        session.orderBy("timestamp", true)
+        session.add("b", 200L)
+        session.add("a", 100L)
+        session.add("c", 300L)
+        Assert.assertArrayEquals(arrayOf("c", "b", "a"), session.getHashes())
+    }
+
+    @Test
+    fun oldestFirst() {
+        val session = ReadingSession()
+        session.orderBy("timestamp", false)
+        session.add("b", 200L)
+        session.add("c", 300L)
+        session.add("a", 100L)
+        Assert.assertArrayEquals(arrayOf("a", "b", "c"), session.getHashes())
+    }
+
+    @Test
+    fun tiesSortByHashInTheSameDirection() {
+        val session = ReadingSession()
+        session.orderBy("timestamp", true)
+        session.add("x", 100L)
+        session.add("z", 100L)
+        session.add("y", 100L)
+        Assert.assertArrayEquals(arrayOf("z", "y", "x"), session.getHashes())
+
+        session.orderBy("timestamp", false)
+        session.add("x", 100L)
+        session.add("z", 100L)
+        session.add("y", 100L)
+        Assert.assertArrayEquals(arrayOf("x", "y", "z"), session.getHashes())
+    }
+
+    @Test
+    fun addingAgainDedupesOrRepositions() {
+        val session = ReadingSession()
+        session.orderBy("timestamp", true)
+        Assert.assertTrue(session.add("a", 100L))
+        Assert.assertTrue(session.add("b", 200L))
+        val version = session.version
+        Assert.assertFalse(session.add("a", 100L))
+        Assert.assertEquals(version, session.version)
+        Assert.assertEquals(2, session.size)
+
+        Assert.assertFalse(session.add("a", 300L))
+        Assert.assertEquals(2, session.size)
+        Assert.assertArrayEquals(arrayOf("a", "b"), session.getHashes())
+        Assert.assertTrue(session.version > version)
+    }
+
+    @Test
+    fun remove() {
+        val session = ReadingSession()
+        session.orderBy("timestamp", true)
+        session.add("a", 100L)
+        session.add("b", 200L)
+        session.add("c", 300L)
+        val version = session.version
+        session.remove(listOf("b", "missing"))
+        Assert.assertArrayEquals(arrayOf("c", "a"), session.getHashes())
+        Assert.assertFalse(session.contains("b"))
+        Assert.assertTrue(session.contains("a"))
+        Assert.assertEquals(version + 1, session.version)
+    }
+
+    @Test
+    fun changingOrderClears() {
+        val session = ReadingSession()
+        session.orderBy("timestamp", true)
+        session.add("a", 100L)
+        session.orderBy("timestamp", true)
+        Assert.assertEquals(1, session.size)
+
+        val version = session.version
+        session.orderBy("starred_date", true)
+        Assert.assertEquals(0, session.size)
+        Assert.assertEquals("starred_date", session.sortColumn)
+        Assert.assertTrue(session.version > version)
+    }
+
+    @Test
+    fun clearingKeepsFeedSetAndOrder() {
+        val session = ReadingSession()
+        session.orderBy("timestamp", false)
+        session.add("a", 100L)
+        session.clear()
+        Assert.assertEquals(0, session.size)
+        Assert.assertEquals("timestamp", session.sortColumn)
+        Assert.assertFalse(session.isDescending)
+        Assert.assertNull(session.feedSet)
+    }
+}
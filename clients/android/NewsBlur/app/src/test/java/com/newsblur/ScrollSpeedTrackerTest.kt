@@ -0,0 +1,89 @@
+package com.newsblur
+
+import com.newsblur.util.ScrollSpeedTracker
+import org.junit.Assert
+import org.junit.Test
+
+class ScrollSpeedTrackerTest {
+
+    // 2000 px/s, or 32 px per 16 ms frame
+    private fun tracker() = ScrollSpeedTracker(2000f)
+
+    @Test
+    fun `slow scroll is never too fast`() {
+        val tracker = tracker()
+        tracker.onScrollStateChanged(false, 0L)
+        for (frame in 1..30) {
+            Assert.assertFalse(tracker.onScrolled(10, frame * 16L))
+            Assert.assertFalse(tracker.isTooFast)
+        }
+    }
+
+    @Test
+    fun `fling is too fast until it slows`() {
+        val tracker = tracker()
+        tracker.onScrollStateChanged(false, 0L)
+        var now = 0L
+        for (frame in 1..5) {
+            now += 16L
+            tracker.onScrolled(200, now)
+        }
+        Assert.assertTrue(tracker.isTooFast)
+        Assert.assertEquals(1, tracker.direction)
+
+        // decelerate, and expect exactly one notice that the list slowed down
+        var slowedNotices = 0
+        for (dy in listOf(150, 100, 60, 30, 15, 8, 4, 2, 1)) {
+            now += 16L
+            if (tracker.onScrolled(dy, now)) slowedNotices++
+        }
+        Assert.assertEquals(1, slowedNotices)
+        Assert.assertFalse(tracker.isTooFast)
+    }
+
+    @Test
+    fun `stopping ends a fling`() {
+        val tracker = tracker()
+        tracker.onScrollStateChanged(false, 0L)
+        tracker.onScrolled(-300, 16L)
+        tracker.onScrolled(-300, 32L)
+        Assert.assertTrue(tracker.isTooFast)
+        Assert.assertEquals(-1, tracker.direction)
+        tracker.onScrollStateChanged(true, 40L)
+        Assert.assertFalse(tracker.isTooFast)
+        // the direction is kept for looking ahead once stopped
+        Assert.assertEquals(-1, tracker.direction)
+    }
+
+    @Test
+    fun `long gaps do not count as speed`() {
+        val tracker = tracker()
+        tracker.onScrollStateChanged(false, 0L)
+        // a big jump after a pause, such as a programmatic scroll, is not a fling
+        tracker.onScrolled(5000, 500L)
+        Assert.assertFalse(tracker.isTooFast)
+    }
+
+    @Test
+    fun `layout scrolls while idle are ignored`() {
+        val tracker = tracker()
+        tracker.onScrolled(5000, 1L)
+        tracker.onScrolled(5000, 2L)
+        Assert.assertFalse(tracker.isTooFast)
+    }
+
+    @Test
+    fun `ahead range follows direction and bounds`() {
+        Assert.assertArrayEquals(intArrayOf(11, 14), ScrollSpeedTracker.aheadRange(5, 10, 1, 4, 100))
+        Assert.assertArrayEquals(intArrayOf(1, 4), ScrollSpeedTracker.aheadRange(5, 10, -1, 4, 100))
+        Assert.assertArrayEquals(intArrayOf(11, 11), ScrollSpeedTracker.aheadRange(5, 10, 1, 4, 12))
+        Assert.assertArrayEquals(intArrayOf(0, 1), ScrollSpeedTracker.aheadRange(2, 10, -1, 4, 100))
+        // nothing past either end
+        val atEnd = ScrollSpeedTracker.aheadRange(5, 10, 1, 4, 11)
+        Assert.assertTrue(atEnd[1] < atEnd[0])
+        val atStart = ScrollSpeedTracker.aheadRange(0, 10, -1, 4, 100)
+        Assert.assertTrue(atStart[1] < atStart[0])
+        val nothingVisible = ScrollSpeedTracker.aheadRange(-1, -1, 1, 4, 100)
+        Assert.assertTrue(nothingVisible[1] < nothingVisible[0])
+    }
+}
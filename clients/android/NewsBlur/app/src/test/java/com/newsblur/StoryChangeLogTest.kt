@@ -0,0 +1,102 @@
+package com.newsblur
+
+import com.newsblur.database.DatabaseConstants
+import com.newsblur.database.ReadingSession
+import com.newsblur.database.StoryChangeLog
+import com.newsblur.domain.Story
+import com.newsblur.util.FeedSet
+import com.newsblur.util.StoryOrder
+import com.newsblur.util.StoryUtil
+import org.junit.Assert
+import org.junit.Test
+
+class StoryChangeLogTest {
+
+    private fun story(hash: String, timestamp: Long, read: Boolean = false): Story {
+        val story = Story()
+        story.storyHash = hash
+        story.timestamp = timestamp
+        story.read = read
+        return story
+    }
+
+    private fun hashes(stories: List<Story>): List<String> = stories.map { it.storyHash }
+
+    @Test
+    fun `never seen version gets full changes`() {
+        val log = StoryChangeLog()
+        log.recordUpdated(listOf("a"))
+        Assert.assertTrue(log.changesSince(0L).isFull)
+    }
+
+    @Test
+    fun `changes merge per story`() {
+        val log = StoryChangeLog()
+        log.recordUpdated(listOf("seen"))
+        val since = log.currentVersion()
+        log.recordInserted(listOf("a", "b"))
+        log.recordUpdated(listOf("a", "c"))
+        log.recordRemoved(listOf("b"))
+        val changes = log.changesSince(since)
+        Assert.assertFalse(changes.isFull)
+        Assert.assertEquals(setOf("a"), changes.inserted)
+        Assert.assertEquals(setOf("c"), changes.updated)
+        Assert.assertEquals(setOf("b"), changes.removed)
+        Assert.assertEquals(log.currentVersion(), changes.version)
+        Assert.assertTrue(log.changesSince(changes.version).isEmpty())
+    }
+
+    @Test
+    fun `invalidate forces full changes for older versions`() {
+        val log = StoryChangeLog()
+        log.recordUpdated(listOf("a"))
+        val since = log.currentVersion()
+        log.invalidate()
+        Assert.assertTrue(log.changesSince(since).isFull)
+        val after = log.currentVersion()
+        log.recordUpdated(listOf("b"))
+        Assert.assertEquals(setOf("b"), log.changesSince(after).updated)
+    }
+
+    @Test
+    fun `overflow forces full changes for evicted versions`() {
+        val log = StoryChangeLog(capacity = 3)
+        log.recordUpdated(listOf("a"))
+        val since = log.currentVersion()
+        log.recordUpdated(listOf("b", "c"))
+        Assert.assertFalse(log.changesSince(since).isFull)
+        log.recordUpdated(listOf("d", "e"))
+        Assert.assertTrue(log.changesSince(since).isFull)
+    }
+
+    @Test
+    fun `delta keeps story list sorted`() {
+        val comparator = StoryUtil.getSessionStoryComparator(FeedSet.allFeeds(), StoryOrder.NEWEST)
+        val current = listOf(story("e", 50), story("d", 40), story("c", 30), story("b", 20), story("a", 10))
+        val changed = listOf(story("f", 35), story("b", 20, read = true), story("a", 45))
+        val result = StoryUtil.applyStoryDelta(current, changed, setOf("d"), comparator)
+        Assert.assertEquals(listOf("e", "a", "f", "c", "b"), hashes(result))
+        Assert.assertTrue(result[4].read)
+        Assert.assertSame(current[0], result[0])
+    }
+
+    @Test
+    fun `delta honours oldest first order`() {
+        val comparator = StoryUtil.getSessionStoryComparator(FeedSet.allFeeds(), StoryOrder.OLDEST)
+        val current = listOf(story("a", 10), story("c", 30))
+        val result = StoryUtil.applyStoryDelta(current, listOf(story("b", 20), story("d", 40)), emptySet(), comparator)
+        Assert.assertEquals(listOf("a", "b", "c", "d"), hashes(result))
+    }
+
+    @Test
+    fun `delta breaks read time ties like the session`() {
+        val comparator = StoryUtil.getSessionStoryComparator(FeedSet.allRead(), StoryOrder.NEWEST)
+        val session = ReadingSession()
+        session.orderBy(DatabaseConstants.STORY_LAST_READ_DATE, DatabaseConstants.isSessionSortDescending(FeedSet.allRead(), StoryOrder.NEWEST))
+        // marking all read gives every story the same read time
+        val stories = listOf("b", "d", "a", "c").map { hash -> story(hash, 0).also { it.lastReadTimestamp = 99 } }
+        for (story in stories) session.add(story.storyHash, story.lastReadTimestamp)
+        val result = StoryUtil.applyStoryDelta(emptyList(), stories, emptySet(), comparator)
+        Assert.assertEquals(session.getHashes().toList(), hashes(result))
+    }
+}
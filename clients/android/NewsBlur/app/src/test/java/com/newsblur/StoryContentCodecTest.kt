@@ -0,0 +1,66 @@
+package com.newsblur
+
+import com.newsblur.util.StoryContentCodec
+import com.newsblur.util.StoryUtil
+import org.junit.Assert
+import org.junit.Test
+
+class StoryContentCodecTest {
+
+    private val storyHtml = (1..40).joinToString("") {
+        "<p>Paragraph $it of the story, with <a href=\"https://www.example.com/post/$it\" target=\"_blank\" " +
+                "rel=\"noopener noreferrer\">a link</a> and <strong>some</strong> <em>markup</em>.</p>\n" +
+                "<figure class=\"wp-block-image size-large\"><img src=\"https://cdn.example.com/$it.jpg\" alt=\"\" " +
+                "loading=\"lazy\" decoding=\"async\" /><figcaption>Caption $it</figcaption></figure>"
+    }
+
+    @Test
+    fun nullStaysNull() {
+        Assert.assertNull(StoryContentCodec.encode(null))
+        Assert.assertNull(StoryContentCodec.decode(null))
+    }
+
+    @Test
+    fun roundTrips() {
+        for (text in listOf("", "short", "caf\u00e9 \u2014 \ud83d\udcf0 story", storyHtml, storyHtml + "\u00fc\u00f1\u00ee\u00e7\u00f8d\u00e9")) {
+            Assert.assertEquals(text, StoryContentCodec.decode(StoryContentCodec.encode(text)))
+        }
+    }
+
+    @Test
+    fun shortValuesAreNotDeflated() {
+        val packed = StoryContentCodec.encode("<p>tiny</p>")
+        Assert.assertEquals("<p>tiny</p>".length + 1, packed.size)
+    }
+
+    @Test
+    fun storyHtmlShrinks() {
+        val plainSize = storyHtml.encodeToByteArray().size
+        val packedSize = StoryContentCodec.encode(storyHtml).size
+        Assert.assertTrue(packedSize * 4 < plainSize)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun unknownFormatThrows() {
+        StoryContentCodec.decode(byteArrayOf(42, 1, 2, 3))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun truncatedValueThrows() {
+        val packed = StoryContentCodec.encode(storyHtml)
+        StoryContentCodec.decode(packed.copyOf(packed.size / 2))
+    }
+
+    /**
+     * Size on disk of the largest content a story can hold, as capped at ingestion.  How long it
+     * takes to open is measured on a device, by StoryContentCodecBenchmarkTest.
+     */
+    @Test
+    fun longContentSize() {
+        val content = StoryUtil.truncateContent(ResourceUtil.readJsonResource("longContent.json"))
+        val plainSize = content.encodeToByteArray().size
+        val packed = StoryContentCodec.encode(content)
+        Assert.assertEquals(content, StoryContentCodec.decode(packed))
+        Assert.assertTrue(packed.size * 3 < plainSize)
+    }
+}
@@ -0,0 +1,138 @@
+package com.newsblur
+
+import android.database.Cursor
+import com.newsblur.database.DatabaseConstants
+import com.newsblur.domain.Story
+import org.junit.Assert
+import org.junit.Test
+import java.lang.reflect.Proxy
+
+/**
+ * Checks that a per-cursor [Story.CursorMapper] with the list projection thaws the same stories
+ * as [Story.fromCursor] while resolving columns once per cursor and leaving joined fields unsplit.
+ */
+class StoryCursorMapperTest {
+
+    private var columnLookups = 0
+    private val columnsRead = HashSet<String>()
+
+    private val columns = arrayOf(
+            DatabaseConstants.STORY_AUTHORS, DatabaseConstants.STORY_SHORT_CONTENT, DatabaseConstants.STORY_TITLE,
+            DatabaseConstants.STORY_TIMESTAMP, DatabaseConstants.STORY_SOCIAL_USER_ID, DatabaseConstants.STORY_SOURCE_USER_ID,
+            DatabaseConstants.STORY_PERMALINK, DatabaseConstants.STORY_SHARED_USER_IDS, DatabaseConstants.STORY_FRIEND_USER_IDS,
+            DatabaseConstants.STORY_INTELLIGENCE_AUTHORS, DatabaseConstants.STORY_INTELLIGENCE_FEED,
+            DatabaseConstants.STORY_INTELLIGENCE_TAGS, DatabaseConstants.STORY_INTELLIGENCE_TITLE, DatabaseConstants.STORY_READ,
+            DatabaseConstants.STORY_STARRED, DatabaseConstants.STORY_STARRED_DATE, DatabaseConstants.STORY_TAGS,
+            DatabaseConstants.STORY_USER_TAGS, DatabaseConstants.STORY_FEED_ID, DatabaseConstants.STORY_ID,
+            DatabaseConstants.STORY_HASH, DatabaseConstants.STORY_LAST_READ_DATE, DatabaseConstants.STORY_SHARED_DATE,
+            DatabaseConstants.STORY_THUMBNAIL_URL, DatabaseConstants.STORY_HAS_MODIFICATIONS,
+    )
+
+    private fun row(i: Int): Array<Any?> = arrayOf(
+            "Author $i", "Short content for story $i", "Story title $i",
+            1_700_000_000_000L - i * 60_000L, "", "",
+            "https://example.com/story/$i", "101,102,103", "201,202",
+            0, 1, 0, -1, i % 2,
+            0, 0L, "android,kotlin,performance,sqlite",
+            "", "${i % 50}", "story-id-$i",
+            "${i % 50}:${i.toString(16)}", 0L, 0L,
+            "https://example.com/thumb/$i.jpg", 0,
+    )
+
+    /**
+     * A minimal in-memory cursor. Column lookups scan the column names ignoring case, as
+     * AbstractCursor does.
+     */
+    private fun cursorOf(rows: List<Array<Any?>>): Cursor {
+        var position = -1
+        return Proxy.newProxyInstance(Cursor::class.java.classLoader, arrayOf(Cursor::class.java)) { _, method, args ->
+            when (method.name) {
+                "getCount" -> rows.size
+                "getPosition" -> position
+                "isBeforeFirst" -> position < 0
+                "isClosed" -> false
+                "moveToFirst" -> { position = 0; rows.isNotEmpty() }
+                "moveToPosition" -> { position = args[0] as Int; position in rows.indices }
+                "moveToNext" -> { position++; position < rows.size }
+                "getColumnIndex" -> {
+                    columnLookups++
+                    columns.indexOfFirst { it.equals(args[0] as String, ignoreCase = true) }
+                }
+                "getString" -> { columnsRead.add(columns[args[0] as Int]); rows[position][args[0] as Int]?.toString() }
+                "getInt" -> { columnsRead.add(columns[args[0] as Int]); (rows[position][args[0] as Int] as Number).toInt() }
+                "getLong" -> { columnsRead.add(columns[args[0] as Int]); (rows[position][args[0] as Int] as Number).toLong() }
+                "close" -> Unit
+                else -> throw UnsupportedOperationException(method.name)
+            }
+        } as Cursor
+    }
+
+    private fun thawPerRow(cursor: Cursor): List<Story> {
+        val stories = ArrayList<Story>(cursor.count)
+        cursor.moveToPosition(-1)
+        while (cursor.moveToNext()) stories.add(Story.fromCursor(cursor))
+        return stories
+    }
+
+    private fun thawMapped(cursor: Cursor): List<Story> {
+        val stories = ArrayList<Story>(cursor.count)
+        cursor.moveToPosition(-1)
+        val mapper = Story.CursorMapper(cursor, true)
+        while (cursor.moveToNext()) stories.add(mapper.fromCursor(cursor))
+        return stories
+    }
+
+    @Test
+    fun listProjectionMatchesFullThaw() {
+        val cursor = cursorOf(List(10) { row(it) })
+        val full = thawPerRow(cursor)
+        val mapped = thawMapped(cursor)
+        for (i in full.indices) {
+            Assert.assertEquals(full[i].storyHash, mapped[i].storyHash)
+            Assert.assertEquals(full[i].title, mapped[i].title)
+            Assert.assertEquals(full[i].timestamp, mapped[i].timestamp)
+            Assert.assertEquals(full[i].read, mapped[i].read)
+            Assert.assertEquals(full[i].intelligence.calcTotalIntel(), mapped[i].intelligence.calcTotalIntel())
+            Assert.assertArrayEquals(full[i].sharedUserIds, mapped[i].sharedUserIds)
+            Assert.assertArrayEquals(full[i].tags, mapped[i].tags)
+            Assert.assertArrayEquals(full[i].userTags, mapped[i].userTags)
+            Assert.assertTrue(full[i].isChanged(mapped[i]))
+        }
+    }
+
+    @Test
+    fun columnsAreResolvedOncePerCursor() {
+        val cursor = cursorOf(List(200) { row(it) })
+        thawPerRow(cursor)
+        val perRowLookups = columnLookups
+        columnLookups = 0
+        thawMapped(cursor)
+        Assert.assertEquals(perRowLookups / 200, columnLookups)
+    }
+
+    @Test
+    fun listProjectionSkipsReadingOnlyColumns() {
+        thawMapped(cursorOf(List(10) { row(it) }))
+        Assert.assertFalse(columnsRead.contains(DatabaseConstants.STORY_SOURCE_USER_ID))
+        Assert.assertFalse(columnsRead.contains(DatabaseConstants.STORY_HAS_MODIFICATIONS))
+        columnsRead.clear()
+        thawPerRow(cursorOf(List(10) { row(it) }))
+        Assert.assertTrue(columnsRead.contains(DatabaseConstants.STORY_SOURCE_USER_ID))
+        Assert.assertTrue(columnsRead.contains(DatabaseConstants.STORY_HAS_MODIFICATIONS))
+    }
+
+    @Test
+    fun joinedFieldsAreSplitOnFirstAccess() {
+        val story = thawMapped(cursorOf(listOf(row(0))))[0]
+        val tagsField = Story::class.java.getDeclaredField("tags").apply { isAccessible = true }
+        val sharedField = Story::class.java.getDeclaredField("sharedUserIds").apply { isAccessible = true }
+        Assert.assertNull(tagsField.get(story))
+        Assert.assertNull(sharedField.get(story))
+
+        Assert.assertArrayEquals(arrayOf("android", "kotlin", "performance", "sqlite"), story.tags)
+        Assert.assertNotNull(tagsField.get(story))
+        // asking for one joined field leaves the others alone
+        Assert.assertNull(sharedField.get(story))
+        Assert.assertArrayEquals(arrayOf("101", "102", "103"), story.sharedUserIds)
+    }
+}
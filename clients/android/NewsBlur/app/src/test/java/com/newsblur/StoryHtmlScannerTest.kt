@@ -0,0 +1,93 @@
+package com.newsblur
+
+import com.newsblur.util.StoryHtmlScanner
+import org.junit.Assert
+import org.junit.Test
+
+class StoryHtmlScannerTest {
+
+    @Test
+    fun shortContentIsCollapsedText() {
+        val html = """
+            <style>p { color: red; }</style>
+            <p>First&nbsp;para&hellip;</p><!-- a comment <b>not</b> shown -->
+            <div>Second<br/>line &amp; <a href="x">a&#8217;link</a></div>
+            <script type="text/javascript">var x = "<p>no</p>";</script>
+            <p>1 &lt; 2 &bogus; &</p>
+        """.trimIndent()
+        val scan = StoryHtmlScanner.scan(html)
+        Assert.assertEquals("First para… Second line & a’link 1 < 2 &bogus; &", scan.shortContent)
+        Assert.assertSame(html, scan.content)
+
+        val long = StoryHtmlScanner.scan("<p>" + "word ".repeat(200) + "</p>")
+        Assert.assertEquals(StoryHtmlScanner.SHORT_CONTENT_LENGTH - 1, long.shortContent.length)
+        Assert.assertTrue(long.shortContent.startsWith("word word"))
+    }
+
+    @Test
+    fun rewritesInsecureUrlsAndCollectsImages() {
+        val html = """<p>Look: <img alt="a" SRC="http://example.com/a.jpg"> and <img src='http://example.com/b.png?x=1&amp;y=2'/>""" +
+                """<img src="https://example.com/c.gif"> see http://example.com/a.jpg or http://example.com/other.jpg</p>"""
+        val rewrites = mapOf(
+                "http://example.com/a.jpg" to "https://proxy.example.com/a.jpg",
+                "http://example.com/b.png?x=1&amp;y=2" to "https://proxy.example.com/b.png",
+        )
+        val scan = StoryHtmlScanner.scan(html, rewrites)
+        Assert.assertEquals("""<p>Look: <img alt="a" SRC="https://proxy.example.com/a.jpg"> and <img src='https://proxy.example.com/b.png'/>""" +
+                """<img src="https://example.com/c.gif"> see https://proxy.example.com/a.jpg or http://example.com/other.jpg</p>""", scan.content)
+        Assert.assertEquals(listOf("https://proxy.example.com/a.jpg", "https://proxy.example.com/b.png", "https://example.com/c.gif"), scan.imageUrls)
+        Assert.assertEquals("Look: and see https://proxy.example.com/a.jpg or http://example.com/other.jpg", scan.shortContent)
+        Assert.assertNull(scan.youtubeId)
+    }
+
+    @Test
+    fun rewritesUrlsWhateverSurroundsThem() {
+        val html = """<div style="background:url(http://example.com/a.jpg)"><img srcset="http://example.com/a.jpg,http://example.com/a.jpg?big 2x">""" +
+                """<style>p { background: url('http://example.com/a.jpg'); }</style>"""
+        val rewrites = mapOf(
+                "http://example.com/a.jpg" to "https://proxy.example.com/a.jpg",
+                "http://example.com/a.jpg?big" to "https://proxy.example.com/big.jpg",
+        )
+        val scan = StoryHtmlScanner.scan(html, rewrites)
+        Assert.assertEquals("""<div style="background:url(https://proxy.example.com/a.jpg)"><img srcset="https://proxy.example.com/a.jpg,https://proxy.example.com/big.jpg 2x">""" +
+                """<style>p { background: url('https://proxy.example.com/a.jpg'); }</style>""", scan.content)
+    }
+
+    @Test
+    fun decodesAllNamedEntities() {
+        val scan = StoryHtmlScanner.scan("<p>Gr&uuml;&szlig;e aus M&Uuml;NCHEN &ndash; 5&euro; &agrave; la &oelig;uvre, &alpha;&ne;&beta; &Afr; &NotEqualTilde; &CounterClockwiseContourIntegral;</p>")
+        Assert.assertEquals("Grüße aus MÜNCHEN – 5€ à la œuvre, α≠β \uD835\uDD04 \u2242\u0338 \u2233", scan.shortContent)
+        Assert.assertEquals("&uuml &notanentity; &; x", StoryHtmlScanner.scan("&uuml &notanentity; &; x").shortContent)
+    }
+
+    @Test
+    fun thumbnailPrefersVideoThenFirstImage() {
+        val video = StoryHtmlScanner.scan("""<a href="https://www.youtube.com/watch?v=watchId">x</a><iframe src="https://www.YouTube.com/embed/embed_Id-1?rel=0"></iframe>""")
+        Assert.assertEquals("embed_Id-1", video.youtubeId)
+        Assert.assertEquals("https://img.youtube.com/vi/embed_Id-1/0.jpg", video.pickThumbnail(arrayOf("http://example.com/a.jpg"), null))
+
+        val images = StoryHtmlScanner.scan("""<img src="http://example.com/a.jpg">""")
+        Assert.assertEquals("https://thumbs.example.com/a.jpg",
+                images.pickThumbnail(images.imageUrls.toTypedArray(), mapOf("http://example.com/a.jpg" to "https://thumbs.example.com/a.jpg")))
+        Assert.assertEquals("http://example.com/a.jpg", images.pickThumbnail(images.imageUrls.toTypedArray(), null))
+        Assert.assertNull(StoryHtmlScanner.scan("<p>text</p>").pickThumbnail(emptyArray(), null))
+    }
+
+    @Test
+    fun findsVideosOutsideSrcAndHref() {
+        val param = StoryHtmlScanner.scan("""<object><param name="movie" value="https://www.youtube.com/v/paramId&hl=en"></object>""")
+        Assert.assertEquals("paramId", param.youtubeId)
+        val text = StoryHtmlScanner.scan("""<p>Watch it at youtube.com/watch?v=textId or see ytimg.com/vi/stillId/0.jpg</p>""")
+        Assert.assertEquals("stillId", text.youtubeId)
+        Assert.assertNull(StoryHtmlScanner.scan("""<p>youtube.com/embed/ on its own</p>""").youtubeId)
+    }
+
+    @Test
+    fun toleratesBrokenMarkup() {
+        val scan = StoryHtmlScanner.scan("""a < b <img src="http://example.com/x.jpg" <p unclosed="""")
+        Assert.assertEquals("a < b", scan.shortContent)
+        Assert.assertEquals(listOf("http://example.com/x.jpg"), scan.imageUrls)
+        Assert.assertEquals("", StoryHtmlScanner.scan("").shortContent)
+        Assert.assertEquals("", StoryHtmlScanner.scan("<script>never closed").shortContent)
+    }
+}
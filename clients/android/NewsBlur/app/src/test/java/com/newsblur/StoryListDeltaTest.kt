@@ -0,0 +1,35 @@
+package com.newsblur
+
+import com.newsblur.domain.Story
+import com.newsblur.viewModel.StoryListDelta
+import org.junit.Assert
+import org.junit.Test
+
+class StoryListDeltaTest {
+
+    private fun story(hash: String, title: String = hash): Story {
+        val story = Story()
+        story.storyHash = hash
+        story.title = title
+        return story
+    }
+
+    @Test
+    fun `newer changes win`() {
+        val older = StoryListDelta(listOf(story("a", "old"), story("b")), setOf("c"))
+        val newer = StoryListDelta(listOf(story("a", "new")), emptySet())
+        val merged = older.then(newer)
+        Assert.assertEquals(listOf("a", "b"), merged.changed.map { it.storyHash })
+        Assert.assertEquals("new", merged.changed[0].title)
+        Assert.assertEquals(setOf("c"), merged.removed)
+    }
+
+    @Test
+    fun `removal and return cancel out`() {
+        val older = StoryListDelta(listOf(story("a")), setOf("b"))
+        val newer = StoryListDelta(listOf(story("b")), setOf("a"))
+        val merged = older.then(newer)
+        Assert.assertEquals(listOf("b"), merged.changed.map { it.storyHash })
+        Assert.assertEquals(setOf("a"), merged.removed)
+    }
+}
@@ -0,0 +1,165 @@
+package com.newsblur
+
+import com.google.gson.Gson
+import com.google.gson.JsonParseException
+import com.newsblur.network.domain.StoryTextResponse
+import com.newsblur.service.StoryTextFetcher
+import com.newsblur.service.StoryTextQueue
+import org.junit.Assert
+import org.junit.Test
+import java.io.StringReader
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+
+class StoryTextFetcherTest {
+
+    private fun response(text: String?) = StoryTextResponse().apply { originalText = text }
+
+    private class RecordingSink : StoryTextFetcher.Sink {
+        val texts = Collections.synchronizedMap(LinkedHashMap<String, String>())
+        val done = Collections.synchronizedList(mutableListOf<String>())
+        val batchSizes = Collections.synchronizedList(mutableListOf<Int>())
+
+        override fun write(texts: Map<String, String>, doneHashes: List<String>) {
+            this.texts.putAll(texts)
+            done.addAll(doneHashes)
+            batchSizes.add(doneHashes.size)
+        }
+    }
+
+    private fun StoryTextQueue.drain(): List<String> {
+        val order = mutableListOf<String>()
+        while (true) {
+            val hash = takePriority() ?: takeBackground() ?: break
+            order.add(hash)
+            finish(hash)
+        }
+        return order
+    }
+
+    @Test
+    fun onScreenStoryThenItsFeedThenTheRest() {
+        val queue = StoryTextQueue()
+        queue.addAll(listOf("1:a", "2:a", "1:b", "3:a", "2:b", "2:c"))
+        queue.addPriority("2:b")
+        Assert.assertEquals(6, queue.size())
+        Assert.assertEquals(listOf("2:b", "2:a", "2:c", "1:a", "1:b", "3:a"), queue.drain())
+        Assert.assertEquals(0, queue.size())
+    }
+
+    @Test
+    fun storiesInFlightAreNotQueuedAgain() {
+        val queue = StoryTextQueue()
+        queue.add("1:a")
+        Assert.assertEquals("1:a", queue.takeBackground())
+        queue.add("1:a")
+        queue.addPriority("1:a")
+        Assert.assertNull(queue.takePriority())
+        Assert.assertNull(queue.takeBackground())
+        Assert.assertEquals(1, queue.size())
+        queue.finish("1:a")
+        Assert.assertEquals(0, queue.size())
+    }
+
+    @Test
+    fun fetchesConcurrentlyAndWritesInBatches() {
+        val queue = StoryTextQueue()
+        queue.addAll((1..100).map { "${it % 7}:$it" })
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val source = StoryTextFetcher.Source { hash ->
+            maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+            Thread.sleep(5)
+            running.decrementAndGet()
+            when {
+                hash.endsWith(":13") -> null
+                hash.endsWith(":14") -> response(null)
+                hash.endsWith(":15") -> response("x".repeat(1000))
+                else -> response("<p>text of $hash</p>")
+            }
+        }
+        val sink = RecordingSink()
+        val stats = StoryTextFetcher(queue, source, sink, 4, 20, 1000).run({ false }, { true })
+
+        Assert.assertEquals(4, maxRunning.get())
+        // the failed fetch is left on the persisted queue, and queued again for the next run
+        Assert.assertEquals(99, sink.done.size)
+        Assert.assertFalse(sink.done.contains("6:13"))
+        Assert.assertTrue(sink.batchSizes.all { it <= 20 })
+        Assert.assertTrue(sink.batchSizes.size < 20)
+        Assert.assertEquals(99, sink.texts.size)
+        Assert.assertEquals("<p>text of 1:1</p>", sink.texts["1:1"])
+        Assert.assertFalse(sink.texts.containsKey("6:13"))
+        Assert.assertEquals(StoryTextFetcher.NULL_STORY_TEXT, sink.texts["0:14"])
+        Assert.assertEquals(StoryTextFetcher.NULL_STORY_TEXT, sink.texts["1:15"])
+        Assert.assertEquals(99, stats.fetched)
+        Assert.assertEquals(1, stats.failed)
+        Assert.assertEquals(1, stats.tooLarge)
+        Assert.assertEquals(1, queue.size())
+        val retry = RecordingSink()
+        StoryTextFetcher(queue, { response("text") }, retry, 4, 20, 1000).run({ false }, { true })
+        Assert.assertEquals(listOf("6:13"), retry.done)
+        Assert.assertEquals(0, queue.size())
+    }
+
+    @Test
+    fun backgroundWaitsButOnScreenStoriesDoNot() {
+        val queue = StoryTextQueue()
+        queue.addAll(listOf("1:a", "1:b"))
+        queue.addPriority("2:a")
+        val sink = RecordingSink()
+        StoryTextFetcher(queue, { response("text") }, sink, 4, 20, 1000).run({ false }, { false })
+        Assert.assertEquals(listOf("2:a"), sink.done)
+        // on-screen stories are written on their own rather than waiting for a batch
+        Assert.assertEquals(listOf(1), sink.batchSizes)
+        Assert.assertEquals(2, queue.size())
+    }
+
+    @Test
+    fun sourceErrorsCountAsFailures() {
+        val queue = StoryTextQueue()
+        queue.addAll(listOf("1:a", "1:b"))
+        val sink = RecordingSink()
+        val stats = StoryTextFetcher(queue, { hash -> if (hash == "1:a") throw IllegalStateException("boom") else response("text") }, sink, 2, 20, 1000).run({ false }, { true })
+        Assert.assertEquals(1, stats.failed)
+        Assert.assertEquals("boom", stats.lastError?.message)
+        Assert.assertEquals(listOf("1:b"), sink.texts.keys.toList())
+        Assert.assertEquals(listOf("1:b"), sink.done)
+        // tried once per run, however quickly it fails
+        Assert.assertEquals(1, queue.size())
+    }
+
+    @Test
+    fun oversizedResponsesAreAbandonedWhileStreaming() {
+        val gson = Gson()
+        val small = StoryTextResponse.read(StringReader("""{"original_text": "<p>hi</p>", "authenticated": true}"""), gson, 1000)
+        Assert.assertEquals("<p>hi</p>", small.originalText)
+        Assert.assertFalse(small.tooLarge)
+
+        val big = StoryTextResponse.read(StringReader("""{"original_text": "${"x".repeat(5000)}"}"""), gson, 1000)
+        Assert.assertTrue(big.tooLarge)
+        Assert.assertNull(big.originalText)
+    }
+
+    @Test
+    fun escapedTextsAreCappedByDecodedLength() {
+        val gson = Gson()
+        // 600 CJK chars are 3600 chars on the wire but decode to well under the cap
+        val escaped = "\\u4e2d".repeat(600)
+        val cjk = StoryTextResponse.read(StringReader("""{"original_text": "$escaped"}"""), gson, 1000)
+        Assert.assertFalse(cjk.tooLarge)
+        Assert.assertEquals("\u4e2d".repeat(600), cjk.originalText)
+
+        val quoted = StoryTextResponse.read(StringReader("""{"original_text": "${"\\\"\\\\".repeat(400)}"}"""), gson, 1000)
+        Assert.assertFalse(quoted.tooLarge)
+        Assert.assertEquals("\"\\".repeat(400), quoted.originalText)
+
+        val big = StoryTextResponse.read(StringReader("""{"original_text": "${"\\u4e2d".repeat(1200)}"}"""), gson, 1000)
+        Assert.assertTrue(big.tooLarge)
+    }
+
+    @Test(expected = JsonParseException::class)
+    fun cutOffResponsesAreErrorsNotTooLarge() {
+        StoryTextResponse.read(StringReader("""{"original_text": "<p>the start of a long sto"""), Gson(), 1000)
+    }
+}
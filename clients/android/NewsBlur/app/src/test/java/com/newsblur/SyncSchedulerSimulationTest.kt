@@ -0,0 +1,165 @@
+package com.newsblur
+
+import com.newsblur.service.SyncConditions
+import com.newsblur.service.SyncScheduler
+import com.newsblur.util.AppConstants
+import org.junit.Assert
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Drives the sync scheduler through several simulated days of background job ticks with
+ * seeded story arrivals, so the results are deterministic.
+ */
+class SyncSchedulerSimulationTest {
+
+    private class SimResult(
+            val ticks: Int,
+            val metadataSyncs: Int,
+            val longestGapMillis: Long,
+            val heavyTicks: List<Long>,
+    )
+
+    private fun simulate(
+            storiesPerMonth: Map<String, Int>,
+            days: Int = 3,
+            infrequentCutoff: Int = 30,
+            seed: Int = 42,
+            isForeground: (Long) -> Boolean = { false },
+    ): SimResult {
+        val scheduler = SyncScheduler()
+        scheduler.setFeedCadences(storiesPerMonth, infrequentCutoff)
+        val random = Random(seed)
+        val end = START + days * DAY_MILLIS
+        var now = START
+        var lastMetadata = 0L
+        var lastArrivals = START
+        var ticks = 0
+        var metadataSyncs = 0
+        var longestGap = 0L
+        val heavyTicks = mutableListOf<Long>()
+        while (now < end) {
+            ticks++
+            val conditions = SyncConditions(
+                    isForeground = isForeground(now),
+                    isUnmetered = isNight(now),
+                    isCharging = isNight(now),
+                    nowMillis = now,
+            )
+            val plan = scheduler.planSync(conditions, lastMetadata, false)
+            if (plan.metadata) {
+                if (lastMetadata > 0L) longestGap = maxOf(longestGap, now - lastMetadata)
+                metadataSyncs++
+                lastMetadata = now
+                scheduler.recordArrivals(arrivals(storiesPerMonth, now - lastArrivals, random), now)
+                lastArrivals = now
+            }
+            if (plan.heavyWork) heavyTicks.add(now)
+            now += AppConstants.BG_SERVICE_CYCLE_MILLIS
+        }
+        return SimResult(ticks, metadataSyncs, longestGap, heavyTicks)
+    }
+
+    private fun arrivals(storiesPerMonth: Map<String, Int>, windowMillis: Long, random: Random): Map<String, Int> {
+        val result = HashMap<String, Int>()
+        for ((feedId, perMonth) in storiesPerMonth) {
+            val expected = perMonth * windowMillis / SyncScheduler.MONTH_MILLIS
+            var count = expected.toInt()
+            if (random.nextDouble() < expected - count) count++
+            if (count > 0) result[feedId] = count
+        }
+        return result
+    }
+
+    private fun isNight(nowMillis: Long): Boolean = ((nowMillis - START) % DAY_MILLIS) < 6L * HOUR_MILLIS
+
+    private fun feeds(count: Int, perMonth: Int): Map<String, Int> =
+            (1..count).associate { it.toString() to perMonth }
+
+    @Test
+    fun `quiet account syncs far less than fixed interval`() {
+        val result = simulate(feeds(10, 40))
+        Assert.assertTrue(result.metadataSyncs < result.ticks / 4)
+        Assert.assertTrue(result.longestGapMillis <= AppConstants.QUIET_SYNC_MAX_MILLIS + AppConstants.BG_SERVICE_CYCLE_MILLIS)
+    }
+
+    @Test
+    fun `busy account syncs every eligible tick`() {
+        val result = simulate(feeds(50, 3000))
+        Assert.assertEquals(result.ticks, result.metadataSyncs)
+    }
+
+    @Test
+    fun `infrequent feeds do not trigger syncs`() {
+        val result = simulate(feeds(50, 10), infrequentCutoff = 30)
+        // only the quiet-period cap should be forcing syncs
+        val maxSyncs = (3 * DAY_MILLIS / AppConstants.QUIET_SYNC_MAX_MILLIS).toInt() + 1
+        Assert.assertTrue(result.metadataSyncs <= maxSyncs)
+    }
+
+    @Test
+    fun `heavy work only runs while charging on unmetered network`() {
+        val result = simulate(feeds(10, 40))
+        Assert.assertTrue(result.heavyTicks.isNotEmpty())
+        for (tick in result.heavyTicks) {
+            Assert.assertTrue(isNight(tick))
+        }
+    }
+
+    @Test
+    fun `foreground allows metadata and heavy work on unmetered network`() {
+        val scheduler = SyncScheduler()
+        scheduler.setFeedCadences(feeds(10, 1), 30)
+        val conditions = SyncConditions(isForeground = true, isUnmetered = true, isCharging = false, nowMillis = START)
+        val plan = scheduler.planSync(conditions, START - AppConstants.AUTO_SYNC_TIME_MILLIS, false)
+        Assert.assertTrue(plan.metadata)
+        Assert.assertTrue(plan.heavyWork)
+    }
+
+    @Test
+    fun `forced sync ignores cadence and interval`() {
+        val scheduler = SyncScheduler()
+        scheduler.setFeedCadences(feeds(10, 1), 30)
+        val conditions = SyncConditions(isForeground = false, isUnmetered = false, isCharging = false, nowMillis = START)
+        val plan = scheduler.planSync(conditions, START - 1000L, true)
+        Assert.assertTrue(plan.metadata)
+        Assert.assertFalse(plan.heavyWork)
+    }
+
+    @Test
+    fun `no known cadences falls back to fixed interval`() {
+        val scheduler = SyncScheduler()
+        val conditions = SyncConditions(isForeground = false, isUnmetered = false, isCharging = false, nowMillis = START)
+        Assert.assertFalse(scheduler.planSync(conditions, START - 1000L, false).metadata)
+        Assert.assertTrue(scheduler.planSync(conditions, START - AppConstants.AUTO_SYNC_TIME_MILLIS, false).metadata)
+    }
+
+    @Test
+    fun `silent feed rate decays`() {
+        val scheduler = SyncScheduler()
+        scheduler.setFeedCadences(mapOf("1" to 3000), 30)
+        val before = scheduler.expectedNewStories(HOUR_MILLIS)
+        var now = START
+        scheduler.recordArrivals(emptyMap(), now)
+        repeat(10) {
+            now += HOUR_MILLIS
+            scheduler.recordArrivals(emptyMap(), now)
+        }
+        Assert.assertTrue(scheduler.expectedNewStories(HOUR_MILLIS) < before * 0.05)
+    }
+
+    @Test
+    fun `simulation is deterministic`() {
+        val first = simulate(feeds(20, 120))
+        val second = simulate(feeds(20, 120))
+        Assert.assertEquals(first.metadataSyncs, second.metadataSyncs)
+        Assert.assertEquals(first.longestGapMillis, second.longestGapMillis)
+        Assert.assertEquals(first.heavyTicks, second.heavyTicks)
+    }
+
+    companion object {
+        private const val HOUR_MILLIS = 60L * 60L * 1000L
+        private const val DAY_MILLIS = 24L * HOUR_MILLIS
+        private const val START = 1_700_000_000_000L
+    }
+}
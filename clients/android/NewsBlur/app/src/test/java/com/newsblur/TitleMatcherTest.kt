@@ -0,0 +1,78 @@
+package com.newsblur
+
+import com.newsblur.domain.Classifier
+import com.newsblur.util.TitleMatcher
+import org.junit.Assert
+import org.junit.Test
+import kotlin.random.Random
+
+class TitleMatcherTest {
+
+    private fun matches(matcher: TitleMatcher, text: String): List<String> {
+        val found = mutableListOf<String>()
+        matcher.findAll(text) { start, end, rule ->
+            Assert.assertEquals(matcher.ruleKey(rule).lowercase(), text.substring(start, end).lowercase())
+            found.add("${matcher.ruleKey(rule)}@$start")
+        }
+        return found
+    }
+
+    @Test
+    fun findsOverlappingAndNestedRules() {
+        val matcher = TitleMatcher(mapOf("he" to 1, "she" to 1, "his" to 1, "hers" to 1))
+        Assert.assertEquals(listOf("she@1", "he@2", "hers@2"), matches(matcher, "ushers"))
+        Assert.assertEquals(listOf("his@1"), matches(matcher, "this"))
+    }
+
+    @Test
+    fun ignoresCase() {
+        val matcher = TitleMatcher(mapOf("Apple" to Classifier.LIKE))
+        Assert.assertEquals(listOf("Apple@0", "Apple@13"), matches(matcher, "APPLE and an apple"))
+    }
+
+    @Test
+    fun scoresLikeOverDislike() {
+        val matcher = TitleMatcher(mapOf("apple" to Classifier.DISLIKE, "watch" to Classifier.LIKE, "pear" to Classifier.CLEAR_LIKE))
+        Assert.assertEquals(Classifier.LIKE, matcher.score("Apple Watch review"))
+        Assert.assertEquals(Classifier.DISLIKE, matcher.score("Apple earnings"))
+        Assert.assertEquals(0, matcher.score("Pear earnings"))
+        Assert.assertEquals(setOf("pear"), matcher.matchingKeys("Pear earnings"))
+    }
+
+    @Test
+    fun emptyRulesMatchNothing() {
+        val matcher = TitleMatcher(mapOf("" to Classifier.LIKE))
+        Assert.assertTrue(matcher.isEmpty)
+        Assert.assertTrue(matches(matcher, "anything").isEmpty())
+    }
+
+    @Test
+    fun agreesWithNaiveSearch() {
+        val random = Random(3)
+        val words = List(300) { "w${random.nextInt(1000)}" }.distinct()
+        // short rules that are prefixes and suffixes of the words, and so of one another
+        val rules = (words + listOf("w", "w1", "w12", "12", "2w", "0 w")).associateWith { Classifier.LIKE }
+        val matcher = TitleMatcher(rules)
+        val titles = List(2000) {
+            (1..12).joinToString(if (random.nextInt(4) == 0) "" else " ") {
+                val word = words[random.nextInt(words.size)]
+                if (random.nextBoolean()) word.uppercase() else word
+            }
+        }
+        var naiveHits = 0
+        for (title in titles) {
+            val naive = ArrayList<String>()
+            for (rule in rules.keys) {
+                var from = title.indexOf(rule, ignoreCase = true)
+                while (from >= 0) {
+                    naive.add("$rule@$from")
+                    from = title.indexOf(rule, from + 1, ignoreCase = true)
+                }
+            }
+            naiveHits += naive.size
+            Assert.assertEquals(title, naive.sorted(), matches(matcher, title).sorted())
+        }
+        // every title holds at least its twelve words
+        Assert.assertTrue(naiveHits >= titles.size * 12)
+    }
+}
@@ -0,0 +1,163 @@
+package com.newsblur
+
+import android.database.Cursor
+import com.newsblur.database.DatabaseConstants
+import com.newsblur.database.WindowedStorySource
+import com.newsblur.util.AppConstants
+import org.junit.Assert
+import org.junit.Test
+import java.lang.reflect.Proxy
+
+class WindowedStorySourceTest {
+
+    private val columns = arrayOf(DatabaseConstants.STORY_HASH, DatabaseConstants.STORY_FEED_ID, DatabaseConstants.STORY_READ)
+
+    // every row thawed from the cursor, by position
+    private val thawed = ArrayList<Int>()
+
+    private fun hash(i: Int) = "${i % 5}:$i"
+
+    /**
+     * A minimal in-memory session cursor over the given read states. Any column the story
+     * mapper asks for beyond hash, feed and read state comes back empty. Like a session cursor,
+     * it can't move onto a deleted story.
+     */
+    private fun cursorOf(readStates: List<Boolean>, deleted: Set<Int> = emptySet()): Cursor {
+        var position = -1
+        return Proxy.newProxyInstance(Cursor::class.java.classLoader, arrayOf(Cursor::class.java)) { _, method, args ->
+            fun value(column: Int): Any? = when (column) {
+                0 -> hash(position)
+                1 -> "${position % 5}"
+                2 -> if (readStates[position]) 1 else 0
+                else -> null
+            }
+            when (method.name) {
+                "getCount" -> readStates.size
+                "getPosition" -> position
+                "isBeforeFirst" -> position < 0
+                "isClosed" -> false
+                "moveToFirst" -> { position = 0; readStates.isNotEmpty() }
+                "moveToPosition" -> {
+                    position = args[0] as Int
+                    val valid = position in readStates.indices && position !in deleted
+                    if (valid) thawed.add(position)
+                    valid
+                }
+                "moveToNext" -> { position++; position < readStates.size }
+                "getColumnIndex" -> columns.indexOf(args[0] as String).let { if (it < 0) 3 else it }
+                "getString" -> value(args[0] as Int)?.toString()
+                "getInt" -> (value(args[0] as Int) as? Number)?.toInt() ?: 0
+                "getLong" -> (value(args[0] as Int) as? Number)?.toLong() ?: 0L
+                "close" -> Unit
+                else -> throw UnsupportedOperationException(method.name)
+            }
+        } as Cursor
+    }
+
+    private fun source(count: Int, deleted: Set<Int> = emptySet(), read: (Int) -> Boolean = { false }): WindowedStorySource {
+        val source = WindowedStorySource.fromCursor(cursorOf(List(count) { read(it) }, deleted))!!
+        // indexing walks the cursor but thaws nothing
+        thawed.clear()
+        return source
+    }
+
+    @Test
+    fun indexesHashesFeedsAndReadStates() {
+        val source = source(20) { it < 7 || it == 9 }
+        Assert.assertEquals(20, source.size)
+        Assert.assertEquals(setOf("0", "1", "2", "3", "4"), source.feedIds)
+        Assert.assertEquals(hash(12), source.getHash(12))
+        Assert.assertEquals(12, source.findHash(hash(12)))
+        Assert.assertEquals(-1, source.findHash("missing"))
+        Assert.assertEquals(true, source.isRead(9))
+        Assert.assertEquals(false, source.isRead(8))
+        Assert.assertEquals(7, source.findFirstUnread())
+        Assert.assertNull(source.getHash(-1))
+        Assert.assertNull(source.getHash(20))
+        Assert.assertNull(source.isRead(20))
+        Assert.assertTrue(thawed.isEmpty())
+    }
+
+    @Test
+    fun allReadHasNoFirstUnread() {
+        Assert.assertEquals(-1, source(5) { true }.findFirstUnread())
+    }
+
+    @Test
+    fun windowThawsOnlyAroundTheCentre() {
+        val source = source(50)
+        source.moveWindow(20)
+        val w = AppConstants.READING_STORY_WINDOW
+        Assert.assertEquals(((20 - w)..(20 + w)).toList(), thawed.sorted())
+        for (pos in 0 until 50) {
+            val inWindow = pos in (20 - w)..(20 + w)
+            Assert.assertEquals(inWindow, source.peek(pos) != null)
+        }
+        Assert.assertEquals(hash(20), source.peek(20)!!.storyHash)
+    }
+
+    @Test
+    fun movingTheWindowReleasesAndThawsOnlyTheDifference() {
+        val source = source(50)
+        source.moveWindow(20)
+        thawed.clear()
+        source.moveWindow(21)
+        val w = AppConstants.READING_STORY_WINDOW
+        Assert.assertEquals(listOf(21 + w), thawed)
+        Assert.assertNull(source.peek(20 - w))
+        Assert.assertNotNull(source.peek(21 + w))
+    }
+
+    @Test
+    fun windowIsClampedToTheEnds() {
+        val source = source(3)
+        source.moveWindow(0)
+        Assert.assertEquals(listOf(0, 1, 2), thawed.sorted())
+        thawed.clear()
+        source.moveWindow(2)
+        Assert.assertTrue(thawed.isEmpty())
+    }
+
+    @Test
+    fun storiesOutsideTheWindowAreKeptUntilItMoves() {
+        val source = source(50)
+        source.moveWindow(0)
+        Assert.assertNull(source.peek(30))
+        Assert.assertEquals(hash(30), source.get(30)!!.storyHash)
+        Assert.assertNotNull(source.peek(30))
+        thawed.clear()
+        // already thawed, so not read again
+        source.get(30)
+        Assert.assertTrue(thawed.isEmpty())
+        source.moveWindow(1)
+        Assert.assertNull(source.peek(30))
+    }
+
+    @Test
+    fun outOfRangeIsNull() {
+        val source = source(5)
+        Assert.assertNull(source.get(-1))
+        Assert.assertNull(source.get(5))
+        Assert.assertNull(source.peek(5))
+        Assert.assertTrue(thawed.isEmpty())
+    }
+
+    @Test
+    fun deletedStoriesAreNeverThawed() {
+        val source = source(10, deleted = setOf(4))
+        source.moveWindow(4)
+        Assert.assertNull(source.peek(4))
+        Assert.assertNull(source.get(4))
+        Assert.assertEquals(hash(3), source.peek(3)!!.storyHash)
+        Assert.assertEquals(hash(5), source.peek(5)!!.storyHash)
+    }
+
+    @Test
+    fun emptySourceHasNothing() {
+        val source = WindowedStorySource.EMPTY
+        Assert.assertEquals(0, source.size)
+        source.moveWindow(0)
+        Assert.assertNull(source.get(0))
+        Assert.assertEquals(-1, source.findFirstUnread())
+    }
+}